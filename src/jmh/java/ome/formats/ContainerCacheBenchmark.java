@@ -0,0 +1,128 @@
+/*
+ *   Copyright 2026 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.formats;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import ome.formats.model.BlitzInstanceProvider;
+import ome.formats.utests.TestEnumerationProvider;
+import ome.formats.utests.TestServiceFactory;
+import ome.util.LSID;
+import omero.metadatastore.IObjectContainer;
+import omero.model.Image;
+import omero.model.PlaneInfo;
+import omero.model.Plate;
+import omero.model.Well;
+import omero.model.WellSample;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the container lookups made by the model processors against the
+ * {@link ContainerCache} of a synthetic 1536-well plate with two fields per
+ * well and four planes per image, compared with scanning every container as
+ * {@link OMEROMetadataStoreClient} did before the cache was indexed.
+ *
+ * @since 5.8.6
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContainerCacheBenchmark {
+
+    private static final int ROWS = 32;
+
+    private static final int COLUMNS = 48;
+
+    private static final int FIELDS = 2;
+
+    private static final int PLANES = 4;
+
+    private OMEROMetadataStoreClient store;
+
+    @Setup
+    public void setup() throws Exception {
+        store = new OMEROMetadataStoreClient();
+        store.initialize(new TestServiceFactory().proxy());
+        store.setEnumerationProvider(new TestEnumerationProvider());
+        store.setInstanceProvider(
+                new BlitzInstanceProvider(store.getEnumerationProvider()));
+        store.getIObjectContainer(Plate.class, indexes(Index.PLATE_INDEX, 0));
+        int image = 0;
+        for (int well = 0; well < ROWS * COLUMNS; well++) {
+            store.getIObjectContainer(Well.class,
+                    indexes(Index.PLATE_INDEX, 0, Index.WELL_INDEX, well));
+            for (int field = 0; field < FIELDS; field++, image++) {
+                store.getIObjectContainer(WellSample.class,
+                        indexes(Index.PLATE_INDEX, 0, Index.WELL_INDEX, well,
+                                Index.WELL_SAMPLE_INDEX, field));
+                store.getIObjectContainer(Image.class,
+                        indexes(Index.IMAGE_INDEX, image));
+                for (int plane = 0; plane < PLANES; plane++) {
+                    store.getIObjectContainer(PlaneInfo.class,
+                            indexes(Index.IMAGE_INDEX, image, Index.PLANE_INDEX, plane));
+                }
+            }
+        }
+    }
+
+    private static LinkedHashMap<Index, Integer> indexes(Object... keysAndValues) {
+        final LinkedHashMap<Index, Integer> indexes = new LinkedHashMap<Index, Integer>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            indexes.put((Index) keysAndValues[i], (Integer) keysAndValues[i + 1]);
+        }
+        return indexes;
+    }
+
+    /**
+     * The per-well lookups of the well processor, via the index.
+     */
+    @Benchmark
+    public int indexed() {
+        int total = store.getIObjectContainers(WellSample.class).size();
+        for (int well = 0; well < ROWS * COLUMNS; well++) {
+            total += store.countCachedContainers(WellSample.class, 0, well);
+        }
+        return total;
+    }
+
+    /**
+     * The same lookups by scanning every container, as before.
+     */
+    @Benchmark
+    public int scanned() {
+        final Map<LSID, IObjectContainer> cache = store.getContainerCache();
+        int total = 0;
+        for (LSID lsid : cache.keySet()) {
+            if (WellSample.class.equals(lsid.getJavaClass())) {
+                total++;
+            }
+        }
+        for (int well = 0; well < ROWS * COLUMNS; well++) {
+            for (LSID lsid : cache.keySet()) {
+                if (WellSample.class.equals(lsid.getJavaClass())
+                        && lsid.getIndexes()[1] == well) {
+                    total++;
+                }
+            }
+        }
+        return total;
+    }
+}
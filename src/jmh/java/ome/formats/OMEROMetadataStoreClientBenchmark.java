@@ -0,0 +1,82 @@
+/*
+ *   Copyright 2026 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.formats;
+
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+import ome.formats.model.BlitzInstanceProvider;
+import ome.formats.utests.TestEnumerationProvider;
+import ome.formats.utests.TestServiceFactory;
+import ome.util.LSID;
+import omero.metadatastore.IObjectContainer;
+import omero.model.Channel;
+import omero.model.Image;
+import omero.model.PlaneInfo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the storage and lookup of {@link IObjectContainer}s by
+ * {@link OMEROMetadataStoreClient} for an image with many planes, as when
+ * importing large multi-dimensional files. Uses the in-memory service
+ * factory of the importer unit tests.
+ *
+ * @since 5.8.6
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class OMEROMetadataStoreClientBenchmark {
+
+    private static final int CHANNELS = 4;
+
+    private static final int PLANES = 2000;
+
+    private OMEROMetadataStoreClient store;
+
+    @Setup
+    public void setup() throws Exception {
+        store = new OMEROMetadataStoreClient();
+        store.initialize(new TestServiceFactory().proxy());
+        store.setEnumerationProvider(new TestEnumerationProvider());
+        store.setInstanceProvider(
+                new BlitzInstanceProvider(store.getEnumerationProvider()));
+    }
+
+    @Benchmark
+    public int populate() {
+        store.getContainerCache().clear();
+        final LinkedHashMap<Index, Integer> image = new LinkedHashMap<Index, Integer>();
+        image.put(Index.IMAGE_INDEX, 0);
+        store.getIObjectContainer(Image.class, image);
+        for (int c = 0; c < CHANNELS; c++) {
+            final LinkedHashMap<Index, Integer> channel = new LinkedHashMap<Index, Integer>(image);
+            channel.put(Index.CHANNEL_INDEX, c);
+            store.getIObjectContainer(Channel.class, channel);
+        }
+        for (int p = 0; p < PLANES; p++) {
+            final LinkedHashMap<Index, Integer> plane = new LinkedHashMap<Index, Integer>(image);
+            plane.put(Index.PLANE_INDEX, p);
+            store.getIObjectContainer(PlaneInfo.class, plane);
+        }
+        return store.countCachedContainers(PlaneInfo.class, 0)
+                + store.getIObjectContainers(Channel.class).size()
+                + (store.getContainerCache().containsKey(new LSID(Image.class, 0)) ? 1 : 0);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ *   Copyright 2026 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.blitz.util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import ome.api.ThumbnailStore;
+import omero.rtypes;
+import omero.util.IceMapper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares {@link IceMethodInvoker#invoke(Object, Ice.Current, IceMapper, Object...)}
+ * against reflective {@link Method#invoke(Object, Object...)} with every
+ * argument passed through {@link IceMapper#handleInput(Class, Object)}, as
+ * calls were dispatched before methods were bound to handles. The service is
+ * the {@link ThumbnailStore} used by {@code IceMethodInvokerUnitTest}, stubbed
+ * in memory so that only dispatch and mapping are measured.
+ *
+ * @since 5.8.6
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IceMethodInvokerBenchmark {
+
+    private ThumbnailStore service;
+
+    private IceMethodInvoker invoker;
+
+    private Ice.Current setPixelsId;
+
+    private Ice.Current getThumbnailSet;
+
+    private Method setPixelsIdMethod;
+
+    private Method getThumbnailSetMethod;
+
+    private Object[] setPixelsIdArgs;
+
+    private Object[] getThumbnailSetArgs;
+
+    @Setup
+    public void setup() throws Exception {
+        service = (ThumbnailStore) Proxy.newProxyInstance(
+                ThumbnailStore.class.getClassLoader(),
+                new Class<?>[] { ThumbnailStore.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method,
+                            Object[] args) {
+                        return method.getReturnType() == boolean.class ? Boolean.TRUE
+                                : null;
+                    }
+                });
+        invoker = new IceMethodInvoker(ThumbnailStore.class, null);
+        setPixelsId = current("setPixelsId");
+        getThumbnailSet = current("getThumbnailSet");
+        setPixelsIdMethod = invoker.getMethod("setPixelsId");
+        getThumbnailSetMethod = invoker.getMethod("getThumbnailSet");
+        setPixelsIdArgs = new Object[] { 1L };
+        final List<Long> pixelsIds = Arrays.asList(1L, 2L, 3L, 4L);
+        getThumbnailSetArgs = new Object[] { rtypes.rint(96), rtypes.rint(96),
+                pixelsIds };
+    }
+
+    private static Ice.Current current(String operation) {
+        final Ice.Current current = new Ice.Current();
+        current.operation = operation;
+        current.id = Ice.Util.stringToIdentity("benchmark");
+        return current;
+    }
+
+    private Object reflective(Method method, Object... args) throws Exception {
+        final IceMapper mapper = new IceMapper();
+        final Class<?>[] params = method.getParameterTypes();
+        final Object[] objs = new Object[params.length];
+        for (int i = 0; i < params.length; i++) {
+            objs[i] = mapper.handleInput(params[i], args[i]);
+        }
+        return mapper.handleOutput(method.getReturnType(),
+                method.invoke(service, objs));
+    }
+
+    @Benchmark
+    public Object primitiveArgumentInvoker() throws Exception {
+        return invoker.invoke(service, setPixelsId, new IceMapper(),
+                setPixelsIdArgs);
+    }
+
+    @Benchmark
+    public Object primitiveArgumentReflective() throws Exception {
+        return reflective(setPixelsIdMethod, setPixelsIdArgs);
+    }
+
+    @Benchmark
+    public Object mappedArgumentsInvoker() throws Exception {
+        return invoker.invoke(service, getThumbnailSet, new IceMapper(),
+                getThumbnailSetArgs);
+    }
+
+    @Benchmark
+    public Object mappedArgumentsReflective() throws Exception {
+        return reflective(getThumbnailSetMethod, getThumbnailSetArgs);
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ *   Copyright 2026 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.roi;
+
+import java.util.concurrent.TimeUnit;
+
+import omero.model.Ellipse;
+import omero.model.Line;
+import omero.model.Rectangle;
+import omero.model.SmartShape;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the conversion of shapes by {@link GeomTool} into database paths
+ * and into the points which they cover, without any database.
+ *
+ * @since 5.8.6
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GeomToolBenchmark {
+
+    private GeomTool geomTool;
+
+    private Rectangle rectangle;
+
+    private Ellipse ellipse;
+
+    private Line line;
+
+    @Setup
+    public void setup() {
+        geomTool = new GeomTool(null, null, null);
+        rectangle = geomTool.rect(10, 20, 200, 100);
+        ellipse = geomTool.ellipse(150, 150, 100, 60);
+        line = geomTool.ln(0, 0, 300, 400);
+    }
+
+    @Benchmark
+    public void dbPath(Blackhole blackhole) {
+        blackhole.consume(geomTool.dbPath(rectangle));
+        blackhole.consume(geomTool.dbPath(ellipse));
+        blackhole.consume(geomTool.dbPath(line));
+    }
+
+    @Benchmark
+    public void areaPoints(final Blackhole blackhole) {
+        ((SmartShape) ellipse).areaPoints(new SmartShape.PointCallback() {
+            public void handle(int x, int y) {
+                blackhole.consume(x + y);
+            }
+        });
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ *   Copyright 2026 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package omero;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures wrapping values as {@link RType}s with {@link rtypes}, both
+ * singly and by descending into nested collections as for query parameters
+ * and script inputs.
+ *
+ * @since 5.8.6
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RTypesBenchmark {
+
+    private long value;
+
+    private List<Object> rows;
+
+    @Setup
+    public void setup() {
+        value = 12345L;
+        rows = new ArrayList<Object>();
+        for (int row = 0; row < 100; row++) {
+            final Map<String, Object> columns = new HashMap<String, Object>();
+            columns.put("id", (long) row);
+            columns.put("name", "row " + row);
+            columns.put("size", row * 1.5);
+            columns.put("ok", row % 2 == 0);
+            rows.add(columns);
+        }
+    }
+
+    @Benchmark
+    public Object rlong() {
+        return rtypes.rlong(value);
+    }
+
+    @Benchmark
+    public Object rstring() {
+        return rtypes.rstring("name");
+    }
+
+    @Benchmark
+    public Object wrapNested() {
+        return rtypes.wrap(rows);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ *   Copyright 2026 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package omero.model;
+
+import static ome.model.units.Conversion.Int;
+import static ome.model.units.Conversion.Mul;
+import static ome.model.units.Conversion.Rat;
+import static ome.model.units.Conversion.Sym;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import ome.model.units.Conversion;
+
+import omero.model.enums.UnitsLength;
+import omero.model.enums.UnitsTime;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures unit conversions by the {@link LengthI} and {@link TimeI} copy
+ * constructors, as performed for physical sizes and plane timings, and of
+ * whole arrays of values by {@link LengthI#convert(double[], UnitsLength,
+ * UnitsLength)} compared with converting each value exactly.
+ *
+ * @since 5.8.6
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class UnitsBenchmark {
+
+    private Length length;
+
+    private Time time;
+
+    /** The exact conversion from micrometers to millimeters. */
+    private final Conversion exact = Mul(Rat(Int(1), Int(1000)), Sym("microm"));
+
+    private double[] source;
+
+    private double[] values;
+
+    @Setup
+    public void setup() {
+        length = new LengthI(0.325, UnitsLength.MICROMETER);
+        time = new TimeI(1.5, UnitsTime.SECOND);
+        final Random random = new Random(0);
+        source = new double[10000];
+        for (int i = 0; i < source.length; i++) {
+            source[i] = random.nextDouble() * 1000;
+        }
+        values = new double[source.length];
+    }
+
+    @Benchmark
+    public Object lengthToNanometers() throws Exception {
+        return new LengthI(length, UnitsLength.NANOMETER);
+    }
+
+    @Benchmark
+    public Object lengthToMillimeters() throws Exception {
+        return new LengthI(length, UnitsLength.MILLIMETER);
+    }
+
+    @Benchmark
+    public Object timeToMilliseconds() throws Exception {
+        return new TimeI(time, UnitsTime.MILLISECOND);
+    }
+
+    @Benchmark
+    public double[] lengthArrayExactly() {
+        for (int i = 0; i < source.length; i++) {
+            values[i] = exact.convert(source[i]).doubleValue();
+        }
+        return values;
+    }
+
+    @Benchmark
+    public double[] lengthArrayByObject() throws Exception {
+        final LengthI from = new LengthI(0, UnitsLength.MICROMETER);
+        for (int i = 0; i < source.length; i++) {
+            from.setValue(source[i]);
+            values[i] = new LengthI(from, UnitsLength.MILLIMETER).getValue();
+        }
+        return values;
+    }
+
+    @Benchmark
+    public double[] lengthArrayInPlace() throws Exception {
+        System.arraycopy(source, 0, values, 0, source.length);
+        LengthI.convert(values, UnitsLength.MICROMETER, UnitsLength.MILLIMETER);
+        return values;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ *   Copyright 2026 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package omero.util;
+
+import java.util.concurrent.TimeUnit;
+
+import ome.model.containers.Dataset;
+import ome.model.core.Image;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link IceMapper} mapping a dataset of many images to the
+ * {@code omero.model} types and back, as for query results and saves.
+ *
+ * @since 5.8.6
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class IceMapperBenchmark {
+
+    private static final int IMAGES = 1000;
+
+    private Dataset dataset;
+
+    private omero.model.Dataset mapped;
+
+    @Setup
+    public void setup() {
+        dataset = new Dataset(1L, true);
+        dataset.setName("dataset");
+        for (long id = 1; id <= IMAGES; id++) {
+            final Image image = new Image(id, true);
+            image.setName("image " + id);
+            dataset.linkImage(image);
+        }
+        mapped = (omero.model.Dataset) new IceMapper().map(dataset);
+    }
+
+    @Benchmark
+    public Object map() {
+        return new IceMapper().map(dataset);
+    }
+
+    @Benchmark
+    public Object reverse() {
+        return new IceMapper().reverse(mapped);
+    }
+}
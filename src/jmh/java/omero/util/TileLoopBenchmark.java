@@ -0,0 +1,67 @@
+/*
+ *   Copyright 2026 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package omero.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the overhead of {@link TileLoop#forEachTile} itself over a large
+ * plane stack, with tile data and iterations that do no work.
+ *
+ * @since 5.8.6
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TileLoopBenchmark {
+
+    private TileLoop loop;
+
+    @Setup
+    public void setup() {
+        loop = new TileLoop() {
+            @Override
+            public TileData createData() {
+                return new TileData() {
+                    public byte[] getTile(int z, int c, int t, int x, int y, int w, int h) {
+                        return null;
+                    }
+
+                    public void setTile(byte[] buffer, int z, int c, int t, int x, int y, int w, int h) {
+                    }
+
+                    public void close() {
+                    }
+                };
+            }
+        };
+    }
+
+    @Benchmark
+    public int forEachTile(final Blackhole blackhole) {
+        return loop.forEachTile(40000, 30000, 2, 3, 1, 256, 256, new TileLoopIteration() {
+            public void run(TileData data, int z, int c, int t, int x, int y,
+                    int tileWidth, int tileHeight, int tileCount) {
+                blackhole.consume(tileWidth * tileHeight);
+            }
+        });
+    }
+}
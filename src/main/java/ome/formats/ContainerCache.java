@@ -0,0 +1,204 @@
+/*
+ *   Copyright (C) 2026 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.formats;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import ome.util.LSID;
+import omero.metadatastore.IObjectContainer;
+import omero.model.IObject;
+
+/**
+ * The container cache of {@link OMEROMetadataStoreClient}, ordered by
+ * {@link OMEXMLModelComparator}, which also indexes its containers by class
+ * and by the prefixes of their indexes. Listing the containers of a class
+ * then costs time proportional to the number listed, and counting them
+ * costs time proportional to the number of indexes given, rather than each
+ * scanning every container of every class.
+ *
+ * The index is maintained by {@link #put(LSID, IObjectContainer)},
+ * {@link #putAll(Map)}, {@link #remove(Object)} and {@link #clear()}.
+ * Entries must not be added or removed by other means, such as via
+ * iterators or views.
+ *
+ * @since 5.8.6
+ */
+public class ContainerCache extends TreeMap<LSID, IObjectContainer> {
+
+    private static final long serialVersionUID = 3062758216497184015L;
+
+    /**
+     * An array of indexes as a map key.
+     */
+    private static final class Prefix {
+
+        private final int[] indexes;
+
+        private final int hash;
+
+        Prefix(int[] indexes, int length) {
+            this.indexes = Arrays.copyOf(indexes, length);
+            this.hash = Arrays.hashCode(this.indexes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Prefix && Arrays.equals(indexes, ((Prefix) o).indexes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * The containers of one class and the counts of their index prefixes.
+     */
+    private final class ClassIndex {
+
+        /** The containers of this class in the same order as the cache. */
+        final TreeMap<LSID, IObjectContainer> containers = new TreeMap<LSID, IObjectContainer>(comparator());
+
+        /** How many containers have at least as many indexes as each prefix and start with it. */
+        final Map<Prefix, Integer> prefixCounts = new HashMap<Prefix, Integer>();
+
+        /** How many containers have exactly each array of indexes. */
+        final Map<Prefix, Integer> exactCounts = new HashMap<Prefix, Integer>();
+
+        void add(LSID lsid, IObjectContainer container) {
+            if (containers.put(lsid, container) == null) {
+                adjust(lsid.getIndexes(), 1);
+            }
+        }
+
+        void remove(LSID lsid) {
+            if (containers.remove(lsid) != null) {
+                adjust(lsid.getIndexes(), -1);
+            }
+        }
+
+        private void adjust(int[] indexes, int delta) {
+            for (int length = 0; length <= indexes.length; length++) {
+                adjust(prefixCounts, new Prefix(indexes, length), delta);
+            }
+            adjust(exactCounts, new Prefix(indexes, indexes.length), delta);
+        }
+
+        private void adjust(Map<Prefix, Integer> counts, Prefix prefix, int delta) {
+            final Integer count = counts.get(prefix);
+            final int adjusted = (count == null ? 0 : count) + delta;
+            if (adjusted == 0) {
+                counts.remove(prefix);
+            } else {
+                counts.put(prefix, adjusted);
+            }
+        }
+
+        /**
+         * Count the containers whose indexes match the given indexes as far
+         * as the shorter of the two arrays.
+         */
+        int count(int[] indexes) {
+            Integer count = prefixCounts.get(new Prefix(indexes, indexes.length));
+            int total = count == null ? 0 : count;
+            for (int length = 0; length < indexes.length; length++) {
+                count = exactCounts.get(new Prefix(indexes, length));
+                if (count != null) {
+                    total += count;
+                }
+            }
+            return total;
+        }
+    }
+
+    private final Map<Class<? extends IObject>, ClassIndex> byClass =
+            new HashMap<Class<? extends IObject>, ClassIndex>();
+
+    public ContainerCache() {
+        super(new OMEXMLModelComparator());
+    }
+
+    @Override
+    public IObjectContainer put(LSID lsid, IObjectContainer container) {
+        final IObjectContainer previous = super.put(lsid, container);
+        @SuppressWarnings("unchecked")
+        final Class<? extends IObject> klass = lsid.getJavaClass();
+        if (klass != null) {
+            ClassIndex index = byClass.get(klass);
+            if (index == null) {
+                index = new ClassIndex();
+                byClass.put(klass, index);
+            }
+            index.add(lsid, container);
+        }
+        return previous;
+    }
+
+    @Override
+    public void putAll(Map<? extends LSID, ? extends IObjectContainer> map) {
+        for (Map.Entry<? extends LSID, ? extends IObjectContainer> entry : map.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public IObjectContainer remove(Object key) {
+        final IObjectContainer previous = super.remove(key);
+        if (previous != null && key instanceof LSID) {
+            final LSID lsid = (LSID) key;
+            final Class<?> klass = lsid.getJavaClass();
+            if (klass != null) {
+                final ClassIndex index = byClass.get(klass);
+                if (index != null) {
+                    index.remove(lsid);
+                }
+            }
+        }
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        byClass.clear();
+    }
+
+    /**
+     * @param klass a model class
+     * @return the containers of that class, in the order of the cache
+     */
+    public List<IObjectContainer> getContainers(Class<? extends IObject> klass) {
+        final ClassIndex index = byClass.get(klass);
+        if (index == null) {
+            return new ArrayList<IObjectContainer>();
+        }
+        return new ArrayList<IObjectContainer>(index.containers.values());
+    }
+
+    /**
+     * Count the containers of a class whose indexes match the given indexes
+     * as far as the shorter of the two arrays.
+     * @param klass a model class
+     * @param indexes the indexes to match, or {@code null} to count every
+     * container of the class
+     * @return the number of matching containers
+     */
+    public int count(Class<? extends IObject> klass, int... indexes) {
+        final ClassIndex index = byClass.get(klass);
+        if (index == null) {
+            return 0;
+        }
+        return indexes == null ? index.containers.size() : index.count(indexes);
+    }
+}
@@ -38,9 +38,12 @@ import static ome.formats.model.UnitsFactory.convertTemperature;
 import static ome.formats.model.UnitsFactory.convertTime;
 
 import java.util.ArrayList;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -48,7 +51,6 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.Map.Entry;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -237,8 +239,18 @@ public class OMEROMetadataStoreClient
     /** Logger for this class */
     private Logger log = LoggerFactory.getLogger(OMEROMetadataStoreClient.class);
 
+    /**
+     * The Ice context key under which each streamed batch carries its
+     * sequence number, so that the server applies the batches in the order
+     * in which they were sent.
+     */
+    public static final String BATCH_CONTEXT = "omero.metadata.batch";
+
     private MetadataStorePrx delegate;
 
+    /** The sequence number of the next batch streamed to {@link #delegate}. */
+    private long nextBatch;
+
     /**
      * Begins empty to allow access to all groups. Once a target object
      * has been chosen, the id will be set to reflect the target.
@@ -246,8 +258,7 @@ public class OMEROMetadataStoreClient
     private Long groupID = null;
 
     /** Our IObject container cache. */
-    private Map<LSID, IObjectContainer> containerCache =
-        new TreeMap<LSID, IObjectContainer>(new OMEXMLModelComparator());
+    private ContainerCache containerCache = new ContainerCache();
 
     /** Our LSID reference cache. */
     private Map<LSID, List<LSID>> referenceCache =
@@ -452,6 +463,7 @@ public class OMEROMetadataStoreClient
         iSettings = (IRenderingSettingsPrx) serviceFactory.getRenderingSettingsService().ice_context(callCtx);
         delegate = (MetadataStorePrx) MetadataStorePrxHelper.checkedCast(
                 serviceFactory.getByName(METADATASTORE.value)).ice_context(callCtx);
+        nextBatch = 0;
 
         // Client side services
         enumProvider = new IQueryEnumProvider(iQuery);
@@ -526,6 +538,18 @@ public class OMEROMetadataStoreClient
         return getDefaultInt("omero.block_size", omero.constants.DEFAULTBLOCKSIZE.value);
     }
 
+    /**
+     * How many batches of metadata {@link #saveToDB(FilesetJobLink)} may have
+     * in flight at once. Values greater than one stream the metadata to the
+     * server; servers older than 5.8.6 may store concurrent batches unsafely.
+     * @return user-configured "omero.import.metadata_batches_in_flight" or
+     * {@code 1} if none is set.
+     */
+    public int getDefaultBatchesInFlight()
+    {
+        return getDefaultInt("omero.import.metadata_batches_in_flight", 1);
+    }
+
     /**
      * @return IQuery proxy
      */
@@ -1268,8 +1292,7 @@ public class OMEROMetadataStoreClient
             initializeServices(false); // Reset group
             authoritativeContainerCache =
                 new HashMap<Class<? extends IObject>, Map<String, IObjectContainer>>();
-            containerCache =
-                new TreeMap<LSID, IObjectContainer>(new OMEXMLModelComparator());
+            containerCache = new ContainerCache();
             referenceCache = new HashMap<LSID, List<LSID>>();
             referenceCacheCheck = new HashMap<LSID, Set<LSID>>();
             referenceStringCache = null;
@@ -1850,6 +1873,238 @@ public class OMEROMetadataStoreClient
         }
     }
 
+    /**
+     * Sends the containers and then the references to the server side
+     * MetadataStore, waiting for each batch before sending the next.
+     */
+    private void sendBatches(IObjectContainer[] containerArray, int maxBatchSize)
+        throws ServerError
+    {
+        int containerBatchCount = 0;
+        int containerPointer = 0;
+        log.info("Handling # of containers: {}", containerArray.length);
+        while (containerPointer < containerArray.length)
+        {
+            int nObjects = (int) Math.min(
+                maxBatchSize, containerArray.length - containerPointer);
+
+            IObjectContainer[] batch = Arrays.copyOfRange(
+                    containerArray, containerPointer, containerPointer+nObjects);
+
+            delegate.updateObjects(batch);
+            containerPointer += nObjects;
+
+            containerBatchCount += 1;
+            if (containerBatchCount > 1)
+            {
+                log.info("Starting containerBatch #{}", containerBatchCount);
+            }
+        }
+
+        int referenceBatchCount = 0;
+        int referencePointer = 0;
+        String[] referenceKeys = referenceStringCache.keySet().toArray(
+          new String[referenceStringCache.size()]);
+
+        log.info("Handling # of references: {}", referenceKeys.length);
+        while (referencePointer < referenceKeys.length) {
+
+            referenceBatchCount += 1;
+            if (referenceBatchCount > 1)
+            {
+                log.info("Starting referenceBatch #{}", referenceBatchCount);
+            }
+
+            Map<String, String[]> referenceBatch = new HashMap<String, String[]>();
+            int batchSize = (int) Math.min(
+                maxBatchSize, referenceKeys.length - referencePointer);
+            for (int i=0; i<batchSize; i++) {
+                String key = referenceKeys[referencePointer + i];
+                referenceBatch.put(key, referenceStringCache.get(key));
+            }
+            delegate.updateReferences(referenceBatch);
+            referencePointer += batchSize;
+        }
+    }
+
+    /**
+     * A batch sent to the server side MetadataStore but not yet completed.
+     */
+    private static final class SentBatch
+    {
+        final Ice.AsyncResult result;
+
+        /**
+         * For a batch of containers, how many containers will have been
+         * stored once it completes, otherwise -1.
+         */
+        final int containersStored;
+
+        SentBatch(Ice.AsyncResult result, int containersStored)
+        {
+            this.result = result;
+            this.containersStored = containersStored;
+        }
+    }
+
+    /**
+     * Sends the containers and references to the server side MetadataStore
+     * with up to the given number of batches in flight, so that each batch is
+     * marshaled while the previous ones are still being sent and stored.
+     * Each batch carries its sequence number in the {@link #BATCH_CONTEXT}
+     * so that the server applies the batches, and they complete, in the
+     * order in which they are sent. A reference is
+     * sent once every container that it names has been stored so that the
+     * server can resolve it while later containers are still arriving;
+     * references that name objects which are not among the containers are
+     * sent last.
+     */
+    private void sendBatches(IObjectContainer[] containerArray, int maxBatchSize,
+            int maxBatchesInFlight) throws ServerError
+    {
+        /* For each reference, how many containers must be stored first. */
+        Map<String, Integer> containerPositions = new HashMap<String, Integer>();
+        for (int i = 0; i < containerArray.length; i++)
+        {
+            containerPositions.put(containerArray[i].LSID, i + 1);
+        }
+        final Map<String, Integer> referenceNeeds = new HashMap<String, Integer>();
+        for (Entry<String, String[]> entry : referenceStringCache.entrySet())
+        {
+            int needs = needs(containerPositions, entry.getKey());
+            for (String reference : entry.getValue())
+            {
+                needs = Math.max(needs, needs(containerPositions, reference));
+            }
+            referenceNeeds.put(entry.getKey(), needs);
+        }
+        List<String> referenceKeys =
+            new ArrayList<String>(referenceStringCache.keySet());
+        Collections.sort(referenceKeys, new Comparator<String>() {
+            public int compare(String key1, String key2) {
+                return Integer.compare(referenceNeeds.get(key1), referenceNeeds.get(key2));
+            }
+        });
+
+        Deque<SentBatch> inFlight = new ArrayDeque<SentBatch>();
+        int containersStored = 0;
+        int containerBatchCount = 0;
+        int containerPointer = 0;
+        int referenceBatchCount = 0;
+        int referencePointer = 0;
+        log.info("Handling # of containers: {}", containerArray.length);
+        log.info("Handling # of references: {}", referenceKeys.size());
+        while (containerPointer < containerArray.length
+                || referencePointer < referenceKeys.size())
+        {
+            /* Send the references that are ready, in full batches until
+             * every container is sent. */
+            int ready = referencePointer;
+            while (ready < referenceKeys.size()
+                    && referenceNeeds.get(referenceKeys.get(ready)) <= containersStored)
+            {
+                ready++;
+            }
+            int readyCount = ready - referencePointer;
+            boolean lastContainersSent = containerPointer == containerArray.length;
+            boolean sent = false;
+            if (readyCount > 0 && (readyCount >= maxBatchSize || lastContainersSent
+                    && (inFlight.isEmpty() || ready == referenceKeys.size())))
+            {
+                referenceBatchCount += 1;
+                if (referenceBatchCount > 1)
+                {
+                    log.info("Starting referenceBatch #{}", referenceBatchCount);
+                }
+                int batchSize = Math.min(maxBatchSize, readyCount);
+                Map<String, String[]> referenceBatch = new HashMap<String, String[]>();
+                for (String key : referenceKeys.subList(
+                        referencePointer, referencePointer + batchSize))
+                {
+                    referenceBatch.put(key, referenceStringCache.get(key));
+                }
+                referencePointer += batchSize;
+                inFlight.add(new SentBatch(
+                        delegate.begin_updateReferences(referenceBatch, batchContext()), -1));
+                sent = true;
+            }
+            else if (!lastContainersSent)
+            {
+                int nObjects = Math.min(
+                    maxBatchSize, containerArray.length - containerPointer);
+                IObjectContainer[] batch = Arrays.copyOfRange(
+                        containerArray, containerPointer, containerPointer+nObjects);
+                containerPointer += nObjects;
+
+                containerBatchCount += 1;
+                if (containerBatchCount > 1)
+                {
+                    log.info("Starting containerBatch #{}", containerBatchCount);
+                }
+                inFlight.add(new SentBatch(
+                        delegate.begin_updateObjects(batch, batchContext()), containerPointer));
+                sent = true;
+            }
+
+            /* Wait for the oldest batch if the window is full or if
+             * nothing more can be sent until it completes. */
+            while (!inFlight.isEmpty()
+                    && (!sent || inFlight.size() >= maxBatchesInFlight))
+            {
+                containersStored = Math.max(containersStored,
+                        complete(inFlight.remove()));
+                sent = true;
+            }
+        }
+        while (!inFlight.isEmpty())
+        {
+            complete(inFlight.remove());
+        }
+    }
+
+    /**
+     * @return how many containers must be stored before a reference to the
+     * given LSID can be resolved
+     */
+    private static int needs(Map<String, Integer> containerPositions, String lsid)
+    {
+        Integer position = containerPositions.get(lsid);
+        return position == null ? containerPositions.size() : position;
+    }
+
+    /**
+     * @return the delegate's context with the sequence number of the next
+     * streamed batch
+     */
+    private Map<String, String> batchContext()
+    {
+        Map<String, String> ctx = new HashMap<String, String>();
+        if (delegate.ice_getContext() != null)
+        {
+            ctx.putAll(delegate.ice_getContext());
+        }
+        ctx.put(BATCH_CONTEXT, Long.toString(nextBatch++));
+        return ctx;
+    }
+
+    /**
+     * Waits for a batch to complete.
+     * @return for a batch of containers, how many containers have now been
+     * stored, otherwise -1
+     */
+    private int complete(SentBatch sent) throws ServerError
+    {
+        if (sent.containersStored < 0)
+        {
+            delegate.end_updateReferences(sent.result);
+        }
+        else
+        {
+            delegate.end_updateObjects(sent.result);
+        }
+        return sent.containersStored;
+    }
+
     /**
      * Updates the server side MetadataStore with a list of our objects and
      * references and saves them into the database.
@@ -1893,50 +2148,15 @@ public class OMEROMetadataStoreClient
             }
 
             int maxBatchSize = getDefaultBatchSize();
-            int containerBatchCount = 0;
-            int containerPointer = 0;
-            log.info("Handling # of containers: {}", containerArray.length);
-            while (containerPointer < containerArray.length)
+            int maxBatchesInFlight = getDefaultBatchesInFlight();
+            if (maxBatchesInFlight > 1)
             {
-                int nObjects = (int) Math.min(
-                    maxBatchSize, containerArray.length - containerPointer);
-
-                IObjectContainer[] batch = Arrays.copyOfRange(
-                        containerArray, containerPointer, containerPointer+nObjects);
-
-                delegate.updateObjects(batch);
-                containerPointer += nObjects;
-
-                containerBatchCount += 1;
-                if (containerBatchCount > 1)
-                {
-                    log.info("Starting containerBatch #{}", containerBatchCount);
-                }
+                log.info("Sending up to {} batches at once", maxBatchesInFlight);
+                sendBatches(containerArray, maxBatchSize, maxBatchesInFlight);
             }
-
-            int referenceBatchCount = 0;
-            int referencePointer = 0;
-            String[] referenceKeys = referenceStringCache.keySet().toArray(
-              new String[referenceStringCache.size()]);
-
-            log.info("Handling # of references: {}", referenceKeys.length);
-            while (referencePointer < referenceKeys.length) {
-
-                referenceBatchCount += 1;
-                if (referenceBatchCount > 1)
-                {
-                    log.info("Starting referenceBatch #{}", referenceBatchCount);
-                }
-
-                Map<String, String[]> referenceBatch = new HashMap<String, String[]>();
-                int batchSize = (int) Math.min(
-                    maxBatchSize, referenceKeys.length - referencePointer);
-                for (int i=0; i<batchSize; i++) {
-                    String key = referenceKeys[referencePointer + i];
-                    referenceBatch.put(key, referenceStringCache.get(key));
-                }
-                delegate.updateReferences(referenceBatch);
-                referencePointer += batchSize;
+            else
+            {
+                sendBatches(containerArray, maxBatchSize);
             }
 
             Map<String, List<IObject>> rv = delegate.saveToDB(link);
@@ -2452,16 +2672,17 @@ public class OMEROMetadataStoreClient
             asString.put(v.getKey().toString(), v.getValue());
         }
 
-        if (!containerCache.containsKey(lsid))
+        IObjectContainer c = containerCache.get(lsid);
+        if (c == null)
         {
-            IObjectContainer c = new IObjectContainer();
+            c = new IObjectContainer();
             c.indexes = asString;
             c.LSID = lsid.toString();
             c.sourceObject = getSourceObjectInstance(klass);
             containerCache.put(lsid, c);
         }
 
-        return containerCache.get(lsid);
+        return c;
     }
 
     /* (non-Javadoc)
@@ -2476,20 +2697,9 @@ public class OMEROMetadataStoreClient
     /* (non-Javadoc)
      * @see ome.formats.model.IObjectContainerStore#getIObjectContainers(java.lang.Class)
      */
-    @SuppressWarnings("unchecked")
     public List<IObjectContainer> getIObjectContainers(Class<? extends IObject> klass)
     {
-        Set<LSID> keys = containerCache.keySet();
-        List<IObjectContainer> toReturn = new ArrayList<IObjectContainer>();
-        for (LSID key : keys)
-        {
-            Class<? extends IObject> keyClass = key.getJavaClass();
-            if (keyClass != null && keyClass.equals(klass))
-            {
-                toReturn.add(containerCache.get(key));
-            }
-        }
-        return toReturn;
+        return containerCache.getContainers(klass);
     }
 
     /**
@@ -2506,7 +2716,6 @@ public class OMEROMetadataStoreClient
     /* (non-Javadoc)
      * @see ome.formats.model.IObjectContainerStore#countCachedContainers(java.lang.Class, int[])
      */
-    @SuppressWarnings("unchecked")
     public int countCachedContainers(Class<? extends IObject> klass,
                                      int... indexes)
     {
@@ -2514,41 +2723,7 @@ public class OMEROMetadataStoreClient
         {
             return new HashSet<IObjectContainer>(containerCache.values()).size();
         }
-
-        int count = 0;
-        for (LSID lsid : containerCache.keySet())
-        {
-            Class<? extends IObject> lsidClass = lsid.getJavaClass();
-            if (lsidClass != null && lsidClass.equals(klass))
-            {
-                if (indexes == null)
-                {
-                    // We're just doing a class match, increment the count
-                    count++;
-                }
-                else
-                {
-                    // We're doing a class and index match, loop over and
-                    // check the indexes based on the shortest array.
-                    int[] lsidIndexes = lsid.getIndexes();
-                    int n = Math.min(indexes.length, lsidIndexes.length);
-                    boolean match = true;
-                    for (int i = 0; i < n; i++)
-                    {
-                        if (lsidIndexes[i] != indexes[i])
-                        {
-                            match = false;
-                            break;
-                        }
-                    }
-                    if (match)
-                    {
-                        count++;
-                    }
-                }
-            }
-        }
-        return count;
+        return containerCache.count(klass, indexes);
     }
 
     /* (non-Javadoc)
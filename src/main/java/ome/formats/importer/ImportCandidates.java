@@ -7,14 +7,28 @@ package ome.formats.importer;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static omero.rtypes.rint;
 import static omero.rtypes.rstring;
@@ -35,11 +49,25 @@ import org.apache.commons.io.filefilter.TrueFileFilter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 /**
  * Utility class which given any {@link File} object will determine the correct
  * number and members of a given import. This facility permits iterating over a
  * directory.
  *
+ * The given paths are walked once to list the files, which are then probed.
+ * If {@link #THREADS} is set above one, the files are probed ahead by a pool
+ * of that many readers, but the results are grouped in the order in which
+ * the files were listed, so the groups are the same as if each file had been
+ * probed in turn. If {@link #SCAN_CACHE} is set, the results are also
+ * recorded in that file so that a later scan need not probe the files which
+ * have not changed.
+ *
+ * Extending this class as a {@link DirectoryWalker} is deprecated: the
+ * walk's callbacks are still invoked, but {@link #singleFile(File, ImportConfig)}
+ * is the extension point for probing files.
+ *
  * This class is NOT thread-safe.
  *
  * @since Beta4.1
@@ -113,9 +141,72 @@ public class ImportCandidates extends DirectoryWalker
     final public static MetadataLevel METADATA_LEVEL =
         MetadataLevel.valueOf(System.getProperty(
                 "omero.import.metadata.level","MINIMUM"));
+    /**
+     * How many files to probe at once. Parallel probing is opt-in as each
+     * extra reader holds its own memory and file handles.
+     */
+    final public static int THREADS = Integer.valueOf(
+            System.getProperty("omero.import.scan.threads", "1"));
+    /** How long to wait for the probes to stop once no longer needed. */
+    final private static long SHUTDOWN_SECONDS = 10;
+    final public static String SCAN_CACHE =
+        System.getProperty("omero.import.scan.cache");
+
+    /**
+     * The reader of a file being probed and the events raised meanwhile,
+     * which are only passed to the {@link #observer} if the result is used.
+     */
+    private static class Probe {
+        final OMEROWrapper reader;
+        final List<ImportEvent> events = new ArrayList<ImportEvent>();
+        /** The result recorded in the {@link #SCAN_CACHE}, or {@code null}. */
+        final ScanCache.Result known;
+
+        Probe(OMEROWrapper reader, ScanCache.Result known) {
+            this.reader = reader;
+            this.known = known;
+        }
+    }
+
+    /**
+     * The result of probing a file.
+     */
+    private static class Probed {
+        final ImportContainer container;
+        final List<ImportEvent> events;
+        /** If the file was not probed since another file uses it. */
+        final boolean skipped;
+
+        Probed(ImportContainer container, List<ImportEvent> events,
+                boolean skipped) {
+            this.container = container;
+            this.events = events;
+            this.skipped = skipped;
+        }
+    }
+
+    /**
+     * A file found by walking the paths, at the given depth.
+     */
+    private static class Found {
+        final File file;
+        final int depth;
+
+        Found(File file, int depth) {
+            this.file = file;
+            this.depth = depth;
+        }
+    }
 
     final private IObserver observer;
     final private OMEROWrapper reader;
+    final private ThreadLocal<Probe> probing = new ThreadLocal<Probe>();
+    /** Files used by a file which has been probed, in any order. */
+    final private Set<String> claimed = Collections.newSetFromMap(
+            new ConcurrentHashMap<String, Boolean>());
+    private ScanCache cache;
+    /** The configuration of the readers, under which results are cached. */
+    private String readerConfiguration;
     final private Set<String> allFiles = new HashSet<String>();
     final private Map<String, List<String>> usedBy = new LinkedHashMap<String, List<String>>();
     final private List<ImportContainer> containers = new ArrayList<ImportContainer>();
@@ -124,27 +215,32 @@ public class ImportCandidates extends DirectoryWalker
     /**
      * Time taken for {@link IFormatReader#setId()}
      */
-    long readerTime = 0;
+    final AtomicLong readerTime = new AtomicLong();
 
     /**
      * Current count of calls to {@link IFormatReader#setId()}.
      */
-    int setids = 0;
+    final AtomicInteger setids = new AtomicInteger();
 
     /**
      * Number of times UNKNOWN_EVENT was raised
      */
-    int unknown = 0;
+    final AtomicInteger unknown = new AtomicInteger();
+
+    /**
+     * Number of files whose result was taken from the {@link #SCAN_CACHE}.
+     */
+    final AtomicInteger cached = new AtomicInteger();
 
     /**
      * Current count of files processed. This will be incremented in two phases:
-     * once during directory counting, and once during parsing.
+     * once while walking the directories, and once during parsing.
      */
     int count = 0;
 
     /**
-     * Total number of files which have been / will be examined. During the
-     * first pass, this value is negative.
+     * Total number of files which have been / will be examined. While walking
+     * the directories, this value is negative.
      */
     int total = -1;
 
@@ -214,19 +310,22 @@ public class ImportCandidates extends DirectoryWalker
             return;
         }
 
+        if (SCAN_CACHE != null && !SCAN_CACHE.isEmpty()) {
+            cache = ScanCache.load(SCAN_CACHE);
+            readerConfiguration = readerConfiguration(reader.getConfig());
+        }
+
         Groups g;
         try {
-            execute(paths);
-            total = count;
-            count = 0;
             execute(paths);
             g = new Groups(usedBy);
             g.parse(containers);
             long totalElapsed = System.currentTimeMillis() - start;
             log.info(String.format("%s file(s) parsed into "
                     + "%s group(s) with %s call(s) to setId in "
-                    + "%sms. (%sms total) [%s unknowns]", this.total, size(), this.setids,
-                    readerTime, totalElapsed, unknown));
+                    + "%sms. (%sms total) [%s unknowns] [%s cached]", this.total,
+                    size(), this.setids, readerTime, totalElapsed, unknown,
+                    cached));
         } catch (CANCEL c)
         {
             log.info(String.format("Cancelling search after %sms "
@@ -364,37 +463,240 @@ public class ImportCandidates extends DirectoryWalker
     /**
      * Method called during
      * {@link ImportCandidates#ImportCandidates(OMEROWrapper, String[], IObserver)}
-     * to operate on all the given paths. This will be called twice: once
-     * without reading the files, and once (with the known total) using
-     * {@link #reader}
+     * to operate on all the given paths. These are walked once to list the
+     * files, and then the files are probed in parallel by
+     * {@link #probeAll(List)}.
      *
      * @param paths
      */
     protected void execute(String[] paths)
     {
+        final List<Found> found = new ArrayList<Found>();
         for (String string : paths)
         {
             try {
                 File f = new File(string);
                 if (f.isDirectory())
                 {
-                    walk(f, null);
+                    walk(f, found);
                 } else
                 {
-                    handleFile(f, 0, null);
+                    handleFile(f, 0, found);
                 }
                 // Forcing an event for each path, so that at least one
-                // event is raised per file despite the count of handlefile.
+                // event is raised per file despite the count of handleFile.
                 scanWithCancel(f, 0);
             } catch (IOException e)
             {
                 throw new RuntimeException(e);
             }
         }
+        total = found.size();
+        count = 0;
+        try {
+            probeAll(found);
+        } finally {
+            if (cache != null) {
+                cache.save();
+            }
+        }
+    }
+
+    /**
+     * Lists a file found by the walk to be probed once the walk is complete.
+     *
+     * @param file the selected file
+     * @param depth the depth of the scan
+     * @param collection the files to be probed
+     * @deprecated override {@link #singleFile(File, ImportConfig)} instead;
+     *             kept so that subclasses which filter the files walked still
+     *             work, they must call this for each file to be probed
+     */
+    @Deprecated
+    @Override
+    @SuppressWarnings("unchecked")
+    public void handleFile(File file, int depth, Collection collection) {
+
+        count++;
+
+        // Our own filtering
+        if (file.getName().startsWith(".")) {
+            return; // Omitting dot files.
+        }
+
+        // If this is the 100th file, publish an event
+        if (count%100 == 0) {
+            scanWithCancel(file, depth);
+        }
+
+        collection.add(new Found(file, depth));
+    }
+
+    /**
+     * Probes the files and records the import containers in the order of the
+     * files. If {@link #THREADS} is above one, each file is probed ahead by
+     * a pool of readers unless a file already probed uses it. A file which is used by an earlier container
+     * is skipped, just as if the files were being probed in turn.
+     */
+    private void probeAll(List<Found> found)
+    {
+        final ImportConfig config = reader.getConfig();
+        final int threads = Math.max(1, THREADS);
+        final BlockingQueue<OMEROWrapper> readers =
+                new ArrayBlockingQueue<OMEROWrapper>(threads);
+        readers.add(reader);
+        ExecutorService pool = null;
+        final Deque<Future<Probed>> pending = new ArrayDeque<Future<Probed>>();
+        try {
+            if (threads > 1) {
+                for (int i = 1; i < threads; i++) {
+                    readers.add(new OMEROWrapper(config));
+                }
+                pool = Executors.newFixedThreadPool(threads,
+                        new ThreadFactoryBuilder().setNameFormat(
+                                "ImportCandidates-%d").setDaemon(true).build());
+            }
+            final int window = 4 * threads;
+            int next = 0;
+            for (int i = 0; i < found.size(); i++) {
+                while (pool != null && next < found.size() && next < i + window) {
+                    pending.add(pool.submit(
+                            probe(found.get(next++).file, readers, config, true)));
+                }
+
+                final File file = found.get(i).file;
+                count++;
+
+                // If this is the 100th file, publish an event
+                if (count%100 == 0) {
+                    scanWithCancel(file, found.get(i).depth);
+                }
+
+                Probed probed = pool == null ? null : result(pending.poll());
+
+                // Optimization.
+                if (allFiles.contains(file.getAbsolutePath())) {
+                    continue;
+                }
+
+                if (probed == null || probed.skipped) {
+                    final Callable<Probed> task = probe(file, readers, config, false);
+                    probed = pool == null ? call(task) : result(pool.submit(task));
+                }
+                for (ImportEvent event : probed.events) {
+                    safeUpdate(event);
+                }
+                if (probed.container != null) {
+                    addContainer(file, probed.container);
+                }
+            }
+        } finally {
+            for (Future<Probed> future : pending) {
+                future.cancel(false);
+            }
+            if (pool != null) {
+                // Probes still running, if cancelled, are abandoned.
+                pool.shutdownNow();
+                try {
+                    if (!pool.awaitTermination(SHUTDOWN_SECONDS, TimeUnit.SECONDS)) {
+                        log.warn("Readers still probing files");
+                    }
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            readers.remove(reader);
+            for (OMEROWrapper extra : readers) {
+                try {
+                    extra.close();
+                } catch (IOException ioe) {
+                    log.debug("Failed to close reader", ioe);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a task which probes a file with one of the given readers,
+     * deferring the events raised.
+     *
+     * @param speculative if the file should not be probed when a file
+     *            already probed uses it
+     */
+    private Callable<Probed> probe(final File file,
+            final BlockingQueue<OMEROWrapper> readers,
+            final ImportConfig config, final boolean speculative)
+    {
+        return new Callable<Probed>() {
+            public Probed call() throws InterruptedException {
+                final String path = file.getAbsolutePath();
+                if (speculative && claimed.contains(path)) {
+                    return new Probed(null,
+                            Collections.<ImportEvent>emptyList(), true);
+                }
+
+                final ScanCache.Result known = cache == null ? null
+                        : cache.get(file, readerConfiguration);
+                final OMEROWrapper r = readers.take();
+                final Probe p = new Probe(r, known);
+                probing.set(p);
+                try {
+                    final ImportContainer ic = singleFile(file, config);
+                    if (ic != null) {
+                        claimed.addAll(Arrays.asList(ic.getUsedFiles()));
+                        if (cache != null && known == null) {
+                            cache.put(file, readerConfiguration, ic.getReader(),
+                                    ic.getIsSPW(), ic.getUsedFiles());
+                        }
+                    } else if (cache != null && known == null && p.events.size() == 1
+                            && p.events.get(0) instanceof ErrorHandler.UNKNOWN_FORMAT) {
+                        cache.put(file, readerConfiguration, null, false,
+                                new String[] { path });
+                    }
+                    return new Probed(ic, p.events, false);
+                } finally {
+                    probing.remove();
+                    readers.add(r);
+                }
+            }
+        };
+    }
+
+    private Probed call(Callable<Probed> task)
+    {
+        try {
+            return task.call();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ie);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private Probed result(Future<Probed> future)
+    {
+        try {
+            return future.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ie);
+        } catch (ExecutionException ee) {
+            final Throwable cause = ee.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
     }
 
     /**
-     * Return an import container for a single file
+     * Return an import container for a single file. May be called
+     * concurrently for different files, each with its own reader. If the
+     * {@link #SCAN_CACHE} holds the result of probing the unchanged file then
+     * that result is used rather than reading the file.
      * @param file - single file
      * @return importer container
      */
@@ -408,57 +710,64 @@ public class ImportCandidates extends DirectoryWalker
 
         final String path = file.getAbsolutePath();
         if (!file.exists() || !file.canRead()) {
-            safeUpdate(new ErrorHandler.UNREADABLE_FILE(path,
+            report(new ErrorHandler.UNREADABLE_FILE(path,
                 new java.io.FileNotFoundException(path), this));
             return null;
         }
 
+        final Probe probe = probing.get();
+        final ScanCache.Result known = probe == null ? null : probe.known;
+        if (known != null) {
+            cached.incrementAndGet();
+            if (known.reader == null) {
+                unknown.incrementAndGet();
+                report(new ErrorHandler.UNKNOWN_FORMAT(path,
+                        new UnknownFormatException(
+                                "Unknown format when last scanned: " + path), this));
+                return null;
+            }
+            return container(file, config, known.reader, known.usedFiles,
+                    known.isSPW);
+        }
+
+        final OMEROWrapper reader = reader();
         String format = null;
         String[] usedFiles = new String[] { path };
         long start = System.currentTimeMillis();
         try {
 
             try {
-                setids++;
+                setids.incrementAndGet();
                 reader.close();
                 reader.setMetadataStore(new ImageNameMetadataStore());
                 reader.setMetadataOptions(
                         new DynamicMetadataOptions(METADATA_LEVEL));
                 reader.setId(path);
                 format = reader.getFormat();
-                usedFiles = getOrderedFiles();
+                usedFiles = getOrderedFiles(reader);
                 String[] domains = reader.getReader().getDomains();
                 boolean isSPW = Arrays.asList(domains).contains(FormatTools.HCS_DOMAIN);
 
                 final String readerClassName = reader.unwrap().getClass().getCanonicalName();
-                ImportContainer ic = new ImportContainer(config,
-                        file, null, null,
-                        readerClassName, usedFiles, isSPW);
-                ic.setDoThumbnails(config.doThumbnails.get());
-                ic.setNoStatsInfo(config.noStatsInfo.get());
-                String configImageName = config.userSpecifiedName.get();
-                ic.setUserSpecifiedName(configImageName);
-                ic.setUserSpecifiedDescription(config.userSpecifiedDescription.get());
-                ic.setCustomAnnotationList(config.annotations.get());
-                return ic;
+                return container(file, config, readerClassName, usedFiles, isSPW);
             } finally
             {
-                readerTime += (System.currentTimeMillis() - start);
+                readerTime.addAndGet(System.currentTimeMillis() - start);
                 reader.close();
             }
 
         } catch (UnsupportedCompressionException uce)
         {
-            unknown++;
+            unknown.incrementAndGet();
             // Handling as UNKNOWN_FORMAT for 4.3.0
-            safeUpdate(new ErrorHandler.UNKNOWN_FORMAT(path, uce, this));
+            report(new ErrorHandler.UNKNOWN_FORMAT(path, uce, this));
         } catch (UnknownFormatException ufe)
         {
-            unknown++;
-            safeUpdate(new ErrorHandler.UNKNOWN_FORMAT(path, ufe, this));
+            unknown.incrementAndGet();
+            report(new ErrorHandler.UNKNOWN_FORMAT(path, ufe, this));
         } catch (MissingLibraryException mle)
         {
-            safeUpdate(new ErrorHandler.MISSING_LIBRARY(path, mle, usedFiles, format));
+            report(new ErrorHandler.MISSING_LIBRARY(path, mle, usedFiles, format));
         } catch (Throwable t)
         {
             Exception e = null;
@@ -468,18 +777,77 @@ public class ImportCandidates extends DirectoryWalker
             else {
                 e = new Exception(t);
             }
-            safeUpdate(new ErrorHandler.FILE_EXCEPTION(path, e, usedFiles, format));
+            report(new ErrorHandler.FILE_EXCEPTION(path, e, usedFiles, format));
         }
 
         return null;
 
     }
 
+    /**
+     * Describes the configuration of the readers which decides how a file is
+     * probed, so that results are not reused under another configuration.
+     */
+    private static String readerConfiguration(ImportConfig config)
+    {
+        final StringBuilder description = new StringBuilder("level=")
+                .append(METADATA_LEVEL);
+        final String readersPath = config.readersPath.get();
+        if (readersPath != null) {
+            description.append(" readers=").append(readersPath);
+            final File readers = new File(readersPath);
+            if (readers.isFile()) {
+                description.append(',').append(readers.length())
+                        .append(',').append(readers.lastModified());
+            }
+        }
+        return description.toString();
+    }
+
+    /**
+     * Creates the import container for a file with the settings of the
+     * configuration.
+     */
+    private ImportContainer container(File file, ImportConfig config,
+            String readerClassName, String[] usedFiles, boolean isSPW)
+    {
+        ImportContainer ic = new ImportContainer(config,
+                file, null, null,
+                readerClassName, usedFiles, isSPW);
+        ic.setDoThumbnails(config.doThumbnails.get());
+        ic.setNoStatsInfo(config.noStatsInfo.get());
+        String configImageName = config.userSpecifiedName.get();
+        ic.setUserSpecifiedName(configImageName);
+        ic.setUserSpecifiedDescription(config.userSpecifiedDescription.get());
+        ic.setCustomAnnotationList(config.annotations.get());
+        return ic;
+    }
+
+    /**
+     * @return the reader of the file being probed on this thread
+     */
+    private OMEROWrapper reader() {
+        final Probe p = probing.get();
+        return p == null ? reader : p.reader;
+    }
+
+    /**
+     * Raises an event, deferring it if a file is being probed on this thread.
+     */
+    private void report(ImportEvent event) {
+        final Probe p = probing.get();
+        if (p == null) {
+            safeUpdate(event);
+        } else {
+            p.events.add(event);
+        }
+    }
+
     /**
      * Retrieves Image names for each image that Bio-Formats has detected.
      * @return a list of Image names, in the order of <i>series</i>.
      */
-    private List<String> getImageNames() {
+    private List<String> getImageNames(OMEROWrapper reader) {
         List<String> toReturn = new ArrayList<String>();
         Map<Integer, String> imageNames = ((ImageNameMetadataStore)
                 reader.getMetadataStore()).getImageNames();
@@ -494,7 +862,7 @@ public class ImportCandidates extends DirectoryWalker
      * used files. All files which can be used to initialize a fileset are
      * returned first.
      */
-    private String[] getOrderedFiles() {
+    private String[] getOrderedFiles(OMEROWrapper reader) {
 
         FileInfo[] infos = reader.getAdvancedUsedFiles(false);
         String[] usedFiles = new String[infos.length];
@@ -542,41 +910,12 @@ public class ImportCandidates extends DirectoryWalker
     }
 
     /**
-     * Handle a file import
+     * Records the import container of a file.
      *
-     * @param file the selected file
-     * @param depth the depth of the scan
-     * @param collection the result objects, ignored
+     * @param file the probed file
+     * @param info the container
      */
-    @Override
-    public void handleFile(File file, int depth, Collection collection) {
-
-        count++;
-
-        // Our own filtering
-        if (file.getName().startsWith(".")) {
-            return; // Omitting dot files.
-        }
-
-        // If this is the 100th file, publish an event
-        if (count%100 == 0) {
-            scanWithCancel(file, depth);
-        }
-
-        // If this is just a count, return
-        if (total < 0) {
-            return;
-        }
-
-        // Optimization.
-        if (allFiles.contains(file.getAbsolutePath())) {
-            return;
-        }
-
-        ImportContainer info = singleFile(file, reader.getConfig());
-        if (info == null) {
-            return;
-        }
+    private void addContainer(File file, ImportContainer info) {
 
         containers.add(info);
         allFiles.addAll(Arrays.asList(info.getUsedFiles()));
@@ -592,7 +931,7 @@ public class ImportCandidates extends DirectoryWalker
 
     /**
      * The {@link Groups} class serves as an algorithm for sorting the usedBy
-     * map from the {@link ImportCandidates#walk(File, Collection)} method.
+     * map from the {@link ImportCandidates#execute(String[])} method.
      * These objects should never leave the outer class.
      *
      * It is important that the Groups keep their used files ordered.
@@ -0,0 +1,337 @@
+/*
+ *   Copyright 2026 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.formats.importer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import loci.formats.FormatTools;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An on-disk record of the files probed by {@link ImportCandidates}, so that
+ * scanning a tree again need not read the files which have not changed. The
+ * result for a file is only reused if it was probed with the same reader
+ * configuration, if that file and every file which it used still have the
+ * size and modification time which they had when probed, and if the
+ * directories holding them still list the same files, as a reader may pick
+ * up a companion file which is added later. The whole record is ignored if
+ * it was written with another version of Bio-Formats.
+ *
+ * @since 5.8.6
+ */
+final class ScanCache {
+
+    private final static Logger log = LoggerFactory.getLogger(ScanCache.class);
+
+    private final static int FORMAT = 2;
+
+    /**
+     * The result of probing a file.
+     */
+    static final class Result {
+
+        /** The reader class name, or {@code null} if the format is unknown. */
+        final String reader;
+
+        final boolean isSPW;
+
+        /** The used files, or just the probed file if the format is unknown. */
+        final String[] usedFiles;
+
+        /** The size and modification time of each used file. */
+        final long[] sizes, modified;
+
+        /** The directories of the probed file and of the used files. */
+        final String[] directories;
+
+        /** The listing of each directory, from {@link ScanCache#listing(String)}. */
+        final long[] listings;
+
+        private Result(String reader, boolean isSPW, String[] usedFiles,
+                long[] sizes, long[] modified, String[] directories,
+                long[] listings) {
+            this.reader = reader;
+            this.isSPW = isSPW;
+            this.usedFiles = usedFiles;
+            this.sizes = sizes;
+            this.modified = modified;
+            this.directories = directories;
+            this.listings = listings;
+        }
+    }
+
+    /** A probed file's size and modification time, and its result. */
+    private static final class Entry {
+
+        final long size, modified;
+
+        final Result result;
+
+        Entry(long size, long modified, Result result) {
+            this.size = size;
+            this.modified = modified;
+            this.result = result;
+        }
+    }
+
+    private final Path path;
+
+    /** The entries by reader configuration and path, see {@link #key(File, String)}. */
+    private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    /** The listings of the directories seen in this scan, which is taken not to change them. */
+    private final Map<String, Long> listings = new ConcurrentHashMap<String, Long>();
+
+    private volatile boolean changed = false;
+
+    private ScanCache(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Reads the record from the given file, starting a new one if the file
+     * does not exist or cannot be read.
+     * @param path the file which holds the record
+     * @return the record
+     */
+    static ScanCache load(String path) {
+        final ScanCache cache = new ScanCache(new File(path).toPath());
+        if (Files.isReadable(cache.path)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Files.newInputStream(cache.path)))) {
+                cache.read(in);
+            } catch (IOException ioe) {
+                log.warn("Ignoring unreadable scan cache {}: {}", path, ioe.toString());
+                cache.entries.clear();
+            }
+        }
+        return cache;
+    }
+
+    private void read(DataInputStream in) throws IOException {
+        if (in.readInt() != FORMAT || !FormatTools.VERSION.equals(in.readUTF())) {
+            log.info("Ignoring scan cache {} of another version", path);
+            return;
+        }
+        final int count = in.readInt();
+        for (int e = 0; e < count; e++) {
+            final String key = in.readUTF();
+            final long size = in.readLong();
+            final long modified = in.readLong();
+            final String reader = in.readBoolean() ? in.readUTF() : null;
+            final boolean isSPW = in.readBoolean();
+            final int used = in.readInt();
+            final String[] usedFiles = new String[used];
+            final long[] sizes = new long[used];
+            final long[] modifieds = new long[used];
+            for (int u = 0; u < used; u++) {
+                usedFiles[u] = in.readUTF();
+                sizes[u] = in.readLong();
+                modifieds[u] = in.readLong();
+            }
+            final int listed = in.readInt();
+            final String[] directories = new String[listed];
+            final long[] listings = new long[listed];
+            for (int d = 0; d < listed; d++) {
+                directories[d] = in.readUTF();
+                listings[d] = in.readLong();
+            }
+            entries.put(key, new Entry(size, modified, new Result(reader,
+                    isSPW, usedFiles, sizes, modifieds, directories, listings)));
+        }
+    }
+
+    /**
+     * @return the key of a file's entry
+     */
+    private static String key(File file, String configuration) {
+        return configuration + '\n' + file.getAbsolutePath();
+    }
+
+    /**
+     * Summarizes the names of the files in a directory, other than this
+     * record and its temporary files, so that adding, removing or renaming
+     * a file changes the summary. Each directory is listed once per scan.
+     * @param directory a directory
+     * @return the summary of its listing
+     */
+    long listing(final String directory) {
+        Long listing = listings.get(directory);
+        if (listing == null) {
+            final String[] names = new File(directory).list();
+            if (names == null) {
+                listing = -1L;
+            } else {
+                final Path record = path.toAbsolutePath().normalize();
+                final String ownName = record.getFileName().toString();
+                final boolean ownDirectory = record.getParent().equals(
+                        new File(directory).toPath().toAbsolutePath().normalize());
+                Arrays.sort(names);
+                final CRC32 crc = new CRC32();
+                long count = 0;
+                for (final String name : names) {
+                    if (ownDirectory && name.startsWith(ownName)) {
+                        continue;
+                    }
+                    crc.update(name.getBytes(StandardCharsets.UTF_8));
+                    crc.update(0);
+                    count++;
+                }
+                listing = count << 32 | crc.getValue();
+            }
+            listings.put(directory, listing);
+        }
+        return listing;
+    }
+
+    /**
+     * @return if the result was for files which have not changed since
+     */
+    private boolean isCurrent(Result result) {
+        for (int i = 0; i < result.usedFiles.length; i++) {
+            final File used = new File(result.usedFiles[i]);
+            if (used.length() != result.sizes[i] || used.lastModified() != result.modified[i]) {
+                return false;
+            }
+        }
+        for (int d = 0; d < result.directories.length; d++) {
+            if (listing(result.directories[d]) != result.listings[d]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param file a file to probe
+     * @param configuration the configuration of the readers which would
+     * probe the file
+     * @return the result of probing the file before with that configuration,
+     * or {@code null} if it has not been probed or it, its used files or
+     * their directories have since changed
+     */
+    Result get(File file, String configuration) {
+        final Entry entry = entries.get(key(file, configuration));
+        if (entry == null || entry.size != file.length()
+                || entry.modified != file.lastModified()
+                || !isCurrent(entry.result)) {
+            return null;
+        }
+        return entry.result;
+    }
+
+    /**
+     * Records the result of probing a file.
+     * @param file the probed file
+     * @param configuration the configuration of the readers which probed the
+     * file
+     * @param reader the reader class name, or {@code null} if the format is
+     * unknown
+     * @param isSPW if the file holds screen data
+     * @param usedFiles the files used, or just the probed file if the format
+     * is unknown
+     */
+    void put(File file, String configuration, String reader, boolean isSPW,
+            String[] usedFiles) {
+        final long[] sizes = new long[usedFiles.length];
+        final long[] modified = new long[usedFiles.length];
+        final Set<String> directories = new LinkedHashSet<String>();
+        directories.add(file.getAbsoluteFile().getParent());
+        for (int i = 0; i < usedFiles.length; i++) {
+            final File used = new File(usedFiles[i]);
+            sizes[i] = used.length();
+            modified[i] = used.lastModified();
+            directories.add(used.getAbsoluteFile().getParent());
+        }
+        directories.remove(null);
+        final String[] listed = directories.toArray(new String[directories.size()]);
+        final long[] listings = new long[listed.length];
+        for (int d = 0; d < listed.length; d++) {
+            listings[d] = listing(listed[d]);
+        }
+        entries.put(key(file, configuration), new Entry(file.length(),
+                file.lastModified(), new Result(reader, isSPW, usedFiles,
+                        sizes, modified, listed, listings)));
+        changed = true;
+    }
+
+    /**
+     * Writes the record if it has changed, replacing the file only once the
+     * record is fully written.
+     */
+    void save() {
+        if (!changed) {
+            return;
+        }
+        Path temp = null;
+        try {
+            final Path parent = path.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            temp = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(temp)))) {
+                out.writeInt(FORMAT);
+                out.writeUTF(FormatTools.VERSION);
+                final Map<String, Entry> snapshot = new HashMap<String, Entry>(entries);
+                out.writeInt(snapshot.size());
+                for (final Map.Entry<String, Entry> entry : snapshot.entrySet()) {
+                    final Result result = entry.getValue().result;
+                    out.writeUTF(entry.getKey());
+                    out.writeLong(entry.getValue().size);
+                    out.writeLong(entry.getValue().modified);
+                    out.writeBoolean(result.reader != null);
+                    if (result.reader != null) {
+                        out.writeUTF(result.reader);
+                    }
+                    out.writeBoolean(result.isSPW);
+                    out.writeInt(result.usedFiles.length);
+                    for (int u = 0; u < result.usedFiles.length; u++) {
+                        out.writeUTF(result.usedFiles[u]);
+                        out.writeLong(result.sizes[u]);
+                        out.writeLong(result.modified[u]);
+                    }
+                    out.writeInt(result.directories.length);
+                    for (int d = 0; d < result.directories.length; d++) {
+                        out.writeUTF(result.directories[d]);
+                        out.writeLong(result.listings[d]);
+                    }
+                }
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            temp = null;
+            changed = false;
+        } catch (IOException ioe) {
+            log.warn("Failed to write scan cache {}: {}", path, ioe.toString());
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ioe) {
+                    log.debug("Failed to delete {}", temp, ioe);
+                }
+            }
+        }
+    }
+}
@@ -34,6 +34,7 @@ import ome.formats.importer.exclusions.FileExclusion;
 import ome.formats.importer.transfers.AbstractFileTransfer;
 import ome.formats.importer.transfers.CleanupFailure;
 import ome.formats.importer.transfers.FileTransfer;
+import ome.formats.importer.transfers.PipelinedUploadFileTransfer;
 import ome.formats.importer.transfers.UploadFileTransfer;
 import omero.cmd.Response;
 import omero.grid.ImportProcessPrx;
@@ -434,6 +435,7 @@ public class CommandLineImporter {
             + "        General options:    \t\n"
             + "          upload          \t# Default\n"
             + "          upload_rm       \t# Caution! File upload followed by source deletion.\n"
+            + "          upload_pipelined\t# Keep several blocks in flight. See --upload-window.\n"
             + "          some.class.Name \t# Use a class on the CLASSPATH.\n\n"
             + "        Server-side options:\t\n"
             + "          ln              \t# Use hard-link.\n"
@@ -446,6 +448,9 @@ public class CommandLineImporter {
             + "       $ ./importer-cli --transfer=ln bar.tiff\n"
             + "       $ CLASSPATH=mycode.jar ./importer-cli --transfer=com.example.MyTransfer baz.tiff\n"
             + "\n"
+            + "    --upload-window=ARG     \tNumber of blocks in flight for upload_pipelined (default: 4)\n\n"
+            + "  e.g. $ omero import -- --transfer=upload_pipelined --upload-window=8 foo.tiff\n"
+            + "\n"
             + "  Background imports:\n"
             + "  -------------------\n\n"
             + "    --keep-alive=SECS       \tFrequency in seconds for pinging the server.\n\n"
@@ -502,6 +507,20 @@ public class CommandLineImporter {
         System.exit(1);
     }
 
+    /**
+     * Parses the argument of --upload-window.
+     * @param arg the argument
+     * @return the number of blocks in flight, or zero if the argument is
+     * not a positive integer
+     */
+    static int parseUploadWindow(String arg) {
+        try {
+            return Math.max(0, Integer.parseInt(arg));
+        } catch (NumberFormatException nfe) {
+            return 0;
+        }
+    }
+
     /**
      * Takes pairs of namespaces and string and creates comment annotations
      * from each pair.
@@ -647,6 +666,8 @@ public class CommandLineImporter {
                 new LongOpt("readers", LongOpt.REQUIRED_ARGUMENT, null, 29);
         LongOpt keepAlive =
                 new LongOpt("keep-alive", LongOpt.REQUIRED_ARGUMENT, null, 30);
+        LongOpt uploadWindow =
+                new LongOpt("upload-window", LongOpt.REQUIRED_ARGUMENT, null, 31);
 
         // DEPRECATED OPTIONS
         LongOpt minutesWaitDeprecated =
@@ -687,7 +708,7 @@ public class CommandLineImporter {
                                 noUpgradeCheck, qaBaseURL,
                                 outputFormat, encryptedConnection,
                                 parallelUpload, parallelFileset,
-                                readers, keepAlive,
+                                readers, keepAlive, uploadWindow,
                                 plateName, plateName2,
                                 plateDescription, plateDescription2,
                                 noThumbnailsDeprecated,
@@ -869,6 +890,18 @@ public class CommandLineImporter {
                 config.keepAlive.set(Integer.parseInt(keepAliveUArg));
                 break;
             }
+            case 31: {
+                String uploadWindowArg = g.getOptarg();
+                int uploadWindowValue = parseUploadWindow(uploadWindowArg);
+                if (uploadWindowValue < 1) {
+                    log.error("Upload window must be a positive integer: {}",
+                            uploadWindowArg);
+                    usage(); // exits
+                }
+                log.info("Setting upload window: {}", uploadWindowValue);
+                config.uploadWindow.set(uploadWindowValue);
+                break;
+            }
             // ADVANCED END ---------------------------------------------------
             // DEPRECATED OPTIONS
             case 90:
@@ -1001,6 +1034,11 @@ public class CommandLineImporter {
             }
         }
 
+        if (transfer instanceof PipelinedUploadFileTransfer) {
+            ((PipelinedUploadFileTransfer) transfer).setWindow(
+                    config.uploadWindow.get());
+        }
+
         List<Annotation> annotations =
             toTextAnnotations(annotationNamespaces, textAnnotations);
         for (Long id: annotationIds)
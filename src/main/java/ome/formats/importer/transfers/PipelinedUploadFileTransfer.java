@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2026 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.formats.importer.transfers;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import ome.util.checksum.ChecksumProvider;
+import omero.ServerError;
+import omero.api.RawFileStorePrx;
+
+import org.apache.commons.lang.ArrayUtils;
+
+/**
+ * Variant of {@link UploadFileTransfer} which keeps a window of
+ * {@link RawFileStorePrx#begin_write(byte[], long, int) asynchronous writes}
+ * in flight rather than waiting for each block to be acknowledged before
+ * reading the next. Each block is read into the next buffer of a ring taken
+ * from {@link TransferState#getBuffers(int)} and its checksum is calculated
+ * while the previous blocks are still on the wire, so that on high-latency
+ * connections the upload is limited by bandwidth rather than by round trips.
+ * Before a buffer is reused, the write which was sent from it is completed.
+ * <em>Not thread safe</em>
+ *
+ * @since 5.8.6
+ */
+public class PipelinedUploadFileTransfer extends AbstractFileTransfer {
+
+    /**
+     * Number of writes which may be in flight by default.
+     */
+    public static final int DEFAULT_WINDOW = 4;
+
+    private int window = DEFAULT_WINDOW;
+
+    /**
+     * Set the maximum number of writes which may be outstanding at once.
+     * A window of one behaves like {@link UploadFileTransfer}.
+     * @param window the number of in-flight writes, must be positive
+     */
+    public void setWindow(int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("window must be positive: " + window);
+        }
+        this.window = window;
+    }
+
+    /**
+     * @return the maximum number of writes which may be outstanding at once
+     */
+    public int getWindow() {
+        return window;
+    }
+
+    public String transfer(TransferState state) throws IOException, ServerError {
+
+        final RawFileStorePrx rawFileStore = start(state);
+        final File file = state.getFile();
+        final byte[][] ring = state.getBuffers(window);
+        final Ice.AsyncResult[] inFlight = new Ice.AsyncResult[ring.length];
+        final long[] ends = new long[ring.length];
+        final ChecksumProvider cp = state.getChecksumProvider();
+
+        FileInputStream stream = null;
+
+        try {
+            stream = new FileInputStream(file);
+            int rlen = 0;
+            int slot = 0;
+            long offset = 0;
+
+            state.uploadStarted();
+
+            // "touch" the file otherwise zero-length files
+            rawFileStore.write(ArrayUtils.EMPTY_BYTE_ARRAY, offset, 0);
+            state.stop();
+            state.uploadBytes(offset);
+
+            while (true) {
+                // the buffer may only be refilled once its write is done
+                if (inFlight[slot] != null) {
+                    complete(rawFileStore, state, inFlight, ends, slot);
+                }
+                final byte[] buf = ring[slot];
+                state.start();
+                rlen = readBlock(stream, buf);
+                if (rlen == -1) {
+                    break;
+                }
+                cp.putBytes(buf, 0, rlen);
+                final byte[] bufferToWrite;
+                if (rlen < buf.length) {
+                    // only ever the final block
+                    bufferToWrite = Arrays.copyOf(buf, rlen);
+                } else {
+                    bufferToWrite = buf;
+                }
+                inFlight[slot] = rawFileStore.begin_write(bufferToWrite, offset, rlen);
+                offset += rlen;
+                ends[slot] = offset;
+                state.stop(rlen);
+                slot = (slot + 1) % ring.length;
+            }
+
+            // drain the remaining writes in the order they were sent
+            for (int i = 0; i < ring.length; i++) {
+                final int next = (slot + i) % ring.length;
+                if (inFlight[next] != null) {
+                    complete(rawFileStore, state, inFlight, ends, next);
+                }
+            }
+
+            return finish(state, offset);
+        } finally {
+            abandon(rawFileStore, inFlight);
+            cleanupUpload(rawFileStore, stream);
+        }
+    }
+
+    /**
+     * Wait for the write sent from the given slot and report its progress.
+     */
+    private void complete(RawFileStorePrx rawFileStore, TransferState state,
+            Ice.AsyncResult[] inFlight, long[] ends, int slot) throws ServerError {
+        final Ice.AsyncResult result = inFlight[slot];
+        inFlight[slot] = null;
+        rawFileStore.end_write(result);
+        state.uploadBytes(ends[slot]);
+    }
+
+    /**
+     * Wait for any writes still in flight after a failure so that none
+     * outlive the closing of the {@link RawFileStorePrx}. Errors are logged.
+     */
+    private void abandon(RawFileStorePrx rawFileStore, Ice.AsyncResult[] inFlight) {
+        for (int i = 0; i < inFlight.length; i++) {
+            if (inFlight[i] != null) {
+                try {
+                    rawFileStore.end_write(inFlight[i]);
+                } catch (Exception e) {
+                    log.debug("error in abandoned write", e);
+                } finally {
+                    inFlight[i] = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Fill the buffer from the stream unless the end of the stream is reached
+     * so that only the final block of a file may be short.
+     * @return the number of bytes read or -1 if the stream was already at its end
+     */
+    private static int readBlock(InputStream stream, byte[] buf) throws IOException {
+        int total = 0;
+        while (total < buf.length) {
+            final int rlen = stream.read(buf, total, buf.length - total);
+            if (rlen == -1) {
+                return total == 0 ? -1 : total;
+            }
+            total += rlen;
+        }
+        return total;
+    }
+
+    /**
+     * Since the {@link RawFileStorePrx} instances are cleaned up after each
+     * transfer, there's no need to cleanup per {@link File}.
+     */
+    public void afterTransfer(int errors, List<String> srcFiles) throws CleanupFailure {
+        // no-op
+    }
+}
@@ -21,6 +21,7 @@ package ome.formats.importer.transfers;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -67,6 +68,12 @@ public class TransferState implements TimeEstimator {
 
     private final byte[] buf;
 
+    /**
+     * Lazily created ring of buffers, the first of which is always
+     * {@link #buf}. See {@link #getBuffers(int)}.
+     */
+    private byte[][] ring;
+
     private OriginalFile ofile;
 
     private String checksum;
@@ -150,6 +157,33 @@ public class TransferState implements TimeEstimator {
         return this.buf;
     }
 
+    /**
+     * <em>(Not thread safe)</em> Get a ring of buffers of the same size as
+     * {@link #getBuffer()} for use by transfers which keep several blocks
+     * in flight at once. The first buffer of the ring is always
+     * {@link #getBuffer()}. No more buffers are allocated than are needed
+     * to hold the whole of {@link #getFile()}, so that small files do not
+     * cause the allocation of many unused blocks. The buffers are cached and
+     * reused by subsequent calls.
+     * @param count the maximum number of buffers wanted
+     * @return the ring of buffers, possibly shorter than {@code count}
+     * but never empty
+     */
+    public byte[][] getBuffers(int count) {
+        final int blockSize = buf.length;
+        final long blocks = Math.max(1, (length + blockSize - 1) / blockSize);
+        final int size = (int) Math.max(1, Math.min(count, blocks));
+        if (ring == null || ring.length < size) {
+            final byte[][] larger = new byte[size][];
+            larger[0] = buf;
+            for (int i = 1; i < size; i++) {
+                larger[i] = (ring != null && i < ring.length) ? ring[i] : new byte[blockSize];
+            }
+            ring = larger;
+        }
+        return ring.length == size ? ring : Arrays.copyOf(ring, size);
+    }
+
     /**
      * Get the digest string for the local file. This will only be available,
      * i.e. non-null, after {@link #save()} has been called.
@@ -69,6 +69,8 @@ public class Ring extends _ClusterNodeDisp implements Redirector.Context {
 
     private/* final */ Registry registry;
 
+    private/* final */ SessionManagerI sessionManager;
+
     /**
      * Standard blitz adapter which is used for the callback.
      */
@@ -101,6 +103,15 @@ public class Ring extends _ClusterNodeDisp implements Redirector.Context {
         this.registry = registry;
     }
 
+    /**
+     * Sets the {@link SessionManagerI} whose sessions are counted for
+     * {@link #getSessionCount()} and {@link #getServantCount()}. This is
+     * currently done in {@link BlitzConfiguration}
+     */
+    public void setSessionManager(SessionManagerI sessionManager) {
+        this.sessionManager = sessionManager;
+    }
+
     // Redirector.Context API
     // =========================================================================
 
@@ -129,6 +140,14 @@ public class Ring extends _ClusterNodeDisp implements Redirector.Context {
         return this.communicator;
     }
 
+    public int getSessionCount() {
+        return sessionManager == null ? 0 : sessionManager.getSessionCount();
+    }
+
+    public int getServantCount() {
+        return sessionManager == null ? 0 : sessionManager.getServantCount();
+    }
+
     // Configuration and cluster usage
     // =========================================================================
 
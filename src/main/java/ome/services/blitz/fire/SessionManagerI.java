@@ -337,6 +337,25 @@ public final class SessionManagerI extends Glacier2._SessionManagerDisp
 
     }
 
+    /**
+     * @return the number of sessions which have servants on this node
+     */
+    public int getSessionCount() {
+        return (int) sessionToHolder.size();
+    }
+
+    /**
+     * @return the number of servants registered on this node across all
+     * sessions
+     */
+    public int getServantCount() {
+        int count = 0;
+        for (final ServantHolder holder : sessionToHolder.asMap().values()) {
+            count += holder.getServantCount();
+        }
+        return count;
+    }
+
     /**
      * {@link ServiceFactoryI#doDestroy() Destroys} all the
      * {@link ServiceFactoryI} instances based on the given sessionId. Multiple
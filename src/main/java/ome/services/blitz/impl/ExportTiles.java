@@ -0,0 +1,259 @@
+/*
+ *   Copyright 2026 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.blitz.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import ome.conditions.InternalException;
+import ome.io.nio.PixelBuffer;
+import ome.util.PixelData;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the tiles of an image for {@link ExporterI} in the order in which
+ * they are written: plane by plane, each plane at every exported resolution,
+ * each resolution row by row. A bounded number of tiles are read ahead on a
+ * shared executor, each read with whichever of the given {@link PixelBuffer}s
+ * is free, so that memory use does not depend on the size of the image. No
+ * more tiles are read ahead than there are buffers, so a read never waits on
+ * the executor for a buffer. Tiles are returned as big-endian bytes.
+ *
+ * @since 5.8.6
+ */
+final class ExportTiles {
+
+    private static final Logger log = LoggerFactory.getLogger(ExportTiles.class);
+
+    /** The most tiles to read at once for each export. */
+    private static final int THREADS = 4;
+
+    /**
+     * A tile of a plane at one resolution.
+     */
+    static final class Tile {
+
+        /** The index of the plane in the output. */
+        final int plane;
+
+        /** The output resolution, {@code 0} being the full resolution. */
+        final int resolution;
+
+        final int x, y, w, h;
+
+        /** Set once read. */
+        byte[] bytes;
+
+        Tile(int plane, int resolution, int x, int y, int w, int h) {
+            this.plane = plane;
+            this.resolution = resolution;
+            this.x = x;
+            this.y = y;
+            this.w = w;
+            this.h = h;
+        }
+    }
+
+    private final ExecutorService executor;
+
+    private final BlockingQueue<PixelBuffer> buffers;
+
+    /** The Z, C and T of each output plane. */
+    private final List<int[]> planes;
+
+    /** The buffer resolution level of each output resolution. */
+    private final int[] levels;
+
+    /** The width and height of each output resolution. */
+    private final int[][] sizes;
+
+    private final int tileSize;
+
+    private final int bytesPerPixel;
+
+    private final Deque<Future<Tile>> pending = new ArrayDeque<Future<Tile>>();
+
+    /** The most tiles to read ahead. */
+    private final int window;
+
+    /* The position of the next tile to submit. */
+
+    private int nextPlane = 0, nextResolution = 0, nextX = 0, nextY = 0;
+
+    /**
+     * @param executor the executor on which to read ahead, may be
+     * {@code null} to read each tile on the calling thread when it is needed
+     * @param buffers the buffers to read with, one per concurrent read
+     * @param planes the Z, C and T of each output plane, in order
+     * @param levels the buffer resolution level of each output resolution
+     * @param sizes the width and height of each output resolution
+     * @param tileSize the width and height of the tiles
+     * @param bytesPerPixel the size of each pixel
+     */
+    ExportTiles(ExecutorService executor, List<PixelBuffer> buffers,
+            List<int[]> planes, int[] levels, int[][] sizes, int tileSize,
+            int bytesPerPixel) {
+        this.executor = executor;
+        this.buffers = new ArrayBlockingQueue<PixelBuffer>(buffers.size(), false, buffers);
+        this.planes = planes;
+        this.levels = levels;
+        this.sizes = sizes;
+        this.tileSize = tileSize;
+        this.bytesPerPixel = bytesPerPixel;
+        this.window = Math.min(THREADS, buffers.size());
+    }
+
+    /**
+     * @return the next tile to write, or {@code null} if all are written
+     */
+    Tile next() {
+        if (executor == null) {
+            if (nextPlane == planes.size()) {
+                return null;
+            }
+            final Tile tile = nextTile();
+            try {
+                read(tile);
+            } catch (IOException e) {
+                throw new InternalException("Failed to read tile: " + e);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new InternalException("Interrupted reading tiles");
+            }
+            return tile;
+        }
+        while (pending.size() < window && nextPlane < planes.size()) {
+            final Tile tile = nextTile();
+            pending.add(executor.submit(new Callable<Tile>() {
+                public Tile call() throws Exception {
+                    read(tile);
+                    return tile;
+                }
+            }));
+        }
+        final Future<Tile> next = pending.poll();
+        if (next == null) {
+            return null;
+        }
+        try {
+            return next.get();
+        } catch (ExecutionException ee) {
+            cancel();
+            final Throwable cause = ee.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new InternalException("Failed to read tile: " + cause);
+        } catch (InterruptedException ie) {
+            cancel();
+            Thread.currentThread().interrupt();
+            throw new InternalException("Interrupted reading tiles");
+        }
+    }
+
+    /**
+     * @return the tile at the current position, having moved past it
+     */
+    private Tile nextTile() {
+        final Tile tile = new Tile(nextPlane, nextResolution, nextX, nextY,
+                Math.min(tileSize, sizes[nextResolution][0] - nextX),
+                Math.min(tileSize, sizes[nextResolution][1] - nextY));
+        advance();
+        return tile;
+    }
+
+    /**
+     * Moves to the next tile: along the row, down the rows, through the
+     * resolutions, then to the next plane.
+     */
+    private void advance() {
+        nextX += tileSize;
+        if (nextX < sizes[nextResolution][0]) {
+            return;
+        }
+        nextX = 0;
+        nextY += tileSize;
+        if (nextY < sizes[nextResolution][1]) {
+            return;
+        }
+        nextY = 0;
+        if (++nextResolution < sizes.length) {
+            return;
+        }
+        nextResolution = 0;
+        nextPlane++;
+    }
+
+    /**
+     * Stops reading ahead. Tiles already being read complete but are
+     * discarded.
+     */
+    void cancel() {
+        for (final Future<Tile> future : pending) {
+            future.cancel(false);
+        }
+        pending.clear();
+        nextPlane = planes.size();
+    }
+
+    private void read(Tile tile) throws IOException, InterruptedException {
+        final int[] zct = planes.get(tile.plane);
+        final PixelBuffer buffer = buffers.take();
+        PixelData data = null;
+        try {
+            // Buffers without pyramids cannot have their level set.
+            if (buffer.getResolutionLevels() > 1
+                    && buffer.getResolutionLevel() != levels[tile.resolution]) {
+                buffer.setResolutionLevel(levels[tile.resolution]);
+            }
+            data = buffer.getTile(zct[0], zct[1], zct[2], tile.x, tile.y, tile.w, tile.h);
+            final ByteBuffer source = data.getData().duplicate();
+            source.rewind();
+            final byte[] bytes = new byte[tile.w * tile.h * bytesPerPixel];
+            source.get(bytes);
+            if (bytesPerPixel > 1 && data.getData().order() == ByteOrder.LITTLE_ENDIAN) {
+                swap(bytes, bytesPerPixel);
+            }
+            tile.bytes = bytes;
+        } finally {
+            if (data != null) {
+                data.dispose();
+            }
+            buffers.add(buffer);
+        }
+        if (log.isTraceEnabled()) {
+            log.trace("Read tile {},{} of plane {} at resolution {}",
+                    tile.x, tile.y, tile.plane, tile.resolution);
+        }
+    }
+
+    /**
+     * Reverses the bytes of each pixel.
+     */
+    private static void swap(byte[] bytes, int bytesPerPixel) {
+        for (int pixel = 0; pixel < bytes.length; pixel += bytesPerPixel) {
+            for (int low = pixel, high = pixel + bytesPerPixel - 1; low < high; low++, high--) {
+                final byte swap = bytes[low];
+                bytes[low] = bytes[high];
+                bytes[high] = swap;
+            }
+        }
+    }
+}
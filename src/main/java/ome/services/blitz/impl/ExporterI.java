@@ -5,12 +5,17 @@
 
 package ome.services.blitz.impl;
 
+import java.awt.Dimension;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -27,20 +32,19 @@ import loci.formats.meta.MetadataRetrieve;
 import loci.formats.out.OMETiffWriter;
 import loci.formats.services.OMEXMLService;
 import loci.formats.tiff.IFD;
-import ome.api.RawPixelsStore;
 import ome.conditions.ApiUsageException;
 import ome.conditions.InternalException;
+import ome.io.nio.PixelBuffer;
 import ome.io.nio.PixelsService;
-import ome.io.nio.RomioPixelBuffer;
 import ome.services.blitz.util.BlitzExecutor;
 import ome.services.blitz.util.BlitzOnly;
 import ome.services.blitz.util.ServiceFactoryAware;
 import ome.services.db.DatabaseIdentity;
-import ome.services.formats.OmeroReader;
 import ome.services.util.Executor;
 import ome.system.ServiceFactory;
 import ome.xml.model.MetadataOnly;
 import ome.xml.model.OME;
+import ome.xml.model.primitives.PositiveInteger;
 import omero.ServerError;
 import omero.api.AMD_Exporter_addImage;
 import omero.api.AMD_Exporter_generateTiff;
@@ -85,12 +89,18 @@ public class ExporterI extends AbstractCloseableAmdServant implements
      * a normal tiff. This value is checked against the data size PLUS
      * various metadata sizes.
      *
-     * @see #getMetadataBytes(OmeroReader)
-     * @see #getDataBytes(OmeroReader)
+     * @see #getMetadataBytes(int)
+     * @see #getDataBytes(int[][], int, int)
      * @see ticket:6520
      */
     private final static long BIG_TIFF_SIZE = 2L * Integer.MAX_VALUE;
 
+    /**
+     * The width and height of the tiles written when those of the pixel
+     * buffer cannot be used.
+     */
+    private final static int TILE_SIZE = 512;
+
 
     /**
      * Utility enum for asserting the state of Exporter instances.
@@ -122,6 +132,11 @@ public class ExporterI extends AbstractCloseableAmdServant implements
      */
     private volatile File file;
 
+    /**
+     * The open {@link #file}, once read. Guarded by {@code this}.
+     */
+    private FileChannel channel;
+
     /**
      * Encapsulates the logic for creating new LSIDs and comparing existing ones
      * to the internal value for this DB.
@@ -131,14 +146,18 @@ public class ExporterI extends AbstractCloseableAmdServant implements
     /** LOCI OME-XML service for working with OME-XML. */
     private final OMEXMLService service;
 
-    /** Access to information about big images to prevent exporting large
-     * files since there is currently no generally readable tiff support
-     * for our tiles.
-     *
-     * @see ticket:6713
-     */
+    /** Provides the pixel buffers from which tiles are read. */
     private final PixelsService pixelsService;
 
+    /** How many tiles are read at once. */
+    private int readThreads = 2;
+
+    /** If the sub-resolutions of pyramids are also exported. */
+    private boolean exportResolutions = false;
+
+    /** The executor on which tiles are read ahead, may be {@code null}. */
+    private ExecutorService parallelExecutor;
+
     public ExporterI(BlitzExecutor be, DatabaseIdentity databaseIdentity,
             PixelsService pixelsService)
         throws DependencyException {
@@ -155,6 +174,30 @@ public class ExporterI extends AbstractCloseableAmdServant implements
         this.factory = sf;
     }
 
+    /**
+     * @param readThreads how many tiles to read at once when generating TIFF
+     */
+    public void setReadThreads(int readThreads) {
+        this.readThreads = Math.max(1, readThreads);
+    }
+
+    /**
+     * @param parallelExecutor the shared executor on which to read tiles
+     * ahead when generating TIFF, may be {@code null} to read each tile as
+     * it is written
+     */
+    public void setParallelExecutor(ExecutorService parallelExecutor) {
+        this.parallelExecutor = parallelExecutor;
+    }
+
+    /**
+     * @param exportResolutions if the sub-resolutions of pyramids are to be
+     * written to the generated TIFF along with the full resolution
+     */
+    public void setExportResolutions(boolean exportResolutions) {
+        this.exportResolutions = exportResolutions;
+    }
+
     // Interface methods
     // =========================================================================
 
@@ -258,6 +301,7 @@ public class ExporterI extends AbstractCloseableAmdServant implements
      * Transition from waiting to config
      */
     private void startConfig() {
+        closeChannel();
         if (file != null) {
             file.delete();
             file = null;
@@ -350,37 +394,65 @@ public class ExporterI extends AbstractCloseableAmdServant implements
                                 return null;
                             }
 
-                            RawPixelsStore raw = null;
-                            OmeroReader reader = null;
+                            final List<PixelBuffer> buffers = new ArrayList<PixelBuffer>();
+                            ExportTiles tiles = null;
                             OMETiffWriter writer = null;
                             try {
 
                                 Image image = retrieve.getImage(0);
                                 Pixels pix = image.getPixels(0);
-                                if (requiresPyramid(sf, pix.getId().getValue())) {
-                                    long id = image.getId().getValue();
-                                    int x = pix.getSizeX().getValue();
-                                    int y = pix.getSizeY().getValue();
-                                    throw new omero.ApiUsageException(
-                                            null, null, String.format(
-                                            "Image:%s is too large for export (sizeX=%s, sizeY=%s)",
-                                            id, x, y));
-                                }
+                                ome.model.core.Pixels pixels = sf.getQueryService().get(
+                                        ome.model.core.Pixels.class, pix.getId().getValue());
 
                                 file = TempFileManager.create_path("__omero_export__",
                                         ".ome.tiff");
 
-                                raw = sf.createRawPixelsStore();
-                                raw.setPixelsId(pix.getId().getValue(), true);
-
-                                reader = new OmeroReader(raw, pix);
-                                reader.setId("OMERO");
+                                // One buffer per concurrent tile read, opened
+                                // here as that needs the caller's session.
+                                for (int i = 0; i < readThreads; i++) {
+                                    buffers.add(pixelsService.getPixelBuffer(pixels, false));
+                                }
+                                final PixelBuffer first = buffers.get(0);
+                                final int levelCount = first.getResolutionLevels();
+                                final int resolutionCount = exportResolutions ? levelCount : 1;
+                                final int[] levels = new int[resolutionCount];
+                                final int[][] sizes = new int[resolutionCount][];
+                                for (int r = 0; r < resolutionCount; r++) {
+                                    // The highest buffer level is the full resolution.
+                                    levels[r] = levelCount - 1 - r;
+                                    if (levelCount > 1) {
+                                        first.setResolutionLevel(levels[r]);
+                                    }
+                                    sizes[r] = new int[] {first.getSizeX(), first.getSizeY()};
+                                    if (r > 0) {
+                                        retrieve.setResolutionSizeX(new PositiveInteger(sizes[r][0]), 0, r);
+                                        retrieve.setResolutionSizeY(new PositiveInteger(sizes[r][1]), 0, r);
+                                    }
+                                }
+                                if (levelCount > 1) {
+                                    first.setResolutionLevel(levels[0]);
+                                }
+                                final int tileSize = tileSize(first.getTileSize());
+
+                                final int sizeZ = pixels.getSizeZ();
+                                final int sizeC = pixels.getSizeC();
+                                final int sizeT = pixels.getSizeT();
+                                final int planeCount = sizeZ * sizeC * sizeT;
+                                final String order = retrieve.getPixelsDimensionOrder(0).getValue();
+                                final List<int[]> planes = new ArrayList<int[]>(planeCount);
+                                for (int i = 0; i < planeCount; i++) {
+                                    planes.add(FormatTools.getZCTCoords(order,
+                                            sizeZ, sizeC, sizeT, planeCount, i));
+                                }
+                                final int bytesPerPixel = FormatTools.getBytesPerPixel(
+                                        FormatTools.pixelTypeFromString(
+                                                pixels.getPixelsType().getValue()));
 
                                 writer = new OMETiffWriter();
                                 writer.setMetadataRetrieve(retrieve);
                                 writer.setWriteSequentially(true); // ticket:6701
-                                long mSize = getMetadataBytes(reader);
-                                long dSize = getDataBytes(reader);
+                                long mSize = getMetadataBytes(planeCount);
+                                long dSize = getDataBytes(sizes, planeCount, bytesPerPixel);
                                 final boolean bigtiff =
                                     ( ( mSize + dSize ) > BIG_TIFF_SIZE );
                                 if (bigtiff) {
@@ -388,30 +460,25 @@ public class ExporterI extends AbstractCloseableAmdServant implements
                                 }
                                 writer.setId(file.getAbsolutePath());
 
-                                int planeCount = reader.planes;
-                                int planeSize = RomioPixelBuffer.safeLongToInteger(
-                                        raw.getPlaneSize());
                                 log.info(String.format(
                                             "Using big TIFF? %s mSize=%d " +
                                             "dSize=%d planeCount=%d " +
-                                            "planeSize=%d",
+                                            "resolutions=%d tileSize=%d",
                                             bigtiff, mSize, dSize,
-                                            planeCount, planeSize));
-                                byte[] plane = new byte[planeSize];
-                                for (int i = 0; i < planeCount; i++) {
-                                    int[] zct = FormatTools.getZCTCoords(
-                                        retrieve.getPixelsDimensionOrder(0).getValue(),
-                                        reader.getSizeZ(), reader.getSizeC(), reader.getSizeT(),
-                                        planeCount, i);
-                                    int readerIndex = reader.getIndex(zct[0], zct[1], zct[2]);
-                                    reader.openBytes(readerIndex, plane);
-
-
+                                            planeCount, resolutionCount, tileSize));
+
+                                tiles = new ExportTiles(parallelExecutor, buffers,
+                                        planes, levels, sizes, tileSize, bytesPerPixel);
+                                ExportTiles.Tile tile;
+                                while ((tile = tiles.next()) != null) {
+                                    if (writer.getResolution() != tile.resolution) {
+                                        writer.setResolution(tile.resolution);
+                                    }
                                     IFD ifd = new IFD();
-                                    ifd.put(IFD.TILE_WIDTH, 128);
-                                    ifd.put(IFD.TILE_LENGTH, 128);
-
-                                    writer.saveBytes(i, plane, ifd);
+                                    ifd.put(IFD.TILE_WIDTH, tileSize);
+                                    ifd.put(IFD.TILE_LENGTH, tileSize);
+                                    writer.saveBytes(tile.plane, tile.bytes, ifd,
+                                            tile.x, tile.y, tile.w, tile.h);
                                 }
                                 retrieve = null;
 
@@ -424,33 +491,25 @@ public class ExporterI extends AbstractCloseableAmdServant implements
 
                                     __cb.ice_response(file.length());
                                 } catch (Exception e) {
-                                    omero.InternalException ie = new omero.InternalException(
-                                            null, null,
-                                            "Error during TIFF generation");
-                                    IceMapper.fillServerError(ie, e);
-                                    __cb.ice_exception(ie);
+                                    __cb.ice_exception(tiffError(e));
                                 } finally {
-                                    cleanup(raw, reader, writer);
+                                    cleanup(buffers, tiles, writer);
                                 }
 
                             return null; // see calls to __cb above
                         }
 
-                        private void cleanup(RawPixelsStore raw,
-                                OmeroReader reader, IFormatWriter writer) {
-                            try {
-                                if (raw != null) {
-                                    raw.close();
-                                }
-                            } catch (Exception e) {
-                                log.error("Error closing pix", e);
+                        private void cleanup(List<PixelBuffer> buffers,
+                                ExportTiles tiles, IFormatWriter writer) {
+                            if (tiles != null) {
+                                tiles.cancel();
                             }
-                            try {
-                                if (reader != null) {
-                                    reader.close();
+                            for (PixelBuffer buffer : buffers) {
+                                try {
+                                    buffer.close();
+                                } catch (Exception e) {
+                                    log.error("Error closing pix", e);
                                 }
-                            } catch (Exception e) {
-                                log.error("Error closing reader", e);
                             }
                             try {
                                 if (writer != null) {
@@ -468,6 +527,31 @@ public class ExporterI extends AbstractCloseableAmdServant implements
         }
     }
 
+    /**
+     * Maps a failure to generate a TIFF. A pyramid which is still being
+     * generated is reported as such, so that the client can retry the export
+     * once it is ready, rather than as an internal error.
+     */
+    static ServerError tiffError(Exception e) {
+        if (e instanceof ome.conditions.MissingPyramidException) {
+            final ome.conditions.MissingPyramidException missing =
+                    (ome.conditions.MissingPyramidException) e;
+            final omero.MissingPyramidException mpe = new omero.MissingPyramidException();
+            IceMapper.fillServerError(mpe, e);
+            mpe.backOff = missing.backOff;
+            mpe.pixelsID = missing.getPixelsId();
+            mpe.message = String.format(
+                    "Pixels:%s cannot be exported until its pyramid is generated",
+                    mpe.pixelsID);
+            return mpe;
+        }
+        omero.InternalException ie = new omero.InternalException(
+                null, null,
+                "Error during TIFF generation");
+        IceMapper.fillServerError(ie, e);
+        return ie;
+    }
+
     /**
      * Read size bytes, and transition to "waiting" If any exception is thrown,
      * the offset for the current file will not be updated.
@@ -477,44 +561,59 @@ public class ExporterI extends AbstractCloseableAmdServant implements
             throw new ApiUsageException("Max read size is: " + MAX_SIZE);
         }
 
-        byte[] buf = new byte[size];
-
-        RandomAccessFile ra = null;
         try {
-            ra = new RandomAccessFile(file, "r");
-
-            long l = ra.length();
+            final FileChannel ch = openChannel();
+            long l = ch.size();
+            if (pos >= l) {
+                return new byte[0];
+            }
             if (pos + size > l) {
                 size  = (int) (l - pos);
             }
 
-            ra.seek(pos);
-            int read = ra.read(buf);
+            // Positional reads leave the channel free for concurrent reads.
+            final ByteBuffer buf = ByteBuffer.allocate(size);
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, pos + buf.position()) < 0) {
+                    break;
+                }
+            }
 
             // Handle end of file
-            if (read < 0) {
-                buf = new byte[0];
-            } else if (read < size) {
-                byte[] newBuf = new byte[read];
-                System.arraycopy(buf, 0, newBuf, 0, read);
-                buf = newBuf;
+            if (buf.position() < size) {
+                byte[] newBuf = new byte[buf.position()];
+                System.arraycopy(buf.array(), 0, newBuf, 0, newBuf.length);
+                return newBuf;
             }
+            return buf.array();
 
         } catch (IOException io) {
             throw new RuntimeException(io);
-        } finally {
-
-            if (ra != null) {
-                try {
-                    ra.close();
-                } catch (IOException e) {
-                    log.warn("IOException on file close");
-                }
-            }
+        }
+    }
 
+    /**
+     * Opens the current output file for reading if not already open.
+     */
+    private synchronized FileChannel openChannel() throws IOException {
+        if (channel == null) {
+            channel = new RandomAccessFile(file, "r").getChannel();
         }
+        return channel;
+    }
 
-        return buf;
+    /**
+     * Closes the output file if open for reading.
+     */
+    private synchronized void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("IOException on file close");
+            }
+            channel = null;
+        }
     }
 
     // XML Generation (public for testing)
@@ -540,6 +639,7 @@ public class ExporterI extends AbstractCloseableAmdServant implements
     @Override
     protected void preClose(Ice.Current current) {
         retrieve = null;
+        closeChannel();
         if (file != null) {
             file.delete();
             file = null;
@@ -554,7 +654,7 @@ public class ExporterI extends AbstractCloseableAmdServant implements
     // Misc. helpers.
     // =========================================================================
 
-    private long getMetadataBytes(OmeroReader reader)
+    private long getMetadataBytes(int planeCount)
             throws DependencyException, ServiceException {
 
         String xml = service.getOMEXML(retrieve);
@@ -565,20 +665,29 @@ public class ExporterI extends AbstractCloseableAmdServant implements
         } catch (UnsupportedEncodingException e) {
             throw new RuntimeException("Failed to convert to UTF-8", e);
         }
-        long planebytes = reader.planes * 512;
+        long planebytes = planeCount * 512L;
         return planebytes + xmlbytes;
     }
 
-    private long getDataBytes(OmeroReader reader) {
-        return (long) reader.planes * reader.sizeX * reader.sizeY *
-            FormatTools.getBytesPerPixel(reader.getPixelType());
+    private long getDataBytes(int[][] sizes, int planeCount, int bytesPerPixel) {
+        long bytes = 0;
+        for (int[] size : sizes) {
+            bytes += (long) planeCount * size[0] * size[1] * bytesPerPixel;
+        }
+        return bytes;
     }
 
-    private boolean requiresPyramid(ServiceFactory sf, long id) {
-        ome.model.core.Pixels _p =
-            sf.getQueryService().get(ome.model.core.Pixels.class, id);
-        return pixelsService.requiresPixelsPyramid(_p);
+    /**
+     * @return the tile size to write, the buffer's tile width if it is a
+     * multiple of 16 as TIFF requires, otherwise {@link #TILE_SIZE}
+     */
+    private int tileSize(Dimension bufferTileSize) {
+        if (bufferTileSize != null && bufferTileSize.width > 0
+                && bufferTileSize.width % 16 == 0
+                && bufferTileSize.width == bufferTileSize.height) {
+            return bufferTileSize.width;
+        }
+        return TILE_SIZE;
     }
 
-
 }
@@ -19,6 +19,7 @@ import ome.api.IQuery;
 import ome.conditions.InternalException;
 import ome.conditions.ResourceError;
 import ome.formats.OMEROMetadataStore;
+import ome.formats.OMEROMetadataStoreClient;
 import ome.io.nio.OriginalFilesService;
 import ome.model.IObject;
 import ome.model.core.OriginalFile;
@@ -87,6 +88,20 @@ public class MetadataStoreI extends AbstractCloseableAmdServant implements
 
     protected final String omeroDataDir;
 
+    /**
+     * Streamed batches which arrived before the batches sent before them,
+     * by sequence number. Guarded by itself, as are {@link #nextBatch} and
+     * {@link #batchRunning}.
+     */
+    private final Map<Long, BatchAdapter> pendingBatches =
+            new HashMap<Long, BatchAdapter>();
+
+    /** The sequence number of the next streamed batch to apply. */
+    private long nextBatch = 0;
+
+    /** If a streamed batch has been dispatched and not yet completed. */
+    private boolean batchRunning = false;
+
     public MetadataStoreI(final BlitzExecutor be, PopulateRoiJob popRoi,
             SqlAction sql, OriginalFilesService filesService,
             String omeroDataDir) throws Exception {
@@ -211,7 +226,10 @@ public class MetadataStoreI extends AbstractCloseableAmdServant implements
                     @Transactional(readOnly = false)
                     public Object doWork(Session session, ServiceFactory sf) {
                         Map<String, List<? extends IObject>> rv = new HashMap<String, List<? extends IObject>>();
-                        List<Pixels> pix = store.saveToDB(link_);
+                        final List<Pixels> pix;
+                        synchronized (store) {
+                            pix = store.saveToDB(link_);
+                        }
                         rv.put("Pixels", pix);
                         parsePixels(pix, rv, sf.getQueryService());
                         return rv;
@@ -219,45 +237,176 @@ public class MetadataStoreI extends AbstractCloseableAmdServant implements
                 }));
     }
 
+    /**
+     * @return the sequence number of a batch streamed by
+     * {@link ome.formats.OMEROMetadataStoreClient}, or {@code null} if the
+     * batch was not streamed and so is not sequenced
+     */
+    private static Long batchNumber(Current __current) throws ServerError {
+        final String batch = __current.ctx == null ? null
+                : __current.ctx.get(OMEROMetadataStoreClient.BATCH_CONTEXT);
+        if (batch == null) {
+            return null;
+        }
+        try {
+            return Long.valueOf(batch);
+        } catch (NumberFormatException nfe) {
+            throw new omero.ApiUsageException(null, null,
+                    "Invalid metadata batch: " + batch);
+        }
+    }
+
+    /**
+     * Runs a streamed batch, then dispatches the batch sent after it once
+     * this batch's transaction has ended.
+     */
+    private class BatchAdapter extends Adapter {
+
+        private final Current current;
+
+        private final long batch;
+
+        BatchAdapter(long batch, Object callback, Current current,
+                IceMapper mapper, Executor.Work work) {
+            super(callback, current, mapper, sf.executor, sf.principal, work);
+            this.current = current;
+            this.batch = batch;
+        }
+
+        @Override
+        public void run(OmeroContext ctx) {
+            try {
+                super.run(ctx);
+            } finally {
+                batchDone();
+            }
+        }
+
+        /**
+         * Fails the batch without running it.
+         * @param reason why the batch was not run
+         */
+        void abandon(String reason) {
+            exception(new omero.ApiUsageException(null, null, reason), null);
+        }
+    }
+
+    /**
+     * Runs the work for a batch of metadata. Streamed batches may be
+     * dispatched in any order while earlier ones are in flight, but the
+     * store must see them in the order sent. So, rather than wait inside a
+     * transaction, a batch which arrives early is held until the batches
+     * before it have completed.
+     * @param batch the batch's sequence number, may be {@code null}
+     */
+    private void runBatch(Long batch, Object __cb, Current __current,
+            IceMapper mapper, Executor.Work work) {
+        if (batch == null) {
+            runnableCall(__current, new Adapter(__cb, __current, mapper,
+                    this.sf.executor, this.sf.principal, work));
+            return;
+        }
+        final BatchAdapter adapter =
+                new BatchAdapter(batch, __cb, __current, mapper, work);
+        final boolean repeated;
+        synchronized (pendingBatches) {
+            repeated = batch < nextBatch
+                    || batch == nextBatch && batchRunning
+                    || pendingBatches.containsKey(batch);
+            if (!repeated) {
+                pendingBatches.put(batch, adapter);
+            }
+        }
+        if (repeated) {
+            adapter.abandon("Repeated metadata batch: " + batch);
+        } else {
+            dispatchBatch();
+        }
+    }
+
+    /**
+     * Dispatches the next streamed batch if it has arrived and no other
+     * streamed batch is running.
+     */
+    private void dispatchBatch() {
+        final BatchAdapter next;
+        synchronized (pendingBatches) {
+            if (batchRunning) {
+                return;
+            }
+            next = pendingBatches.remove(nextBatch);
+            if (next == null) {
+                return;
+            }
+            batchRunning = true;
+        }
+        try {
+            runnableCall(next.current, next);
+        } catch (RuntimeException rt) {
+            log.error("Failed to dispatch metadata batch " + next.batch, rt);
+            next.abandon("Failed to dispatch metadata batch " + next.batch);
+            batchDone();
+        }
+    }
+
+    /**
+     * Lets the next streamed batch be dispatched, whether or not the
+     * running batch succeeded.
+     */
+    private void batchDone() {
+        synchronized (pendingBatches) {
+            batchRunning = false;
+            nextBatch++;
+        }
+        dispatchBatch();
+    }
+
     public void updateObjects_async(AMD_MetadataStore_updateObjects __cb,
             final IObjectContainer[] objects, Current __current)
             throws ServerError {
         final IceMapper mapper = new IceMapper(IceMapper.VOID);
-        runnableCall(__current, new Adapter(__cb, __current, mapper,
-                this.sf.executor, this.sf.principal, new Executor.SimpleWork(
-                        this, "updateObjects") {
+        runBatch(batchNumber(__current), __cb, __current, mapper,
+                new Executor.SimpleWork(this, "updateObjects") {
                     @Transactional(readOnly = true)
                     public Object doWork(Session session, ServiceFactory sf) {
-                        for (IObjectContainer o : objects) {
-                            IObject sourceObject;
+                        // Batches without a sequence number may run
+                        // concurrently so only the store itself is locked.
+                        final IObject[] sourceObjects = new IObject[objects.length];
+                        for (int i = 0; i < objects.length; i++) {
                             try {
-                                sourceObject = (IObject) mapper
-                                        .reverse(o.sourceObject);
+                                sourceObjects[i] = (IObject) mapper
+                                        .reverse(objects[i].sourceObject);
                             } catch (Exception e) {
                                 // TODO: This is **WRONG**; exception handling
                                 // here is messed up.
                                 throw new RuntimeException(e);
                             }
-                            store.updateObject(o.LSID, sourceObject, o.indexes);
+                        }
+                        synchronized (store) {
+                            for (int i = 0; i < objects.length; i++) {
+                                store.updateObject(objects[i].LSID,
+                                        sourceObjects[i], objects[i].indexes);
+                            }
                         }
                         return null;
                     }
-                }));
+                });
     }
 
     public void updateReferences_async(AMD_MetadataStore_updateReferences __cb,
             final Map<String, String[]> references, Current __current)
             throws ServerError {
         final IceMapper mapper = new IceMapper(IceMapper.VOID);
-        runnableCall(__current, new Adapter(__cb, __current, mapper,
-                this.sf.executor, this.sf.principal, new Executor.SimpleWork(
-                        this, "updateReferences") {
+        runBatch(batchNumber(__current), __cb, __current, mapper,
+                new Executor.SimpleWork(this, "updateReferences") {
                     @Transactional(readOnly = true)
                     public Object doWork(Session session, ServiceFactory sf) {
-                        store.updateReferences(references);
+                        synchronized (store) {
+                            store.updateReferences(references);
+                        }
                         return null;
                     }
-                }));
+                });
     }
 
     /**
@@ -465,6 +614,17 @@ public class MetadataStoreI extends AbstractCloseableAmdServant implements
 
     @Override
     protected void preClose(Ice.Current current) {
+        final List<BatchAdapter> abandoned;
+        final long missing;
+        synchronized (pendingBatches) {
+            abandoned = new ArrayList<BatchAdapter>(pendingBatches.values());
+            pendingBatches.clear();
+            missing = nextBatch;
+        }
+        for (final BatchAdapter adapter : abandoned) {
+            adapter.abandon("Closed before metadata batch " + missing
+                    + " arrived");
+        }
         // Nulling should be sufficient.
         store = null;
     }
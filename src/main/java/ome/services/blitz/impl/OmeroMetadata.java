@@ -38,6 +38,7 @@ import java.util.Set;
 import java.util.UUID;
 
 import loci.formats.meta.DummyMetadata;
+import loci.formats.meta.IPyramidStore;
 import loci.formats.meta.MetadataRetrieve;
 import loci.formats.meta.MetadataStore;
 import ome.conditions.ApiUsageException;
@@ -115,7 +116,7 @@ import org.slf4j.LoggerFactory;
  * @author Curtis Rueden ctrueden at wisc.edu
  * @author m.t.b.carroll@dundee.ac.uk
  */
-public class OmeroMetadata extends DummyMetadata {
+public class OmeroMetadata extends DummyMetadata implements IPyramidStore {
 
     private final static Logger log = LoggerFactory.getLogger(OmeroMetadata.class);
 
@@ -150,6 +151,10 @@ public class OmeroMetadata extends DummyMetadata {
     // ROIs
     private final List<Roi> roiList = new ArrayList<Roi>();
 
+    // Sizes of the sub-resolutions of images, as set for export
+    private final Map<Integer, List<int[]>> resolutionSizes =
+        new HashMap<Integer, List<int[]>>();
+
     private final DatabaseIdentity db;
 
     public OmeroMetadata(DatabaseIdentity db) {
@@ -2527,6 +2532,65 @@ public class OmeroMetadata extends DummyMetadata {
         return getShapeTransform(ROIIndex, shapeIndex, Mask.class);
     }
 
+    // -- IPyramidStore --
+
+    /**
+     * @return the number of resolutions of the image, including the full
+     * resolution, which is resolution {@code 0}
+     */
+    @Override
+    public int getResolutionCount(int imageIndex)
+    {
+        List<int[]> sizes = resolutionSizes.get(imageIndex);
+        return sizes == null ? 1 : sizes.size() + 1;
+    }
+
+    @Override
+    public PositiveInteger getResolutionSizeX(int imageIndex, int resolution)
+    {
+        if (resolution == 0) {
+            return getPixelsSizeX(imageIndex);
+        }
+        return new PositiveInteger(resolutionSizes.get(imageIndex).get(resolution - 1)[0]);
+    }
+
+    @Override
+    public PositiveInteger getResolutionSizeY(int imageIndex, int resolution)
+    {
+        if (resolution == 0) {
+            return getPixelsSizeY(imageIndex);
+        }
+        return new PositiveInteger(resolutionSizes.get(imageIndex).get(resolution - 1)[1]);
+    }
+
+    @Override
+    public void setResolutionSizeX(PositiveInteger sizeX, int imageIndex, int resolution)
+    {
+        resolutionSize(imageIndex, resolution)[0] = sizeX.getValue();
+    }
+
+    @Override
+    public void setResolutionSizeY(PositiveInteger sizeY, int imageIndex, int resolution)
+    {
+        resolutionSize(imageIndex, resolution)[1] = sizeY.getValue();
+    }
+
+    private int[] resolutionSize(int imageIndex, int resolution)
+    {
+        if (resolution < 1) {
+            throw new ApiUsageException("Only sub-resolutions may be set");
+        }
+        List<int[]> sizes = resolutionSizes.get(imageIndex);
+        if (sizes == null) {
+            sizes = new ArrayList<int[]>();
+            resolutionSizes.put(imageIndex, sizes);
+        }
+        while (sizes.size() < resolution) {
+            sizes.add(new int[2]);
+        }
+        return sizes.get(resolution - 1);
+    }
+
     class OmeroMetadataRoot implements MetadataRoot
     {
     }
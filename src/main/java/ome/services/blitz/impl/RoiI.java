@@ -5,21 +5,13 @@
 
 package ome.services.blitz.impl;
 
-import java.awt.Color;
-import java.awt.Point;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-
-import javax.imageio.ImageIO;
 
 import ome.api.IQuery;
 import ome.api.IUpdate;
@@ -30,6 +22,8 @@ import ome.services.blitz.util.BlitzExecutor;
 import ome.services.blitz.util.BlitzOnly;
 import ome.services.blitz.util.ServiceFactoryAware;
 import ome.services.roi.GeomTool;
+import ome.services.roi.LabelImage;
+import ome.services.roi.ShapeIndex;
 import ome.services.throttling.Adapter;
 import ome.services.util.Executor.SimpleWork;
 import ome.system.ServiceFactory;
@@ -39,6 +33,7 @@ import omero.ServerError;
 import omero.api.AMD_IRoi_findByImage;
 import omero.api.AMD_IRoi_findByPlane;
 import omero.api.AMD_IRoi_findByRoi;
+import omero.api.AMD_IRoi_findByViewport;
 import omero.api.AMD_IRoi_getMeasuredRois;
 import omero.api.AMD_IRoi_getMeasuredRoisMap;
 import omero.api.AMD_IRoi_getPoints;
@@ -80,6 +75,11 @@ public class RoiI extends AbstractAmdServant implements _IRoiOperations,
     
     protected final SqlAction sql;
 
+    /** The most shapes that {@link #findByViewport_async} returns. */
+    private static final int MAX_VIEWPORT_SHAPES = 10000;
+
+    protected ShapeIndex shapeIndex = new ShapeIndex(0, 256);
+
     public RoiI(BlitzExecutor be, GeomTool geomTool, SqlAction sql) {
     	super(null, be);
         this.geomTool = geomTool;
@@ -90,6 +90,10 @@ public class RoiI extends AbstractAmdServant implements _IRoiOperations,
         this.factory = sf;
     }
 
+    public void setShapeIndex(ShapeIndex shapeIndex) {
+        this.shapeIndex = shapeIndex;
+    }
+
     // ~ Service methods
     // =========================================================================
 
@@ -177,6 +181,83 @@ public class RoiI extends AbstractAmdServant implements _IRoiOperations,
         }));
     }
 
+    public void findByViewport_async(AMD_IRoi_findByViewport __cb,
+            final long imageId, final int z, final int t, final int x,
+            final int y, final int width, final int height,
+            final int resolution, final RoiOptions opts, Current __current)
+            throws ServerError {
+
+        final IceMapper mapper = new IceMapper(new SimplifyingReturnMapper(
+                new RoiResultReturnMapper(opts), resolution));
+
+        runnableCall(__current, new Adapter(__cb, __current, mapper, factory
+                .getExecutor(), factory.principal, new SimpleWork(this,
+                "findByViewport", imageId, z, t, x, y, width, height) {
+
+            @Transactional(readOnly = true)
+            public Object doWork(Session session, ServiceFactory sf) {
+
+                final List<Long> found = shapeIndex.find(session, imageId, z, t,
+                        x, y, width, height);
+                int offset = 0;
+                int limit = MAX_VIEWPORT_SHAPES;
+                if (opts != null) {
+                    if (opts.offset != null) {
+                        offset = Math.max(0, opts.offset.getValue());
+                    }
+                    if (opts.limit != null) {
+                        limit = Math.min(limit, opts.limit.getValue());
+                    }
+                }
+                final int end = (int) Math.min(Integer.MAX_VALUE, (long) offset + Math.max(0, limit));
+                // The shapes are paged once filtered so only owner and group apply.
+                RoiOptions unpaged = null;
+                if (opts != null) {
+                    unpaged = (RoiOptions) opts.clone();
+                    unpaged.offset = null;
+                    unpaged.limit = null;
+                }
+                final Filter f = filter(unpaged);
+                // Filter the shapes found in batches until enough are visible to page.
+                final List<Long> visible = new ArrayList<Long>();
+                for (int from = 0; from < found.size() && visible.size() < end;
+                        from += MAX_VIEWPORT_SHAPES) {
+                    final QueryBuilder qb = new QueryBuilder();
+                    qb.select("s.id").from("Shape", "s");
+                    qb.join("s.roi", "r", false, false);
+                    qb.where();
+                    qb.and("s.id in (:ids)");
+                    qb.filter("r", f);
+                    qb.filterNow();
+                    qb.order("s.id", true); // ascending
+                    qb.paramList("ids", found.subList(from,
+                            Math.min(found.size(), from + MAX_VIEWPORT_SHAPES)));
+                    @SuppressWarnings("unchecked")
+                    final List<Long> batch = qb.queryWithoutFilter(session).list();
+                    visible.addAll(batch);
+                }
+                final List<Long> ids = visible.subList(Math.min(offset, visible.size()),
+                        Math.min(visible.size(), end));
+                if (ids.isEmpty()) {
+                    return null;
+                }
+                final QueryBuilder qb = new QueryBuilder();
+                qb.select("distinct r").from("Roi", "r");
+                qb.join("r.shapes", "s", false, true); // fetch
+                qb.join("r.folderLinks", "folderLinks", true, true); // fetch
+                qb.join("folderLinks.parent", "folder", true, true); // fetch
+                qb.where();
+                qb.and("s.id in (:ids)");
+                qb.filter("r", f);
+                qb.filterNow();
+                qb.order("r.id", true); // ascending
+                qb.paramList("ids", ids);
+                return qb.queryWithoutFilter(session).list();
+
+            }
+        }));
+    }
+
     public void getPoints_async(AMD_IRoi_getPoints __cb, final long shapeId,
             Current __current) throws ServerError {
 
@@ -395,112 +476,6 @@ public class RoiI extends AbstractAmdServant implements _IRoiOperations,
         });
     }
 
-    class MaskClass
-    {
-    	Set<Point> points;
-    	int colour;
-    	Point min, max;
-    	int width;
-		int height;
-	 
-    	MaskClass(int value)
-    	{
-    		points = new HashSet<Point>();
-    		colour = value;
-    	}
-    	
-    	public Color getColour()
-    	{
-    		return new Color(colour);
-    	}
-    	
-    	
-    	public byte[] asBytes() throws IOException
-    	{
-    	   		
-    		byte[] data = new byte[(int) Math.ceil((double)width*(double)height/8.0)];
-    		int offset = 0;
-    		for(int y = min.y ; y < max.y + 1 ; y++)
-    		{
-    			for(int x = min.x ; x < max.x + 1 ; x++)
-    			{
-    				if(points.contains(new Point(x,y)))
-    					setBit(data, offset, 1);
-    				else
-    					setBit(data, offset, 0);
-    				offset++;
-    			}
-    		}
-    		return data;
-    	}
-    	
-    	public void add(Point p)
-    	{
-    		if(points.size()==0)
-    		{
-    			min = new Point(p);
-    			max = new Point(p);
-    		}
-    		else
-    		{
-    			min.x = Math.min(p.x, min.x);
-    			min.y = Math.min(p.y, min.y);
-    			max.x = Math.max(p.x, max.x);
-    			max.y = Math.max(p.y, max.y);
-    		}
-   			width = max.x-min.x+1;
-			height = max.y-min.y+1;
-    		points.add(p);
-    	}
-    	
-    	public ome.model.roi.Mask asMaskI(int z, int t) throws IOException
-    	{
-    		ome.model.roi.Mask mask = new ome.model.roi.Mask();
-    		mask.setX((double)min.x);
-    		mask.setY((double)min.y);
-    		mask.setWidth((double)width);
-    		mask.setHeight((double)height);
-    		mask.setLocked(true);
-    		mask.setTheT(t);
-    		mask.setTheZ(z);
-    		byte[] theseBytes;
-    		theseBytes = this.asBytes();
-    		mask.setBytes(theseBytes);
-    		return mask;
-    	}
-    	
-    	/** 
-    	 * Set the bit value in a byte array at position bit to be the value
-    	 * value.
-    	 * @param data See above.
-    	 * @param bit See above.
-    	 * @param val See above.
-    	 */
-    	private void setBit(byte[] data, int bit, int val) 
-    	{
-    		int bytePosition = bit/8;
-    		int bitPosition = 7-bit%8;
-    		data[bytePosition] = (byte) ((byte)(data[bytePosition]&
-    									(~(byte)(0x1<<bitPosition)))|
-    									(byte)(val<<bitPosition));
-    	}
-
-    	/** 
-    	 * Set the bit value in a byte array at position bit to be the value
-    	 * value.
-    	 * @param data See above.
-    	 * @param bit See above.
-    	 * @param val See above.
-    	 */
-    	private byte getBit(byte[] data, int bit) 
-    	{
-    		int bytePosition = bit/8;
-    		int bitPosition = 7-bit%8;
-    		return (byte) ((byte)(data[bytePosition] & (0x1<<bitPosition))!=0 ? (byte)1 : (byte)0);
-    	}
-
-    }
-    
     @SuppressWarnings("unchecked")
     private <T extends IObject> T safeReverse(Object o, IceMapper mapper) {
         try {
@@ -529,7 +504,6 @@ public class RoiI extends AbstractAmdServant implements _IRoiOperations,
 				
 				ome.model.core.Image image;
 				ome.model.roi.Roi roi;
-				ByteArrayInputStream s = new ByteArrayInputStream(bytes);
 				IQuery query = sf.getQueryService();
 				IObject o =  query.findByQuery("from Image as i left outer join " +
 						"fetch i.pixels as p where i.id = "+imageId, null);
@@ -537,36 +511,17 @@ public class RoiI extends AbstractAmdServant implements _IRoiOperations,
 				try
 				{
 					image = (ome.model.core.Image) o;
-					BufferedImage inputImage = ImageIO.read(s);
-					Map<Integer, MaskClass> map = new HashMap<Integer, MaskClass>();
-					MaskClass mask;
-					int value;
-					for (int x = 0; x < inputImage.getWidth(); x++)
-						for (int y = 0; y < inputImage.getHeight(); y++)
-						{
-							value = inputImage.getRGB(x, y);
-							if(value==Color.black.getRGB())
-								continue;
-							if (!map.containsKey(value))
-							{
-								mask = new MaskClass(value);
-								map.put(value, mask);
-							}
-							else
-								mask = map.get(value);
-							mask.add(new Point(x, y));
-						}
-					Iterator<Integer> maskIterator = map.keySet().iterator();
-					while (maskIterator.hasNext())
+					LabelImage labels = LabelImage.read(bytes);
+					List<ome.model.roi.Mask> masks = labels.asMasks(z, t);
+					IObject[] rois = new IObject[masks.size()];
+					for (int i = 0; i < rois.length; i++)
 					{
-						int colour = maskIterator.next();
-						mask = map.get(colour);
 						roi = new ome.model.roi.Roi();
 						roi.setImage(image);
-						ome.model.roi.Mask  toSaveMask = mask.asMaskI(z, t);
-						roi.addShape(toSaveMask);
-						ome.model.roi.Roi newROI  = update.saveAndReturnObject(roi);
+						roi.addShape(masks.get(i));
+						rois[i] = roi;
 					}
+					update.saveAndReturnIds(rois);
 					return null;
 				} catch (Exception e)
 				{
@@ -687,6 +642,54 @@ public class RoiI extends AbstractAmdServant implements _IRoiOperations,
         }
     }
 
+    /**
+     * Simplifies the points of the polygons and polylines of a
+     * {@link RoiResult} for viewing at a reduced resolution.
+     */
+    private static class SimplifyingReturnMapper implements
+            IceMapper.ReturnMapping {
+
+        private final IceMapper.ReturnMapping delegate;
+
+        private final int resolution;
+
+        SimplifyingReturnMapper(IceMapper.ReturnMapping delegate, int resolution) {
+            this.delegate = delegate;
+            this.resolution = resolution;
+        }
+
+        public Object mapReturnValue(IceMapper mapper, Object value)
+                throws Ice.UserException {
+            RoiResult result = (RoiResult) delegate.mapReturnValue(mapper, value);
+            if (resolution <= 0) {
+                return result;
+            }
+            /* Half a pixel of the image as viewed. */
+            final double tolerance = Math.scalb(1.0, Math.min(resolution, 30)) / 2;
+            for (Roi roi : result.rois) {
+                Iterator<Shape> it = ((omero.model.RoiI) roi).iterateShapes();
+                while (it.hasNext()) {
+                    Shape shape = it.next();
+                    if (shape instanceof omero.model.Polygon) {
+                        omero.model.Polygon polygon = (omero.model.Polygon) shape;
+                        polygon.setPoints(simplify(polygon.getPoints(), tolerance));
+                    } else if (shape instanceof omero.model.Polyline) {
+                        omero.model.Polyline polyline = (omero.model.Polyline) shape;
+                        polyline.setPoints(simplify(polyline.getPoints(), tolerance));
+                    }
+                }
+            }
+            return result;
+        }
+
+        private static omero.RString simplify(omero.RString points, double tolerance) {
+            if (points == null) {
+                return null;
+            }
+            return omero.rtypes.rstring(ShapeIndex.simplifyPoints(points.getValue(), tolerance));
+        }
+    }
+
     public static class RoiResultMapReturnMapper implements
             IceMapper.ReturnMapping {
 
@@ -23,12 +23,12 @@ import ome.services.blitz.fire.TopicManager;
 import ome.services.blitz.util.BlitzExecutor;
 import ome.services.blitz.util.BlitzOnly;
 import ome.services.blitz.util.ParamsCache;
+import ome.services.blitz.util.ResourceDirectory;
 import ome.services.blitz.util.ResultHolder;
 import ome.services.blitz.util.ServiceFactoryAware;
 import ome.services.scripts.ScriptRepoHelper;
 import ome.services.util.Executor;
 import ome.system.ServiceFactory;
-import ome.util.Filterable;
 import omero.ApiUsageException;
 import omero.InternalException;
 import omero.RTime;
@@ -97,6 +97,12 @@ public class SharedResourcesI extends AbstractCloseableAmdServant implements
 
     private final ParamsCache paramsCache;
 
+    /**
+     * The shared directory of repositories and tables services, or
+     * {@code null} if this servant creates its own on first use.
+     */
+    private ResourceDirectory directory;
+
     /**
      * How long to wait for shared resources (e.g. TablesPrx) to respond to
      * requests.
@@ -142,6 +148,13 @@ public class SharedResourcesI extends AbstractCloseableAmdServant implements
         }
     }
 
+    public SharedResourcesI(BlitzExecutor be, TopicManager topicManager,
+                Registry registry, ScriptRepoHelper helper, ParamsCache cache,
+                long waitMillis, long timeout, ResourceDirectory directory) {
+        this(be, topicManager, registry, helper, cache, waitMillis, timeout);
+        this.directory = directory;
+    }
+
     public void setServiceFactory(ServiceFactoryI sf) throws ServerError {
         this.sf = sf;
     }
@@ -214,11 +227,17 @@ public class SharedResourcesI extends AbstractCloseableAmdServant implements
         return holder.get();
     }
 
+    private synchronized ResourceDirectory directory() {
+        if (directory == null) {
+            directory = new ResourceDirectory(registry, sf.executor,
+                    sf.principal, waitMillis);
+        }
+        return directory;
+    }
+
     // Public interface
     // =========================================================================
 
-    static String QUERY = "select o from OriginalFile o where o.mimetype = 'Repository'";
-
     public RepositoryPrx getScriptRepository(Current __current)
             throws ServerError {
         InternalRepositoryPrx[] repos = registry.lookupRepositories();
@@ -235,81 +254,29 @@ public class SharedResourcesI extends AbstractCloseableAmdServant implements
         return prx == null ? null : prx.getProxy();
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * Answers from the {@link ResourceDirectory}, which is refreshed in the
+     * background, rather than querying the database and each repository.
+     * The repositories which are not responding are listed only if the
+     * caller may read them.
+     */
     public RepositoryMap repositories(Current current) throws ServerError {
 
-        // TODO
-        // Possibly need to throttle the numbers of acquisitions per time.
-        // Need to keep up with closing
-        // might need to cache the found repositories.
-
-        IceMapper mapper = new IceMapper();
-        List<OriginalFile> objs = (List<OriginalFile>) mapper
-                .map((List<Filterable>) sf.executor.execute(current.ctx, sf.principal,
-                        new Executor.SimpleWork(this, "acquireRepositories") {
-                            @Transactional(readOnly = true)
-                            public Object doWork(Session session,
-                                    ServiceFactory sf) {
-                                return sf.getQueryService().findAllByQuery(
-                                        QUERY, null);
-                            }
-                        }));
-
-        InternalRepositoryPrx[] repos = registry.lookupRepositories();
+        final ResourceDirectory.Snapshot found = directory().get(current.ctx, sf.principal);
 
         RepositoryMap map = new RepositoryMap();
-        map.descriptions = new ArrayList<OriginalFile>();
-        map.proxies = new ArrayList<RepositoryPrx>();
-
-        List<Long> found = new ArrayList<Long>();
-        for (InternalRepositoryPrx i : repos) {
-            if (i == null) {
-                continue;
-            }
-            try {
-                OriginalFile desc = i.getDescription();
-                if (desc == null || desc.getId() == null) {
-                    log.warn("Description is null for " + i);
-                    continue;
-                }
-                RepositoryPrx proxy = i.getProxy();
-                map.descriptions.add(desc);
-                map.proxies.add(proxy);
-                found.add(desc.getId().getValue());
+        map.descriptions = new ArrayList<OriginalFile>(found.descriptions);
+        map.proxies = new ArrayList<RepositoryPrx>(found.proxies);
+        for (RepositoryPrx proxy : map.proxies) {
+            if (proxy != null) {
                 sf.allow(proxy);
-            } catch (Ice.LocalException e) {
-                // Ok.
             }
         }
-
-        for (OriginalFile r : objs) {
-            if (!found.contains(r.getId().getValue())) {
-                map.descriptions.add(r);
-                map.proxies.add(null);
-            }
-        }
-
         return map;
     }
 
     public boolean areTablesEnabled(Current __current) throws ServerError {
-        TablesPrx[] tables = registry.lookupTables();
-        return null != lookup(waitMillis, Arrays.<Ice.ObjectPrx> asList(tables),
-                new RepeatTask<TablesPrx>() {
-                    public void requestService(Ice.ObjectPrx prx,
-                            final ResultHolder<TablesPrx> holder) {
-                        final TablesPrx server = TablesPrxHelper
-                                .checkedCast(prx);
-                        try {
-                            if (server != null && server.getRepository() != null) {
-                                holder.set(server);
-                            }
-                        } catch (Exception e) {
-                            log.debug("Exception on getRepository: " + e);
-                            holder.set(null);
-                        }
-                    }
-                });
+        return !directory().get().tables.isEmpty();
     }
 
     public TablePrx newTable(final long repo, String path, Current __current)
@@ -380,9 +347,13 @@ public class SharedResourcesI extends AbstractCloseableAmdServant implements
         }
 
         // Okay. All's valid.
-        TablesPrx[] tables = registry.lookupTables();
-        TablePrx tablePrx = (TablePrx) lookup(waitMillis,
-                Arrays.<Ice.ObjectPrx> asList(tables),
+        // Ask the responsive tables services, or all if none are known.
+        List<Ice.ObjectPrx> tables = new ArrayList<Ice.ObjectPrx>(
+                directory().get().tables);
+        if (tables.isEmpty()) {
+            tables = Arrays.<Ice.ObjectPrx> asList(registry.lookupTables());
+        }
+        TablePrx tablePrx = (TablePrx) lookup(waitMillis, tables,
                 new RepeatTask<TablePrx>() {
                     public void requestService(Ice.ObjectPrx prx,
                             final ResultHolder holder) throws ServerError {
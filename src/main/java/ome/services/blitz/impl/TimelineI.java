@@ -13,15 +13,19 @@ import static omero.rtypes.rlong;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 
 import ome.api.IShare;
+import ome.api.local.LocalAdmin;
 import ome.conditions.InternalException;
 import ome.conditions.ValidationException;
 import ome.model.IObject;
@@ -38,6 +42,7 @@ import ome.services.blitz.util.ServiceFactoryAware;
 import ome.services.sessions.SessionManager;
 import ome.services.throttling.Adapter;
 import ome.services.util.Executor.SimpleWork;
+import ome.system.EventContext;
 import ome.system.Principal;
 import ome.system.ServiceFactory;
 import ome.tools.hibernate.QueryBuilder;
@@ -205,19 +210,16 @@ public class TimelineI extends AbstractAmdServant implements
                 .getExecutor(), factory.principal, new SimpleWork(this,
                 "getByPeriod") {
 
-            @SuppressWarnings("unchecked")
             @Transactional(readOnly = true)
             public Object doWork(Session session, ServiceFactory sf) {
 
                 Parameters pWithDefaults = applyDefaults(p);
-                Map<String, List<IObject>> returnValue = (Map<String, List<IObject>>) do_periodQuery(
-                        false, types, start, end, null, session, pWithDefaults);
-
                 if (merge) {
-                    returnValue = mergeMap(returnValue, pWithDefaults, false);
+                    return mergeMap(types, start, end, session, sf,
+                            pWithDefaults);
                 }
-
-                return returnValue;
+                return do_periodQuery(false, types, start, end, null, session,
+                        pWithDefaults);
             }
 
         }));
@@ -249,12 +251,10 @@ public class TimelineI extends AbstractAmdServant implements
 
                 // WORKAROUND - currently there are no events for
                 // Image.acquisitionDate meaning we have to generate them
-                // here.
+                // here. Only the ID and date of each image are needed.
                 QueryBuilder qb = new QueryBuilder(256);
-                qb.select("i");
+                qb.select("i.id, i.acquisitionDate");
                 qb.from("Image", "i");
-                qb.join("i.details.owner", "owner", true, true);
-                qb.join("i.details.group", "group", true, true);
                 qb.where();
                 qb.and("i.acquisitionDate > :start ");
                 qb.param("start", new Timestamp(start.getValue()));
@@ -262,18 +262,19 @@ public class TimelineI extends AbstractAmdServant implements
                 qb.param("end", new Timestamp(end.getValue()));
 
                 // OWNER/GROUP
-                applyOwnerGroup(pWithDefaults, qb, "owner.id", "group.id");
+                applyOwnerGroup(pWithDefaults, qb, "i.details.owner.id",
+                        "i.details.group.id");
 
                 Query q = qb.query(session);
                 applyParameters(pWithDefaults, q);
-                List<Image> images = (List<Image>) q.list();
-                for (Image image : images) {
+                List<Object[]> images = (List<Object[]>) q.list();
+                for (Object[] image : images) {
                     EventLog el = new EventLog();
-                    el.setEntityId(image.getId());
-                    el.setEntityType(image.getClass().getName());
+                    el.setEntityId((Long) image[0]);
+                    el.setEntityType(Image.class.getName());
                     el.setAction("INSERT");
                     el.setEvent(new Event());
-                    el.getEvent().setTime(image.getAcquisitionDate());
+                    el.getEvent().setTime((Timestamp) image[1]);
                     logs.add(el);
                 }
                 return logs;
@@ -294,19 +295,16 @@ public class TimelineI extends AbstractAmdServant implements
                 .getExecutor(), factory.principal, new SimpleWork(this,
                 "getMostRecentObjects") {
 
-            @SuppressWarnings("unchecked")
             @Transactional(readOnly = true)
             public Object doWork(Session session, ServiceFactory sf) {
 
                 Parameters pWithDefaults = applyDefaults(p);
-                Map<String, List<IObject>> returnValue = (Map<String, List<IObject>>) do_periodQuery(
-                        false, types, null, null, null, session, pWithDefaults);
-
                 if (merge) {
-                    returnValue = mergeMap(returnValue, pWithDefaults, false);
+                    return mergeMap(types, null, null, session, sf,
+                            pWithDefaults);
                 }
-
-                return returnValue;
+                return do_periodQuery(false, types, null, null, null, session,
+                        pWithDefaults);
             }
 
         }));
@@ -398,7 +396,7 @@ public class TimelineI extends AbstractAmdServant implements
                     rv.put(_parentType, q.list());
                 }
 
-                return mergeList(rv, pWithDefaults, false);
+                return mergeList(rv, pWithDefaults);
             }
 
         }));
@@ -470,6 +468,59 @@ public class TimelineI extends AbstractAmdServant implements
     // Helpers
     // =========================================================================
 
+    /** How long, in milliseconds, the objects chosen by a merge are reused. */
+    private static final long SELECTION_TTL = 10000L;
+
+    /** How many merges have their chosen objects cached. */
+    private static final int SELECTION_CACHE_SIZE = 256;
+
+    /**
+     * The objects chosen by recent merges, shared by all sessions and keyed
+     * by user, group and query. See {@link #mergeMap}.
+     */
+    private static final Map<String, Selection> SELECTIONS =
+            new LinkedHashMap<String, Selection>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Selection> eldest) {
+                    return size() > SELECTION_CACHE_SIZE;
+                }
+            };
+
+    /**
+     * The objects chosen by a merge, valid while no newer event exists.
+     */
+    private static final class Selection {
+        final long lastEventId;
+        final long created = System.currentTimeMillis();
+        final List<Entry> entries;
+
+        Selection(long lastEventId, List<Entry> entries) {
+            this.lastEventId = lastEventId;
+            this.entries = entries;
+        }
+    }
+
+    /**
+     * A query run for each requested type by {@link #perType}.
+     */
+    private interface TypeQuery {
+        Object run(String type, Session session);
+    }
+
+    /**
+     * Runs a query for each of the given types in turn, all in the caller's
+     * session and transaction.
+     * @return the result of each query by type
+     */
+    private Map<String, Object> perType(final Collection<String> types,
+            final Session _s, final TypeQuery query) {
+        final Map<String, Object> rv = new HashMap<String, Object>();
+        for (final String type : types) {
+            rv.put(type, query.run(type, _s));
+        }
+        return rv;
+    }
+
     /**
      * Main implementation for most of the interface methods in TimelineI.
      * Arguments: - parameters : if null, then no setFirst or setMax will be
@@ -480,95 +531,114 @@ public class TimelineI extends AbstractAmdServant implements
             final Object missingValue, final Session _s,
             final Parameters parameters) {
 
-        final long activeStart;
-        if (start != null) {
-            activeStart = start.getValue();
-        } else {
-            activeStart = omero.rtypes.rtime_min().getValue();
-        }
-
-        final long activeEnd;
-        if (end != null) {
-            activeEnd = end.getValue();
-        } else {
-            activeEnd = omero.rtypes.rtime_max().getValue();
-        }
-
-        List<String> activeTypes = types;
-        if (types == null || types.size() == 0) {
-            activeTypes = new ArrayList<String>(ALLTYPES);
-        }
+        final long activeStart = activeStart(start);
+        final long activeEnd = activeEnd(end);
 
         final Map<String, Object> returnValue = new HashMap<String, Object>();
-        for (final String type : activeTypes) {
-
-            String qString = BYPERIOD.get(type);
-            if (qString == null) {
+        final List<String> queried = new ArrayList<String>();
+        for (final String type : activeTypes(types)) {
+            if (BYPERIOD.containsKey(type)) {
+                queried.add(type);
+            } else {
                 returnValue.put(type, missingValue);
-                continue;
             }
+        }
 
-            QueryBuilder qb = new QueryBuilder(256);
-            if (count) {
-                qb.select("count(obj)");
-                qb.skipFrom();
-                qb.append(qString.replaceAll("@FETCH@", ""));
-            } else {
-                qb.select("obj");
-                qb.skipFrom();
-                qb.append(qString.replaceAll("@FETCH@", "fetch"));
+        returnValue.putAll(perType(queried, _s, new TypeQuery() {
+            public Object run(String type, Session session) {
+                Query q = periodQuery(type, count ? "count(obj)" : "obj",
+                        !count, !count, activeStart, activeEnd, parameters,
+                        null, session);
+                applyParameters(parameters, q);
+                return count ? q.uniqueResult() : q.list();
             }
-            qb.skipWhere();
-            qb.and("");
-
-            String owningObject = OWNERSHIP.get(type);
-            if (owningObject == null) {
-                if ("EventLog".equals(type)) {
-                    // SPECIAL LOGIC WORKAROUND for the complicated EventLog
-                    // query
-                	
-                	if (parameters != null && parameters.theFilter != null) {
-                		if (parameters.theFilter.ownerId != null) {
-                            qb.and("e.experimenter.id = :owner_id");
-                            qb.param("owner_id", parameters.theFilter.ownerId
-                                    .getValue());
-                        }
-                		if (parameters.theFilter.groupId != null) {
-                            qb.and("e.experimenterGroup.id = :group_id");
-                            qb.param("group_id", parameters.theFilter.groupId
-                                    .getValue());
-                        }
-                	}
-                    qb.append(")");
-                } else {
-                    throw new InternalException("No ownership info for: "
-                            + type);
-                }
+        }));
+        return returnValue;
+    }
+
+    /**
+     * Builds the query of a single type from {@link #BYPERIOD}.
+     * @param select what to select of "obj"
+     * @param fetch if the joins are to be fetched
+     * @param ordered if the results are to be ordered as in {@link #ORDERBY}
+     * @param ids if not null, the only objects to select
+     */
+    private Query periodQuery(String type, String select, boolean fetch,
+            boolean ordered, long activeStart, long activeEnd,
+            Parameters parameters, Collection<Long> ids, Session _s) {
+
+        QueryBuilder qb = new QueryBuilder(256);
+        qb.select(select);
+        qb.skipFrom();
+        qb.append(BYPERIOD.get(type).replaceAll("@FETCH@", fetch ? "fetch" : ""));
+        qb.skipWhere();
+        qb.and("");
+
+        String owningObject = OWNERSHIP.get(type);
+        if (owningObject == null) {
+            if ("EventLog".equals(type)) {
+                // SPECIAL LOGIC WORKAROUND for the complicated EventLog
+                // query
+            	
+            	if (parameters != null && parameters.theFilter != null) {
+            		if (parameters.theFilter.ownerId != null) {
+                        qb.and("e.experimenter.id = :owner_id");
+                        qb.param("owner_id", parameters.theFilter.ownerId
+                                .getValue());
+                    }
+            		if (parameters.theFilter.groupId != null) {
+                        qb.and("e.experimenterGroup.id = :group_id");
+                        qb.param("group_id", parameters.theFilter.groupId
+                                .getValue());
+                    }
+            	}
+                qb.append(")");
             } else {
-                applyOwnerGroup(parameters, qb, owningObject
-                        + ".details.owner.id", owningObject
-                        + ".details.group.id");
+                throw new InternalException("No ownership info for: "
+                        + type);
             }
+        } else {
+            applyOwnerGroup(parameters, qb, owningObject
+                    + ".details.owner.id", owningObject
+                    + ".details.group.id");
+        }
 
-            if (!count) {
-                String orderBy = ORDERBY.get(type);
-                if (orderBy != null) {
-                    qb.append(orderBy);
-                }
+        if (ids != null) {
+            qb.and("obj.id in (:ids)");
+            qb.paramList("ids", ids);
+        }
+
+        if (ordered) {
+            String orderBy = ORDERBY.get(type);
+            if (orderBy != null) {
+                qb.append(orderBy);
             }
+        }
 
-            qb.param("start", new Timestamp(activeStart));
-            qb.param("end", new Timestamp(activeEnd));
-            Query q = qb.query(_s);
-            applyParameters(parameters, q);
+        qb.param("start", new Timestamp(activeStart));
+        qb.param("end", new Timestamp(activeEnd));
+        return qb.query(_s);
+    }
 
-            if (count) {
-                returnValue.put(type, q.uniqueResult());
-            } else {
-                returnValue.put(type, q.list());
-            }
+    private static long activeStart(RTime start) {
+        if (start != null) {
+            return start.getValue();
         }
-        return returnValue;
+        return omero.rtypes.rtime_min().getValue();
+    }
+
+    private static long activeEnd(RTime end) {
+        if (end != null) {
+            return end.getValue();
+        }
+        return omero.rtypes.rtime_max().getValue();
+    }
+
+    private static List<String> activeTypes(List<String> types) {
+        if (types == null || types.size() == 0) {
+            return new ArrayList<String>(ALLTYPES);
+        }
+        return types;
     }
 
     /**
@@ -599,41 +669,67 @@ public class TimelineI extends AbstractAmdServant implements
     static class Entry {
         final Timestamp update;
         final String key;
+        final long id;
         final IObject obj;
 
         Entry(String key, IObject obj) {
             this.key = key;
             this.obj = obj;
+            this.id = obj.getId();
             this.update = obj.getDetails().getUpdateEvent().getTime();
         }
-    }
 
-    private List<Entry> mergeEntries(Map<String, List<IObject>> toMerge,
-            Parameters p, boolean ascending) {
+        Entry(String key, long id, Timestamp update) {
+            this.key = key;
+            this.obj = null;
+            this.id = id;
+            this.update = update;
+        }
+    }
 
-        final int swap = ascending ? 1 : -1;
-        
-        List<Entry> list = new ArrayList<Entry>();
-        for (String key : toMerge.keySet()) {
-            for (IObject obj : toMerge.get(key)) {
-                list.add(new Entry(key, obj));
+    /**
+     * Orders entries by update time, ties broken by type then ID so that
+     * which of equally recent entries are kept does not depend on the order
+     * in which they were found.
+     */
+    static final Comparator<Entry> LEAST_RECENT_FIRST = new Comparator<Entry>() {
+        public int compare(Entry o1, Entry o2) {
+            long u1 = o1.update.getTime();
+            long u2 = o2.update.getTime();
+            if (u1 < u2) {
+                return -1;
+            } else if (u2 < u1) {
+                return 1;
             }
+            final int byType = o1.key.compareTo(o2.key);
+            if (byType != 0) {
+                return byType;
+            }
+            return Long.compare(o1.id, o2.id);
         }
+    };
 
-        Collections.sort(list, new Comparator<Entry>() {
-            public int compare(Entry o1, Entry o2) {
-                long u1 = o1.update.getTime();
-                long u2 = o2.update.getTime();
-                if (u1 < u2) {
-                    return 1 * swap;
-                } else if (u2 < u1) {
-                    return -1 * swap;
-                } else {
-                    return 0;
-                }
+    /**
+     * Keeps only the most recently updated entries in a heap bounded by the
+     * limit rather than sorting all of them.
+     * @return at most limit entries, most recently updated first
+     */
+    static List<Entry> mostRecent(Collection<Entry> entries, int limit) {
+        if (limit <= 0) {
+            return new ArrayList<Entry>();
+        }
+        final PriorityQueue<Entry> heap = new PriorityQueue<Entry>(
+                Math.max(1, Math.min(limit, entries.size())), LEAST_RECENT_FIRST);
+        for (final Entry entry : entries) {
+            if (heap.size() < limit) {
+                heap.add(entry);
+            } else if (LEAST_RECENT_FIRST.compare(entry, heap.peek()) > 0) {
+                heap.poll();
+                heap.add(entry);
             }
-        });
-
+        }
+        final List<Entry> list = new ArrayList<Entry>(heap);
+        Collections.sort(list, Collections.reverseOrder(LEAST_RECENT_FIRST));
         return list;
     }
 
@@ -642,44 +738,129 @@ public class TimelineI extends AbstractAmdServant implements
      * {@link #applyDefaults(Parameters)}
      */
     private List<IObject> mergeList(Map<String, List<IObject>> toMerge,
-            Parameters p, boolean ascending) {
+            Parameters p) {
 
-        List<Entry> list = mergeEntries(toMerge, p, ascending);
-        List<IObject> rv = new ArrayList<IObject>();
-        int limit = p.theFilter.limit.getValue();
+        List<Entry> entries = new ArrayList<Entry>();
+        for (String key : toMerge.keySet()) {
+            for (IObject obj : toMerge.get(key)) {
+                entries.add(new Entry(key, obj));
+            }
+        }
 
-        for (int i = 0; i < Math.min(limit, list.size()); i++) {
-            Entry entry = list.get(i);
+        List<IObject> rv = new ArrayList<IObject>();
+        for (Entry entry : mostRecent(entries, p.theFilter.limit.getValue())) {
             rv.add(entry.obj);
         }
-
         return rv;
     }
 
     /**
+     * Finds the most recently updated objects of the given types. Only the
+     * ID and update time of each candidate is queried, and only the objects
+     * chosen from those are loaded. The choice is reused by the same user in
+     * the same group for a few seconds, until another event is written.
+     *
      * Accepts only a properly initialzed {@link Parameters} instance. See
      * {@link #applyDefaults(Parameters)}
      */
-    private Map<String, List<IObject>> mergeMap(
-            Map<String, List<IObject>> toMerge, Parameters p,
-            boolean ascending) {
+    @SuppressWarnings("unchecked")
+    private Map<String, List<IObject>> mergeMap(final List<String> types,
+            final RTime start, final RTime end, final Session _s,
+            final ServiceFactory sf, final Parameters p) {
+
+        final long activeStart = activeStart(start);
+        final long activeEnd = activeEnd(end);
 
         // Prepare return value so there are no null arrays.
-        Map<String, List<IObject>> rv = new HashMap<String, List<IObject>>();
-        for (String key : toMerge.keySet()) {
-            rv.put(key, new ArrayList<IObject>());
+        final Map<String, List<IObject>> rv = new HashMap<String, List<IObject>>();
+        final List<String> queried = new ArrayList<String>();
+        for (final String type : activeTypes(types)) {
+            rv.put(type, new ArrayList<IObject>());
+            if (BYPERIOD.containsKey(type)) {
+                queried.add(type);
+            }
         }
-        
-        List<Entry> list = mergeEntries(toMerge, p, ascending);
-        toMerge = null;
-
-        int limit = p.theFilter.limit.getValue();
-        for (int i = 0; i < Math.min(limit, list.size()); i++) {
-            Entry entry = list.get(i);
-            List<IObject> objs = rv.get(entry.key);
-            objs.add(entry.obj);
+
+        final Number lastEvent = (Number) _s.createSQLQuery(
+                "select max(id) from event").uniqueResult();
+        final long lastEventId = lastEvent == null ? 0 : lastEvent.longValue();
+        final EventContext ec = ((LocalAdmin) sf.getAdminService())
+                .getEventContextQuiet();
+        final Filter f = p.theFilter;
+        final String key = ec.getCurrentUserId() + ":" + ec.getCurrentGroupId()
+                + ":" + queried + ":" + activeStart + ":" + activeEnd + ":"
+                + (f.ownerId == null ? null : f.ownerId.getValue()) + ":"
+                + (f.groupId == null ? null : f.groupId.getValue()) + ":"
+                + f.offset.getValue() + ":" + f.limit.getValue();
+
+        List<Entry> chosen = null;
+        synchronized (SELECTIONS) {
+            final Selection selection = SELECTIONS.get(key);
+            if (selection != null && selection.lastEventId == lastEventId
+                    && System.currentTimeMillis() - selection.created < SELECTION_TTL) {
+                chosen = selection.entries;
+            }
         }
 
+        if (chosen == null) {
+            final Map<String, Object> candidates = perType(queried, _s,
+                    new TypeQuery() {
+                        public Object run(String type, Session session) {
+                            Query q = periodQuery(type,
+                                    "obj.id, obj.details.updateEvent.time",
+                                    false, true, activeStart, activeEnd, p,
+                                    null, session);
+                            applyParameters(p, q);
+                            return q.list();
+                        }
+                    });
+            final List<Entry> entries = new ArrayList<Entry>();
+            for (final Map.Entry<String, Object> typeCandidates : candidates.entrySet()) {
+                for (final Object[] row : (List<Object[]>) typeCandidates.getValue()) {
+                    entries.add(new Entry(typeCandidates.getKey(),
+                            (Long) row[0], (Timestamp) row[1]));
+                }
+            }
+            chosen = Collections.unmodifiableList(mostRecent(entries,
+                    f.limit.getValue()));
+            synchronized (SELECTIONS) {
+                SELECTIONS.put(key, new Selection(lastEventId, chosen));
+            }
+        }
+
+        final Map<String, List<Long>> ids = new HashMap<String, List<Long>>();
+        for (final Entry entry : chosen) {
+            List<Long> typeIds = ids.get(entry.key);
+            if (typeIds == null) {
+                typeIds = new ArrayList<Long>();
+                ids.put(entry.key, typeIds);
+            }
+            typeIds.add(entry.id);
+        }
+
+        final Map<String, Object> loaded = perType(ids.keySet(), _s,
+                new TypeQuery() {
+                    public Object run(String type, Session session) {
+                        return periodQuery(type, "obj", true, false,
+                                activeStart, activeEnd, p, ids.get(type),
+                                session).list();
+                    }
+                });
+        final Map<String, Map<Long, IObject>> byId = new HashMap<String, Map<Long, IObject>>();
+        for (final Map.Entry<String, Object> typeObjects : loaded.entrySet()) {
+            final Map<Long, IObject> objects = new HashMap<Long, IObject>();
+            for (final IObject obj : (List<IObject>) typeObjects.getValue()) {
+                objects.put(obj.getId(), obj);
+            }
+            byId.put(typeObjects.getKey(), objects);
+        }
+        for (final Entry entry : chosen) {
+            // Missing if deleted since the objects were chosen.
+            final IObject obj = byId.get(entry.key).get(entry.id);
+            if (obj != null) {
+                rv.get(entry.key).add(obj);
+            }
+        }
         return rv;
     }
 
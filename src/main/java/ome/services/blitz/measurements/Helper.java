@@ -4,6 +4,8 @@
  */
 package ome.services.blitz.measurements;
 
+import java.util.Arrays;
+
 import omero.ServerError;
 import omero.ValidationException;
 import omero.grid.BoolColumn;
@@ -73,8 +75,17 @@ public abstract class Helper {
 
     abstract Column newInstance();
 
+    /**
+     * Sizes the values of a column, keeping the current array if it is
+     * already of the given length.
+     */
     abstract void setSize(Column col, int length);
 
+    /**
+     * Shortens the values of a column to the given length.
+     */
+    abstract void truncate(Column col, int length);
+
     abstract void setValue(Column col, int rowIdx, Object object);
 
     static class FileHelper extends Helper {
@@ -85,7 +96,16 @@ public abstract class Helper {
 
         @Override
         void setSize(Column col, int length) {
-            ((FileColumn) col).values = new long[length];
+            FileColumn c = (FileColumn) col;
+            if (c.values == null || c.values.length != length) {
+                c.values = new long[length];
+            }
+        }
+
+        @Override
+        void truncate(Column col, int length) {
+            FileColumn c = (FileColumn) col;
+            c.values = Arrays.copyOf(c.values, length);
         }
 
         @Override
@@ -102,7 +122,16 @@ public abstract class Helper {
 
         @Override
         void setSize(Column col, int length) {
-            ((RoiColumn) col).values = new long[length];
+            RoiColumn c = (RoiColumn) col;
+            if (c.values == null || c.values.length != length) {
+                c.values = new long[length];
+            }
+        }
+
+        @Override
+        void truncate(Column col, int length) {
+            RoiColumn c = (RoiColumn) col;
+            c.values = Arrays.copyOf(c.values, length);
         }
 
         @Override
@@ -119,7 +148,16 @@ public abstract class Helper {
 
         @Override
         void setSize(Column col, int length) {
-            ((ImageColumn) col).values = new long[length];
+            ImageColumn c = (ImageColumn) col;
+            if (c.values == null || c.values.length != length) {
+                c.values = new long[length];
+            }
+        }
+
+        @Override
+        void truncate(Column col, int length) {
+            ImageColumn c = (ImageColumn) col;
+            c.values = Arrays.copyOf(c.values, length);
         }
 
         @Override
@@ -137,7 +175,16 @@ public abstract class Helper {
 
         @Override
         void setSize(Column col, int length) {
-            ((WellColumn) col).values = new long[length];
+            WellColumn c = (WellColumn) col;
+            if (c.values == null || c.values.length != length) {
+                c.values = new long[length];
+            }
+        }
+
+        @Override
+        void truncate(Column col, int length) {
+            WellColumn c = (WellColumn) col;
+            c.values = Arrays.copyOf(c.values, length);
         }
 
         @Override
@@ -154,7 +201,16 @@ public abstract class Helper {
 
         @Override
         void setSize(Column col, int length) {
-            ((BoolColumn) col).values = new boolean[length];
+            BoolColumn c = (BoolColumn) col;
+            if (c.values == null || c.values.length != length) {
+                c.values = new boolean[length];
+            }
+        }
+
+        @Override
+        void truncate(Column col, int length) {
+            BoolColumn c = (BoolColumn) col;
+            c.values = Arrays.copyOf(c.values, length);
         }
 
         @Override
@@ -172,7 +228,16 @@ public abstract class Helper {
 
         @Override
         void setSize(Column col, int length) {
-            ((DoubleColumn) col).values = new double[length];
+            DoubleColumn c = (DoubleColumn) col;
+            if (c.values == null || c.values.length != length) {
+                c.values = new double[length];
+            }
+        }
+
+        @Override
+        void truncate(Column col, int length) {
+            DoubleColumn c = (DoubleColumn) col;
+            c.values = Arrays.copyOf(c.values, length);
         }
 
         @Override
@@ -190,7 +255,16 @@ public abstract class Helper {
 
         @Override
         void setSize(Column col, int length) {
-            ((LongColumn) col).values = new long[length];
+            LongColumn c = (LongColumn) col;
+            if (c.values == null || c.values.length != length) {
+                c.values = new long[length];
+            }
+        }
+
+        @Override
+        void truncate(Column col, int length) {
+            LongColumn c = (LongColumn) col;
+            c.values = Arrays.copyOf(c.values, length);
         }
 
         @Override
@@ -207,7 +281,16 @@ public abstract class Helper {
 
         @Override
         void setSize(Column col, int length) {
-            ((StringColumn) col).values = new String[length];
+            StringColumn c = (StringColumn) col;
+            if (c.values == null || c.values.length != length) {
+                c.values = new String[length];
+            }
+        }
+
+        @Override
+        void truncate(Column col, int length) {
+            StringColumn c = (StringColumn) col;
+            c.values = Arrays.copyOf(c.values, length);
         }
 
         @Override
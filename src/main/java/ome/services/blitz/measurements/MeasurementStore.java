@@ -9,6 +9,8 @@ package ome.services.blitz.measurements;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -29,24 +31,56 @@ import org.slf4j.LoggerFactory;
  * Parser API implementation for storing result measurements from SPW companion
  * files as ROIs and OMERO.tables.
  * 
+ * Rows may be added in any number of chunks. They are buffered in the
+ * primitive arrays of the table columns and written to the table each time
+ * a batch is full, the new ROIs and other unsaved objects being saved first
+ * in batches of their own. Any ROIs which a row refers to must therefore be
+ * added before the batch holding the row is full. {@link #save()} writes
+ * the remaining rows.
+ * 
  * @since Beta4.1
  */
 public class MeasurementStore implements OmeroMeasurementStore {
 
+    /**
+     * Notified each time a batch of rows is written to the table.
+     */
+    public interface Progress {
+
+        /**
+         * @param rows how many rows have been written so far
+         * @param objects how many objects have been saved so far
+         */
+        void written(long rows, long objects);
+    }
+
     // Static
 
     private final static Logger log = LoggerFactory.getLogger(MeasurementStore.class);
 
+    /** The default number of rows written to the table at a time. */
+    public final static int DEFAULT_ROW_BATCH_SIZE = 10000;
+
+    /** The default number of objects saved at a time. */
+    public final static int DEFAULT_OBJECT_BATCH_SIZE = 1000;
+
     // Final
 
     private final Map<String, IObject> lsidMap = new HashMap<String, IObject>();
 
+    /** The objects of {@link #lsidMap} which are yet to be saved. */
+    private final Map<String, IObject> unsaved = new LinkedHashMap<String, IObject>();
+
     private final List<Long> roiIds = new ArrayList<Long>();
 
     private final LocalUpdate update;
 
     private final TablePrx table;
 
+    private final int rowBatchSize;
+
+    private final int objectBatchSize;
+
     // Mutable
 
     private Map<String, Object> metadata;
@@ -59,14 +93,38 @@ public class MeasurementStore implements OmeroMeasurementStore {
 
     private SmartColumns cols;
 
-    private Object[][] rows;
+    private Progress progress;
+
+    private long rowCount = 0;
 
     private boolean initialized = false;
 
     public MeasurementStore(LocalUpdate update, TablePrx table)
             throws ServerError {
+        this(update, table, DEFAULT_ROW_BATCH_SIZE, DEFAULT_OBJECT_BATCH_SIZE);
+    }
+
+    /**
+     * @param rowBatchSize how many rows to write to the table at a time
+     * @param objectBatchSize how many ROIs and other objects to save at a time
+     */
+    public MeasurementStore(LocalUpdate update, TablePrx table,
+            int rowBatchSize, int objectBatchSize) throws ServerError {
+        if (rowBatchSize < 1 || objectBatchSize < 1) {
+            throw new ApiUsageException(null, null,
+                    "Batch sizes must be positive");
+        }
         this.table = table;
         this.update = update;
+        this.rowBatchSize = rowBatchSize;
+        this.objectBatchSize = objectBatchSize;
+    }
+
+    /**
+     * Sets the listener to notify of each batch of rows written.
+     */
+    public void setProgress(Progress progress) {
+        this.progress = progress;
     }
 
     // LOCI API
@@ -85,7 +143,7 @@ public class MeasurementStore implements OmeroMeasurementStore {
         this.idTypes = idTypes;
         this.types = types;
 
-        cols = new SmartColumns(lsidMap, headers, idTypes, types);
+        cols = new SmartColumns(lsidMap, headers, idTypes, types, rowBatchSize);
         table.initialize(cols.asArray());
         Map<String, RType> dict = new HashMap<String, RType>();
         if (metadata != null) {
@@ -102,24 +160,37 @@ public class MeasurementStore implements OmeroMeasurementStore {
         if (lsid != null) {
             if (obj == null) {
                 lsidMap.remove(lsid);
+                unsaved.remove(lsid);
             } else {
                 lsidMap.put(lsid, obj);
+                if (obj.getId() == null) {
+                    unsaved.put(lsid, obj);
+                } else {
+                    unsaved.remove(lsid);
+                }
             }
         }
     }
 
     public void addObjects(Map<String, IObject> map) {
         if (map != null) {
-            lsidMap.putAll(map);
+            for (Map.Entry<String, IObject> entry : map.entrySet()) {
+                addObject(entry.getKey(), entry.getValue());
+            }
         }
     }
 
     public void addRows(Object[][] rows) throws ServerError {
+        if (!initialized) {
+            throw new ApiUsageException(null, null, "Not initialized");
+        }
         if (rows != null) {
-            throw new ApiUsageException(null, null,
-                    "Call save before adding more data");
+            for (Object[] row : rows) {
+                if (cols.add(row) == rowBatchSize) {
+                    flush();
+                }
+            }
         }
-        this.rows = rows;
     }
 
     public void addCircle(String roiLsid, double x, double y, double r)
@@ -145,7 +216,10 @@ public class MeasurementStore implements OmeroMeasurementStore {
                     "No image set; cannot create Roi");
         }
         roi.setImage(image);
-        lsidMap.put(lsid, roi);
+        addObject(lsid, roi);
+        if (unsaved.size() >= objectBatchSize) {
+            saveObjects();
+        }
     }
 
     /*
@@ -159,29 +233,57 @@ public class MeasurementStore implements OmeroMeasurementStore {
             throw new ApiUsageException(null, null, "Not initialized");
         }
 
+        flush();
+
+    }
+
+    /**
+     * Writes the buffered rows to the table.
+     */
+    private void flush() throws ServerError {
+
         //
         // First save the rois, so that if it fails, no changes will be
         // made to the table
         //
-        List<IObject> unsaved = new ArrayList<IObject>();
-        for (Map.Entry<String, IObject> entry : lsidMap.entrySet()) {
-            unsaved.add(entry.getValue());
+        saveObjects();
+
+        // Now send the filled columns to the table instance
+        int size = cols.size();
+        if (size > 0) {
+            table.addData(cols.flush());
+            rowCount += size;
+        }
+
+        log.debug("Written {} rows and saved {} objects", rowCount,
+                roiIds.size());
+        if (progress != null) {
+            progress.written(rowCount, roiIds.size());
         }
-        if (unsaved.size() > 0) {
-            IObject[] objs = unsaved.toArray(new IObject[unsaved.size()]);
+
+    }
+
+    /**
+     * Saves the unsaved objects in batches, after which only their ids are
+     * kept.
+     */
+    private void saveObjects() {
+        while (!unsaved.isEmpty()) {
+            List<IObject> batch = new ArrayList<IObject>(Math.min(
+                    objectBatchSize, unsaved.size()));
+            Iterator<IObject> it = unsaved.values().iterator();
+            while (it.hasNext() && batch.size() < objectBatchSize) {
+                batch.add(it.next());
+                it.remove();
+            }
+            IObject[] objs = batch.toArray(new IObject[batch.size()]);
             List<Long> ids = update.saveAndReturnIds(objs);
             for (int i = 0; i < ids.size(); i++) {
-                unsaved.get(i).setId(ids.get(i));
-                unsaved.get(i).unload();
+                batch.get(i).setId(ids.get(i));
+                batch.get(i).unload();
                 roiIds.add(ids.get(i));
             }
         }
-
-        // Now fill the columns with data, and send to the table instance
-        cols.fill(rows);
-        table.addData(cols.asArray());
-        rows = null;
-
     }
 
     // OMERO API
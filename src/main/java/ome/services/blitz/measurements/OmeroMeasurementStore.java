@@ -28,11 +28,12 @@ public interface OmeroMeasurementStore {
 
     /**
      * Adds an array of rows (Object[]) to the store. These rows might be
-     * indexed by an LSID which correlates to an added ROI. For each call to
-     * {@link #addRows(Object[][])} a call to {@link #save()} must be made. This
-     * allows a single measurement store to be filled with the values from
-     * multiple measurement files. To differentiate between the various files,
-     * include a File lsid column during the initialization phase.
+     * indexed by an LSID which correlates to an added ROI. Rows may be added
+     * in any number of calls, after which a call to {@link #save()} must be
+     * made. This allows a single measurement store to be filled with the
+     * values from multiple or very large measurement files. To differentiate
+     * between the various files, include a File lsid column during the
+     * initialization phase.
      * 
      * @param rows
      * @throws Exception
@@ -15,7 +15,10 @@ import omero.grid.Column;
 
 /**
  * Wrapper around an array of columns for facilitating instantiation and
- * mutation.
+ * mutation. Rows are buffered directly in the primitive arrays of the columns
+ * up to a fixed capacity, and the arrays are reused after each
+ * {@link #flush()}. The LSIDs of the id columns are only resolved to ids
+ * on flush, since the objects they name may not yet have been saved.
  * 
  * @since Beta4.1
  */
@@ -26,8 +29,17 @@ class SmartColumns {
     Column[] cols;
     Helper[] helpers;
 
+    /** The buffered LSIDs of each id column. */
+    String[][] lsids;
+
+    /** How many rows may be buffered. */
+    final int capacity;
+
+    /** How many rows are buffered. */
+    int size = 0;
+
     SmartColumns(Map<String, IObject> lsidMap, String[] headers,
-            String[] idTypes, Class[] types) throws ServerError {
+            String[] idTypes, Class[] types, int capacity) throws ServerError {
 
         if (types == null || headers == null) {
             throw new omero.ApiUsageException(null, null,
@@ -40,10 +52,17 @@ class SmartColumns {
                     headers.length));
         }
 
+        if (capacity < 1) {
+            throw new omero.ApiUsageException(null, null,
+                    "capacity must be positive: " + capacity);
+        }
+
         this.lsidMap = lsidMap;
         this.idTypes = idTypes;
+        this.capacity = capacity;
         cols = new Column[headers.length];
         helpers = new Helper[headers.length];
+        lsids = new String[idTypes.length][];
 
         for (int i = 0; i < idTypes.length; i++) {
             if (idTypes[i].contains("Roi")) {
@@ -65,46 +84,95 @@ class SmartColumns {
 
     }
 
-    public void fill(Object[][] data) {
-
-        //
-        // Now that we have ids for all of the objects, we can parse the
-        // data[][] into columns and pass to the table instance.
-        //
+    /**
+     * Buffers a row.
+     * 
+     * @param row the LSIDs of the id columns followed by the values
+     * @return how many rows are now buffered
+     * @throws ServerError if the row does not match the columns or there is
+     * no room for it
+     */
+    public int add(Object[] row) throws ServerError {
+
+        if (row == null || row.length != cols.length) {
+            throw new omero.ApiUsageException(null, null, String.format(
+                    "row.length (%s) != headers.length (%s)",
+                    row == null ? null : row.length, cols.length));
+        }
 
-        // Initialize the columns
-        for (int colIdx = 0; colIdx < cols.length; colIdx++) {
-            Helper helper = helpers[colIdx];
-            Column col = cols[colIdx];
-            helper.setSize(col, data.length);
+        if (size == capacity) {
+            throw new omero.ApiUsageException(null, null,
+                    "Columns full; flush before adding more rows");
         }
 
-        for (int rowIdx = 0; rowIdx < data.length; rowIdx++) {
-            Object[] row = data[rowIdx];
-            // LSIDS
+        if (size == 0) {
+            // (Re)allocates only if the last flush was partial.
+            for (int colIdx = 0; colIdx < cols.length; colIdx++) {
+                helpers[colIdx].setSize(cols[colIdx], capacity);
+            }
             for (int colIdx = 0; colIdx < idTypes.length; colIdx++) {
-                Column col = cols[colIdx];
-                Helper helper = helpers[colIdx];
-                String lsid = (String) data[rowIdx][colIdx];
+                if (lsids[colIdx] == null) {
+                    lsids[colIdx] = new String[capacity];
+                }
+            }
+        }
+
+        // LSIDS
+        for (int colIdx = 0; colIdx < idTypes.length; colIdx++) {
+            lsids[colIdx][size] = (String) row[colIdx];
+        }
+
+        // VALUES
+        for (int colIdx = idTypes.length; colIdx < cols.length; colIdx++) {
+            helpers[colIdx].setValue(cols[colIdx], size, row[colIdx]);
+        }
+
+        return ++size;
+    }
+
+    /**
+     * @return how many rows are buffered
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Fills the id columns from the ids of the saved objects and empties the
+     * buffer. The returned columns hold exactly the buffered rows and are
+     * only valid until the next call to {@link #add(Object[])}.
+     * 
+     * @return the columns to pass to the table instance
+     * @throws ServerError if an LSID does not name a saved object
+     */
+    public Column[] flush() throws ServerError {
+
+        for (int colIdx = 0; colIdx < idTypes.length; colIdx++) {
+            Column col = cols[colIdx];
+            Helper helper = helpers[colIdx];
+            for (int rowIdx = 0; rowIdx < size; rowIdx++) {
+                String lsid = lsids[colIdx][rowIdx];
                 IObject obj = lsidMap.get(lsid);
-                Object value = null;
-                if (obj != null) {
-                    value = obj.getId();
+                if (obj == null || obj.getId() == null) {
+                    throw new omero.ApiUsageException(null, null,
+                            "No saved object for lsid: " + lsid);
                 }
-                helper.setValue(col, rowIdx, value);
+                helper.setValue(col, rowIdx, obj.getId());
+                lsids[colIdx][rowIdx] = null;
             }
+        }
 
-            // VALUES
-            for (int colIdx = idTypes.length; colIdx < cols.length; colIdx++) {
-                Column col = cols[colIdx];
-                Helper helper = helpers[colIdx];
-                helper.setValue(col, rowIdx, data[rowIdx][colIdx]);
+        if (size < capacity) {
+            for (int colIdx = 0; colIdx < cols.length; colIdx++) {
+                helpers[colIdx].truncate(cols[colIdx], size);
             }
         }
 
+        size = 0;
+        return cols;
     }
 
     public Column[] asArray() {
         return cols;
     }
-}
\ No newline at end of file
+}
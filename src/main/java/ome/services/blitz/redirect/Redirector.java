@@ -59,6 +59,17 @@ public interface Redirector {
          * filtering out the inactive ones.
          */
         Set<String> getManagerList(boolean activeOnly);
+
+        /**
+         * Number of sessions which currently have servants on the local node.
+         */
+        int getSessionCount();
+
+        /**
+         * Number of servants currently registered on the local node across
+         * all sessions.
+         */
+        int getServantCount();
     }
 
     /**
@@ -5,25 +5,125 @@
 
 package ome.services.blitz.redirect;
 
-import java.util.ArrayList;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import ome.model.meta.Node;
+import ome.services.throttling.ThrottlingStrategy;
 import ome.services.util.Executor;
+import ome.system.ServiceFactory;
+
+import org.hibernate.Session;
+import org.springframework.transaction.annotation.Transactional;
+
 import Glacier2.CannotCreateSessionException;
 import Glacier2.SessionPrx;
 
 /**
- * Planned implementation (NYI): will use the "Node.scale" column to randomly
- * choose a target.
- * 
+ * {@link Redirector} implementation which places new sessions on the least
+ * loaded node of the cluster. Each node periodically publishes its load to
+ * the "Node.scale" column via {@link #publishLoad()}: a score combining its
+ * sessions, servants, queued calls and heap use, or {@link #UNHEALTHY} if its
+ * heap is nearly exhausted. Heap use is measured as left by the most recent
+ * garbage collection, so that garbage awaiting collection does not make a
+ * node appear full.
+ *
+ * A user who already has an open session on a healthy node is kept on that
+ * node, so that resources shared between their sessions stay together. A
+ * session is only moved to a different node if that node's load is lower by
+ * more than the configured hysteresis, so that placement does not flap
+ * between nodes of similar load.
+ *
+ * A published load may be some seconds old, so the sessions which this node
+ * has redirected to another since that node last published a different load
+ * are added to its load. Otherwise every session started in the meantime
+ * would be sent to the same node.
+ *
  * @since Beta-4.0-RC2
  */
 public class ScaleRedirector extends AbstractRedirector {
 
+    /** The published load of a node which should not receive new sessions. */
+    public static final int UNHEALTHY = -1;
+
+    /** The weight of each session in the load score. */
+    private static final int SESSION_WEIGHT = 10;
+
+    /** The weight of each queued call in the load score. */
+    private static final int QUEUED_WEIGHT = 10;
+
+    /** The fraction of the maximum heap above which a node is unhealthy. */
+    private static final double HEAP_LIMIT = 0.9;
+
+    /** The least difference in load for which a session is moved. */
+    private static final int MIN_MARGIN = SESSION_WEIGHT;
+
+    private final int hysteresis;
+
+    private ThrottlingStrategy throttlingStrategy;
+
+    /** Set once this node has joined the cluster. */
+    private volatile Context context;
+
+    /** The sessions redirected to other nodes not yet counted in their published loads, by UUID. */
+    private final Map<String, Redirects> redirects = new HashMap<String, Redirects>();
+
     public ScaleRedirector(Executor ex) {
+        this(ex, 25);
+    }
+
+    /**
+     * @param ex the executor for queries of the {@link Node} table
+     * @param hysteresis by what percentage another node's load must be lower
+     * before a session is placed there rather than on its current node
+     */
+    public ScaleRedirector(Executor ex, int hysteresis) {
         super(ex);
+        this.hysteresis = hysteresis;
+    }
+
+    /**
+     * Sets the strategy whose queued calls contribute to this node's load.
+     * @see ThrottlingStrategy#getQueuedCalls()
+     */
+    public void setThrottlingStrategy(ThrottlingStrategy throttlingStrategy) {
+        this.throttlingStrategy = throttlingStrategy;
+    }
+
+    /**
+     * The published connection and load of a node.
+     */
+    static final class NodeLoad {
+
+        final String conn;
+
+        final int load;
+
+        NodeLoad(String conn, int load) {
+            this.conn = conn;
+            this.load = load;
+        }
+    }
+
+    /**
+     * The sessions redirected to a node since it published a load.
+     */
+    private static final class Redirects {
+
+        /** The load the node had published when the sessions were redirected. */
+        final int published;
+
+        int sessions = 0;
+
+        Redirects(int published) {
+            this.published = published;
+        }
     }
 
     public SessionPrx getProxyOrNull(Context ctx, String userId,
@@ -32,28 +132,24 @@ public class ScaleRedirector extends AbstractRedirector {
 
         // First, give the abstract class a chance to handle common cases
         SessionPrx prx = super.getProxyOrNull(ctx, userId, control, current);
-        if (prx != null) {
+        if (prx != null || alreadyRouted(current)) {
             return prx; // EARLY EXIT
         }
 
+        final Map<String, NodeLoad> published = activeLoads(ctx);
+        final Map<String, NodeLoad> loads = withRedirects(published);
+        // Our own load is always current.
+        loads.put(ctx.uuid(), new NodeLoad(ctx.getDirectProxy(), currentLoad(ctx)));
+
+        final String target = chooseNode(loads, ctx.uuid(), nodeForUser(ctx, userId));
+
         String proxyString = null;
-        double IMPOSSIBLE = 314159.0;
-        if (Math.random() > IMPOSSIBLE) {
-            Set<String> values = ctx.getManagerList(true);
-            if (values != null) {
-                values.remove(ctx.uuid());
-                int size = values.size();
-                if (size != 0) {
-                    double rnd = Math.floor(size * Math.random());
-                    int idx = (int) Math.round(rnd);
-                    List<String> v = new ArrayList<String>(values);
-                    String uuid = (String) v.get(idx);
-                    proxyString = findProxy(ctx, uuid);
-                    log
-                            .info(String.format("Load balancing to %s",
-                                    proxyString));
-                }
-            }
+        if (!target.equals(ctx.uuid())) {
+            redirected(target, published.get(target).load);
+            proxyString = loads.get(target).conn;
+            log.info(String.format("Load balancing %s to %s (load %d, local %d)",
+                    userId, proxyString, loads.get(target).load,
+                    loads.get(ctx.uuid()).load));
         }
 
         // Handles nulls
@@ -61,20 +157,242 @@ public class ScaleRedirector extends AbstractRedirector {
     }
 
     /**
-     * Does nothing since all redirects are chosen during
-     * {@link #getProxyOrNull(Context, String, Glacier2.SessionControlPrx, Ice.Current)}
+     * Chooses the node for a new session. The node holding the user's other
+     * sessions is preferred if it is healthy, otherwise the local node; a
+     * less loaded node is chosen instead only if worth moving to.
+     * @param loads the loads of the active nodes, by UUID, including the
+     * local node
+     * @param local the UUID of the local node
+     * @param userNode the UUID of the node of the user's most recent open
+     * session, or {@code null}
+     * @return the UUID of the node chosen
+     */
+    String chooseNode(Map<String, NodeLoad> loads, String local, String userNode) {
+        String home = local;
+        if (userNode != null && loads.containsKey(userNode)
+                && loads.get(userNode).load != UNHEALTHY) {
+            home = userNode;
+        }
+
+        String best = null;
+        for (final Map.Entry<String, NodeLoad> entry : loads.entrySet()) {
+            final int load = entry.getValue().load;
+            if (load != UNHEALTHY
+                    && (best == null || load < loads.get(best).load)) {
+                best = entry.getKey();
+            }
+        }
+
+        if (best != null && !best.equals(home)) {
+            final int homeLoad = loads.get(home).load;
+            final int bestLoad = loads.get(best).load;
+            if (homeLoad == UNHEALTHY || isWorthMoving(homeLoad, bestLoad)) {
+                return best;
+            }
+        }
+        return home;
+    }
+
+    /**
+     * Adds to the published loads of nodes the sessions redirected to them
+     * since they published those loads. Once a node publishes a different
+     * load its redirected sessions are taken to be counted in it.
+     * @param published the published loads of the active nodes, by UUID
+     * @return the loads with the redirected sessions added
+     */
+    Map<String, NodeLoad> withRedirects(Map<String, NodeLoad> published) {
+        final Map<String, NodeLoad> loads = new HashMap<String, NodeLoad>(published);
+        synchronized (redirects) {
+            redirects.keySet().retainAll(published.keySet());
+            for (final Map.Entry<String, NodeLoad> entry : published.entrySet()) {
+                final NodeLoad load = entry.getValue();
+                final Redirects redirected = redirects.get(entry.getKey());
+                if (redirected == null) {
+                    continue;
+                }
+                if (redirected.published != load.load) {
+                    redirects.remove(entry.getKey());
+                } else if (load.load != UNHEALTHY) {
+                    final long added = load.load + (long) redirected.sessions * SESSION_WEIGHT;
+                    loads.put(entry.getKey(), new NodeLoad(load.conn,
+                            (int) Math.min(Integer.MAX_VALUE - 1, added)));
+                }
+            }
+        }
+        return loads;
+    }
+
+    /**
+     * Notes that a session was redirected to a node.
+     * @param uuid the UUID of the node
+     * @param published the load last published by the node
+     */
+    void redirected(String uuid, int published) {
+        synchronized (redirects) {
+            Redirects redirected = redirects.get(uuid);
+            if (redirected == null || redirected.published != published) {
+                redirected = new Redirects(published);
+                redirects.put(uuid, redirected);
+            }
+            redirected.sessions++;
+        }
+    }
+
+    /**
+     * @return if a load exceeds another by more than the hysteresis
+     */
+    boolean isWorthMoving(int fromLoad, int toLoad) {
+        return fromLoad - toLoad >= MIN_MARGIN
+                && (long) fromLoad * 100 > (long) toLoad * (100 + hysteresis);
+    }
+
+    /**
+     * Calculates the load score of the local node.
+     */
+    int currentLoad(Context ctx) {
+        final double heap = heapUse(ManagementFactory.getMemoryPoolMXBeans());
+        final int queued = throttlingStrategy == null ? 0 : throttlingStrategy.getQueuedCalls();
+        return score(ctx.getSessionCount(), ctx.getServantCount(), queued, heap);
+    }
+
+    /**
+     * Combines the measures of a node's load into its score.
+     * @param heap the fraction of the maximum heap in use
+     * @return the load score, or {@link #UNHEALTHY}
+     */
+    static int score(int sessions, int servants, int queued, double heap) {
+        if (heap > HEAP_LIMIT) {
+            return UNHEALTHY;
+        }
+        final long score = (long) sessions * SESSION_WEIGHT
+                + servants + (long) queued * QUEUED_WEIGHT;
+        /* Scaled up by heap use so that, of equally busy nodes, the one
+         * with the most headroom is preferred. */
+        return (int) Math.min(Integer.MAX_VALUE - 1, Math.round(score * (1 + heap)));
+    }
+
+    /**
+     * Measures heap use as left by the most recent garbage collection of
+     * each heap pool. The fullest pool is taken, which is the old
+     * generation once it has been collected: the young generation is all
+     * but empty after each collection.
+     * @param pools the memory pools of the JVM
+     * @return the fraction of the maximum heap in use
+     */
+    static double heapUse(List<MemoryPoolMXBean> pools) {
+        double heap = -1;
+        for (final MemoryPoolMXBean pool : pools) {
+            if (pool.getType() != MemoryType.HEAP) {
+                continue;
+            }
+            final MemoryUsage usage = pool.getCollectionUsage();
+            if (usage == null) {
+                continue;
+            }
+            final long max = usage.getMax() < 0 ? usage.getCommitted() : usage.getMax();
+            if (max > 0) {
+                heap = Math.max(heap, (double) usage.getUsed() / max);
+            }
+        }
+        if (heap < 0) {
+            /* no pool reports its use after collection */
+            final Runtime runtime = Runtime.getRuntime();
+            heap = (double) (runtime.totalMemory() - runtime.freeMemory())
+                    / runtime.maxMemory();
+        }
+        return heap;
+    }
+
+    /**
+     * Publishes the load of the local node for other nodes to read. Called
+     * periodically once this node has joined the cluster; does nothing
+     * before then or if this is not the configured {@link Redirector}.
+     */
+    public void publishLoad() {
+        final Context ctx = context;
+        if (ctx != null) {
+            setScale(ctx, ctx.uuid(), currentLoad(ctx));
+        }
+    }
+
+    /**
+     * Records the context and publishes the first load of this node.
      */
-    public void chooseNextRedirect(Context context, Set<String> nodeUuids) {
+    public void chooseNextRedirect(Context ctx, Set<String> nodeUuids) {
+        context = ctx;
+        publishLoad();
+    }
 
+    /**
+     * Removes the published load of a node being shutdown so that it is not
+     * chosen before the {@link Node} table is updated.
+     */
+    public void handleRingShutdown(Context ctx, String uuid) {
+        if (uuid.equals(ctx.uuid())) {
+            context = null;
+        }
+        synchronized (redirects) {
+            redirects.remove(uuid);
+        }
+        setScale(ctx, uuid, null);
     }
 
     /**
-     * Nothing needs to be done on shutdown, since the Ring implementation will
-     * properly disable the {@link Node} table queried during the next call to
-     * {@link #getProxyOrNull(Context, String, Glacier2.SessionControlPrx, Ice.Current)}
+     * Sets the "Node.scale" column directly so that publishing the load is
+     * not itself recorded as an event.
      */
-    public void handleRingShutdown(Context context, String uuid) {
+    private void setScale(Context ctx, final String uuid, final Integer scale) {
+        executor.execute(ctx.principal(), new Executor.SimpleWork(this,
+                "setScale", uuid, scale) {
+            @Transactional(readOnly = false)
+            public Object doWork(Session session, ServiceFactory sf) {
+                return session.createQuery(
+                        "update Node set scale = :scale where uuid = :uuid")
+                        .setParameter("scale", scale)
+                        .setParameter("uuid", uuid).executeUpdate();
+            }
+        });
+    }
 
+    /**
+     * @return the published loads of the active nodes, by UUID
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, NodeLoad> activeLoads(Context ctx) {
+        final List<Object[]> rows = (List<Object[]>) executor.execute(
+                ctx.principal(), new Executor.SimpleWork(this, "activeLoads") {
+                    @Transactional(readOnly = true)
+                    public Object doWork(Session session, ServiceFactory sf) {
+                        return session.createQuery(
+                                "select node.uuid, node.conn, node.scale from Node node "
+                                + "where node.down is null and node.scale is not null")
+                                .list();
+                    }
+                });
+        final Map<String, NodeLoad> loads = new HashMap<String, NodeLoad>();
+        for (final Object[] row : rows) {
+            loads.put((String) row[0], new NodeLoad((String) row[1], (Integer) row[2]));
+        }
+        return loads;
     }
 
-}
\ No newline at end of file
+    /**
+     * @return the UUID of the node of the user's most recent open session,
+     * or {@code null} if they have none
+     */
+    private String nodeForUser(Context ctx, final String userId) {
+        return (String) executor.execute(ctx.principal(),
+                new Executor.SimpleWork(this, "nodeForUser", userId) {
+                    @Transactional(readOnly = true)
+                    public Object doWork(Session session, ServiceFactory sf) {
+                        final List<?> uuids = session.createQuery(
+                                "select node.uuid from Session s join s.node node "
+                                + "where s.owner.omeName = :name and s.closed is null "
+                                + "and node.down is null order by s.started desc")
+                                .setParameter("name", userId)
+                                .setMaxResults(1).list();
+                        return uuids.isEmpty() ? null : uuids.get(0);
+                    }
+                });
+    }
+}
@@ -47,6 +47,7 @@ import omero.grid.InternalRepositoryPrx;
 import omero.grid.RawAccessRequest;
 import omero.grid.RepositoryPrx;
 import omero.grid.RepositoryPrxHelper;
+import omero.grid.VerifyChecksumsResponse;
 import omero.grid._InternalRepositoryDisp;
 import omero.model.OriginalFile;
 import omero.model.OriginalFileI;
@@ -309,6 +310,15 @@ public abstract class AbstractRepositoryI extends _InternalRepositoryDisp
         }
     }
 
+    public VerifyChecksumsResponse verifyChecksumsAfter(long afterId, int limit, int threads,
+            long bytesPerSecond, Current __current) throws ServerError {
+        try {
+            return servant.verifyChecksumsAfter(afterId, limit, threads, bytesPerSecond, __current);
+        } catch (Throwable t) {
+            throw new IceMapper().handleServerError(t, servant.context);
+        }
+    }
+
     public abstract String getFilePath(final OriginalFile file,
             Current __current) throws ServerError;
 
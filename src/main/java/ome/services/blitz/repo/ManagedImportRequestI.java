@@ -24,6 +24,7 @@ import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import loci.formats.FormatException;
 import loci.formats.FormatReader;
@@ -169,6 +170,16 @@ public class ManagedImportRequestI extends ImportRequest implements IRequest {
 
     private final String token;
 
+    /**
+     * Creates additional readers for computing pixel statistics in parallel.
+     */
+    private Callable<OMEROWrapper> statisticsReaders = null;
+
+    /**
+     * The most readers to use at once when computing pixel statistics.
+     */
+    private int statisticsThreads = 1;
+
 
     /**
      * Set by ManagedImportProcessI when verifyUpload has been called.
@@ -192,6 +203,18 @@ public class ManagedImportRequestI extends ImportRequest implements IRequest {
         this.resources = resources;
     }
 
+    /**
+     * Late injection to not break the constructor. With more than one thread
+     * the pixel statistics of {@link #pixelData(PixelDataJob)} are computed by
+     * that many readers at once.
+     * @param readers creates readers like the one given to the constructor
+     * @param threads the most readers to use at once for this import
+     */
+    public void setStatisticsReaders(Callable<OMEROWrapper> readers, int threads) {
+        this.statisticsReaders = readers;
+        this.statisticsThreads = threads;
+    }
+
     /**
      * @param callContext the call context to set
      */
@@ -669,14 +692,18 @@ public class ManagedImportRequestI extends ImportRequest implements IRequest {
         {
             // Parse the binary data to generate min/max values
             int seriesCount = reader.getSeriesCount();
-            for (int series = 0; series < seriesCount; series++) {
-                ImportSize size = new ImportSize(fileName,
-                        pixList.get(series), reader.getDimensionOrder());
-                Pixels pixels = pixList.get(series);
-                MessageDigest md = parseData(fileName, series, size);
-                if (md != null) {
-                   final String s = Hex.encodeHexString(md.digest());
-                   pixels.setSha1(store.toRType(s));
+            if (statisticsReaders != null && statisticsThreads > 1) {
+                parseDataInParallel(seriesCount);
+            } else {
+                for (int series = 0; series < seriesCount; series++) {
+                    ImportSize size = new ImportSize(fileName,
+                            pixList.get(series), reader.getDimensionOrder());
+                    Pixels pixels = pixList.get(series);
+                    MessageDigest md = parseData(fileName, series, size);
+                    if (md != null) {
+                       final String s = Hex.encodeHexString(md.digest());
+                       pixels.setSha1(store.toRType(s));
+                    }
                 }
             }
         }
@@ -812,6 +839,52 @@ public class ManagedImportRequestI extends ImportRequest implements IRequest {
     }
 
 
+    /**
+     * Parse the binary data of every series with several readers at once to
+     * set the pixels checksums and the channel min/max values, as
+     * {@link #parseData(String, int, ImportSize)} and the reader's min/max
+     * calculation would for each series in turn. Each plane is reported
+     * as an import step once parsed, as by the sequential parse.
+     *
+     * @param seriesCount the number of series
+     */
+    private void parseDataInParallel(final int seriesCount)
+        throws FormatException, IOException
+    {
+        int maxPlaneSize = sizes.getMaxPlaneWidth() * sizes.getMaxPlaneHeight();
+        PixelDataStatistics statistics = new PixelDataStatistics(
+                statisticsReaders, file, statisticsThreads,
+                new PixelDataStatistics.Progress() {
+                    public void planeDigested(int series, int plane) {
+                        notifyObservers(new ImportEvent.IMPORT_STEP(
+                                plane, series, seriesCount));
+                    }
+                });
+        List<PixelDataStatistics.Series> parsed =
+            new ArrayList<PixelDataStatistics.Series>(seriesCount);
+        for (int series = 0; series < seriesCount; series++) {
+            reader.setSeries(series);
+            if (((long) reader.getSizeX()
+                 * (long) reader.getSizeY()) > maxPlaneSize) {
+                continue;
+            }
+            getBytesPerPixel(reader.getPixelType());  // check the type
+            ImportSize size = new ImportSize(fileName,
+                    pixList.get(series), reader.getDimensionOrder());
+            parsed.add(statistics.addSeries(series, size));
+        }
+        statistics.run();
+        for (PixelDataStatistics.Series stats : parsed) {
+            Pixels pixels = pixList.get(stats.series);
+            final String s = Hex.encodeHexString(stats.md.digest());
+            pixels.setSha1(store.toRType(s));
+            for (int c = 0; c < stats.channelMinMax.length; c++) {
+                store.setChannelGlobalMinMax(c, stats.channelMinMax[c][0],
+                        stats.channelMinMax[c][1], stats.series);
+            }
+        }
+    }
+
     /**
      * Read a plane and update the pixels checksum
      *
@@ -36,6 +36,7 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -63,7 +64,6 @@ import ome.services.blitz.util.ChecksumAlgorithmMapper;
 import ome.system.Roles;
 import ome.system.ServiceFactory;
 import ome.util.SqlAction;
-import ome.util.checksum.ChecksumProvider;
 import ome.util.checksum.ChecksumProviderFactory;
 import ome.util.checksum.ChecksumProviderFactoryImpl;
 import ome.util.checksum.ChecksumType;
@@ -73,6 +73,7 @@ import omero.ValidationException;
 import omero.grid.ImportLocation;
 import omero.grid.ImportProcessPrx;
 import omero.grid.ImportSettings;
+import omero.grid.VerifyChecksumsResponse;
 import omero.grid._ManagedRepositoryOperations;
 import omero.grid._ManagedRepositoryTie;
 import omero.model.ChecksumAlgorithm;
@@ -372,27 +373,13 @@ public class ManagedRepositoryI extends PublicRepositoryI
         allGroupsCurrent.ctx.put(omero.constants.GROUP.value, "-1");
 
         /* verify the checksum of the specified files that are in this repository */
-        final List<Long> mismatchFiles = new ArrayList<Long>();
-        for (final long id : repositoryDao.filterFilesByRepository(getRepoUuid(), ids, allGroupsCurrent)) {
-            /* get one of the files */
-            final OriginalFile file = repositoryDao.getOriginalFileWithHasher(id, allGroupsCurrent);
-            final FsFile fsPath = new FsFile(file.getPath() + file.getName());
-            final String osPath = serverPaths.getServerFileFromFsFile(fsPath).getAbsolutePath();
-
-            /* check the file's checksum */
-            final ome.model.enums.ChecksumAlgorithm hasher = file.getHasher();
-            final String hash = file.getHash();
-            if (hasher != null && hash != null) {
-                /* has a valid checksum, so check it */
-                final ChecksumProvider fromProvider =
-                        checksumProviderFactory.getProvider(ChecksumAlgorithmMapper.getChecksumType(hasher));
-                fromProvider.putFile(osPath);
-                if (!fromProvider.checksumAsString().equalsIgnoreCase(hash)) {
-                    mismatchFiles.add(id);
-                }
-            }
+        final List<Long> inRepository = repositoryDao.filterFilesByRepository(getRepoUuid(), ids, allGroupsCurrent);
+        final List<OriginalFile> files = repositoryDao.getOriginalFilesWithHasher(inRepository, allGroupsCurrent);
+        final VerifyChecksumsResponse rsp = verifyFiles(files, ParallelFileHasher.defaultThreads(), 0);
+        if (!rsp.unreadableIds.isEmpty()) {
+            throw new ResourceError(null, null, "cannot read file ID " + rsp.unreadableIds.get(0));
         }
-        return mismatchFiles;
+        return rsp.mismatchedIds;
     }
 
     public List<Long> setChecksumAlgorithm(ChecksumAlgorithm toHasherWrapped, List<Long> ids, Current __current)
@@ -407,38 +394,48 @@ public class ManagedRepositoryI extends PublicRepositoryI
         final ome.model.enums.ChecksumAlgorithm toHasher = repositoryDao.getChecksumAlgorithm(toHasherName, adjustedGroupCurrent);
         final ChecksumType toType = ChecksumAlgorithmMapper.getChecksumType(toHasher);
 
-        /* set the specified files that are in this repository */
-        final List<Long> adjustedFiles = new ArrayList<Long>();
-        for (final long id : repositoryDao.filterFilesByRepository(getRepoUuid(), ids, adjustedGroupCurrent)) {
-            /* get one of the files */
-            final OriginalFile file = repositoryDao.getOriginalFileWithHasher(id, adjustedGroupCurrent);
+        /* hash the specified files that are in this repository, reading each file only once */
+        final List<Long> inRepository =
+                repositoryDao.filterFilesByRepository(getRepoUuid(), ids, adjustedGroupCurrent);
+        final List<ParallelFileHasher.Job> jobs = new ArrayList<ParallelFileHasher.Job>();
+        final Map<Long, OriginalFile> filesById = new HashMap<Long, OriginalFile>();
+        for (final OriginalFile file : repositoryDao.getOriginalFilesWithHasher(inRepository, adjustedGroupCurrent)) {
             final FsFile fsPath = new FsFile(file.getPath() + file.getName());
-            final String osPath = serverPaths.getServerFileFromFsFile(fsPath).getAbsolutePath();
+            final File serverFile = serverPaths.getServerFileFromFsFile(fsPath);
 
             /* check the file's existing hasher */
             final ome.model.enums.ChecksumAlgorithm fromHasher = file.getHasher();
             final String fromHash = file.getHash();
-            ChecksumProvider fromProvider = null;
             if (fromHasher != null && fromHash != null) {
                 /* already has a valid hash */
                 if (toHasherName.equals(fromHasher.getValue())) {
                     /* already hashed in the specified manner */
                     continue;
                 } else {
-                    /* hashed with a different hasher */
-                    fromProvider = checksumProviderFactory.getProvider(ChecksumAlgorithmMapper.getChecksumType(fromHasher));
+                    /* hashed with a different hasher, so also check the old hash */
+                    jobs.add(new ParallelFileHasher.Job(file.getId(), serverFile,
+                            toType, ChecksumAlgorithmMapper.getChecksumType(fromHasher)));
                 }
+            } else {
+                jobs.add(new ParallelFileHasher.Job(file.getId(), serverFile, toType));
             }
-            /* find the new hash */
-            final ChecksumProvider toProvider = checksumProviderFactory.getProvider(toType);
-            toProvider.putFile(osPath);
-            final String toHash = toProvider.checksumAsString();
-            if (fromProvider != null) {
+            filesById.put(file.getId(), file);
+        }
+        final List<ParallelFileHasher.Result> results =
+                hashFiles(newHasher(ParallelFileHasher.defaultThreads(), 0), jobs);
+
+        /* set the specified files in order of ID */
+        final List<Long> adjustedFiles = new ArrayList<Long>();
+        for (final ParallelFileHasher.Result result : results) {
+            final long id = result.job.id;
+            final OriginalFile file = filesById.get(id);
+            if (result.error != null) {
+                throw new ResourceError(null, null, "cannot read file ID " + id + ": " + result.error.getMessage());
+            }
+            final String toHash = result.hashes[0];
+            if (result.hashes.length > 1 && !result.hashes[1].equals(file.getHash())) {
                 /* check old hash after new one is calculated */
-                fromProvider.putFile(osPath);
-                if (!fromProvider.checksumAsString().equals(fromHash)) {
-                    throw new ServerError(null, null, "hash mismatch on file ID " + id);
-                }
+                throw new ServerError(null, null, "hash mismatch on file ID " + id);
             }
             /* update the file's checksum */
             file.setHasher(toHasher);
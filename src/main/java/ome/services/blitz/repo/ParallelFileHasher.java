@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2026 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.blitz.repo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ome.util.checksum.ChecksumProvider;
+import ome.util.checksum.ChecksumProviderFactory;
+import ome.util.checksum.ChecksumType;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Calculates the checksums of many files on a bounded number of threads.
+ * Each file is read only once however many checksum algorithms are requested
+ * for it, through a buffer reused by each thread, and the total read rate
+ * across all threads may be capped so that an audit of a repository does not
+ * starve imports and other readers. The threads are taken from a shared
+ * executor if one is given.
+ *
+ * @since 5.8.6
+ */
+public class ParallelFileHasher {
+
+    /** The size of the buffer through which each thread feeds the checksum providers. */
+    public static final int CHUNK_SIZE = 1 << 20;
+
+    /**
+     * A file to hash.
+     */
+    public static class Job {
+        public final long id;
+        public final File file;
+        public final ChecksumType[] types;
+
+        /**
+         * @param id an identifier for the file, typically its original file ID
+         * @param file the file to hash
+         * @param types the checksum algorithms to apply
+         */
+        public Job(long id, File file, ChecksumType... types) {
+            this.id = id;
+            this.file = file;
+            this.types = types;
+        }
+    }
+
+    /**
+     * The outcome of a {@link Job}.
+     */
+    public static class Result {
+        public final Job job;
+        /** the hashes in the order of {@link Job#types}, or {@code null} if the file could not be read */
+        public final String[] hashes;
+        /** the number of bytes read from the file */
+        public final long size;
+        /** why the file could not be read, otherwise {@code null} */
+        public final IOException error;
+
+        private Result(Job job, String[] hashes, long size, IOException error) {
+            this.job = job;
+            this.hashes = hashes;
+            this.size = size;
+            this.error = error;
+        }
+    }
+
+    private final ChecksumProviderFactory checksumProviderFactory;
+
+    private final ExecutorService executor;
+
+    private final int threads;
+
+    private final long bytesPerSecond;
+
+    private final Object rateLock = new Object();
+
+    private long rateStart = -1;
+
+    private long rateBytes = 0;
+
+    /**
+     * Hash files on a pool of threads created for each call of {@link #hash(List)}.
+     * @param checksumProviderFactory the source of checksum providers
+     * @param threads the maximum number of files to read at once
+     * @param bytesPerSecond the maximum total read rate, or zero for no limit
+     */
+    public ParallelFileHasher(ChecksumProviderFactory checksumProviderFactory, int threads, long bytesPerSecond) {
+        this(checksumProviderFactory, null, threads, bytesPerSecond);
+    }
+
+    /**
+     * @param checksumProviderFactory the source of checksum providers
+     * @param executor the executor on which to hash, or {@code null} to create
+     * a pool for each call of {@link #hash(List)}
+     * @param threads the maximum number of files to read at once
+     * @param bytesPerSecond the maximum total read rate, or zero for no limit
+     */
+    public ParallelFileHasher(ChecksumProviderFactory checksumProviderFactory, ExecutorService executor,
+            int threads, long bytesPerSecond) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("need at least one thread: " + threads);
+        }
+        this.checksumProviderFactory = checksumProviderFactory;
+        this.executor = executor;
+        this.threads = threads;
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * @return a number of threads suited to hashing from local disks
+     */
+    public static int defaultThreads() {
+        return Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Hash the given files. At most the configured number of threads work
+     * at once, each taking the next file to hash until none remain.
+     * @param jobs the files to hash
+     * @return the results in the same order as the jobs
+     * @throws InterruptedException if interrupted while waiting for the hashing to complete
+     */
+    public List<Result> hash(final List<Job> jobs) throws InterruptedException {
+        if (jobs.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final int workers = Math.min(threads, jobs.size());
+        final ExecutorService pool = executor != null ? executor : Executors.newFixedThreadPool(workers,
+                new ThreadFactoryBuilder().setNameFormat("Blitz-Hasher-%d").setDaemon(true).build());
+        final Result[] results = new Result[jobs.size()];
+        final AtomicInteger next = new AtomicInteger();
+        final List<Future<Void>> futures = new ArrayList<Future<Void>>(workers);
+        try {
+            for (int worker = 0; worker < workers; worker++) {
+                futures.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws InterruptedException {
+                        final byte[] chunk = new byte[CHUNK_SIZE];
+                        int index;
+                        while ((index = next.getAndIncrement()) < results.length) {
+                            results[index] = hash(jobs.get(index), chunk);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (final Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException ee) {
+                    final Throwable cause = ee.getCause();
+                    if (cause instanceof InterruptedException) {
+                        throw (InterruptedException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new RuntimeException(cause);
+                }
+            }
+            return Arrays.asList(results);
+        } finally {
+            if (pool == executor) {
+                /* stop the other workers taking more files */
+                next.set(results.length);
+                for (final Future<Void> future : futures) {
+                    future.cancel(true);
+                }
+            } else {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Hash a single file on the calling thread.
+     * @param job the file to hash
+     * @return the result of hashing the file
+     * @throws InterruptedException if interrupted while waiting for the rate limit
+     */
+    public Result hash(Job job) throws InterruptedException {
+        return hash(job, new byte[CHUNK_SIZE]);
+    }
+
+    /**
+     * Hash a single file on the calling thread through the given buffer.
+     */
+    private Result hash(Job job, byte[] chunk) throws InterruptedException {
+        final ChecksumProvider[] providers = new ChecksumProvider[job.types.length];
+        for (int index = 0; index < providers.length; index++) {
+            providers[index] = checksumProviderFactory.getProvider(job.types[index]);
+        }
+        long size = 0;
+        try (final FileChannel channel = FileChannel.open(job.file.toPath(), StandardOpenOption.READ)) {
+            final ByteBuffer buffer = ByteBuffer.wrap(chunk);
+            while (channel.read(buffer) >= 0) {
+                final int count = buffer.position();
+                update(providers, chunk, count);
+                size += count;
+                buffer.clear();
+            }
+        } catch (IOException ioe) {
+            return new Result(job, null, size, ioe);
+        }
+        final String[] hashes = new String[providers.length];
+        for (int index = 0; index < providers.length; index++) {
+            hashes[index] = providers[index].checksumAsString();
+        }
+        return new Result(job, hashes, size, null);
+    }
+
+    /**
+     * Feed the given bytes to every provider once the rate limit permits.
+     */
+    private void update(ChecksumProvider[] providers, byte[] chunk, int count) throws InterruptedException {
+        if (count == 0) {
+            return;
+        }
+        throttle(count);
+        for (final ChecksumProvider provider : providers) {
+            provider.putBytes(chunk, 0, count);
+        }
+    }
+
+    /**
+     * Sleep for as long as needed to keep the total read rate since the first read within the limit.
+     */
+    private void throttle(int count) throws InterruptedException {
+        if (bytesPerSecond <= 0) {
+            return;
+        }
+        final long delay;
+        synchronized (rateLock) {
+            final long now = System.nanoTime();
+            if (rateStart < 0) {
+                rateStart = now;
+            }
+            rateBytes += count;
+            delay = rateStart + (long) (rateBytes * 1e9 / bytesPerSecond) - now;
+        }
+        if (delay > 0) {
+            TimeUnit.NANOSECONDS.sleep(delay);
+        }
+    }
+}
@@ -0,0 +1,385 @@
+/*
+ * Copyright (C) 2026 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.blitz.repo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import loci.formats.FormatException;
+import loci.formats.FormatTools;
+import ome.formats.importer.ImportSize;
+import ome.formats.importer.OMEROWrapper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Reads the pixel data of an import with several readers at once to compute,
+ * in a single pass, the SHA-1 of each series and the global minimum and
+ * maximum of each of its channels. Planes are read concurrently, both within
+ * and across series, but each digest is fed the tiles in the same order as
+ * {@link ManagedImportRequestI#parseData(String, int, ImportSize)} so that the
+ * checksums do not depend on the number of readers.
+ * <p>
+ * Each worker opens its own reader from the given factory. With memo files
+ * enabled this is cheap compared to reading the pixel data. A worker holds at
+ * most one plane while it waits for its turn to update the digest, so memory
+ * use is bounded by the number of workers.
+ * </p>
+ * <p>
+ * As each plane is digested, in order, the {@link Progress} is told so that
+ * the import can report its steps as the sequential parse does.
+ * </p>
+ * @since 5.8.6
+ */
+final class PixelDataStatistics {
+
+    private static final Logger log = LoggerFactory.getLogger(PixelDataStatistics.class);
+
+    /**
+     * The checksum and channel statistics of one series.
+     */
+    static final class Series {
+
+        final int series;
+
+        final ImportSize size;
+
+        final MessageDigest md;
+
+        /** The minimum and maximum of each channel. */
+        final double[][] channelMinMax;
+
+        Series(int series, ImportSize size) {
+            this.series = series;
+            this.size = size;
+            try {
+                this.md = MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(
+                    "Required SHA-1 message digest algorithm unavailable.");
+            }
+            this.channelMinMax = new double[size.sizeC][];
+            for (int c = 0; c < size.sizeC; c++) {
+                channelMinMax[c] = new double[] {
+                        Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+            }
+        }
+    }
+
+    /**
+     * Told of each plane once it has been digested. Planes are reported one
+     * at a time in the order of the sequential parse, though not always
+     * from the same thread.
+     */
+    interface Progress {
+
+        /**
+         * @param series the series number
+         * @param plane the number of the plane within the series, from 1
+         */
+        void planeDigested(int series, int plane);
+    }
+
+    /**
+     * A plane of a series, in the order in which its tiles are digested.
+     */
+    private static final class Plane {
+
+        final Series series;
+
+        /** The number of the plane within its series, from 1. */
+        final int number;
+
+        final int z, c, t;
+
+        Plane(Series series, int number, int z, int c, int t) {
+            this.series = series;
+            this.number = number;
+            this.z = z;
+            this.c = c;
+            this.t = t;
+        }
+    }
+
+    private final Callable<OMEROWrapper> readers;
+
+    private final CheckedPath file;
+
+    private final int threads;
+
+    private final Progress progress;
+
+    private final List<Plane> planes = new ArrayList<Plane>();
+
+    private final AtomicInteger nextToRead = new AtomicInteger();
+
+    /** The index of the next plane to be digested, guarded by {@code this}. */
+    private int nextToDigest = 0;
+
+    /** If any worker has failed, guarded by {@code this}. */
+    private boolean failed = false;
+
+    /**
+     * @param readers creates the readers for the workers
+     * @param file the file to set as the readers' ID
+     * @param threads the most workers to use
+     * @param progress told of each plane once digested
+     */
+    PixelDataStatistics(Callable<OMEROWrapper> readers, CheckedPath file, int threads,
+            Progress progress) {
+        this.readers = readers;
+        this.file = file;
+        this.threads = threads;
+        this.progress = progress;
+    }
+
+    /**
+     * Adds a series to be read.
+     * @param series the series number
+     * @param size the dimensions of the series
+     * @return the statistics of the series, complete once {@link #run()} returns
+     */
+    Series addSeries(int series, ImportSize size) {
+        final Series stats = new Series(series, size);
+        int number = 1;
+        for (int t = 0; t < size.sizeT; t++) {
+            for (int c = 0; c < size.sizeC; c++) {
+                for (int z = 0; z < size.sizeZ; z++) {
+                    planes.add(new Plane(stats, number++, z, c, t));
+                }
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Reads every plane of the added series.
+     * @throws FormatException if a reader fails to parse the data
+     * @throws IOException if a reader fails to read the data
+     */
+    void run() throws FormatException, IOException {
+        final int workers = Math.max(1, Math.min(threads, planes.size()));
+        if (planes.isEmpty()) {
+            return;
+        }
+        log.info("Reading {} planes with {} readers", planes.size(), workers);
+        final ExecutorService pool = Executors.newFixedThreadPool(workers,
+                new ThreadFactoryBuilder().setNameFormat("Blitz-ImportStats-%d").setDaemon(true).build());
+        try {
+            final List<Future<Void>> results = new ArrayList<Future<Void>>(workers);
+            for (int worker = 0; worker < workers; worker++) {
+                results.add(pool.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        try {
+                            work();
+                        } catch (Throwable t) {
+                            synchronized (PixelDataStatistics.this) {
+                                failed = true;
+                                PixelDataStatistics.this.notifyAll();
+                            }
+                            throw t;
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (final Future<Void> result : results) {
+                try {
+                    result.get();
+                } catch (ExecutionException ee) {
+                    final Throwable cause = ee.getCause();
+                    if (cause instanceof FormatException) {
+                        throw (FormatException) cause;
+                    } else if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new RuntimeException(cause);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(ie);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Reads planes with a new reader until none remain.
+     */
+    private void work() throws Exception {
+        final OMEROWrapper reader = readers.call();
+        try {
+            file.bfSetId(reader);
+            // Statistics are computed here rather than by the reader.
+            reader.minMaxSet = true;
+            final List<byte[]> tiles = new ArrayList<byte[]>();
+            final double[] minMax = new double[2];
+            int index;
+            while ((index = nextToRead.getAndIncrement()) < planes.size()) {
+                final Plane plane = planes.get(index);
+                if (reader.getSeries() != plane.series.series) {
+                    reader.setSeries(plane.series.series);
+                }
+                minMax[0] = Double.POSITIVE_INFINITY;
+                minMax[1] = Double.NEGATIVE_INFINITY;
+                readPlane(reader, plane, tiles, minMax);
+                synchronized (this) {
+                    while (nextToDigest != index && !failed) {
+                        wait();
+                    }
+                    if (failed) {
+                        return;
+                    }
+                }
+                // Only this worker may digest until nextToDigest advances.
+                for (final byte[] tile : tiles) {
+                    plane.series.md.update(tile);
+                }
+                final double[] channel = plane.series.channelMinMax[plane.c];
+                channel[0] = Math.min(channel[0], minMax[0]);
+                channel[1] = Math.max(channel[1], minMax[1]);
+                progress.planeDigested(plane.series.series, plane.number);
+                synchronized (this) {
+                    nextToDigest++;
+                    notifyAll();
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reads the tiles of a plane in the order that they are to be digested.
+     */
+    private static void readPlane(OMEROWrapper reader, Plane plane,
+            List<byte[]> tiles, double[] minMax) throws FormatException, IOException {
+        final ImportSize size = plane.series.size;
+        final int pixelType = reader.getPixelType();
+        final int bytesPerPixel = FormatTools.getBytesPerPixel(pixelType);
+        final boolean littleEndian = reader.isLittleEndian();
+        final int tileHeight = reader.getOptimalTileHeight();
+        final int tileWidth = reader.getOptimalTileWidth();
+        final int planeNumber = reader.getIndex(plane.z, plane.c, plane.t);
+        tiles.clear();
+        for (int y = 0; y < size.sizeY; y += tileHeight) {
+            for (int x = 0; x < size.sizeX; x += tileWidth) {
+                final int w = Math.min(tileWidth, size.sizeX - x);
+                final int h = Math.min(tileHeight, size.sizeY - y);
+                final byte[] tile = reader.openBytes(planeNumber,
+                        new byte[w * h * bytesPerPixel], x, y, w, h);
+                updateMinMax(tile, pixelType, littleEndian, minMax);
+                tiles.add(tile);
+            }
+        }
+    }
+
+    /**
+     * Widens a range of values to include those of the given pixels.
+     * @param buf the pixels
+     * @param pixelType the type of the pixels
+     * @param littleEndian if multi-byte pixels are little-endian
+     * @param minMax the minimum and maximum to update
+     */
+    static void updateMinMax(byte[] buf, int pixelType, boolean littleEndian,
+            double[] minMax) {
+        final ByteBuffer bb = ByteBuffer.wrap(buf).order(
+                littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+        double min = minMax[0];
+        double max = minMax[1];
+        double v;
+        switch (pixelType) {
+        case FormatTools.INT8:
+        case FormatTools.UINT8:
+            final boolean signed = pixelType == FormatTools.INT8;
+            for (int i = 0; i < buf.length; i++) {
+                v = signed ? buf[i] : buf[i] & 0xff;
+                if (v < min) min = v;
+                if (v > max) max = v;
+            }
+            break;
+        case FormatTools.INT16:
+            while (bb.remaining() >= 2) {
+                v = bb.getShort();
+                if (v < min) min = v;
+                if (v > max) max = v;
+            }
+            break;
+        case FormatTools.UINT16:
+            while (bb.remaining() >= 2) {
+                v = bb.getShort() & 0xffff;
+                if (v < min) min = v;
+                if (v > max) max = v;
+            }
+            break;
+        case FormatTools.INT32:
+            while (bb.remaining() >= 4) {
+                v = bb.getInt();
+                if (v < min) min = v;
+                if (v > max) max = v;
+            }
+            break;
+        case FormatTools.UINT32:
+            while (bb.remaining() >= 4) {
+                v = bb.getInt() & 0xffffffffL;
+                if (v < min) min = v;
+                if (v > max) max = v;
+            }
+            break;
+        case FormatTools.FLOAT:
+            while (bb.remaining() >= 4) {
+                v = bb.getFloat();
+                if (v < min) min = v;
+                if (v > max) max = v;
+            }
+            break;
+        case FormatTools.DOUBLE:
+            while (bb.remaining() >= 8) {
+                v = bb.getDouble();
+                if (v < min) min = v;
+                if (v > max) max = v;
+            }
+            break;
+        default:
+            throw new RuntimeException("Unknown type with id: '" + pixelType + "'");
+        }
+        minMax[0] = min;
+        minMax[1] = max;
+    }
+}
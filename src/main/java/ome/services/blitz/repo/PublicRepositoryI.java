@@ -33,6 +33,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 import java.util.function.Consumer;
 
 import com.google.common.collect.ImmutableList;
@@ -74,6 +75,7 @@ import ome.util.messages.InternalMessage;
 
 import omero.InternalException;
 import omero.RLong;
+import omero.RList;
 import omero.RMap;
 import omero.RType;
 import omero.SecurityViolation;
@@ -85,6 +87,7 @@ import omero.api._RawFileStoreTie;
 import omero.cmd.AMD_Session_submit;
 import omero.cmd.Delete2;
 import omero.cmd.HandlePrx;
+import omero.grid.VerifyChecksumsResponse;
 import omero.grid._RepositoryOperations;
 import omero.grid._RepositoryTie;
 import omero.model.ChecksumAlgorithm;
@@ -150,6 +153,9 @@ public class PublicRepositoryI implements _RepositoryOperations, ApplicationCont
 
     private String repoUuid;
 
+    /* the threads on which files are hashed, shared with other services */
+    protected ExecutorService hashingExecutor;
+
     public PublicRepositoryI(RepositoryDao repositoryDao,
             ChecksumProviderFactory checksumProviderFactory,
             String checksumAlgorithmSupported,
@@ -252,6 +258,19 @@ public class PublicRepositoryI implements _RepositoryOperations, ApplicationCont
         return repositoryDao.treeList(repoUuid, checked, __current);
     }
 
+    public RMap treeListLimited(String path, int depth, int limit, Current __current)
+            throws ServerError {
+        final CheckedPath checked = checkPath(path, null, __current);
+        return repositoryDao.treeList(repoUuid, checked, depth, limit, __current);
+    }
+
+    public RList treeListPage(String path, int depth, long afterId, int limit,
+            Current __current) throws ServerError {
+        final CheckedPath checked = checkPath(path, null, __current).mustExist();
+        return repositoryDao.treeListPage(repoUuid, checked, depth, afterId,
+                limit, __current);
+    }
+
     /**
      * @param session the Hibernate session
      * @param serviceFactory the service factory
@@ -782,6 +801,90 @@ public class PublicRepositoryI implements _RepositoryOperations, ApplicationCont
                 DIRECTORY_MIMETYPE, sf, sql, s);
     }
 
+    /**
+     * Verify the checksums of the next files of this repository. Called via
+     * {@link AbstractRepositoryI} for each batch of a
+     * {@link omero.grid.VerifyChecksumsRequest}.
+     * @param afterId only files whose ID is greater than this are verified
+     * @param limit the maximum number of files to consider
+     * @param threads the maximum number of files to read at once
+     * @param bytesPerSecond the maximum total read rate, or zero for no limit
+     * @param __current the ICE method invocation context, for an administrator
+     * @return the outcome of verifying the batch
+     * @throws ServerError if the batch could not be verified
+     */
+    public VerifyChecksumsResponse verifyChecksumsAfter(long afterId, int limit, int threads,
+            long bytesPerSecond, Current __current) throws ServerError {
+        final List<Long> ids = repositoryDao.getFileIdsInRepository(repoUuid, afterId, limit, __current);
+        final VerifyChecksumsResponse rsp = verifyFiles(repositoryDao.getOriginalFilesWithHasher(ids, __current),
+                threads, bytesPerSecond);
+        rsp.lastVerifiedId = ids.isEmpty() ? afterId : ids.get(ids.size() - 1);
+        rsp.complete = ids.size() < limit;
+        return rsp;
+    }
+
+    /**
+     * Verify the checksums of the given files in parallel. Files without a
+     * checksum are skipped.
+     * @param files original files of this repository with their hasher loaded
+     * @param threads the maximum number of files to read at once
+     * @param bytesPerSecond the maximum total read rate, or zero for no limit
+     * @return the outcome of the verification, without the checkpoint set
+     * @throws ServerError if the hashing was interrupted
+     */
+    protected VerifyChecksumsResponse verifyFiles(List<ome.model.core.OriginalFile> files,
+            int threads, long bytesPerSecond) throws ServerError {
+        final List<ParallelFileHasher.Job> jobs = new ArrayList<ParallelFileHasher.Job>(files.size());
+        final Map<Long, String> expectedHashes = new HashMap<Long, String>();
+        for (final ome.model.core.OriginalFile file : files) {
+            final ome.model.enums.ChecksumAlgorithm hasher = file.getHasher();
+            final String hash = file.getHash();
+            if (hasher != null && hash != null) {
+                final FsFile fsPath = new FsFile(file.getPath() + file.getName());
+                jobs.add(new ParallelFileHasher.Job(file.getId(), serverPaths.getServerFileFromFsFile(fsPath),
+                        ChecksumAlgorithmMapper.getChecksumType(hasher)));
+                expectedHashes.put(file.getId(), hash);
+            }
+        }
+        final VerifyChecksumsResponse rsp = new VerifyChecksumsResponse();
+        rsp.mismatchedIds = new ArrayList<Long>();
+        rsp.unreadableIds = new ArrayList<Long>();
+        for (final ParallelFileHasher.Result result :
+                hashFiles(newHasher(threads, bytesPerSecond), jobs)) {
+            rsp.filesVerified++;
+            rsp.bytesVerified += result.size;
+            if (result.error != null) {
+                log.warn("cannot read file ID {} for verification", result.job.id, result.error);
+                rsp.unreadableIds.add(result.job.id);
+            } else if (!result.hashes[0].equalsIgnoreCase(expectedHashes.get(result.job.id))) {
+                rsp.mismatchedIds.add(result.job.id);
+            }
+        }
+        return rsp;
+    }
+
+    /**
+     * @param threads the maximum number of files to read at once
+     * @param bytesPerSecond the maximum total read rate, or zero for no limit
+     * @return a hasher which uses the {@link #setHashingExecutor(ExecutorService) hashing executor}
+     */
+    protected ParallelFileHasher newHasher(int threads, long bytesPerSecond) {
+        return new ParallelFileHasher(checksumProviderFactory, hashingExecutor, threads, bytesPerSecond);
+    }
+
+    /**
+     * Hash the given files, mapping interruption to a {@link ServerError}.
+     */
+    protected List<ParallelFileHasher.Result> hashFiles(ParallelFileHasher hasher,
+            List<ParallelFileHasher.Job> jobs) throws ServerError {
+        try {
+            return hasher.hash(jobs);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InternalException(null, null, "interrupted while hashing files");
+        }
+    }
+
     //
     //
     // Utility methods
@@ -794,6 +897,14 @@ public class PublicRepositoryI implements _RepositoryOperations, ApplicationCont
 
     }
 
+    /**
+     * @param hashingExecutor the executor on which to hash files, or
+     * {@code null} to create threads for each request
+     */
+    public void setHashingExecutor(ExecutorService hashingExecutor) {
+        this.hashingExecutor = hashingExecutor;
+    }
+
     /**
      * Create a new {@link CheckedPath} object based on the given user input.
      * This method is included to allow subclasses a chance to introduce their
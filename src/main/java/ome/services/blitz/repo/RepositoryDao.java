@@ -1,5 +1,6 @@
 package ome.services.blitz.repo;
 
+import java.util.Collection;
 import java.util.List;
 
 import org.hibernate.Session;
@@ -13,6 +14,7 @@ import ome.system.ServiceFactory;
 import ome.util.SqlAction;
 import ome.util.SqlAction.DeleteLog;
 
+import omero.RList;
 import omero.RMap;
 import omero.SecurityViolation;
 import omero.ServerError;
@@ -76,6 +78,39 @@ public interface RepositoryDao {
     RMap treeList(String repoUuid, CheckedPath checked, Current __current)
             throws ServerError;
 
+    /**
+     * As {@link #treeList(String, CheckedPath, Current)} but descending at
+     * most the given number of levels and including at most the given number
+     * of entries. The whole subtree is loaded with a single query on the path
+     * prefix and then assembled in memory.
+     *
+     * @param repoUuid the repository UUID
+     * @param checked the directory to list
+     * @param depth how many levels to descend, negative for no limit
+     * @param limit how many entries to include, negative for no limit
+     * @param __current the Ice method invocation context
+     * @return the nested listing
+     * @throws ServerError if the listing failed
+     */
+    RMap treeList(String repoUuid, CheckedPath checked, int depth, int limit,
+            Current __current) throws ServerError;
+
+    /**
+     * Flat listing of the entries below the given directory in order of
+     * ID, for paging through large subtrees.
+     *
+     * @param repoUuid the repository UUID
+     * @param checked the directory to list
+     * @param depth how many levels to descend, negative for no limit
+     * @param afterId only entries with a greater ID are listed
+     * @param limit how many entries to list, negative for no limit
+     * @param __current the Ice method invocation context
+     * @return maps of id, path, name, mimetype and size
+     * @throws ServerError if the listing failed
+     */
+    RList treeListPage(String repoUuid, CheckedPath checked, int depth,
+            long afterId, int limit, Current __current) throws ServerError;
+
     /**
      * Checks that the given {@link CheckedPath} objects exist (via
      * {@link #findRepoFile(String, CheckedPath, String, Ice.Current)})
@@ -316,6 +351,25 @@ public interface RepositoryDao {
      */
     ome.model.core.OriginalFile getOriginalFileWithHasher(long id, Current current);
 
+    /**
+     * Retrieve the original files of the given IDs in batches.
+     * @param ids the IDs of original files
+     * @param current Ice method invocation context
+     * @return the corresponding original file model objects, with hasher joined, ordered by ID
+     */
+    List<ome.model.core.OriginalFile> getOriginalFilesWithHasher(Collection<Long> ids, Current current);
+
+    /**
+     * Find the IDs of the original files in the given repository in ascending order,
+     * for walking a whole repository in resumable pages.
+     * @param repo a repository UUID
+     * @param afterId only IDs greater than this are returned
+     * @param limit the maximum number of IDs to return
+     * @param current Ice method invocation context
+     * @return the IDs of the next page of original files in the repository
+     */
+    List<Long> getFileIdsInRepository(String repo, long afterId, int limit, Current current);
+
     /**
      * Save the given model object.
      * @param object a model object
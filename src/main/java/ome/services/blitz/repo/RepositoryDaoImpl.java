@@ -5,6 +5,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -33,6 +34,7 @@ import ome.system.Roles;
 import ome.system.ServiceFactory;
 import ome.util.SqlAction;
 import ome.util.SqlAction.DeleteLog;
+import omero.RList;
 import omero.RMap;
 import omero.RType;
 import omero.SecurityViolation;
@@ -46,6 +48,7 @@ import omero.model.OriginalFileI;
 import omero.util.IceMapper;
 
 import org.apache.commons.collections.CollectionUtils;
+import org.apache.commons.lang.StringUtils;
 import org.hibernate.Session;
 import org.perf4j.StopWatch;
 import org.perf4j.slf4j.Slf4JStopWatch;
@@ -221,94 +224,324 @@ public class RepositoryDaoImpl implements RepositoryDao {
 
     public RMap treeList(final String repoUuid, final CheckedPath checked,
             Current current) throws ServerError {
+        return treeList(repoUuid, checked, -1, -1, current);
+    }
+
+    public RMap treeList(final String repoUuid, final CheckedPath checked,
+            final int depth, final int limit, Current current) throws ServerError {
 
         final RMap map = omero.rtypes.rmap();
         executor.execute(current.ctx, currentUser(current),
                 new Executor.SimpleWork<Void>(this,
-                "treeList", repoUuid, checked) {
+                "treeList", repoUuid, checked, depth, limit) {
 
             @Transactional(readOnly = true)
             public Void doWork(Session session, ServiceFactory sf) {
-                _treeList(map, repoUuid, checked, sf, getSqlAction());
+                _treeList(map, repoUuid, checked, depth, limit,
+                        session, sf, getSqlAction());
                 return null;
             }
         });
 
         return map;
     }
+
+    public RList treeListPage(final String repoUuid, final CheckedPath checked,
+            final int depth, final long afterId, final int limit,
+            Current current) throws ServerError {
+
+        final List<RepoEntry> entries = executor.execute(current.ctx, currentUser(current),
+                new Executor.SimpleWork<List<RepoEntry>>(this,
+                "treeListPage", repoUuid, checked, depth, afterId, limit) {
+
+            @Transactional(readOnly = true)
+            public List<RepoEntry> doWork(Session session, ServiceFactory sf) {
+                return loadSubtree(repoUuid, checked, depth, afterId, limit,
+                        session, sf);
+            }
+        });
+
+        final RList rv = omero.rtypes.rlist();
+        for (RepoEntry entry : entries) {
+            final RMap entryRv = entry.toRMap();
+            entryRv.put("path", omero.rtypes.rstring(entry.path));
+            entryRv.put("name", omero.rtypes.rstring(entry.name));
+            rv.add(entryRv);
+        }
+        return rv;
+    }
+
+    /**
+     * Primitive values of an {@link ome.model.core.OriginalFile} as needed
+     * for tree listings.
+     */
+    private static class RepoEntry {
+        final long id;
+        final String path;
+        final String name;
+        final String mimetype;
+        final Long size;
+
+        RepoEntry(Object[] row) {
+            this.id = (Long) row[0];
+            this.path = (String) row[1];
+            this.name = (String) row[2];
+            this.mimetype = (String) row[3];
+            this.size = (Long) row[4];
+        }
+
+        boolean isDirectory() {
+            return PublicRepositoryI.DIRECTORY_MIMETYPE.equals(mimetype);
+        }
+
+        /**
+         * The path of this entry's children, matching
+         * {@link CheckedPath#getDirname()}. Entries at the top of the
+         * repository have a path of just the separator.
+         */
+        String dirname() {
+            final String parent = "/".equals(path) ? "" : path;
+            return parent + name + FsFile.separatorChar;
+        }
+
+        RMap toRMap() {
+            final RMap rv = omero.rtypes.rmap();
+            rv.put("id", omero.rtypes.rlong(id));
+            rv.put("mimetype", omero.rtypes.rstring(mimetype));
+            if (size != null) {
+                rv.put("size", omero.rtypes.rlong(size));
+            }
+            return rv;
+        }
+    }
+
     /**
-     * Recursive descent for {@link PublicDirectoryI#treeList(String, Current)}.
-     * This should only really be called on directories, but if it's accidentally
-     * called on a non-directory, then we will treat it specially.
+     * Fills the listing for {@link PublicRepositoryI#treeList(String, Current)}.
+     * The requested file is loaded on its own; if it is a directory then
+     * everything below it is loaded at once by {@link #loadSubtree} and the
+     * nested maps are assembled from memory.
      *
-     * @param rv The {@link RMap} which should be filled for a given level.
-     * @param path
-     * @param __current
-     * @throws ServerError
+     * @param rv The {@link RMap} to fill with the listing.
      */
     private void _treeList(RMap rv, String repoUuid, CheckedPath checked,
-            ServiceFactory sf, SqlAction sql) {
+            int depth, int limit, Session session, ServiceFactory sf, SqlAction sql) {
 
         final ome.model.core.OriginalFile file
             = findRepoFile(sf, sql, repoUuid, checked, null);
 
         if (file == null) {
-            if (rv.getValue().size() == 0) {
-                // This is likely the top-level search, and therefore
-                // we can just exit.
-                log.debug("No file found in _treeList: " + checked);
-            } else {
-                // In this case, we've been given data that's now
-                // missing from the DB in the same transaction.
-                // Shouldn't happen.
-                log.warn("No file found in _treeList: " + checked);
-            }
+            log.debug("No file found in _treeList: " + checked);
             return; // EARLY EXIT.
         }
 
-        final String name = file.getName();
-        final String mime = file.getMimetype();
         final Long size = file.getSize();
-        final Long id = file.getId();
-
         final RMap subRv = omero.rtypes.rmap();
         final Map<String, RType> subVal = subRv.getValue();
-        rv.put(name, subRv);
-        subVal.put("id", omero.rtypes.rlong(id));
-        subVal.put("mimetype", omero.rtypes.rstring(mime));
+        rv.put(file.getName(), subRv);
+        subVal.put("id", omero.rtypes.rlong(file.getId()));
+        subVal.put("mimetype", omero.rtypes.rstring(file.getMimetype()));
         if (size != null) {
             subVal.put("size", omero.rtypes.rlong(size));
         }
 
         if (file.getMimetype() != null && // FIXME: should be set!
-                PublicRepositoryI.DIRECTORY_MIMETYPE.equals(file.getMimetype())) {
+                PublicRepositoryI.DIRECTORY_MIMETYPE.equals(file.getMimetype())
+                && depth != 0) {
+
+            /* with a limit, load one more entry to learn where it cut short */
+            final List<RepoEntry> loaded = loadSubtree(repoUuid, checked, depth,
+                    limit < 0 ? -1 : limit + 1, session, sf);
+            String truncated = null;
+            if (limit >= 0 && loaded.size() > limit) {
+                truncated = loaded.remove(limit).path;
+            }
+            final Map<String, List<RepoEntry>> byDirname = new HashMap<String, List<RepoEntry>>();
+            for (RepoEntry entry : loaded) {
+                List<RepoEntry> entries = byDirname.get(entry.path);
+                if (entries == null) {
+                    entries = new ArrayList<RepoEntry>();
+                    byDirname.put(entry.path, entries);
+                }
+                entries.add(entry);
+            }
+            for (List<RepoEntry> entries : byDirname.values()) {
+                Collections.sort(entries, new Comparator<RepoEntry>() {
+                    public int compare(RepoEntry e1, RepoEntry e2) {
+                        return e1.name.compareTo(e2.name);
+                    }
+                });
+            }
+            fillTree(subVal, checked.getDirname(), depth, byDirname, truncated);
+        }
+    }
+
+    /**
+     * Adds the "files" of the given directory, recursing into subdirectories
+     * depth-first until the depth limit is reached.
+     *
+     * @param truncated the directory name at which the entry limit was
+     * reached, or {@code null}
+     */
+    private void fillTree(Map<String, RType> dirVal, String dirname, int depth,
+            Map<String, List<RepoEntry>> byDirname, String truncated) {
+        final RMap filesRv = omero.rtypes.rmap();
+        dirVal.put("files", filesRv);
+        if (dirname.equals(truncated)) {
+            dirVal.put("truncated", omero.rtypes.rbool(true));
+        }
+        final List<RepoEntry> entries = byDirname.get(dirname);
+        if (entries == null) {
+            return;
+        }
+        for (RepoEntry entry : entries) {
+            final RMap entryRv = entry.toRMap();
+            filesRv.put(entry.name, entryRv);
+            if (entry.isDirectory() && depth != 1) {
+                fillTree(entryRv.getValue(), entry.dirname(), depth - 1,
+                        byDirname, truncated);
+            }
+        }
+    }
 
-            // Now we recurse
-            List<ome.model.core.OriginalFile> subFiles
-                = getOriginalFiles(sf, sql, repoUuid, checked);
-            final RMap subFilesRv = omero.rtypes.rmap();
+    /**
+     * The order of entries in a tree listing: each directory before its
+     * contents and the contents of each directory in order of name, as
+     * depth-first by {@link #fillTree}. The separator is replaced by a
+     * character which sorts before any in a name.
+     */
+    private static final String TREE_KEY = "replace(CASE WHEN path = '/' "
+            + "THEN name ELSE path || name END, '/', chr(1))";
 
-            for (ome.model.core.OriginalFile subFile : subFiles) {
-                CheckedPath child = null;
-                try {
-                    child = checked.child(subFile.getName());
-                    if (child == null) {
-                        // This should never happen.
-                        throw new omero.ValidationException(null, null, "null child!");
-                    }
-                } catch (omero.ValidationException ve) {
-                    // This can only really happen if the database has very odd
-                    // information stored. Issuing a warning and then throwing
-                    // an exception.
-                    log.warn(String.format("Validation exception on %s.child(%s)",
-                            checked, subFile.getName()), ve);
-                    throw new ome.conditions.ValidationException(ve.getMessage());
-                }
+    private static final String TREE_ORDER = TREE_KEY + " COLLATE \"C\"";
 
-                _treeList(subFilesRv, repoUuid, child, sf, sql);
+    /**
+     * Loads the first entries in {@link #TREE_ORDER} below the given
+     * directory, as {@link #loadSubtree(String, CheckedPath, int, long, int,
+     * Session, ServiceFactory)} but stopping at the limit in the query
+     * rather than loading the whole subtree.
+     *
+     * @param depth how many levels to descend, negative for no limit
+     * @param limit how many entries to load, negative for no limit
+     * @return the readable entries in tree order
+     */
+    private List<RepoEntry> loadSubtree(String repoUuid, CheckedPath checked,
+            int depth, int limit, Session session, ServiceFactory sf) {
+        if (limit < 0) {
+            return loadSubtree(repoUuid, checked, depth, -1, -1, session, sf);
+        }
+        return loadSubtree(repoUuid, checked, depth, null, limit, session, sf);
+    }
+
+    /**
+     * Loads the entries below the given directory with one query for their
+     * IDs on the path prefix within the repository followed by batched
+     * projections which apply the usual read restrictions. If a limit is
+     * given then the entries are the first readable ones in order of ID.
+     *
+     * @param depth how many levels to descend, negative for no limit
+     * @param afterId only entries with a greater ID are loaded
+     * @param limit how many entries to load, negative for no limit
+     * @return the readable entries in order of ID
+     */
+    private List<RepoEntry> loadSubtree(String repoUuid, CheckedPath checked,
+            int depth, long afterId, int limit, Session session, ServiceFactory sf) {
+        return loadSubtree(repoUuid, checked, depth, (Object) afterId, limit,
+                session, sf);
+    }
+
+    /**
+     * Loads entries in batches which continue from the last entry of the
+     * previous batch.
+     *
+     * @param after a {@link Long} to load in order of ID after that ID, or a
+     * {@link String} or {@code null} to load in {@link #TREE_ORDER} after that
+     * key
+     */
+    @SuppressWarnings("unchecked")
+    private List<RepoEntry> loadSubtree(String repoUuid, CheckedPath checked,
+            int depth, Object after, int limit, Session session, ServiceFactory sf) {
+
+        final boolean byId = after instanceof Long;
+        final StringBuilder sql = new StringBuilder(byId
+                ? "SELECT id FROM originalfile WHERE repo = :repo AND id > :after"
+                : "SELECT id, " + TREE_KEY + " FROM originalfile WHERE repo = :repo");
+        final String dirname = checked.getDirname();
+        int separators = StringUtils.countMatches(dirname, "/");
+        if (checked.isRoot) {
+            // the top level has path "/" as does the level below it
+            separators = 0;
+        } else {
+            sql.append(" AND path LIKE :prefix ESCAPE '!'");
+        }
+        if (depth > 0) {
+            sql.append(checked.isRoot ? " AND (path = '/' OR " : " AND (");
+            sql.append("length(path) - length(replace(path, '/', '')) <= :separators)");
+        }
+        if (byId) {
+            sql.append(" ORDER BY id");
+        } else {
+            final int where = sql.length();
+            sql.append(" ORDER BY ").append(TREE_ORDER);
+            sql.insert(where, " AND " + TREE_ORDER + " > :after");
+        }
+
+        final IQuery q = sf.getQueryService();
+        final String hql = "SELECT f.id, f.path, f.name, f.mimetype, f.size "
+                + "FROM OriginalFile f WHERE f.id IN (:ids) ORDER BY f.id";
+        final List<RepoEntry> entries = new ArrayList<RepoEntry>();
+        while (limit < 0 || entries.size() < limit) {
+            final org.hibernate.SQLQuery query = session.createSQLQuery(sql.toString());
+            query.setString("repo", repoUuid);
+            if (byId) {
+                query.setLong("after", (Long) after);
+            } else {
+                query.setString("after", after == null ? "" : (String) after);
+            }
+            if (!checked.isRoot) {
+                query.setString("prefix", dirname.replace("!", "!!")
+                        .replace("%", "!%").replace("_", "!_") + "%");
+            }
+            if (depth > 0) {
+                query.setInteger("separators", separators + depth - 1);
+            }
+            if (limit >= 0) {
+                // read restrictions may remove some, so ask for a full batch
+                query.setMaxResults(BATCH_SIZE);
+            }
+            final List<Long> ids = new ArrayList<Long>();
+            String lastKey = null;
+            for (Object row : query.list()) {
+                if (byId) {
+                    ids.add(((Number) row).longValue());
+                } else {
+                    ids.add(((Number) ((Object[]) row)[0]).longValue());
+                    lastKey = (String) ((Object[]) row)[1];
+                }
+            }
+            if (ids.isEmpty()) {
+                break;
             }
-            subVal.put("files", subFilesRv);
+            final Map<Long, RepoEntry> batch = new HashMap<Long, RepoEntry>();
+            for (final List<Long> idsBatch : Iterables.partition(ids, BATCH_SIZE)) {
+                final Parameters params = new Parameters().addIds(idsBatch);
+                for (Object[] row : q.projection(hql, params)) {
+                    final RepoEntry entry = new RepoEntry(row);
+                    batch.put(entry.id, entry);
+                }
+            }
+            /* keep the order of the query, less the unreadable entries */
+            for (final Long id : ids) {
+                final RepoEntry entry = batch.get(id);
+                if (entry != null && (limit < 0 || entries.size() < limit)) {
+                    entries.add(entry);
+                }
+            }
+            if (limit < 0) {
+                break; // all IDs were loaded at once
+            }
+            after = byId ? ids.get(ids.size() - 1) : lastKey;
         }
+        return entries;
     }
 
     public void createOrFixUserDir(final String repoUuid,
@@ -1186,6 +1419,58 @@ public class RepositoryDaoImpl implements RepositoryDao {
         });
     }
 
+    @Override
+    public List<ome.model.core.OriginalFile> getOriginalFilesWithHasher(final Collection<Long> ids,
+            Ice.Current current) {
+        final List<ome.model.core.OriginalFile> files = new ArrayList<ome.model.core.OriginalFile>(ids.size());
+        for (final List<Long> idsBatch : Iterables.partition(ids, BATCH_SIZE)) {
+            files.addAll(executor.execute(current.ctx, currentUser(current),
+                    new Executor.LoggedWork<List<ome.model.core.OriginalFile>>() {
+
+                @Override
+                public String description() {
+                    return "get " + idsBatch.size() + " original files, with hasher joined";
+                }
+
+                @Override
+                @Transactional(readOnly = true)
+                public List<ome.model.core.OriginalFile> doWork(Session session, ServiceFactory sf) {
+                    final String query = "FROM OriginalFile o LEFT OUTER JOIN FETCH o.hasher "
+                            + "WHERE o.id IN (:ids) ORDER BY o.id";
+                    final Parameters params = new Parameters().addIds(idsBatch);
+                    final List<ome.model.core.OriginalFile> batch = new ArrayList<ome.model.core.OriginalFile>();
+                    for (final Object[] result : sf.getQueryService().projection(query, params)) {
+                        batch.add((ome.model.core.OriginalFile) result[0]);
+                    }
+                    return batch;
+                }
+            }));
+        }
+        return files;
+    }
+
+    @Override
+    public List<Long> getFileIdsInRepository(final String repo, final long afterId, final int limit,
+            Ice.Current current) {
+        return executor.execute(current.ctx, currentUser(current),
+                new Executor.SimpleWork<List<Long>>(this, "getFileIdsInRepository", repo, afterId, limit) {
+            @Override
+            @Transactional(readOnly = true)
+            public List<Long> doWork(Session session, ServiceFactory sf) {
+                final org.hibernate.SQLQuery query = session.createSQLQuery(
+                        "SELECT id FROM originalfile WHERE repo = :repo AND id > :after ORDER BY id");
+                query.setString("repo", repo);
+                query.setLong("after", afterId);
+                query.setMaxResults(limit);
+                final List<Long> ids = new ArrayList<Long>();
+                for (final Object id : query.list()) {
+                    ids.add(((Number) id).longValue());
+                }
+                return ids;
+            }
+        });
+    }
+
     @Override
     public void saveObject(final IObject object, Ice.Current current) {
         executor.execute(current.ctx, currentUser(current),
@@ -19,6 +19,7 @@ package ome.services.blitz.repo;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import org.springframework.beans.BeansException;
 import org.springframework.context.ApplicationContext;
@@ -59,6 +60,8 @@ public class RequestObjectFactoryRegistry extends
 
     private/* final */OmeroContext ctx;
 
+    private int importThreads = 1;
+
     @Deprecated
     public RequestObjectFactoryRegistry(Registry reg, TileSizes sizes,
             RepositoryDao repositoryDao, Ring ring,
@@ -90,6 +93,22 @@ public class RequestObjectFactoryRegistry extends
         this.readerSecurityCheck = readerSecurityCheck;
     }
 
+    /**
+     * @param importThreads the most readers that each import may use at once
+     * to compute pixel statistics
+     */
+    public void setImportThreads(int importThreads) {
+        this.importThreads = importThreads;
+    }
+
+    private OMEROWrapper createReader() {
+        return new OMEROWrapper(
+                new ImportConfig(),
+                pixels.getMemoizerWait(),
+                pixels.getMemoizerDirectory(),
+                readerSecurityCheck);
+    }
+
     public void setApplicationContext(ApplicationContext ctx)
             throws BeansException {
         this.ctx = (OmeroContext) ctx;
@@ -102,13 +121,14 @@ public class RequestObjectFactoryRegistry extends
             @Override
             public Ice.Object create(String name) {
                 ManagedImportRequestI mir = new ManagedImportRequestI(reg, sizes, dao,
-                        new OMEROWrapper(
-                                new ImportConfig(),
-                                pixels.getMemoizerWait(),
-                                pixels.getMemoizerDirectory(),
-                                readerSecurityCheck),
-                        ring.uuid);
+                        createReader(), ring.uuid);
                 mir.setResources(resources);
+                mir.setStatisticsReaders(new Callable<OMEROWrapper>() {
+                    @Override
+                    public OMEROWrapper call() {
+                        return createReader();
+                    }
+                }, importThreads);
                 return mir;
             }
 
@@ -120,6 +140,14 @@ public class RequestObjectFactoryRegistry extends
                 return new RawAccessRequestI(reg);
             }
 
+        });
+        factories.put(VerifyChecksumsRequestI.ice_staticId(), new ObjectFactory(
+                VerifyChecksumsRequestI.ice_staticId()) {
+            @Override
+            public Ice.Object create(String name) {
+                return new VerifyChecksumsRequestI(reg);
+            }
+
         });
         return factories;
     }
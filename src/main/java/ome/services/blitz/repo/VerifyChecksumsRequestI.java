@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2026 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.blitz.repo;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+import org.hibernate.SQLQuery;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableMap;
+
+import ome.services.blitz.fire.Registry;
+
+import omero.cmd.ERR;
+import omero.cmd.HandleI.Cancel;
+import omero.cmd.Helper;
+import omero.cmd.IRequest;
+import omero.cmd.Response;
+import omero.cmd.Unknown;
+import omero.grid.InternalRepositoryPrx;
+import omero.grid.VerifyChecksumsRequest;
+import omero.grid.VerifyChecksumsResponse;
+
+/**
+ * Verifies the checksums of every file in a repository. Each step has the
+ * repository verify one batch of files in parallel so that the progress of
+ * the request is reported by its status. The response records the last
+ * file ID verified: should the request fail or be cancelled, that ID is
+ * given in the parameters of the {@link ERR} so that another request can
+ * resume from there.
+ *
+ * @since 5.8.6
+ */
+public class VerifyChecksumsRequestI extends VerifyChecksumsRequest implements IRequest {
+
+    private static final long serialVersionUID = 6471098309410452136L;
+
+    private static final Logger log = LoggerFactory.getLogger(VerifyChecksumsRequestI.class);
+
+    /** The number of files verified by each step if the request does not specify. */
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private final Registry reg;
+
+    protected Helper helper;
+
+    protected InternalRepositoryPrx repo;
+
+    /** The number of files which the request is to consider. */
+    private long total;
+
+    /** If {@link #total} covers every file which followed {@link #afterId} on initialization. */
+    private boolean coversRepository;
+
+    private long considered = 0;
+
+    private VerifyChecksumsResponse rsp;
+
+    public VerifyChecksumsRequestI(Registry reg) {
+        this.reg = reg;
+    }
+
+    //
+    // IRequest methods
+    //
+
+    public Map<String, String> getCallContext() {
+        return null;
+    }
+
+    public void init(Helper helper) {
+        this.helper = helper;
+
+        if (!helper.getEventContext().isCurrentUserAdmin()) {
+            throw helper.cancel(new ERR(), new omero.SecurityViolation(),
+                    "not-admin");
+        }
+
+        try {
+            final String proposedName = "InternalRepository-" + repoUuid;
+            for (final InternalRepositoryPrx prx : reg.lookupRepositories()) {
+                if (proposedName.equals(prx.ice_getIdentity().name)) {
+                    repo = prx;
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            throw helper.cancel(new ERR(), e, "registry-lookup", "repoUuid", repoUuid);
+        }
+
+        if (repo == null) {
+            throw helper.cancel(new Unknown(), null, "unknown-repo", "repoUuid",
+                    repoUuid);
+        }
+
+        if (batchSize <= 0) {
+            batchSize = DEFAULT_BATCH_SIZE;
+        }
+        if (threads <= 0) {
+            threads = ParallelFileHasher.defaultThreads();
+        }
+
+        final SQLQuery query = helper.getSession().createSQLQuery(
+                "SELECT count(id) FROM originalfile WHERE repo = :repo AND id > :after");
+        query.setString("repo", repoUuid);
+        query.setLong("after", afterId);
+        final long count = ((Number) query.uniqueResult()).longValue();
+        total = limit > 0 ? Math.min(count, limit) : count;
+        coversRepository = total == count;
+
+        rsp = new VerifyChecksumsResponse();
+        rsp.mismatchedIds = new ArrayList<Long>();
+        rsp.unreadableIds = new ArrayList<Long>();
+        rsp.lastVerifiedId = afterId;
+
+        helper.info("Verifying %d files in repository %s after file ID %d", total, repoUuid, afterId);
+        helper.setSteps((int) Math.max(1, (total + batchSize - 1) / batchSize));
+    }
+
+    public Object step(int step) throws Cancel {
+        helper.assertStep(step);
+        final int pageLimit = (int) Math.min(batchSize, total - considered);
+        if (pageLimit <= 0 || rsp.complete) {
+            return null;
+        }
+        final Map<String, String> ctx = ImmutableMap.of(
+                omero.constants.SESSIONUUID.value, helper.getEventContext().getCurrentSessionUuid(),
+                omero.constants.GROUP.value, "-1");
+        final VerifyChecksumsResponse page;
+        try {
+            page = repo.verifyChecksumsAfter(rsp.lastVerifiedId, pageLimit, threads, bytesPerSecond, ctx);
+        } catch (Throwable t) {
+            throw helper.cancel(new ERR(), t, "verify-checksums",
+                    "lastVerifiedId", Long.toString(rsp.lastVerifiedId));
+        }
+        considered += pageLimit;
+        rsp.mismatchedIds.addAll(page.mismatchedIds);
+        rsp.unreadableIds.addAll(page.unreadableIds);
+        rsp.filesVerified += page.filesVerified;
+        rsp.bytesVerified += page.bytesVerified;
+        rsp.lastVerifiedId = page.lastVerifiedId;
+        rsp.complete = page.complete;
+        log.debug("Verified repository {} up to file ID {}", repoUuid, rsp.lastVerifiedId);
+        return null;
+    }
+
+    @Override
+    public void finish() throws Cancel {
+        // no-op
+    }
+
+    public void buildResponse(int step, Object object) {
+        helper.assertResponse(step);
+        if (helper.isLast(step)) {
+            rsp.complete |= coversRepository;
+            helper.setResponseIfNull(rsp);
+        }
+    }
+
+    public Response getResponse() {
+        return helper.getResponse();
+    }
+}
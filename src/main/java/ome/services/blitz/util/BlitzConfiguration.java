@@ -125,6 +125,7 @@ public class BlitzConfiguration {
             // When using adapter methods from within the ring, it is necessary
             // to start the adapter first.
             blitzRing.setRegistry(registry);
+            blitzRing.setSessionManager(blitzManager);
             blitzRing.init(blitzAdapter, communicator
                     .proxyToString(getDirectProxy()));
         } catch (RuntimeException e) {
@@ -5,9 +5,13 @@
 
 package ome.services.blitz.util;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import ome.api.ServiceInterface;
 import ome.system.OmeroContext;
@@ -39,6 +43,12 @@ import org.springframework.util.Assert;
  * It is also possible to have this class not handle mapping arguments and
  * return values by passing a return value mapper.
  * 
+ * Each method is bound once per service class to a {@link MethodHandle}
+ * taking the target and an argument array, and which of its parameters need
+ * mapping is noted then, so that each call costs neither the access checks of
+ * {@link Method#invoke(Object, Object...)} nor a walk through the type checks
+ * of {@link IceMapper#handleInput(Class, Object)} for primitive arguments.
+ * 
  * Future:
  * <ul>
  * <li>Currently ignoring
@@ -53,9 +63,18 @@ public class IceMethodInvoker {
 
     private static Logger log = LoggerFactory.getLogger(IceMethodInvoker.class);
 
+    /** {@link Info#switches} value for a parameter which needs no mapping unless given an {@link omero.RType}. */
+    private static final int UNMAPPED = 0;
+
+    /** {@link Info#switches} value for a parameter which is mapped by {@link IceMapper#handleInput(Class, Object)}. */
+    private static final int MAPPED = 1;
+
     static class Info {
         Method method;
 
+        /** Invokes {@link #method} given the target then the arguments as an {@code Object[]}, or null if not accessible. */
+        MethodHandle handle;
+
         Class<?>[] params;
 
         Class<?> retType;
@@ -63,10 +82,12 @@ public class IceMethodInvoker {
         int[] switches;
     }
 
-    private final static Map<Class<?>, Map<String, Info>> staticmap = new HashMap<Class<?>, Map<String, Info>>();
+    private final static Map<Class<?>, Map<String, Info>> staticmap = new ConcurrentHashMap<Class<?>, Map<String, Info>>();
 
     private final Class<?> serviceClass;
 
+    private final Map<String, Info> methods;
+
     private OmeroContext ctx;
 
     /**
@@ -100,27 +121,66 @@ public class IceMethodInvoker {
         this.serviceClass = k;
         this.ctx = context;
 
-        if (!staticmap.containsKey(this.serviceClass)) {
+        Map<String, Info> map = staticmap.get(this.serviceClass);
+        if (map == null) {
             synchronized (staticmap) {
                 // Re-check in case already added
-                if (!staticmap.containsKey(this.serviceClass)) {
-                    Map<String, Info> map = new HashMap<String, Info>();
+                map = staticmap.get(this.serviceClass);
+                if (map == null) {
+                    map = new HashMap<String, Info>();
                     Method[] ms = this.serviceClass.getMethods();
                     for (Method m : ms) {
                         Info i = new Info();
                         i.method = m;
+                        i.handle = bind(m);
                         i.params = m.getParameterTypes();
                         i.retType = m.getReturnType();
+                        i.switches = new int[i.params.length];
+                        for (int p = 0; p < i.params.length; p++) {
+                            i.switches[p] = IceMapper.isInputUnmapped(i.params[p]) ? UNMAPPED
+                                    : MAPPED;
+                        }
                         map.put(m.getName(), i);
                     }
                     staticmap.put(this.serviceClass, map);
                 }
             }
         }
+        this.methods = map;
+    }
+
+    /**
+     * Binds the given method to a handle of type
+     * {@code (Object, Object[])Object} which boxes and unboxes as needed and
+     * ignores the target of static methods.
+     * 
+     * @return the handle or null if the method is not accessible, in which
+     *         case it must be called via reflection
+     */
+    private static MethodHandle bind(Method m) {
+        MethodHandle handle;
+        try {
+            handle = MethodHandles.publicLookup().unreflect(m);
+        } catch (IllegalAccessException iae) {
+            // e.g. a public method of a non-public class
+            try {
+                m.setAccessible(true);
+                handle = MethodHandles.lookup().unreflect(m);
+            } catch (Exception e) {
+                log.debug("Cannot bind {}, will use reflection", m, e);
+                return null;
+            }
+        }
+        if (Modifier.isStatic(m.getModifiers())) {
+            handle = MethodHandles.dropArguments(handle, 0, Object.class);
+        }
+        final int arity = m.getParameterTypes().length;
+        return handle.asType(handle.type().generic()).asSpreader(
+                Object[].class, arity);
     }
 
     Map<String, Info> map() {
-        return staticmap.get(serviceClass);
+        return methods;
     }
 
     /**
@@ -169,7 +229,11 @@ public class IceMethodInvoker {
 
         Object retVal = null;
         try {
-            retVal = info.method.invoke(obj, objs);
+            if (info.handle != null) {
+                retVal = (Object) info.handle.invokeExact(obj, objs);
+            } else {
+                retVal = info.method.invoke(obj, objs);
+            }
         } catch (Throwable t) {
             throw mapper.handleException(t, ctx);
         }
@@ -216,9 +280,14 @@ public class IceMethodInvoker {
         Object[] objs = new Object[params.length];
 
         // be sure to use our own types
+        final int[] switches = info.switches;
         for (int i = 0; i < params.length; i++) {
             Class<?> p = params[i];
             Object arg = args[i];
+            if (switches[i] == UNMAPPED && !(arg instanceof omero.RType)) {
+                objs[i] = arg;
+                continue;
+            }
             objs[i] = mapper.handleInput(p, arg);
             // This check duplicates what should be in handleInput
             // if (null != objs[i] && !isPrimitive(p) && // FIXME need way
@@ -0,0 +1,303 @@
+/*
+ *   Copyright 2026 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.blitz.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ome.model.IObject;
+import ome.services.blitz.fire.Registry;
+import ome.services.util.Executor;
+import ome.system.Principal;
+import ome.system.ServiceFactory;
+import ome.util.Filterable;
+import omero.grid.InternalRepositoryPrx;
+import omero.grid.InternalRepositoryPrxHelper;
+import omero.grid.RepositoryPrx;
+import omero.grid.TablesPrx;
+import omero.grid.TablesPrxHelper;
+import omero.model.OriginalFile;
+import omero.util.IceMapper;
+
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * In-memory directory of the repositories and tables services, so that
+ * {@link ome.services.blitz.impl.SharedResourcesI} need neither query the
+ * database nor call each service when a client asks for them. The directory
+ * is refreshed periodically via {@link #refresh()}: every service found in
+ * the {@link Registry} is probed at once with asynchronous calls, each of
+ * which times out separately, so that a slow or unreachable service delays
+ * the refresh by at most the timeout and is marked unhealthy rather than
+ * listed. Until the first refresh completes, the first caller refreshes the
+ * directory itself. Repositories which did not respond are known only from
+ * the database, as read by the directory's own principal, so are listed to a
+ * caller by {@link #get(Map, Principal)} only if the caller may read them.
+ *
+ * @since 5.8.6
+ */
+public class ResourceDirectory {
+
+    private final static Logger log = LoggerFactory.getLogger(ResourceDirectory.class);
+
+    static final String QUERY = "select o from OriginalFile o where o.mimetype = 'Repository'";
+
+    /**
+     * The repositories and tables services found by a refresh.
+     */
+    public static final class Snapshot {
+
+        /**
+         * The description of each repository, with its proxy in the same
+         * position of {@link #proxies}. Repositories known to the database
+         * which did not respond have a {@code null} proxy.
+         */
+        public final List<OriginalFile> descriptions;
+
+        public final List<RepositoryPrx> proxies;
+
+        /** The tables services which responded. */
+        public final List<TablesPrx> tables;
+
+        Snapshot(List<OriginalFile> descriptions, List<RepositoryPrx> proxies,
+                List<TablesPrx> tables) {
+            this.descriptions = Collections.unmodifiableList(descriptions);
+            this.proxies = Collections.unmodifiableList(proxies);
+            this.tables = Collections.unmodifiableList(tables);
+        }
+    }
+
+    private final Registry registry;
+
+    private final Executor executor;
+
+    private final Principal principal;
+
+    /** How long to wait for each service to respond. */
+    private final int waitMillis;
+
+    private final Object refreshLock = new Object();
+
+    private volatile Snapshot snapshot;
+
+    /** The services which did not respond to the last refresh. */
+    private final Set<String> unhealthy = new HashSet<String>();
+
+    /**
+     * @param registry the registry of the services
+     * @param executor the executor for querying the repositories in the
+     * database
+     * @param principal the principal for querying all the repositories
+     * @param waitMillis how long to wait for each service to respond
+     */
+    public ResourceDirectory(Registry registry, Executor executor,
+            Principal principal, long waitMillis) {
+        this.registry = registry;
+        this.executor = executor;
+        this.principal = principal;
+        this.waitMillis = (int) Math.min(Integer.MAX_VALUE, waitMillis);
+    }
+
+    /**
+     * @return the directory as last refreshed, refreshing it first if it
+     * has not yet been
+     */
+    public Snapshot get() {
+        final Snapshot current = snapshot;
+        if (current != null) {
+            return current;
+        }
+        synchronized (refreshLock) {
+            if (snapshot == null) {
+                refresh();
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * Lists the directory as seen by a caller: the repositories which
+     * responded to the last refresh are listed, as are those which did not
+     * but whose description the caller may read. The database is queried as
+     * the caller only if some repository did not respond.
+     *
+     * @param callContext the caller's call context
+     * @param caller the caller
+     * @return the directory as last refreshed, filtered for the caller
+     */
+    public Snapshot get(Map<String, String> callContext, Principal caller) {
+        final Snapshot all = get();
+        if (!all.proxies.contains(null)) {
+            return all;
+        }
+        final Set<Long> readable = new HashSet<Long>();
+        for (final Filterable file : repositories(callContext, caller)) {
+            readable.add(((IObject) file).getId());
+        }
+        final List<OriginalFile> descs = new ArrayList<OriginalFile>();
+        final List<RepositoryPrx> prxs = new ArrayList<RepositoryPrx>();
+        for (int i = 0; i < all.descriptions.size(); i++) {
+            final RepositoryPrx proxy = all.proxies.get(i);
+            final OriginalFile desc = all.descriptions.get(i);
+            if (proxy != null || readable.contains(desc.getId().getValue())) {
+                descs.add(desc);
+                prxs.add(proxy);
+            }
+        }
+        return new Snapshot(descs, prxs, all.tables);
+    }
+
+    /**
+     * Probes the registered services and replaces the directory. Called
+     * periodically; concurrent calls are run one after another.
+     */
+    public void refresh() {
+        synchronized (refreshLock) {
+            final InternalRepositoryPrx[] repos = registry.lookupRepositories();
+            final TablesPrx[] tables = registry.lookupTables();
+
+            /* Start every probe before waiting for any. */
+            final List<InternalRepositoryPrx> repoPrxs = new ArrayList<InternalRepositoryPrx>();
+            final List<Ice.AsyncResult> descriptions = new ArrayList<Ice.AsyncResult>();
+            final List<Ice.AsyncResult> proxies = new ArrayList<Ice.AsyncResult>();
+            if (repos != null) {
+                for (final InternalRepositoryPrx repo : repos) {
+                    if (repo != null) {
+                        final InternalRepositoryPrx prx = InternalRepositoryPrxHelper
+                                .uncheckedCast(repo.ice_invocationTimeout(waitMillis));
+                        repoPrxs.add(prx);
+                        descriptions.add(prx.begin_getDescription());
+                        proxies.add(prx.begin_getProxy());
+                    }
+                }
+            }
+            final List<TablesPrx> tablesServices = new ArrayList<TablesPrx>();
+            final List<TablesPrx> tablesPrxs = new ArrayList<TablesPrx>();
+            final List<Ice.AsyncResult> tablesRepos = new ArrayList<Ice.AsyncResult>();
+            if (tables != null) {
+                for (final TablesPrx table : tables) {
+                    if (table != null) {
+                        final TablesPrx prx = TablesPrxHelper
+                                .uncheckedCast(table.ice_invocationTimeout(waitMillis));
+                        tablesServices.add(table);
+                        tablesPrxs.add(prx);
+                        tablesRepos.add(prx.begin_getRepository());
+                    }
+                }
+            }
+
+            final List<OriginalFile> known = knownRepositories();
+
+            final Set<String> failed = new HashSet<String>();
+            final List<OriginalFile> descs = new ArrayList<OriginalFile>();
+            final List<RepositoryPrx> prxs = new ArrayList<RepositoryPrx>();
+            final Set<Long> found = new HashSet<Long>();
+            for (int i = 0; i < repoPrxs.size(); i++) {
+                final InternalRepositoryPrx prx = repoPrxs.get(i);
+                try {
+                    final OriginalFile desc = prx.end_getDescription(descriptions.get(i));
+                    final RepositoryPrx proxy = prx.end_getProxy(proxies.get(i));
+                    if (desc == null || desc.getId() == null) {
+                        log.warn("Description is null for " + prx);
+                        continue;
+                    }
+                    descs.add(desc);
+                    prxs.add(proxy);
+                    found.add(desc.getId().getValue());
+                } catch (Exception e) {
+                    failed.add(prx.toString());
+                    log.debug("Failed to probe repository " + prx + ": " + e);
+                }
+            }
+            for (final OriginalFile desc : known) {
+                if (!found.contains(desc.getId().getValue())) {
+                    descs.add(desc);
+                    prxs.add(null);
+                }
+            }
+
+            final List<TablesPrx> healthy = new ArrayList<TablesPrx>();
+            for (int i = 0; i < tablesPrxs.size(); i++) {
+                final TablesPrx prx = tablesPrxs.get(i);
+                try {
+                    if (prx.end_getRepository(tablesRepos.get(i)) != null) {
+                        /* without the probe's timeout */
+                        healthy.add(tablesServices.get(i));
+                        continue;
+                    }
+                } catch (Exception e) {
+                    log.debug("Failed to probe tables " + prx + ": " + e);
+                }
+                failed.add(prx.toString());
+            }
+
+            markUnhealthy(failed);
+            snapshot = new Snapshot(descs, prxs, healthy);
+        }
+    }
+
+    /**
+     * Logs the services which have become unhealthy or recovered.
+     */
+    void markUnhealthy(Set<String> failed) {
+        for (final String prx : failed) {
+            if (unhealthy.add(prx)) {
+                log.warn("Marked unhealthy, not responding within {}ms: {}", waitMillis, prx);
+            }
+        }
+        for (final String prx : new ArrayList<String>(unhealthy)) {
+            if (!failed.contains(prx)) {
+                unhealthy.remove(prx);
+                log.info("Responding again: {}", prx);
+            }
+        }
+    }
+
+    /**
+     * @param prx a service
+     * @return if the service did not respond to the last refresh
+     */
+    boolean isUnhealthy(String prx) {
+        synchronized (refreshLock) {
+            return unhealthy.contains(prx);
+        }
+    }
+
+    /**
+     * @return all the repositories registered in the database
+     */
+    @SuppressWarnings("unchecked")
+    private List<OriginalFile> knownRepositories() {
+        return (List<OriginalFile>) new IceMapper().map(repositories(null, principal));
+    }
+
+    /**
+     * @param callContext the call context, may be {@code null}
+     * @param reader the principal for querying the repositories
+     * @return the repositories registered in the database which the
+     * principal may read
+     */
+    @SuppressWarnings("unchecked")
+    private List<Filterable> repositories(Map<String, String> callContext, Principal reader) {
+        final Executor.SimpleWork work = new Executor.SimpleWork(this, "repositories") {
+            @Transactional(readOnly = true)
+            public Object doWork(Session session, ServiceFactory sf) {
+                return sf.getQueryService().findAllByQuery(QUERY, null);
+            }
+        };
+        if (callContext == null) {
+            return (List<Filterable>) executor.execute(reader, work);
+        }
+        return (List<Filterable>) executor.execute(callContext, reader, work);
+    }
+}
@@ -9,7 +9,6 @@ import static omero.rtypes.rdouble;
 import static omero.rtypes.rint;
 import static omero.rtypes.rlong;
 
-import java.io.IOException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -18,10 +17,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import ome.conditions.ApiUsageException;
-import ome.io.nio.PixelBuffer;
 import ome.model.IObject;
 import ome.model.core.Pixels;
 import ome.services.util.Executor;
@@ -75,6 +74,9 @@ public class GeomTool {
 
     protected final String uuid;
 
+    /** The executor on which shapes' planes are measured, may be {@code null}. */
+    protected ExecutorService parallelExecutor;
+
     public GeomTool(PixelData data, SqlAction sql,
             SessionFactory factory) {
         this(data, sql, factory, null, null);
@@ -89,6 +91,15 @@ public class GeomTool {
         this.uuid = uuid;
     }
 
+    /**
+     * @param parallelExecutor the shared executor on which to measure the
+     * planes of shapes in parallel, may be {@code null} to measure them on
+     * the calling thread
+     */
+    public void setParallelExecutor(ExecutorService parallelExecutor) {
+        this.parallelExecutor = parallelExecutor;
+    }
+
     /**
      * Loads just the shape and no other relationships. This
      * 
@@ -305,40 +316,22 @@ public class GeomTool {
             final int endZ = (theZ == null) ? (maxZ - 1) : theZ.intValue();
             final int endT = (theT == null) ? (maxT - 1) : theT.intValue();
 
-            final PixelBuffer buf = data.getBuffer(pixId);
-            try {
-                SmartShape.PointCallback cb = new SmartShape.PointCallback() {
-
-                    public void handle(int x, int y) {
-
-                        for (int w = 0; w < ch; w++) {
-
-                            for (int z = startZ; z <= endZ; z++) {
-                                for (int t = startT; t <= endT; t++) {
-
-                                    // WHAT TO DO ABOUT THE CHANNELS IN AGGREGATION?
-                                    stats.pointsCount[w]++;
-                                    double value = data.get(buf, x, y, z, w, t);
-                                    stats.min[w] = Math.min(value, stats.min[w]);
-                                    stats.max[w] = Math.max(value, stats.max[w]);
-                                    stats.sum[w] += value;
-                                    sumOfSquares[w] += value * value;
-
-                                }
-                            }
-
-                        }
+            // WHAT TO DO ABOUT THE CHANNELS IN AGGREGATION?
+            final ShapeStatistics.Mask mask = ShapeStatistics.Mask.of(smartShape);
+            mask.assertWithin(pix.getSizeX(), pix.getSizeY());
+            final List<ShapeStatistics.Plane> planes =
+                    new ArrayList<ShapeStatistics.Plane>();
+            for (int w = 0; w < ch; w++) {
+                for (int z = startZ; z <= endZ; z++) {
+                    for (int t = startT; t <= endT; t++) {
+                        planes.add(new ShapeStatistics.Plane(mask, z, w, t));
                     }
-                };
-
-                smartShape.areaPoints(cb);
-            } finally {
-                try {
-                    buf.close();
-                } catch (IOException e) {
-                    log.error("Error closing " + buf, e);
                 }
             }
+            ShapeStatistics.measure(parallelExecutor, data, pixId, planes);
+            for (final ShapeStatistics.Plane plane : planes) {
+                plane.result.addTo(stats, plane.c, sumOfSquares);
+            }
 
             for (int w = 0; w < ch; w++) {
 
@@ -410,10 +403,6 @@ public class GeomTool {
            zt_lookup.put(theZ + "/" + theT, shape);
        }
 
-       // any point iteration in a tiled image is a lost cause
-       if (data.requiresPixelsPyramid(pixels)) 
-           throw new ApiUsageException("This method cannot handle tiled images yet.");
-
        // check if given channels are valid
        Set<Integer> validChannels = new HashSet<Integer>();
        if (channels != null && channels.length > 0) {
@@ -429,7 +418,10 @@ public class GeomTool {
        final int sizeX = pixels.getSizeX();
        final int sizeY = pixels.getSizeY();
 
-       // loop over shapes (grouped by z/t planes)
+       // measure the shapes' planes together (grouped by z/t planes)
+       final List<ShapeStats> allStats = new ArrayList<ShapeStats>();
+       final List<double[]> allSumsOfSquares = new ArrayList<double[]>();
+       final List<ShapeStatistics.Plane> planes = new ArrayList<ShapeStatistics.Plane>();
        for (final String key : zt_lookup.keySet()) {
            final String[] keyTokens = key.split("/");
            final int z = Integer.parseInt(keyTokens[0]);
@@ -437,50 +429,43 @@ public class GeomTool {
 
            for (ome.model.roi.Shape shape : zt_lookup.get(key)) {
                final SmartShape smartShape = (SmartShape) new ShapeMapper().map(shape);
+               // we won't use pixels outside of the image
+               final ShapeStatistics.Mask mask =
+                       ShapeStatistics.Mask.of(smartShape).clip(sizeX, sizeY);
                final int size_stats = validChannels.size();
                final ShapeStats stats = makeStats(size_stats);
                stats.shapeId = shape.getId();
-               final double[] sumOfSquares = new double[size_stats];
-
-               try (final PixelBuffer buf = data.getBuffer(pixelId)) {
-            	   int i = 0;
-                   for (int c : validChannels) {
-                       final int w = i;
-                       stats.channelIds[w] = c;
-                       final ome.util.PixelData pd = data.getPlane(buf, z, c, t);
-                       smartShape.areaPoints(
-                           new SmartShape.PointCallback() {
-                               public void handle(int x, int y) {
-                                   // we won't use pixels outside of the image 
-                                   if (x < 0 || y < 0 || x >= sizeX || y >= sizeY) return;
-                                   stats.pointsCount[w]++;
-                                   double value = pd.getPixelValue(sizeX * y + x);
-                                   stats.min[w] = Math.min(value, stats.min[w]);
-                                   stats.max[w] = Math.max(value, stats.max[w]);
-                                   stats.sum[w] += value;
-                                   sumOfSquares[w] += value * value;
-                               }
-                           });
-                       pd.dispose();
-                       i++;
-                   }
-               } catch (IOException io) {
-                   log.error("Error closing buffer", io);
+               int i = 0;
+               for (int c : validChannels) {
+                   stats.channelIds[i++] = c;
+                   planes.add(new ShapeStatistics.Plane(mask, z, c, t));
                }
-
-               for (int w = 0; w < size_stats; w++) {
-                   if (stats.pointsCount[w] > 0) {
-                       stats.mean[w] = stats.sum[w] / stats.pointsCount[w];
-                       if (stats.pointsCount[w] > 1) {
-                           double sigmaSquare =
-                               (sumOfSquares[w] - stats.sum[w] * stats.mean[w]) /
-                               (stats.pointsCount[w] - 1);
-                           if (sigmaSquare > 0) stats.stdDev[w] = Math.sqrt(sigmaSquare);
-                       }
+               allStats.add(stats);
+               allSumsOfSquares.add(new double[size_stats]);
+           }
+       }
+       ShapeStatistics.measure(parallelExecutor, data, pixelId, planes);
+
+       int p = 0;
+       for (int s = 0; s < allStats.size(); s++) {
+           final ShapeStats stats = allStats.get(s);
+           final double[] sumOfSquares = allSumsOfSquares.get(s);
+           final int size_stats = stats.channelIds.length;
+           for (int w = 0; w < size_stats; w++) {
+               planes.get(p++).result.addTo(stats, w, sumOfSquares);
+           }
+           for (int w = 0; w < size_stats; w++) {
+               if (stats.pointsCount[w] > 0) {
+                   stats.mean[w] = stats.sum[w] / stats.pointsCount[w];
+                   if (stats.pointsCount[w] > 1) {
+                       double sigmaSquare =
+                           (sumOfSquares[w] - stats.sum[w] * stats.mean[w]) /
+                           (stats.pointsCount[w] - 1);
+                       if (sigmaSquare > 0) stats.stdDev[w] = Math.sqrt(sigmaSquare);
                    }
                }
-               shapeStats.add(stats);
            }
+           shapeStats.add(stats);
        }
        
        return shapeStats.toArray(new ShapeStats[] {});
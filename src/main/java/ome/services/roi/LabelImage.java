@@ -0,0 +1,283 @@
+/*
+ *   Copyright 2026 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.roi;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.imageio.ImageIO;
+
+import loci.common.ByteArrayHandle;
+import loci.common.DataTools;
+import loci.common.Location;
+import loci.formats.FormatException;
+import loci.formats.FormatTools;
+import loci.formats.in.TiffReader;
+import ome.conditions.ApiUsageException;
+import ome.model.roi.Mask;
+
+/**
+ * The labelled regions of a mask image, as uploaded via
+ * {@link omero.api.IRoiPrx#uploadMask(long, int, int, byte[])}. The image is
+ * scanned once, a row at a time, and each run of same-valued pixels is
+ * recorded against its label along with the label's bounding box; the packed
+ * bitmask of each label is then filled from its runs.
+ * <p>
+ * Images that {@link ImageIO} can read are labelled by color, black being
+ * the background, except that the samples of single-band gray images are
+ * used directly. TIFF images are read with Bio-Formats so that 16 and 32-bit
+ * label images may be used, zero being the background; their labels are not
+ * then limited by the number of distinct colors.
+ * </p>
+ * @since 5.8.6
+ */
+public class LabelImage {
+
+    private static final int BLACK = 0xff000000;
+
+    /**
+     * The runs and bounding box of one label.
+     */
+    private static final class Label {
+
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+
+        /** Triples of y, first x and last x plus one. */
+        int[] runs = new int[12];
+
+        int size = 0;
+
+        void add(int y, int x0, int x1) {
+            if (size == runs.length) {
+                runs = Arrays.copyOf(runs, size * 2);
+            }
+            runs[size++] = y;
+            runs[size++] = x0;
+            runs[size++] = x1;
+            if (x0 < minX) minX = x0;
+            if (x1 - 1 > maxX) maxX = x1 - 1;
+            if (y < minY) minY = y;
+            if (y > maxY) maxY = y;
+        }
+
+        /**
+         * @return the pixels of the bounding box as bits, row by row, most
+         * significant bit first
+         */
+        byte[] asBytes() {
+            final int width = maxX - minX + 1;
+            final long height = maxY - minY + 1;
+            final byte[] data = new byte[(int) ((width * height + 7) / 8)];
+            for (int i = 0; i < size; i += 3) {
+                final long rowStart = (long) (runs[i] - minY) * width - minX;
+                for (long bit = rowStart + runs[i + 1]; bit < rowStart + runs[i + 2]; bit++) {
+                    data[(int) (bit >>> 3)] |= 0x80 >>> (bit & 7);
+                }
+            }
+            return data;
+        }
+    }
+
+    private final Map<Integer, Label> labels = new HashMap<Integer, Label>();
+
+    private final int background;
+
+    private LabelImage(int background) {
+        this.background = background;
+    }
+
+    /**
+     * Reads a mask image.
+     * @param bytes the content of an image file
+     * @return the labels of the image
+     * @throws IOException if the image could not be read
+     * @throws FormatException if a TIFF image could not be parsed
+     */
+    public static LabelImage read(byte[] bytes) throws IOException, FormatException {
+        if (isTiff(bytes)) {
+            return readTiff(bytes);
+        }
+        final BufferedImage image = ImageIO.read(new ByteArrayInputStream(bytes));
+        if (image == null) {
+            throw new ApiUsageException("Unsupported mask image format");
+        }
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final Raster raster = image.getRaster();
+        final int[] row = new int[width];
+        if (raster.getNumBands() == 1 && !(image.getColorModel() instanceof IndexColorModel)
+                && raster.getTransferType() != DataBuffer.TYPE_FLOAT
+                && raster.getTransferType() != DataBuffer.TYPE_DOUBLE) {
+            final LabelImage labels = new LabelImage(0);
+            for (int y = 0; y < height; y++) {
+                raster.getSamples(0, y, width, 1, 0, row);
+                labels.scan(y, row);
+            }
+            return labels;
+        }
+        final LabelImage labels = new LabelImage(BLACK);
+        switch (image.getType()) {
+        case BufferedImage.TYPE_INT_RGB:
+        case BufferedImage.TYPE_INT_ARGB:
+            final boolean opaque = image.getType() == BufferedImage.TYPE_INT_RGB;
+            for (int y = 0; y < height; y++) {
+                raster.getDataElements(0, y, width, 1, row);
+                if (opaque) {
+                    for (int x = 0; x < width; x++) {
+                        row[x] |= BLACK;
+                    }
+                }
+                labels.scan(y, row);
+            }
+            break;
+        case BufferedImage.TYPE_3BYTE_BGR:
+        case BufferedImage.TYPE_4BYTE_ABGR:
+            final int bands = raster.getNumBands();
+            final byte[] elements = new byte[width * bands];
+            for (int y = 0; y < height; y++) {
+                raster.getDataElements(0, y, width, 1, elements);
+                for (int x = 0, i = 0; x < width; x++, i += bands) {
+                    final int alpha = bands == 4 ? elements[i + 3] & 0xff : 0xff;
+                    row[x] = alpha << 24 | (elements[i] & 0xff) << 16
+                            | (elements[i + 1] & 0xff) << 8 | elements[i + 2] & 0xff;
+                }
+                labels.scan(y, row);
+            }
+            break;
+        default:
+            for (int y = 0; y < height; y++) {
+                image.getRGB(0, y, width, 1, row, 0, width);
+                labels.scan(y, row);
+            }
+        }
+        return labels;
+    }
+
+    private static boolean isTiff(byte[] bytes) {
+        return bytes.length >= 4
+                && (bytes[0] == 'I' && bytes[1] == 'I' && (bytes[2] == 42 || bytes[2] == 43) && bytes[3] == 0
+                 || bytes[0] == 'M' && bytes[1] == 'M' && bytes[2] == 0 && (bytes[3] == 42 || bytes[3] == 43));
+    }
+
+    /**
+     * Reads the first plane of a single-channel integer TIFF image.
+     */
+    private static LabelImage readTiff(byte[] bytes) throws IOException, FormatException {
+        final String id = "uploadMask-" + UUID.randomUUID() + ".tif";
+        Location.mapFile(id, new ByteArrayHandle(bytes));
+        final TiffReader reader = new TiffReader();
+        try {
+            reader.setId(id);
+            final int pixelType = reader.getPixelType();
+            if (reader.getRGBChannelCount() != 1 || FormatTools.isFloatingPoint(pixelType)) {
+                throw new ApiUsageException(
+                        "A TIFF mask must have a single channel of integer labels");
+            }
+            final int width = reader.getSizeX();
+            final int height = reader.getSizeY();
+            final int bytesPerPixel = FormatTools.getBytesPerPixel(pixelType);
+            final boolean signed = FormatTools.isSigned(pixelType);
+            final boolean little = reader.isLittleEndian();
+            final byte[] plane = reader.openBytes(0);
+            final LabelImage labels = new LabelImage(0);
+            final int[] row = new int[width];
+            for (int y = 0; y < height; y++) {
+                int offset = y * width * bytesPerPixel;
+                for (int x = 0; x < width; x++, offset += bytesPerPixel) {
+                    switch (bytesPerPixel) {
+                    case 1:
+                        row[x] = signed ? plane[offset] : plane[offset] & 0xff;
+                        break;
+                    case 2:
+                        final short s = DataTools.bytesToShort(plane, offset, 2, little);
+                        row[x] = signed ? s : s & 0xffff;
+                        break;
+                    default:
+                        row[x] = DataTools.bytesToInt(plane, offset, 4, little);
+                    }
+                }
+                labels.scan(y, row);
+            }
+            return labels;
+        } finally {
+            reader.close();
+            Location.mapFile(id, null);
+        }
+    }
+
+    /**
+     * Records the runs of a row of labels.
+     */
+    private void scan(int y, int[] row) {
+        Label label = null;
+        int value = background;
+        int x = 0;
+        while (x < row.length) {
+            final int start = x;
+            final int current = row[x++];
+            while (x < row.length && row[x] == current) {
+                x++;
+            }
+            if (current == background) {
+                continue;
+            }
+            if (label == null || current != value) {
+                label = labels.get(current);
+                if (label == null) {
+                    label = new Label();
+                    labels.put(current, label);
+                }
+                value = current;
+            }
+            label.add(y, start, x);
+        }
+    }
+
+    /**
+     * @return how many labels the image has, not counting the background
+     */
+    public int size() {
+        return labels.size();
+    }
+
+    /**
+     * Creates a locked mask for each label, in ascending order of label.
+     * @param z the Z-section of the masks
+     * @param t the timepoint of the masks
+     * @return the masks
+     */
+    public List<Mask> asMasks(int z, int t) {
+        final Integer[] values = labels.keySet().toArray(new Integer[labels.size()]);
+        Arrays.sort(values);
+        final List<Mask> masks = new ArrayList<Mask>(values.length);
+        for (final Integer value : values) {
+            final Label label = labels.get(value);
+            final Mask mask = new Mask();
+            mask.setX((double) label.minX);
+            mask.setY((double) label.minY);
+            mask.setWidth((double) (label.maxX - label.minX + 1));
+            mask.setHeight((double) (label.maxY - label.minY + 1));
+            mask.setLocked(true);
+            mask.setTheT(t);
+            mask.setTheZ(z);
+            mask.setBytes(label.asBytes());
+            masks.add(mask);
+        }
+        return masks;
+    }
+}
@@ -0,0 +1,691 @@
+/*
+ *   Copyright 2026 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.roi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A spatial index of the bounding boxes of the shapes of images, for finding
+ * the shapes within a viewport without loading every shape of an image. The
+ * index of each image is a grid of cells for each plane, built on first use
+ * from a projection of the shapes' coordinates, and the most recently used are
+ * kept. Before each use the event log is checked for shapes and ROIs created,
+ * updated or deleted since: those shapes, and the shapes of those ROIs, alone
+ * are reloaded. Each image's index is built and updated under its own lock so
+ * that building one image's index does not hold up queries of another.
+ * <p>
+ * Event log IDs are allocated as a transaction saves its logs, just before it
+ * commits, so a row may become visible after rows with higher IDs. The log
+ * is therefore rescanned from {@link #RESCAN_IDS} below the highest ID seen,
+ * skipping rows already applied.
+ * </p>
+ *
+ * @since 5.8.6
+ */
+public class ShapeIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(ShapeIndex.class);
+
+    /** Planes are keyed by this in place of a null Z or T. */
+    private static final int ALL = -1;
+
+    /** Shapes covering more cells than this are kept aside and always tested. */
+    private static final int MAX_CELLS_PER_SHAPE = 64;
+
+    /** Rebuilding is faster than applying more changed shapes than this. */
+    private static final int MAX_CHANGES = 10000;
+
+    /** How far below the highest event log ID seen to look for rows committed late. */
+    static final long RESCAN_IDS = 10000;
+
+    /** The event log rows of changes to shapes, ROIs and transforms, from the lower bound. */
+    private static final String CHANGES_QUERY = "SELECT id, entitytype, entityid FROM eventlog "
+            + "WHERE id > :from AND entitytype IN (:types) ORDER BY id";
+
+    private static final String ROI_TYPE = ome.model.roi.Roi.class.getName();
+
+    private static final String TRANSFORM_TYPE = ome.model.roi.AffineTransform.class.getName();
+
+    /**
+     * The entity types whose changes may move shapes: the shapes themselves,
+     * ROIs and the transforms of shapes. Other ROI types, such as annotation
+     * links, are not indexed.
+     */
+    private static final List<String> CHANGE_TYPES = Arrays.asList(ROI_TYPE, TRANSFORM_TYPE,
+            ome.model.roi.Ellipse.class.getName(), ome.model.roi.Label.class.getName(),
+            ome.model.roi.Line.class.getName(), ome.model.roi.Mask.class.getName(),
+            ome.model.roi.Path.class.getName(), ome.model.roi.Point.class.getName(),
+            ome.model.roi.Polygon.class.getName(), ome.model.roi.Polyline.class.getName(),
+            ome.model.roi.Rectangle.class.getName());
+
+    /** The shapes which have any of the given transforms. */
+    private static final String TRANSFORMED_SHAPES_QUERY = "SELECT id FROM shape WHERE transform IN (:transforms)";
+
+    /**
+     * The shapes of an image with their coordinates. This is SQL so that the
+     * index holds every shape regardless of who first queries it; the shapes
+     * found are then loaded in the caller's context.
+     */
+    private static final String SHAPES_QUERY = "SELECT s.id, s.discriminator, s.thez, s.thet, "
+            + "tr.a00, tr.a10, tr.a01, tr.a11, tr.a02, tr.a12, "
+            + "s.x, s.y, s.width, s.height, s.radiusx, s.radiusy, s.x1, s.y1, s.x2, s.y2, s.points, s.roi "
+            + "FROM shape s JOIN roi r ON r.id = s.roi "
+            + "LEFT OUTER JOIN affinetransform tr ON tr.id = s.transform WHERE r.image = :id";
+
+    /** The columns of the coordinates in {@link #SHAPES_QUERY}. */
+    private static final int X = 10, Y = 11, WIDTH = 12, HEIGHT = 13, RADIUS_X = 14, RADIUS_Y = 15,
+            X1 = 16, Y1 = 17, X2 = 18, Y2 = 19, POINTS = 20, ROI = 21;
+
+    /**
+     * The bounding box of a shape, as it is built.
+     */
+    private static final class Bounds {
+
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+
+        /** The affine transform of the shape, or {@code null}. */
+        double[] transform;
+
+        void add(double x, double y) {
+            if (transform != null) {
+                final double tx = transform[0] * x + transform[2] * y + transform[4];
+                y = transform[1] * x + transform[3] * y + transform[5];
+                x = tx;
+            }
+            if (x < minX) minX = x;
+            if (x > maxX) maxX = x;
+            if (y < minY) minY = y;
+            if (y > maxY) maxY = y;
+        }
+
+        /**
+         * Adds the coordinates of a shape.
+         * @param discriminator the type of the shape
+         * @param row the shape's row of {@link ShapeIndex#SHAPES_QUERY}
+         */
+        void add(String discriminator, Object[] row) {
+            if ("polygon".equals(discriminator) || "polyline".equals(discriminator)) {
+                final double[] points = parsePoints((String) row[POINTS]);
+                if (points != null) {
+                    for (int i = 0; i + 1 < points.length; i += 2) {
+                        add(points[i], points[i + 1]);
+                    }
+                }
+            } else if ("line".equals(discriminator)) {
+                add(number(row[X1]), number(row[Y1]));
+                add(number(row[X2]), number(row[Y2]));
+            } else if ("ellipse".equals(discriminator)) {
+                final double x = number(row[X]), y = number(row[Y]);
+                final double rx = number(row[RADIUS_X]), ry = number(row[RADIUS_Y]);
+                corners(x - rx, y - ry, x + rx, y + ry);
+            } else if ("rectangle".equals(discriminator) || "mask".equals(discriminator)) {
+                final double x = number(row[X]), y = number(row[Y]);
+                corners(x, y, x + number(row[WIDTH]), y + number(row[HEIGHT]));
+            } else if (row[X] != null && row[Y] != null) {
+                /* points, labels and any other shape positioned by X and Y */
+                add(number(row[X]), number(row[Y]));
+            }
+        }
+
+        private void corners(double x0, double y0, double x1, double y1) {
+            add(x0, y0);
+            add(x1, y1);
+            if (transform != null) {
+                add(x0, y1);
+                add(x1, y0);
+            }
+        }
+
+        boolean isEmpty() {
+            return !(minX <= maxX && minY <= maxY);
+        }
+    }
+
+    private static double number(Object value) {
+        return value == null ? 0 : ((Number) value).doubleValue();
+    }
+
+    /**
+     * The index of the shapes of one image.
+     */
+    private final class ImageIndex {
+
+        final long imageId;
+
+        /** The highest event log ID seen. */
+        long eventLogMark;
+
+        /** The event log rows within {@link #RESCAN_IDS} of the mark already applied. */
+        final Set<Long> applied = new HashSet<Long>();
+
+        long[] ids = new long[256];
+
+        double[] minXs = new double[256], minYs = new double[256];
+
+        double[] maxXs = new double[256], maxYs = new double[256];
+
+        int size = 0;
+
+        final BitSet liveShapes = new BitSet();
+
+        final Map<Long, Integer> byId = new HashMap<Long, Integer>();
+
+        /** The IDs of the indexed shapes of each ROI. */
+        final Map<Long, Set<Long>> byRoi = new HashMap<Long, Set<Long>>();
+
+        final Map<Long, Grid> planes = new HashMap<Long, Grid>();
+
+        ImageIndex(long imageId) {
+            this.imageId = imageId;
+        }
+
+        /**
+         * The index of the shapes of one plane, or of every plane for shapes
+         * with no Z or no T.
+         */
+        private final class Grid {
+
+            final Map<Long, int[]> cells = new HashMap<Long, int[]>();
+
+            /** The count of references held by each cell array. */
+            final Map<Long, Integer> cellSizes = new HashMap<Long, Integer>();
+
+            /** Shapes too large to be kept in cells. */
+            int[] large = new int[0];
+
+            int largeSize = 0;
+
+            void add(int shape) {
+                final long cellMinX = cell(minXs[shape]), cellMaxX = cell(maxXs[shape]);
+                final long cellMinY = cell(minYs[shape]), cellMaxY = cell(maxYs[shape]);
+                if ((cellMaxX - cellMinX + 1) * (cellMaxY - cellMinY + 1) > MAX_CELLS_PER_SHAPE) {
+                    if (largeSize == large.length) {
+                        large = Arrays.copyOf(large, Math.max(8, largeSize * 2));
+                    }
+                    large[largeSize++] = shape;
+                    return;
+                }
+                for (long cellY = cellMinY; cellY <= cellMaxY; cellY++) {
+                    for (long cellX = cellMinX; cellX <= cellMaxX; cellX++) {
+                        final Long key = cellKey(cellX, cellY);
+                        int[] cell = cells.get(key);
+                        final Integer size = cellSizes.get(key);
+                        final int count = size == null ? 0 : size;
+                        if (cell == null) {
+                            cell = new int[4];
+                        } else if (count == cell.length) {
+                            cell = Arrays.copyOf(cell, count * 2);
+                        }
+                        cell[count] = shape;
+                        cells.put(key, cell);
+                        cellSizes.put(key, count + 1);
+                    }
+                }
+            }
+
+            void find(double x0, double y0, double x1, double y1, BitSet found) {
+                for (int i = 0; i < largeSize; i++) {
+                    test(large[i], x0, y0, x1, y1, found);
+                }
+                final long cellMaxX = cell(x1), cellMaxY = cell(y1);
+                for (long cellY = cell(y0); cellY <= cellMaxY; cellY++) {
+                    for (long cellX = cell(x0); cellX <= cellMaxX; cellX++) {
+                        final Long key = cellKey(cellX, cellY);
+                        final int[] cell = cells.get(key);
+                        if (cell != null) {
+                            final int count = cellSizes.get(key);
+                            for (int i = 0; i < count; i++) {
+                                test(cell[i], x0, y0, x1, y1, found);
+                            }
+                        }
+                    }
+                }
+            }
+
+            private void test(int shape, double x0, double y0, double x1, double y1, BitSet found) {
+                if (liveShapes.get(shape) && minXs[shape] <= x1 && maxXs[shape] >= x0
+                        && minYs[shape] <= y1 && maxYs[shape] >= y0) {
+                    found.set(shape);
+                }
+            }
+        }
+
+        void add(long id, long roi, int z, int t, Bounds bounds) {
+            remove(id);
+            if (size == ids.length) {
+                final int length = size * 2;
+                ids = Arrays.copyOf(ids, length);
+                minXs = Arrays.copyOf(minXs, length);
+                minYs = Arrays.copyOf(minYs, length);
+                maxXs = Arrays.copyOf(maxXs, length);
+                maxYs = Arrays.copyOf(maxYs, length);
+            }
+            final int shape = size++;
+            ids[shape] = id;
+            minXs[shape] = bounds.minX;
+            minYs[shape] = bounds.minY;
+            maxXs[shape] = bounds.maxX;
+            maxYs[shape] = bounds.maxY;
+            liveShapes.set(shape);
+            byId.put(id, shape);
+            Set<Long> shapes = byRoi.get(roi);
+            if (shapes == null) {
+                shapes = new HashSet<Long>();
+                byRoi.put(roi, shapes);
+            }
+            shapes.add(id);
+            final Long key = planeKey(z, t);
+            Grid grid = planes.get(key);
+            if (grid == null) {
+                grid = new Grid();
+                planes.put(key, grid);
+            }
+            grid.add(shape);
+        }
+
+        void remove(long id) {
+            final Integer shape = byId.remove(id);
+            if (shape != null) {
+                liveShapes.clear(shape);
+            }
+        }
+
+        /**
+         * Removes the shapes of a ROI.
+         * @param roi the ID of the ROI
+         */
+        void removeRoi(long roi) {
+            final Set<Long> shapes = byRoi.remove(roi);
+            if (shapes != null) {
+                for (final Long id : shapes) {
+                    remove(id);
+                }
+            }
+        }
+
+        /** @return if enough shapes have been replaced that the index should be rebuilt */
+        boolean isStale() {
+            return size > 1024 && byId.size() < size / 2;
+        }
+
+        List<Long> find(int z, int t, double x0, double y0, double x1, double y1) {
+            final BitSet found = new BitSet(size);
+            for (final int planeZ : new int[] {z, ALL}) {
+                for (final int planeT : new int[] {t, ALL}) {
+                    final Grid grid = planes.get(planeKey(planeZ, planeT));
+                    if (grid != null) {
+                        grid.find(x0, y0, x1, y1, found);
+                    }
+                }
+            }
+            final long[] foundIds = new long[found.cardinality()];
+            int count = 0;
+            for (int shape = found.nextSetBit(0); shape >= 0; shape = found.nextSetBit(shape + 1)) {
+                foundIds[count++] = ids[shape];
+            }
+            Arrays.sort(foundIds);
+            final List<Long> result = new ArrayList<Long>(foundIds.length);
+            for (final long id : foundIds) {
+                result.add(id);
+            }
+            return result;
+        }
+    }
+
+    private final int maxImages;
+
+    private final int cellSize;
+
+    /**
+     * Holds the index of an image once built. Guarded by itself so that
+     * each image's index is built and updated by one caller at a time.
+     */
+    private static final class Entry {
+
+        ImageIndex index;
+    }
+
+    /** The most recently used entries. Guarded by itself. */
+    private final Map<Long, Entry> images;
+
+    /**
+     * @param maxImages how many images' indexes to keep, or {@code 0} to keep none
+     * @param cellSize the width and height of the grid cells, in pixels
+     */
+    public ShapeIndex(final int maxImages, int cellSize) {
+        this.maxImages = maxImages;
+        this.cellSize = cellSize;
+        this.images = new LinkedHashMap<Long, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                return size() > maxImages;
+            }
+        };
+    }
+
+    private long cell(double coordinate) {
+        return (long) Math.floor(coordinate / cellSize);
+    }
+
+    private static Long cellKey(long cellX, long cellY) {
+        return cellY << 32 ^ (cellX & 0xffffffffL);
+    }
+
+    private static Long planeKey(int z, int t) {
+        return (long) z << 32 | (t & 0xffffffffL);
+    }
+
+    /**
+     * Finds the shapes of an image whose bounding boxes intersect a region.
+     * @param session the current Hibernate session
+     * @param imageId the ID of the image
+     * @param z the Z-section of the shapes, shapes with no Z being on all
+     * @param t the timepoint of the shapes, shapes with no T being on all
+     * @param x the left of the region
+     * @param y the top of the region
+     * @param width the width of the region
+     * @param height the height of the region
+     * @return the IDs of the shapes, ascending
+     */
+    public List<Long> find(Session session, long imageId, int z, int t,
+            double x, double y, double width, double height) {
+        Entry entry;
+        synchronized (images) {
+            entry = images.get(imageId);
+            if (entry == null) {
+                entry = new Entry();
+                if (maxImages > 0) {
+                    images.put(imageId, entry);
+                }
+            }
+        }
+        /* An image's index is updated and queried under its entry's lock. */
+        synchronized (entry) {
+            ImageIndex index = entry.index;
+            if (index != null && !update(session, index)) {
+                index = null;
+            }
+            if (index == null) {
+                index = build(session, imageId);
+                entry.index = index;
+            }
+            return index.find(z, t, x, y, x + width, y + height);
+        }
+    }
+
+    /**
+     * Clears every index.
+     */
+    public void clear() {
+        synchronized (images) {
+            images.clear();
+        }
+    }
+
+    /**
+     * Builds the index of an image.
+     * @param session the current Hibernate session
+     * @param imageId the ID of the image
+     * @return the index
+     */
+    private ImageIndex build(Session session, long imageId) {
+        final long start = System.currentTimeMillis();
+        final ImageIndex index = new ImageIndex(imageId);
+        index.eventLogMark = getEventLogMark(session);
+        /* changes already visible are reflected by the shapes loaded next */
+        for (final Object[] change : getChanges(session, index.eventLogMark - RESCAN_IDS, 0)) {
+            final long id = ((Number) change[0]).longValue();
+            if (id <= index.eventLogMark) {
+                index.applied.add(id);
+            }
+        }
+        load(session, index, null, null);
+        log.debug("Indexed {} shapes of image {} in {}ms", index.size, imageId,
+                System.currentTimeMillis() - start);
+        return index;
+    }
+
+    /**
+     * Loads shapes into an index.
+     * @param ids the shapes to load, or {@code null}
+     * @param rois the ROIs whose shapes to load, or {@code null}
+     * if both are {@code null} then every shape of the image is loaded
+     */
+    private void load(Session session, ImageIndex index, Collection<Long> ids, Collection<Long> rois) {
+        final StringBuilder sql = new StringBuilder(SHAPES_QUERY);
+        if (ids != null && rois != null) {
+            sql.append(" AND (s.id IN (:ids) OR s.roi IN (:rois))");
+        } else if (ids != null) {
+            sql.append(" AND s.id IN (:ids)");
+        } else if (rois != null) {
+            sql.append(" AND s.roi IN (:rois)");
+        }
+        final Query query = session.createSQLQuery(sql.toString());
+        query.setParameter("id", index.imageId);
+        if (ids != null) {
+            query.setParameterList("ids", ids);
+        }
+        if (rois != null) {
+            query.setParameterList("rois", rois);
+        }
+        for (final Object result : query.list()) {
+            final Object[] row = (Object[]) result;
+            final Bounds bounds = new Bounds();
+            if (row[4] != null) {
+                bounds.transform = new double[6];
+                for (int i = 0; i < 6; i++) {
+                    bounds.transform[i] = number(row[4 + i]);
+                }
+            }
+            bounds.add((String) row[1], row);
+            if (!bounds.isEmpty()) {
+                index.add(((Number) row[0]).longValue(), ((Number) row[ROI]).longValue(),
+                        row[2] == null ? ALL : ((Number) row[2]).intValue(),
+                        row[3] == null ? ALL : ((Number) row[3]).intValue(), bounds);
+            }
+        }
+    }
+
+    private static long getEventLogMark(Session session) {
+        final Number mark = (Number) session.createSQLQuery("SELECT MAX(id) FROM eventlog").uniqueResult();
+        return mark == null ? 0 : mark.longValue();
+    }
+
+    /**
+     * @param from the event log ID above which to look
+     * @param limit the most rows to return, or {@code 0} for no limit
+     * @return the event log rows of changes to shapes, ROIs and transforms
+     */
+    @SuppressWarnings("unchecked")
+    private static List<Object[]> getChanges(Session session, long from, int limit) {
+        final Query query = session.createSQLQuery(CHANGES_QUERY).setParameter("from", from)
+                .setParameterList("types", CHANGE_TYPES);
+        if (limit > 0) {
+            query.setMaxResults(limit);
+        }
+        return query.list();
+    }
+
+    /**
+     * @param transforms the IDs of affine transforms
+     * @return the IDs of the shapes which have those transforms
+     */
+    private static List<Long> getTransformedShapes(Session session, Collection<Long> transforms) {
+        final List<Long> shapes = new ArrayList<Long>();
+        for (final Object id : session.createSQLQuery(TRANSFORMED_SHAPES_QUERY)
+                .setParameterList("transforms", transforms).list()) {
+            shapes.add(((Number) id).longValue());
+        }
+        return shapes;
+    }
+
+    /**
+     * Applies to an index the changes to shapes and ROIs noted in the event
+     * log since those already applied.
+     * @return if the index is up to date, otherwise it must be rebuilt
+     */
+    private boolean update(Session session, ImageIndex index) {
+        final List<Object[]> changes = getChanges(session, index.eventLogMark - RESCAN_IDS,
+                index.applied.size() + MAX_CHANGES + 1);
+        if (changes.size() > index.applied.size() + MAX_CHANGES) {
+            return false;
+        }
+        final Set<Long> changedShapes = new HashSet<Long>();
+        final Set<Long> changedRois = new HashSet<Long>();
+        final Set<Long> changedTransforms = new HashSet<Long>();
+        final Set<Long> applied = new HashSet<Long>();
+        long mark = index.eventLogMark;
+        for (final Object[] change : changes) {
+            final long id = ((Number) change[0]).longValue();
+            if (index.applied.contains(id)) {
+                continue;
+            }
+            applied.add(id);
+            mark = Math.max(mark, id);
+            if (ROI_TYPE.equals(change[1])) {
+                /* the ROI may have been deleted or moved to or from this image */
+                changedRois.add(((Number) change[2]).longValue());
+            } else if (TRANSFORM_TYPE.equals(change[1])) {
+                /* the transform is edited in place so its shape moves */
+                changedTransforms.add(((Number) change[2]).longValue());
+            } else {
+                changedShapes.add(((Number) change[2]).longValue());
+            }
+        }
+        if (applied.isEmpty()) {
+            return true;
+        }
+        if (!changedTransforms.isEmpty()) {
+            changedShapes.addAll(getTransformedShapes(session, changedTransforms));
+        }
+        for (final Long id : changedShapes) {
+            index.remove(id);
+        }
+        for (final Long roi : changedRois) {
+            index.removeRoi(roi);
+        }
+        load(session, index, changedShapes.isEmpty() ? null : changedShapes,
+                changedRois.isEmpty() ? null : changedRois);
+        if (index.isStale()) {
+            return false;
+        }
+        index.eventLogMark = mark;
+        index.applied.addAll(applied);
+        final Iterator<Long> appliedIds = index.applied.iterator();
+        while (appliedIds.hasNext()) {
+            if (appliedIds.next() <= mark - RESCAN_IDS) {
+                appliedIds.remove();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses the points of a polygon or polyline.
+     * @param points points as {@code "x,y x,y"} or as the older
+     * {@code "points[x,y, x,y] ..."}
+     * @return alternating X and Y coordinates, or {@code null} if none
+     */
+    static double[] parsePoints(String points) {
+        if (points == null) {
+            return null;
+        }
+        final int open = points.indexOf('[');
+        if (open >= 0) {
+            final int close = points.indexOf(']', open);
+            points = points.substring(open + 1, close < 0 ? points.length() : close);
+        }
+        final String[] tokens = points.trim().split("[\\s,]+");
+        final double[] coordinates = new double[tokens.length & ~1];
+        try {
+            for (int i = 0; i < coordinates.length; i++) {
+                coordinates[i] = Double.parseDouble(tokens[i]);
+            }
+        } catch (NumberFormatException nfe) {
+            return null;
+        }
+        return coordinates;
+    }
+
+    /**
+     * Simplifies the points of a polygon or polyline with the
+     * Douglas-Peucker algorithm.
+     * @param points points as {@code "x,y x,y"}
+     * @param tolerance how far, in pixels, the simplified outline may stray
+     * @return the simplified points, or the given points if they cannot be
+     * simplified
+     */
+    public static String simplifyPoints(String points, double tolerance) {
+        if (points == null || points.indexOf('[') >= 0) {
+            return points;
+        }
+        final double[] coordinates = parsePoints(points);
+        final int count = coordinates == null ? 0 : coordinates.length / 2;
+        if (count < 3) {
+            return points;
+        }
+        final BitSet kept = new BitSet(count);
+        kept.set(0);
+        kept.set(count - 1);
+        final int[] stack = new int[2 * count];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = count - 1;
+        while (top > 0) {
+            final int last = stack[--top];
+            final int first = stack[--top];
+            final double x0 = coordinates[2 * first], y0 = coordinates[2 * first + 1];
+            final double dx = coordinates[2 * last] - x0, dy = coordinates[2 * last + 1] - y0;
+            final double length = Math.hypot(dx, dy);
+            double furthest = tolerance;
+            int split = -1;
+            for (int i = first + 1; i < last; i++) {
+                final double px = coordinates[2 * i] - x0, py = coordinates[2 * i + 1] - y0;
+                final double distance = length == 0 ? Math.hypot(px, py)
+                        : Math.abs(px * dy - py * dx) / length;
+                if (distance > furthest) {
+                    furthest = distance;
+                    split = i;
+                }
+            }
+            if (split >= 0) {
+                kept.set(split);
+                stack[top++] = first;
+                stack[top++] = split;
+                stack[top++] = split;
+                stack[top++] = last;
+            }
+        }
+        if (kept.cardinality() == count) {
+            return points;
+        }
+        final StringBuilder simplified = new StringBuilder();
+        for (int i = kept.nextSetBit(0); i >= 0; i = kept.nextSetBit(i + 1)) {
+            if (simplified.length() > 0) {
+                simplified.append(' ');
+            }
+            simplified.append(coordinates[2 * i]).append(',').append(coordinates[2 * i + 1]);
+        }
+        return simplified.toString();
+    }
+}
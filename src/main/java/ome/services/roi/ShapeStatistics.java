@@ -0,0 +1,409 @@
+/*
+ *   Copyright 2026 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.roi;
+
+import java.awt.Dimension;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ome.conditions.ApiUsageException;
+import ome.conditions.InternalException;
+import ome.conditions.ValidationException;
+import ome.io.nio.PixelBuffer;
+import omero.api.ShapeStats;
+import omero.model.SmartShape;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Computes the pixel statistics of shapes for {@link GeomTool}. Each shape
+ * is rasterized once into a {@link Mask} of spans of its points along rows,
+ * then
+ * for each plane only the tiles of the buffer's tile grid that hold points
+ * are read, each once, and the values of the points that fall in them are
+ * accumulated. Planes are measured in parallel on a shared executor, each
+ * worker with its own {@link PixelBuffer}, so pyramids may be used.
+ *
+ * @since 5.8.6
+ */
+final class ShapeStatistics {
+
+    private static final Logger log = LoggerFactory.getLogger(ShapeStatistics.class);
+
+    /** The most planes to measure at once for each call. */
+    private static final int THREADS = 4;
+
+    /** The size of the regions read when a buffer reports no tile size. */
+    private static final int DEFAULT_TILE_SIZE = 256;
+
+    private ShapeStatistics() {
+    }
+
+    /**
+     * The points of a shape as spans of adjacent points along rows, ordered
+     * by row then by first point. Points are kept as often as the shape
+     * reports them, so spans may overlap.
+     */
+    static final class Mask {
+
+        /** The Y of each span. */
+        final int[] ys;
+
+        /** The X of the first and of the last point of each span. */
+        final int[] startXs, endXs;
+
+        final int minX, minY, maxX, maxY;
+
+        private Mask(Spans spans) {
+            this.ys = Arrays.copyOf(spans.ys, spans.count);
+            this.startXs = Arrays.copyOf(spans.startXs, spans.count);
+            this.endXs = Arrays.copyOf(spans.endXs, spans.count);
+            int minX = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE;
+            for (int s = 0; s < ys.length; s++) {
+                minX = Math.min(minX, startXs[s]);
+                maxX = Math.max(maxX, endXs[s]);
+            }
+            this.minX = minX;
+            this.maxX = maxX;
+            this.minY = ys.length == 0 ? Integer.MAX_VALUE : ys[0];
+            this.maxY = ys.length == 0 ? Integer.MIN_VALUE : ys[ys.length - 1];
+        }
+
+        /**
+         * Rasterizes a shape. Shapes with an area report their points along
+         * rows so only the spans, not the points, are held.
+         * @param shape a shape
+         * @return the points of the shape
+         */
+        static Mask of(SmartShape shape) {
+            final Spans spans = new Spans();
+            shape.areaPoints(new SmartShape.PointCallback() {
+                public void handle(int x, int y) {
+                    spans.add(y, x, x);
+                }
+            });
+            return new Mask(spans.sorted());
+        }
+
+        /**
+         * @return if the mask has no points
+         */
+        boolean isEmpty() {
+            return ys.length == 0;
+        }
+
+        /**
+         * @param sizeX the width of the image
+         * @param sizeY the height of the image
+         * @return the points of this mask that lie within the image
+         */
+        Mask clip(int sizeX, int sizeY) {
+            if (isEmpty() || minX >= 0 && minY >= 0 && maxX < sizeX && maxY < sizeY) {
+                return this;
+            }
+            final Spans kept = new Spans();
+            for (int s = 0; s < ys.length; s++) {
+                if (ys[s] >= 0 && ys[s] < sizeY) {
+                    final int startX = Math.max(0, startXs[s]);
+                    final int endX = Math.min(sizeX - 1, endXs[s]);
+                    if (startX <= endX) {
+                        kept.add(ys[s], startX, endX);
+                    }
+                }
+            }
+            return new Mask(kept);
+        }
+
+        /**
+         * Fails in the same manner as {@link PixelData#get(PixelBuffer, int, int, int, int, int)}
+         * if any point lies outside the image.
+         * @param sizeX the width of the image
+         * @param sizeY the height of the image
+         */
+        void assertWithin(int sizeX, int sizeY) {
+            if (isEmpty()) {
+                return;
+            }
+            if (minY < 0 || maxY >= sizeY) {
+                throw new ApiUsageException("DimensionsOutOfBounds: Y '"
+                        + (minY < 0 ? minY : maxY) + "' greater than sizeY '" + sizeY + "'.");
+            }
+            if (minX < 0 || maxX >= sizeX) {
+                throw new ValidationException("IndexOutOfBounds: X '"
+                        + (minX < 0 ? minX : maxX) + "' outside row of width '" + sizeX + "'.");
+            }
+        }
+
+        /**
+         * @return the index of the first span at or below the given Y
+         */
+        int firstSpan(int y) {
+            int low = 0, high = ys.length;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (ys[mid] < y) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    /**
+     * Collects spans, extending the last span when a point or span adjoins
+     * its end along the same row.
+     */
+    private static final class Spans {
+
+        int[] ys = new int[64], startXs = new int[64], endXs = new int[64];
+
+        int count = 0;
+
+        /** If the spans are ordered by row then by first point. */
+        boolean ordered = true;
+
+        void add(int y, int startX, int endX) {
+            if (count > 0) {
+                final int last = count - 1;
+                if (y == ys[last] && startX == endXs[last] + 1) {
+                    endXs[last] = endX;
+                    return;
+                }
+                if (y < ys[last] || y == ys[last] && startX < startXs[last]) {
+                    ordered = false;
+                }
+            }
+            if (count == ys.length) {
+                ys = Arrays.copyOf(ys, count * 2);
+                startXs = Arrays.copyOf(startXs, count * 2);
+                endXs = Arrays.copyOf(endXs, count * 2);
+            }
+            ys[count] = y;
+            startXs[count] = startX;
+            endXs[count] = endX;
+            count++;
+        }
+
+        /**
+         * @return these spans ordered by row then by first point, adjoining
+         * spans being joined
+         */
+        Spans sorted() {
+            if (ordered) {
+                return this;
+            }
+            final Integer[] order = new Integer[count];
+            for (int s = 0; s < count; s++) {
+                order[s] = s;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                public int compare(Integer a, Integer b) {
+                    final int byY = Integer.compare(ys[a], ys[b]);
+                    return byY != 0 ? byY : Integer.compare(startXs[a], startXs[b]);
+                }
+            });
+            final Spans sorted = new Spans();
+            for (final int s : order) {
+                sorted.add(ys[s], startXs[s], endXs[s]);
+            }
+            return sorted;
+        }
+    }
+
+    /**
+     * The statistics of the values of a set of points.
+     */
+    static final class Accumulator {
+
+        long count = 0;
+
+        double min = Double.POSITIVE_INFINITY;
+
+        double max = Double.NEGATIVE_INFINITY;
+
+        double sum = 0;
+
+        double sumOfSquares = 0;
+
+        void add(double value) {
+            count++;
+            if (value < min) min = value;
+            if (value > max) max = value;
+            sum += value;
+            sumOfSquares += value * value;
+        }
+
+        /**
+         * Adds these statistics to those of a shape's channel.
+         * @param stats the statistics of the shape
+         * @param w the index of the channel in the statistics
+         * @param sumOfSquares the sums of squares of the shape's channels
+         */
+        void addTo(ShapeStats stats, int w, double[] sumOfSquares) {
+            stats.pointsCount[w] += count;
+            if (count > 0) {
+                stats.min[w] = Math.min(min, stats.min[w]);
+                stats.max[w] = Math.max(max, stats.max[w]);
+            }
+            stats.sum[w] += sum;
+            sumOfSquares[w] += this.sumOfSquares;
+        }
+    }
+
+    /**
+     * A mask to measure on a plane.
+     */
+    static final class Plane {
+
+        final Mask mask;
+
+        final int z, c, t;
+
+        /** Set by {@link ShapeStatistics#measure(ExecutorService, PixelData, long, List)}. */
+        final Accumulator result = new Accumulator();
+
+        Plane(Mask mask, int z, int c, int t) {
+            this.mask = mask;
+            this.z = z;
+            this.c = c;
+            this.t = t;
+        }
+    }
+
+    /**
+     * Measures the given planes of a pixels set, setting their results.
+     * @param executor the executor on which to measure the planes, may be
+     * {@code null} to measure them on the calling thread
+     * @param data the source of the pixel buffers
+     * @param pixelsId the ID of the pixels set
+     * @param planes the planes to measure
+     */
+    static void measure(ExecutorService executor, final PixelData data, long pixelsId,
+            final List<Plane> planes) {
+        if (planes.isEmpty()) {
+            return;
+        }
+        final int workers = executor == null ? 1 : Math.min(THREADS, planes.size());
+        /* The buffers are opened here as that needs the caller's session. */
+        final List<PixelBuffer> buffers = new ArrayList<PixelBuffer>(workers);
+        try {
+            for (int i = 0; i < workers; i++) {
+                buffers.add(data.getBuffer(pixelsId));
+            }
+            if (workers == 1) {
+                for (final Plane plane : planes) {
+                    measure(data, buffers.get(0), plane);
+                }
+                return;
+            }
+            final AtomicInteger next = new AtomicInteger();
+            final List<Future<Void>> results = new ArrayList<Future<Void>>(workers);
+            for (final PixelBuffer buffer : buffers) {
+                results.add(executor.submit(new Callable<Void>() {
+                    public Void call() {
+                        int index;
+                        while ((index = next.getAndIncrement()) < planes.size()) {
+                            measure(data, buffer, planes.get(index));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            RuntimeException failure = null;
+            for (final Future<Void> result : results) {
+                try {
+                    result.get();
+                } catch (ExecutionException ee) {
+                    /* Stop the other workers at their next plane. */
+                    next.set(planes.size());
+                    if (failure == null) {
+                        final Throwable cause = ee.getCause();
+                        if (cause instanceof Error) {
+                            throw (Error) cause;
+                        }
+                        failure = cause instanceof RuntimeException ? (RuntimeException) cause
+                                : new InternalException("Failed to measure shape: " + cause);
+                    }
+                } catch (InterruptedException ie) {
+                    next.set(planes.size());
+                    Thread.currentThread().interrupt();
+                    throw new InternalException("Interrupted measuring shapes");
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            for (final PixelBuffer buffer : buffers) {
+                try {
+                    buffer.close();
+                } catch (IOException e) {
+                    log.error("Error closing " + buffer, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Measures a plane by reading each tile of the buffer's tile grid that
+     * holds any of the mask's points. The mask must lie within the image.
+     */
+    static void measure(PixelData data, PixelBuffer buffer, Plane plane) {
+        final Mask mask = plane.mask;
+        if (mask.isEmpty()) {
+            return;
+        }
+        final Dimension tileSize = buffer.getTileSize();
+        final int tileWidth = tileSize == null || tileSize.width < 1 ? DEFAULT_TILE_SIZE : tileSize.width;
+        final int tileHeight = tileSize == null || tileSize.height < 1 ? DEFAULT_TILE_SIZE : tileSize.height;
+        final int sizeX = buffer.getSizeX();
+        final int sizeY = buffer.getSizeY();
+        /* Tiles are read whole, aligned to the grid, as the buffer stores them. */
+        for (int tileY = Math.floorDiv(mask.minY, tileHeight) * tileHeight;
+                tileY <= mask.maxY; tileY += tileHeight) {
+            final int h = Math.min(tileHeight, sizeY - tileY);
+            final int firstSpan = mask.firstSpan(tileY);
+            final int endSpan = mask.firstSpan(tileY + h);
+            for (int tileX = Math.floorDiv(mask.minX, tileWidth) * tileWidth;
+                    tileX <= mask.maxX; tileX += tileWidth) {
+                final int w = Math.min(tileWidth, sizeX - tileX);
+                ome.util.PixelData tile = null;
+                try {
+                    for (int s = firstSpan; s < endSpan; s++) {
+                        final int startX = Math.max(tileX, mask.startXs[s]);
+                        final int endX = Math.min(tileX + w - 1, mask.endXs[s]);
+                        if (startX > endX) {
+                            continue;
+                        }
+                        if (tile == null) {
+                            tile = data.getTile(buffer, plane.z, plane.c, plane.t,
+                                    tileX, tileY, w, h);
+                        }
+                        final int offset = (mask.ys[s] - tileY) * w - tileX;
+                        for (int x = startX; x <= endX; x++) {
+                            plane.result.add(tile.getPixelValue(offset + x));
+                        }
+                    }
+                } finally {
+                    if (tile != null) {
+                        tile.dispose();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ *   Copyright 2026 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.throttling;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import ome.api.ServiceInterface;
+import ome.security.basic.CurrentDetails;
+import ome.services.blitz.util.IceMethodInvoker;
+import ome.services.sessions.SessionManager;
+import ome.system.Principal;
+import omero.util.IceMapper;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.context.ApplicationContext;
+
+import Ice.Current;
+
+/**
+ * Throttling implementation which runs all invocations on a bounded pool of
+ * {@link Slot worker threads} rather than on the Ice dispatch thread. Two
+ * lanes, each with their own {@link Queue} and workers, are kept: one for
+ * operations which are named as expensive (e.g. plane reads and rendering)
+ * and one for everything else, so that heavy I/O cannot starve metadata
+ * queries. Within each lane, {@link Queue} hands out calls fairly across
+ * users and sessions, and fails calls with {@link ome.conditions.TryAgain}
+ * when full.
+ *
+ * Unlike {@link InThreadThrottlingStrategy}, calls from one session may run
+ * concurrently and so complete out of order, and a call which blocks on
+ * another call may wait for a worker of its own lane. The strategy is
+ * therefore only used if chosen via {@code omero.throttling.strategy}.
+ * The depth, wait times and rejections of each lane are logged every
+ * {@code omero.throttling.metrics_interval} milliseconds.
+ *
+ * @since 5.8.6
+ */
+public class FairThrottlingStrategy extends AbstractThrottlingStrategy {
+
+    private final static Logger log = LoggerFactory.getLogger(FairThrottlingStrategy.class);
+
+    /** Maximum number of session-to-user mappings remembered. */
+    private static final int USER_CACHE_SIZE = 10000;
+
+    private final CurrentDetails cd;
+
+    private final SessionManager sm;
+
+    private final Set<String> expensive;
+
+    private final int cheapThreads;
+
+    private final int expensiveThreads;
+
+    private final int queueSize;
+
+    private final int sessionQueueSize;
+
+    private final long backOff;
+
+    private final long metricsInterval;
+
+    private Queue cheap;
+
+    private Queue costly;
+
+    private final List<Thread> threads = new ArrayList<Thread>();
+
+    /**
+     * Looks up the users of sessions and logs the metrics, so that neither
+     * is done on an Ice dispatch thread.
+     */
+    private final ScheduledExecutorService housekeeping =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread t = new Thread(r, "Blitz-Throttling-housekeeping");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    /** The sessions whose users are being looked up. */
+    private final Set<String> lookups =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private final Map<String, String> users = Collections.synchronizedMap(
+            new LinkedHashMap<String, String>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    return size() > USER_CACHE_SIZE;
+                }
+            });
+
+    /**
+     * @param cd for passing the call context to the workers
+     * @param sm for looking up the user of each session
+     * @param cheapThreads number of workers for inexpensive operations
+     * @param expensiveThreads number of workers for expensive operations
+     * @param queueSize maximum number of calls waiting per lane
+     * @param sessionQueueSize maximum number of calls waiting per session and lane
+     * @param backOff milliseconds suggested to clients when a call is rejected
+     * @param expensiveOperations comma-separated names of expensive operations
+     * @param metricsInterval milliseconds between logging the metrics of
+     * each lane, or {@code 0} to not log them
+     */
+    public FairThrottlingStrategy(CurrentDetails cd, SessionManager sm,
+            int cheapThreads, int expensiveThreads, int queueSize,
+            int sessionQueueSize, long backOff, String expensiveOperations,
+            long metricsInterval) {
+        if (cheapThreads < 1 || expensiveThreads < 1) {
+            throw new IllegalArgumentException("Each lane needs at least one thread");
+        }
+        this.cd = cd;
+        this.sm = sm;
+        this.expensive = new HashSet<String>();
+        for (String operation : StringUtils.split(
+                StringUtils.defaultString(expensiveOperations), ", ")) {
+            expensive.add(operation);
+        }
+        this.cheapThreads = cheapThreads;
+        this.expensiveThreads = expensiveThreads;
+        this.queueSize = queueSize;
+        this.sessionQueueSize = sessionQueueSize;
+        this.backOff = backOff;
+        this.metricsInterval = metricsInterval;
+    }
+
+    /**
+     * Creates the {@link Queue lanes} and starts their workers once the
+     * {@link ome.system.OmeroContext} is available for mapping exceptions.
+     */
+    @Override
+    public void setApplicationContext(ApplicationContext applicationContext)
+            throws BeansException {
+        super.setApplicationContext(applicationContext);
+        cheap = new Queue(ctx, queueSize, sessionQueueSize, backOff);
+        costly = new Queue(ctx, queueSize, sessionQueueSize, backOff);
+        start(cheap, "cheap", cheapThreads);
+        start(costly, "expensive", expensiveThreads);
+        if (metricsInterval > 0) {
+            housekeeping.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    logMetrics();
+                }
+            }, metricsInterval, metricsInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void start(Queue queue, String lane, int count) {
+        for (int i = 0; i < count; i++) {
+            final Thread t = new Thread(new Slot(queue, ctx, cd),
+                    "Blitz-Throttling-" + lane + "-" + i);
+            t.setDaemon(true);
+            t.start();
+            threads.add(t);
+        }
+    }
+
+    /**
+     * Cancels all waiting calls and stops the workers.
+     */
+    public void destroy() {
+        housekeeping.shutdownNow();
+        cheap.destroy();
+        costly.destroy();
+        for (Thread t : threads) {
+            t.interrupt();
+        }
+    }
+
+    //
+    // Dispatch
+    //
+
+    private void submit(Current current, Task task) {
+        final String operation = current == null ? null : current.operation;
+        final Queue queue = expensive.contains(operation) ? costly : cheap;
+        final String session = current == null ? null : current.id.category;
+        queue.offer(user(session), session, task);
+    }
+
+    /**
+     * Find the user owning the given session, falling back to the session
+     * itself if it is not yet known. Unknown sessions are looked up in the
+     * background so that the dispatch thread is not held up.
+     */
+    private String user(final String session) {
+        if (session == null || sm == null) {
+            return session;
+        }
+        final String user = users.get(session);
+        if (user != null) {
+            return user;
+        }
+        if (lookups.add(session)) {
+            try {
+                housekeeping.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            users.put(session, lookup(session));
+                        } finally {
+                            lookups.remove(session);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException ree) {
+                // shutting down
+                lookups.remove(session);
+            }
+        }
+        return session;
+    }
+
+    private String lookup(String session) {
+        try {
+            return Long.toString(sm.getEventContext(
+                    new Principal(session)).getCurrentUserId());
+        } catch (Exception e) {
+            // e.g. a non-session category; not worth a second look
+            return session;
+        }
+    }
+
+    public void callInvokerOnRawArgs(ServiceInterface service,
+            IceMethodInvoker invoker, Object __cb, Ice.Current __current,
+            Object... args) {
+        IceMapper mapper = new IceMapper();
+        Callback cb = new Callback(service, invoker, mapper, __cb, __current,
+                args);
+        submit(__current, cb);
+    }
+
+    public void callInvokerWithMappedArgs(ServiceInterface service,
+            IceMethodInvoker invoker, IceMapper mapper, Object __cb,
+            Current __current, Object... args) {
+        Callback cb = new Callback(service, invoker, mapper, __cb, __current,
+                args);
+        submit(__current, cb);
+    }
+
+    public <R> void safeRunnableCall(Current __current, Object __cb, boolean isVoid, Callable<R> callable) {
+        Callback2<R> cb = new Callback2<R>(__current, __cb, isVoid, callable);
+        submit(__current, cb);
+    }
+
+    public void runnableCall(Current __current, Task runnable) {
+        submit(__current, runnable);
+    }
+
+    //
+    // Metrics
+    //
+
+    /**
+     * @param expensiveLane whether to report on the expensive lane
+     * @return the number of calls waiting in the lane
+     */
+    public int getQueueDepth(boolean expensiveLane) {
+        return (expensiveLane ? costly : cheap).size();
+    }
+
+    public int getQueuedCalls() {
+        return getQueueDepth(false) + getQueueDepth(true);
+    }
+
+    /**
+     * @param expensiveLane whether to report on the expensive lane
+     * @return the mean milliseconds that calls have waited in the lane
+     */
+    public double getMeanWaitMillis(boolean expensiveLane) {
+        return (expensiveLane ? costly : cheap).getMeanWaitMillis();
+    }
+
+    /**
+     * @param expensiveLane whether to report on the expensive lane
+     * @return the longest milliseconds that any call has waited in the lane
+     */
+    public double getMaxWaitMillis(boolean expensiveLane) {
+        return (expensiveLane ? costly : cheap).getMaxWaitMillis();
+    }
+
+    /**
+     * @param expensiveLane whether to report on the expensive lane
+     * @return the number of calls rejected by the lane
+     */
+    public long getRejected(boolean expensiveLane) {
+        return (expensiveLane ? costly : cheap).getRejected();
+    }
+
+    /**
+     * Logs the metrics of each lane.
+     */
+    public void logMetrics() {
+        for (final boolean lane : new boolean[] {false, true}) {
+            log.info("{} lane: {} waiting, {} ms mean wait, {} ms max wait, {} rejected",
+                    lane ? "Expensive" : "Cheap", getQueueDepth(lane),
+                    String.format("%.1f", getMeanWaitMillis(lane)),
+                    String.format("%.1f", getMaxWaitMillis(lane)),
+                    getRejected(lane));
+        }
+    }
+
+}
@@ -8,6 +8,7 @@
 package ome.services.throttling;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import ome.api.ServiceInterface;
 import ome.security.basic.CurrentDetails;
@@ -30,6 +31,9 @@ public class InThreadThrottlingStrategy extends AbstractThrottlingStrategy {
 
     private final CurrentDetails cd;
 
+    /** The calls running on dispatch threads. */
+    private final AtomicInteger running = new AtomicInteger();
+
     public InThreadThrottlingStrategy(CurrentDetails cd) {
         this.cd = cd;
     }
@@ -38,12 +42,18 @@ public class InThreadThrottlingStrategy extends AbstractThrottlingStrategy {
         if (current != null) {
             cd.setContext(current.ctx);
         }
+        running.incrementAndGet();
     }
 
     void teardown() {
+        running.decrementAndGet();
         cd.setContext(null);
     }
 
+    public int getQueuedCalls() {
+        return running.get();
+    }
+
     public void callInvokerOnRawArgs(ServiceInterface service,
             IceMethodInvoker invoker, Object __cb, Ice.Current __current,
             Object... args) {
@@ -4,16 +4,33 @@
  */
 package ome.services.throttling;
 
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+import ome.conditions.TryAgain;
 import ome.system.OmeroContext;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-/** * Manages AMD-based method dispatches from blitz. * */
+/**
+ * Manages AMD-based method dispatches from blitz. {@link Task} instances are
+ * held per user and per session and are handed to {@link Slot} workers in
+ * round-robin order, first across users and then across the sessions of
+ * each user, so that a few busy sessions cannot starve everyone else.
+ * The queue is bounded both in total and per session; a {@link Task} which
+ * does not fit is immediately failed with a {@link TryAgain} so that the
+ * client can back off and retry.
+ */
 public class Queue {
 
     private final static Logger log = LoggerFactory.getLogger(Queue.class);
@@ -21,50 +38,281 @@ public class Queue {
     static class CancelledException extends Exception {
     }
 
+    /**
+     * {@link Task} along with the time at which it was queued.
+     */
+    private static class Entry {
+        final Task task;
+        final long queued = System.nanoTime();
+        Entry(Task task) {
+            this.task = task;
+        }
+    }
+
     private final OmeroContext ctx;
-    private final BlockingQueue<Callback> q = new LinkedBlockingQueue<Callback>();
+
+    private final int capacity;
+
+    private final int sessionCapacity;
+
+    private final long backOff;
+
+    /**
+     * Pending tasks by user and then by session. Both levels are rotated on
+     * every {@link #take()} so that iteration order is the round-robin order.
+     */
+    private final LinkedHashMap<String, LinkedHashMap<String, ArrayDeque<Entry>>> users =
+            new LinkedHashMap<String, LinkedHashMap<String, ArrayDeque<Entry>>>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition notEmpty = lock.newCondition();
+
     private final AtomicBoolean done = new AtomicBoolean();
 
+    private int size = 0;
+
+    private final AtomicLong taken = new AtomicLong();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    private final AtomicLong totalWait = new AtomicLong();
+
+    private final AtomicLong maxWait = new AtomicLong();
+
+    /**
+     * Unbounded queue.
+     */
     public Queue(OmeroContext ctx) {
+        this(ctx, Integer.MAX_VALUE, Integer.MAX_VALUE, 0L);
+    }
+
+    /**
+     * @param ctx context passed to failed tasks
+     * @param capacity maximum number of tasks waiting in total
+     * @param sessionCapacity maximum number of tasks waiting per session
+     * @param backOff milliseconds suggested to clients on rejection
+     */
+    public Queue(OmeroContext ctx, int capacity, int sessionCapacity, long backOff) {
+        if (capacity < 1 || sessionCapacity < 1) {
+            throw new IllegalArgumentException(
+                    "The queue must hold at least one task in total and per session");
+        }
         done.set(false);
         this.ctx = ctx;
+        this.capacity = capacity;
+        this.sessionCapacity = sessionCapacity;
+        this.backOff = backOff;
     }
 
+    /**
+     * Queues the callback without any user or session for fairness.
+     */
     public void put(Callback callback) {
-        boolean cont = !done.get();
-        if (cont) {
-            while (true) {
-                try {
-                    q.put(callback);
-                    break;
-                } catch (InterruptedException e) {
-                    log.warn("Queue interrupted during put");
+        offer(null, null, callback);
+    }
+
+    /**
+     * Queues the task for the given user and session. If the queue has been
+     * {@link #destroy() destroyed} or is full, then the task is failed
+     * immediately.
+     * @param user key for the user, may be null
+     * @param session key for the session, may be null
+     * @param task the task to run
+     * @return if the task was queued
+     */
+    public boolean offer(String user, String session, Task task) {
+        Throwable failure = null;
+        lock.lock();
+        try {
+            if (done.get()) {
+                failure = new CancelledException();
+            } else if (size >= capacity) {
+                failure = new TryAgain(String.format(
+                        "Server busy: %s calls waiting", size), backOff);
+            } else {
+                LinkedHashMap<String, ArrayDeque<Entry>> sessions = users.get(user);
+                ArrayDeque<Entry> entries = sessions == null ? null : sessions.get(session);
+                final int waiting = entries == null ? 0 : entries.size();
+                if (waiting >= sessionCapacity) {
+                    failure = new TryAgain(String.format(
+                            "Too many calls waiting for session: %s",
+                            waiting), backOff);
+                } else {
+                    // only accepted tasks create entries, so that none is empty
+                    if (sessions == null) {
+                        sessions = new LinkedHashMap<String, ArrayDeque<Entry>>();
+                        users.put(user, sessions);
+                    }
+                    if (entries == null) {
+                        entries = new ArrayDeque<Entry>();
+                        sessions.put(session, entries);
+                    }
+                    entries.add(new Entry(task));
+                    size++;
+                    notEmpty.signal();
                 }
             }
-        } else {
-            callback.exception(new CancelledException(), ctx);
+        } finally {
+            lock.unlock();
+        }
+        if (failure != null) {
+            rejected.incrementAndGet();
+            log.warn("Rejecting {}: {}", task, failure.getMessage());
+            fail(task, failure);
+            return false;
         }
+        return true;
     }
 
-    public Callback take() {
-        Callback cb = null;
+    /**
+     * Blocks until a task is available.
+     * @return the next task or null if the queue has been destroyed.
+     */
+    public Task take() {
         while (true) {
             try {
-                cb = q.take();
+                return poll(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
             } catch (InterruptedException e) {
+                if (done.get()) {
+                    return null;
+                }
                 log.warn("Queue interrupted during take");
             }
-            break;
         }
-        return cb;
+    }
+
+    /**
+     * Waits at most the given time for a task to become available.
+     * @return the next task or null if none was available or the queue has
+     *         been destroyed.
+     */
+    public Task poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        final Entry entry;
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                if (done.get() || nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            entry = next();
+        } finally {
+            lock.unlock();
+        }
+        final long wait = System.nanoTime() - entry.queued;
+        taken.incrementAndGet();
+        totalWait.addAndGet(wait);
+        long max;
+        while (wait > (max = maxWait.get())) {
+            if (maxWait.compareAndSet(max, wait)) {
+                break;
+            }
+        }
+        return entry.task;
+    }
+
+    /**
+     * Removes the head of the next session of the next user, moving both
+     * to the back of their rotation. Must hold {@link #lock}.
+     */
+    private Entry next() {
+        final Iterator<Map.Entry<String, LinkedHashMap<String, ArrayDeque<Entry>>>> u =
+                users.entrySet().iterator();
+        final Map.Entry<String, LinkedHashMap<String, ArrayDeque<Entry>>> user = u.next();
+        final LinkedHashMap<String, ArrayDeque<Entry>> sessions = user.getValue();
+        final Iterator<Map.Entry<String, ArrayDeque<Entry>>> s =
+                sessions.entrySet().iterator();
+        final Map.Entry<String, ArrayDeque<Entry>> session = s.next();
+        final ArrayDeque<Entry> entries = session.getValue();
+        final Entry entry = entries.poll();
+        size--;
+        s.remove();
+        if (!entries.isEmpty()) {
+            sessions.put(session.getKey(), entries);
+        }
+        u.remove();
+        if (!sessions.isEmpty()) {
+            users.put(user.getKey(), sessions);
+        }
+        return entry;
     }
 
     public void destroy() {
         boolean wasDone = done.getAndSet(true);
         if (!wasDone) {
-            for (Callback cb : q) {
-                cb.exception(new CancelledException(), ctx);
+            final List<Entry> cancelled = new ArrayList<Entry>();
+            lock.lock();
+            try {
+                for (Map<String, ArrayDeque<Entry>> sessions : users.values()) {
+                    for (ArrayDeque<Entry> entries : sessions.values()) {
+                        cancelled.addAll(entries);
+                    }
+                }
+                users.clear();
+                size = 0;
+                notEmpty.signalAll();
+            } finally {
+                lock.unlock();
             }
+            for (Entry entry : cancelled) {
+                fail(entry.task, new CancelledException());
+            }
+        }
+    }
+
+    private void fail(Task task, Throwable t) {
+        try {
+            task.exception(t, ctx);
+        } catch (Exception e) {
+            log.error("Failed to notify " + task, e);
         }
     }
+
+    //
+    // Metrics
+    //
+
+    /**
+     * @return the number of tasks currently waiting
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of tasks handed to workers
+     */
+    public long getTaken() {
+        return taken.get();
+    }
+
+    /**
+     * @return the number of tasks failed because the queue was full
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * @return the mean milliseconds that handed-out tasks spent waiting
+     */
+    public double getMeanWaitMillis() {
+        final long count = taken.get();
+        return count == 0 ? 0.0 : totalWait.get() / 1e6 / count;
+    }
+
+    /**
+     * @return the longest milliseconds that any handed-out task spent waiting
+     */
+    public double getMaxWaitMillis() {
+        return maxWait.get() / 1e6;
+    }
 }
@@ -28,7 +28,21 @@ public class SerialThrottlingStrategy extends AbstractThrottlingStrategy {
 
     public SerialThrottlingStrategy(OmeroContext ctx) {
         queue = new Queue(ctx);
-        slot = new Slot(queue);
+        slot = new Slot(queue, ctx, null);
+        final Thread t = new Thread(slot, "Blitz-Throttling-serial");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Cancels all waiting calls and stops the worker.
+     */
+    public void destroy() {
+        queue.destroy();
+    }
+
+    public int getQueuedCalls() {
+        return queue.size();
     }
 
     public void callInvokerOnRawArgs(ServiceInterface service,
@@ -49,11 +63,11 @@ public class SerialThrottlingStrategy extends AbstractThrottlingStrategy {
     }
 
     public void runnableCall(Current __current, Task runnable) {
-        throw new UnsupportedOperationException();
+        queue.offer(null, null, runnable);
     }
 
     public <R> void safeRunnableCall(Current __current, Object __cb, boolean isVoid, Callable<R> callable) {
-        throw new UnsupportedOperationException();
+        queue.offer(null, null, new Callback2<R>(__current, __cb, isVoid, callable));
     }
 
 }
@@ -7,20 +7,59 @@
 
 package ome.services.throttling;
 
+import ome.security.basic.CurrentDetails;
+import ome.system.OmeroContext;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 /**
- * Worker which consumes from the {@link Queue}.
- * 
+ * Worker which consumes from the {@link Queue} until the {@link Queue} is
+ * {@link Queue#destroy() destroyed}. As with
+ * {@link InThreadThrottlingStrategy}, the {@link Ice.Current#ctx} of each
+ * {@link Task} is made available via {@link CurrentDetails} for the duration
+ * of its execution.
  */
 public class Slot implements Runnable {
 
+    private final static Logger log = LoggerFactory.getLogger(Slot.class);
+
     private final Queue q;
 
+    private final OmeroContext ctx;
+
+    private final CurrentDetails cd;
+
     public Slot(Queue q) {
+        this(q, null, null);
+    }
+
+    /**
+     * @param q the queue to consume from
+     * @param ctx passed to {@link Task#run(OmeroContext)}
+     * @param cd possibly null
+     */
+    public Slot(Queue q, OmeroContext ctx, CurrentDetails cd) {
         this.q = q;
+        this.ctx = ctx;
+        this.cd = cd;
     }
 
     public void run() {
-        Callback cb = q.take();
-        throw new UnsupportedOperationException();
+        Task task;
+        while ((task = q.take()) != null) {
+            if (cd != null && task.current != null) {
+                cd.setContext(task.current.ctx);
+            }
+            try {
+                task.run(ctx);
+            } catch (Throwable t) {
+                log.error("Exception during task execution", t);
+            } finally {
+                if (cd != null) {
+                    cd.setContext(null);
+                }
+            }
+        }
     }
 }
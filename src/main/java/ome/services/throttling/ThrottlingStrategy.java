@@ -19,4 +19,14 @@ import ome.services.blitz.util.BlitzExecutor;
  */
 public interface ThrottlingStrategy extends BlitzExecutor, ApplicationListener {
 
+    /**
+     * Reports the calls held up by this strategy, as a measure of the load
+     * of the server. For strategies which queue calls, these are the calls
+     * waiting; for those which run calls on the Ice dispatch thread, the
+     * calls running, each of which holds a dispatch thread that further
+     * calls must wait for.
+     * @return the number of calls waiting or holding a dispatch thread
+     */
+    int getQueuedCalls();
+
 }
@@ -23,15 +23,18 @@ import static omero.rtypes.rstring;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -42,6 +45,7 @@ import java.util.UUID;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import ome.util.Utils;
+import ome.util.checksum.ChecksumProvider;
 import ome.util.checksum.ChecksumProviderFactory;
 import ome.util.checksum.ChecksumProviderFactoryImpl;
 import ome.util.checksum.ChecksumType;
@@ -1048,6 +1052,11 @@ public class client {
     // File handling
     // =========================================================================
 
+    /**
+     * How many writes an upload or reads a download has outstanding at once.
+     */
+    private static final int OUTSTANDING_BLOCKS = 4;
+
     /**
      * Calculates the local sha1 for a file.
      * @param file a local file
@@ -1068,7 +1077,10 @@ public class client {
     }
 
     /**
-     * Utility method to upload a file to the server
+     * Utility method to upload a file to the server. The file is read once,
+     * being hashed as its blocks are written, with several writes
+     * outstanding at once. The hash is set on the returned file once all the
+     * blocks are written.
      *
      * @param file
      *            Cannot be null.
@@ -1105,7 +1117,6 @@ public class client {
         final ChecksumAlgorithm hasher = new ChecksumAlgorithmI();
         hasher.setValue(rstring(ChecksumAlgorithmSHA1160.value));
         fileObject.setHasher(hasher);
-        fileObject.setHash(rstring(sha1(file)));
 
         if (fileObject.getName() == null) {
             fileObject.setName(rstring(file.getName()));
@@ -1133,7 +1144,12 @@ public class client {
         IUpdatePrx up = sf.getUpdateService();
         fileObject = (OriginalFile) up.saveAndReturnObject(fileObject);
 
-        byte[] buf = new byte[blockSize];
+        // The file is hashed as it is read for upload. Each buffer is only
+        // reused once the write from it has completed.
+        final ChecksumProvider sha1 = new ChecksumProviderFactoryImpl()
+                .getProvider(ChecksumType.SHA1);
+        final byte[][] bufs = new byte[OUTSTANDING_BLOCKS + 1][blockSize];
+        final Deque<Ice.AsyncResult> writes = new ArrayDeque<Ice.AsyncResult>();
         RawFileStorePrx rfs = sf.createRawFileStore();
         FileInputStream stream = null;
         try {
@@ -1141,14 +1157,37 @@ public class client {
             stream = new FileInputStream(file);
             long pos = 0;
             int rlen;
-            ByteBuffer bbuf;
-            while ((rlen = stream.read(buf)) > 0) {
-                rfs.write(buf, pos, rlen);
+            for (int block = 0; ; block++) {
+                byte[] buf = bufs[block % bufs.length];
+                if ((rlen = stream.read(buf)) <= 0) {
+                    break;
+                }
+                sha1.putBytes(buf, 0, rlen);
+                if (writes.size() == OUTSTANDING_BLOCKS) {
+                    rfs.end_write(writes.poll());
+                }
+                writes.add(rfs.begin_write(buf, pos, rlen));
                 pos += rlen;
-                bbuf = ByteBuffer.wrap(buf);
-                bbuf.limit(rlen);
             }
-            return rfs.save();
+            while (!writes.isEmpty()) {
+                rfs.end_write(writes.poll());
+            }
+            OriginalFile saved = rfs.save();
+            if (saved == null) {
+                saved = fileObject;
+            }
+
+            final String hash = sha1.checksumAsString();
+            if (saved.getHash() == null) {
+                saved.setHash(rstring(hash));
+                saved = (OriginalFile) up.saveAndReturnObject(saved);
+            } else if (!hash.equals(saved.getHash().getValue())) {
+                throw new ClientError(String.format(
+                        "Checksum of %s is %s but the server has %s",
+                        file.getAbsolutePath(), hash,
+                        saved.getHash().getValue()));
+            }
+            return saved;
         } finally {
             Utils.closeQuietly(stream);
             if (rfs != null) {
@@ -1162,29 +1201,94 @@ public class client {
     }
 
     public void download(long fileId, File file, int blockSize) throws ServerError, IOException  {
+        download(fileId, file, blockSize, false);
+    }
+
+    /**
+     * Utility method to download a file from the server. Several blocks are
+     * read at once but they are written to the local file in order, so that
+     * if the download fails the local file holds the start of the file.
+     *
+     * @param fileId
+     *            the ID of the {@link OriginalFile} to download.
+     * @param file
+     *            the local file to write.
+     * @param blockSize
+     *            how many bytes to read at a time.
+     * @param resume
+     *            if the download should continue from the end of an existing
+     *            local file rather than replacing it.
+     */
+    public void download(long fileId, File file, int blockSize, boolean resume)
+            throws ServerError, IOException {
+        if (blockSize < 1) {
+            throw new ClientError("blockSize must be positive: " + blockSize);
+        }
+
         final ServiceFactoryPrx sf = getSession();
         final OriginalFile obj = (OriginalFile) sf.getQueryService().get("OriginalFile", fileId);
-        final RawFileStorePrx store = sf.createRawFileStore();
-        final FileOutputStream stream = new FileOutputStream(file);
-
         final long size = obj.getSize().getValue();
+        final RawFileStorePrx store = sf.createRawFileStore();
 
-        long offset = 0;
-
-        store.setFileId(fileId);
-        try {
-            for (offset = 0; (offset+blockSize) < size;) {
-                stream.write(store.read(offset, blockSize));
-                offset += blockSize;
-            }
-            stream.write(store.read(offset, (int) (size-offset)));
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            store.setFileId(fileId);
+            download(store, fileId, size, channel, blockSize, resume);
         } finally {
-            Utils.closeQuietly(stream);
             store.close();
         }
 
     }
 
+    /**
+     * Reads a file from a store into a local file, writing the blocks in
+     * order. The local file is first truncated to where the download starts.
+     *
+     * @param store
+     *            the store on which the file is already set.
+     * @param fileId
+     *            the ID of the file, for error messages.
+     * @param size
+     *            the size of the file.
+     * @param channel
+     *            the local file to write.
+     * @param blockSize
+     *            how many bytes to read at a time.
+     * @param resume
+     *            if the download should continue from the end of the local
+     *            file rather than from the start.
+     * @return where the download started
+     */
+    static long download(RawFileStorePrx store, long fileId, long size,
+            FileChannel channel, int blockSize, boolean resume)
+            throws ServerError, IOException {
+        final long start = resume ? Math.min(channel.size(), size) : 0;
+        channel.truncate(start);
+
+        final Deque<Ice.AsyncResult> reads = new ArrayDeque<Ice.AsyncResult>();
+        long position = start;
+        long next = start;
+        while (position < size) {
+            while (next < size && reads.size() < OUTSTANDING_BLOCKS) {
+                final int length = (int) Math.min(blockSize, size - next);
+                reads.add(store.begin_read(next, length));
+                next += length;
+            }
+            final int expected = (int) Math.min(blockSize, size - position);
+            final byte[] block = store.end_read(reads.poll());
+            if (block.length != expected) {
+                throw new ClientError(String.format(
+                        "Read %s bytes of file %s at %s; expected %s",
+                        block.length, fileId, position, expected));
+            }
+            final ByteBuffer buffer = ByteBuffer.wrap(block);
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        }
+        return start;
+    }
+
     // Environment methods
     // =========================================================================
 
@@ -8,6 +8,7 @@ package omero.cmd;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 import org.springframework.beans.BeansException;
 import org.springframework.context.ApplicationContext;
@@ -23,6 +24,7 @@ import ome.services.mail.MailUtil;
 import ome.system.OmeroContext;
 import ome.system.Roles;
 import ome.tools.hibernate.ExtendedMetadata;
+import omero.cmd.admin.DatabaseStatisticsRequestI;
 import omero.cmd.admin.ResetPasswordRequestI;
 import omero.cmd.basic.DoAllI;
 import omero.cmd.basic.ListRequestsI;
@@ -37,6 +39,7 @@ import omero.cmd.graphs.Chmod2I;
 import omero.cmd.graphs.Chown2I;
 import omero.cmd.graphs.Delete2I;
 import omero.cmd.graphs.DiskUsage2I;
+import omero.cmd.graphs.DiskUsageCache;
 import omero.cmd.graphs.DiskUsageI;
 import omero.cmd.graphs.DuplicateI;
 import omero.cmd.graphs.FindChildrenI;
@@ -76,6 +79,10 @@ public class RequestObjectFactoryRegistry extends
     
     private final GraphRequestFactory graphRequestFactory;
 
+    private DiskUsageCache diskUsageCache;
+
+    private ExecutorService parallelExecutor;
+
     private/* final */OmeroContext ctx;
 
     public RequestObjectFactoryRegistry(ExtendedMetadata em,
@@ -101,6 +108,20 @@ public class RequestObjectFactoryRegistry extends
         this.graphRequestFactory = graphRequestFactory;
     }
 
+    /**
+     * @param diskUsageCache the cache of disk usage responses to offer to {@link DiskUsage2I}, may be {@code null}
+     */
+    public void setDiskUsageCache(DiskUsageCache diskUsageCache) {
+        this.diskUsageCache = diskUsageCache;
+    }
+
+    /**
+     * @param parallelExecutor the shared executor to offer to {@link DiskUsage2I} and {@link DuplicateI}, may be {@code null}
+     */
+    public void setParallelExecutor(ExecutorService parallelExecutor) {
+        this.parallelExecutor = parallelExecutor;
+    }
+
     public void setApplicationContext(ApplicationContext ctx)
             throws BeansException {
         this.ctx = (OmeroContext) ctx;
@@ -221,6 +242,8 @@ public class RequestObjectFactoryRegistry extends
                         final DiskUsage2I request = graphRequestFactory.getRequest(DiskUsage2I.class);
                         request.setPixelsService(pixelsService);
                         request.setThumbnailService(thumbnailService);
+                        request.setDiskUsageCache(diskUsageCache);
+                        request.setParallelExecutor(parallelExecutor);
                         return request;
                     }
                 });
@@ -228,7 +251,9 @@ public class RequestObjectFactoryRegistry extends
                 new ObjectFactory(DuplicateI.ice_staticId()) {
                     @Override
                     public Ice.Object create(String name) {
-                        return graphRequestFactory.getRequest(DuplicateI.class);
+                        final DuplicateI request = graphRequestFactory.getRequest(DuplicateI.class);
+                        request.setParallelExecutor(parallelExecutor);
+                        return request;
                     }
                 });
         factories.put(SendEmailRequestI.ice_staticId(),
@@ -245,6 +270,13 @@ public class RequestObjectFactoryRegistry extends
                     	return new ResetPasswordRequestI(mailUtil, passwordUtil, sec, passwordProvider);
                     }
                 });
+        factories.put(DatabaseStatisticsRequestI.ice_staticId(),
+                new ObjectFactory(DatabaseStatisticsRequestI.ice_staticId()) {
+                    @Override
+                    public Ice.Object create(String name) {
+                        return new DatabaseStatisticsRequestI();
+                    }
+                });
         factories.put(FindParentsI.ice_staticId(),
                 new ObjectFactory(FindParentsI.ice_staticId()) {
                     @Override
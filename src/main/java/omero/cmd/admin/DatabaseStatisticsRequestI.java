@@ -0,0 +1,138 @@
+/*
+ *   Copyright 2026 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package omero.cmd.admin;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ome.services.util.ReadOnlyStatus;
+import omero.cmd.DatabaseStatisticsRequest;
+import omero.cmd.DatabaseStatisticsResponse;
+import omero.cmd.ERR;
+import omero.cmd.HandleI.Cancel;
+import omero.cmd.Helper;
+import omero.cmd.IRequest;
+import omero.cmd.QueryTimes;
+import omero.cmd.Response;
+
+import org.hibernate.stat.ConcurrentStatisticsImpl;
+import org.hibernate.stat.QueryLatency;
+import org.hibernate.stat.Statistics;
+
+/**
+ * Reports to administrators the statistics gathered by Hibernate of the
+ * server's use of the database, including the slowest queries if gathered
+ * by {@link ConcurrentStatisticsImpl}.
+ *
+ * @since 5.8.6
+ */
+@SuppressWarnings("serial")
+public class DatabaseStatisticsRequestI extends DatabaseStatisticsRequest
+    implements IRequest, ReadOnlyStatus.IsAware {
+
+    private Helper helper;
+
+    //
+    // CMD API
+    //
+
+    @Override
+    public Map<String, String> getCallContext() {
+        return null;
+    }
+
+    @Override
+    public void init(Helper helper) {
+        this.helper = helper;
+        if (!helper.getEventContext().isCurrentUserAdmin()) {
+            throw helper.cancel(new ERR(), null, "no-permissions",
+                    "ApiUsageException",
+                    "Only administrators may read the database statistics.");
+        }
+        this.helper.setSteps(1);
+    }
+
+    @Override
+    public Object step(int step) throws Cancel {
+        helper.assertStep(step);
+        final Statistics statistics = helper.getSession().getSessionFactory().getStatistics();
+        final DatabaseStatisticsResponse rsp = new DatabaseStatisticsResponse();
+        rsp.enabled = statistics.isStatisticsEnabled();
+        rsp.startTime = statistics.getStartTime();
+        rsp.counters = counters(statistics);
+        rsp.slowest = new ArrayList<QueryTimes>();
+        if (statistics instanceof ConcurrentStatisticsImpl) {
+            for (final QueryLatency query :
+                ((ConcurrentStatisticsImpl) statistics).getSlowestQueries(limit)) {
+                final QueryTimes times = new QueryTimes();
+                times.query = query.getQuery();
+                times.executions = query.getExecutionCount();
+                times.rows = query.getExecutionRowCount();
+                times.medianTime = query.getExecutionTimePercentile(0.5);
+                times.p99Time = query.getExecutionTimePercentile(0.99);
+                times.maxTime = query.getExecutionMaxTime();
+                rsp.slowest.add(times);
+            }
+        }
+        return rsp;
+    }
+
+    private static Map<String, Long> counters(Statistics statistics) {
+        final Map<String, Long> counters = new LinkedHashMap<String, Long>();
+        counters.put("sessionOpenCount", statistics.getSessionOpenCount());
+        counters.put("sessionCloseCount", statistics.getSessionCloseCount());
+        counters.put("transactionCount", statistics.getTransactionCount());
+        counters.put("successfulTransactionCount", statistics.getSuccessfulTransactionCount());
+        counters.put("optimisticFailureCount", statistics.getOptimisticFailureCount());
+        counters.put("flushCount", statistics.getFlushCount());
+        counters.put("connectCount", statistics.getConnectCount());
+        counters.put("prepareStatementCount", statistics.getPrepareStatementCount());
+        counters.put("closeStatementCount", statistics.getCloseStatementCount());
+        counters.put("secondLevelCachePutCount", statistics.getSecondLevelCachePutCount());
+        counters.put("secondLevelCacheHitCount", statistics.getSecondLevelCacheHitCount());
+        counters.put("secondLevelCacheMissCount", statistics.getSecondLevelCacheMissCount());
+        counters.put("entityLoadCount", statistics.getEntityLoadCount());
+        counters.put("entityUpdateCount", statistics.getEntityUpdateCount());
+        counters.put("entityInsertCount", statistics.getEntityInsertCount());
+        counters.put("entityDeleteCount", statistics.getEntityDeleteCount());
+        counters.put("entityFetchCount", statistics.getEntityFetchCount());
+        counters.put("collectionLoadCount", statistics.getCollectionLoadCount());
+        counters.put("collectionUpdateCount", statistics.getCollectionUpdateCount());
+        counters.put("collectionRemoveCount", statistics.getCollectionRemoveCount());
+        counters.put("collectionRecreateCount", statistics.getCollectionRecreateCount());
+        counters.put("collectionFetchCount", statistics.getCollectionFetchCount());
+        counters.put("queryExecutionCount", statistics.getQueryExecutionCount());
+        counters.put("queryExecutionMaxTime", statistics.getQueryExecutionMaxTime());
+        counters.put("queryCachePutCount", statistics.getQueryCachePutCount());
+        counters.put("queryCacheHitCount", statistics.getQueryCacheHitCount());
+        counters.put("queryCacheMissCount", statistics.getQueryCacheMissCount());
+        return counters;
+    }
+
+    @Override
+    public void finish() throws Cancel {
+        // no-op
+    }
+
+    @Override
+    public void buildResponse(int step, Object object) {
+        helper.assertResponse(step);
+        if (helper.isLast(step)) {
+            helper.setResponseIfNull((DatabaseStatisticsResponse) object);
+        }
+    }
+
+    @Override
+    public Response getResponse() {
+        return helper.getResponse();
+    }
+
+    @Override
+    public boolean isReadOnly(ReadOnlyStatus readOnly) {
+        return true;
+    }
+}
@@ -19,13 +19,13 @@
 
 package omero.cmd.graphs;
 
-import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,6 +49,7 @@ import ome.services.graphs.GraphPathBean;
 import ome.services.graphs.GraphPolicy;
 import ome.services.graphs.GraphTraversal;
 import ome.services.util.ReadOnlyStatus;
+import ome.system.EventContext;
 import ome.system.Login;
 import ome.system.Roles;
 import omero.api.LongPair;
@@ -82,6 +83,8 @@ public class DiskUsage2I extends DiskUsage2 implements IRequest, ReadOnlyStatus.
     private final GraphPolicy graphPolicy;
     private PixelsService pixelsService;
     private ThumbnailService thumbnailService;
+    private DiskUsageCache diskUsageCache;
+    private ExecutorService parallelExecutor;
 
     private Helper helper;
     private GraphHelper graphHelper;
@@ -90,6 +93,11 @@ public class DiskUsage2I extends DiskUsage2 implements IRequest, ReadOnlyStatus.
     private SetMultimap<String, Long> targetMultimap = null;
     private GraphTraversal.PlanExecutor processor;
 
+    /* if caching applies, the cache key, the event log mark from before calculation and any cached response */
+    private String cacheKey = null;
+    private long eventLogMark;
+    private DiskUsage2Response cachedResponse = null;
+
     /* keep track of disk usage totals */
     private final Usage usage = new Usage();
     /* original file ID to types that refer to them */
@@ -130,6 +138,22 @@ public class DiskUsage2I extends DiskUsage2 implements IRequest, ReadOnlyStatus.
         this.thumbnailService = thumbnailService;
     }
 
+    /**
+     * Provided by {@link omero.cmd.RequestObjectFactoryRegistry}.
+     * @param diskUsageCache the cache of disk usage responses, may be {@code null}
+     */
+    public void setDiskUsageCache(DiskUsageCache diskUsageCache) {
+        this.diskUsageCache = diskUsageCache;
+    }
+
+    /**
+     * Provided by {@link omero.cmd.RequestObjectFactoryRegistry}.
+     * @param parallelExecutor the executor on which to look up file sizes, may be {@code null}
+     */
+    public void setParallelExecutor(ExecutorService parallelExecutor) {
+        this.parallelExecutor = parallelExecutor;
+    }
+
     /* CMD REQUEST FRAMEWORK */
 
     @Override
@@ -147,6 +171,20 @@ public class DiskUsage2I extends DiskUsage2 implements IRequest, ReadOnlyStatus.
         }
 
         this.helper = helper;
+
+        if (diskUsageCache != null) {
+            final EventContext ec = helper.getEventContext();
+            cacheKey = diskUsageCache.getKey(ec.getCurrentUserId(), ec.getCurrentGroupId(), targetClasses, targetObjects);
+            if (cacheKey != null) {
+                cachedResponse = diskUsageCache.get(cacheKey, helper.getSession());
+                eventLogMark = diskUsageCache.getEventLogMark(helper.getSession());
+            }
+        }
+        if (cachedResponse != null) {
+            helper.setSteps(1);
+            return;
+        }
+
         helper.setSteps(5);
         this.graphHelper = new GraphHelper(helper, graphPathBean);
 
@@ -157,6 +195,9 @@ public class DiskUsage2I extends DiskUsage2 implements IRequest, ReadOnlyStatus.
     @Override
     public Object step(int step) throws Cancel {
         helper.assertStep(step);
+        if (cachedResponse != null) {
+            return null;
+        }
         try {
             switch (step) {
             case 0:
@@ -211,6 +252,7 @@ public class DiskUsage2I extends DiskUsage2 implements IRequest, ReadOnlyStatus.
                         usage.add(fileSize.owner, fileSize.group, type, fileSize.size);
                     }
                 }
+                reportProgress();
                 return null;
             default:
                 final Exception e = new IllegalArgumentException("model object graph operation has no step " + step);
@@ -229,7 +271,25 @@ public class DiskUsage2I extends DiskUsage2 implements IRequest, ReadOnlyStatus.
 
     @Override
     public void finish() {
-        helper.setResponseIfNull(usage.getDiskUsageResponse());
+        if (cachedResponse != null) {
+            helper.setResponseIfNull(cachedResponse);
+            return;
+        }
+        final DiskUsage2Response response = usage.getDiskUsageResponse();
+        if (cacheKey != null) {
+            diskUsageCache.put(cacheKey, eventLogMark, response);
+        }
+        helper.setResponseIfNull(response);
+    }
+
+    /**
+     * Report the running totals in the parameters of the request's status so that clients may show partial results.
+     */
+    private void reportProgress() {
+        final Map<String, String> parameters = new HashMap<String, String>();
+        parameters.put("files", Long.toString(usage.getTotalCount()));
+        parameters.put("bytes", Long.toString(usage.getTotalSize()));
+        helper.getStatus().parameters = parameters;
     }
 
     @Override
@@ -256,6 +316,9 @@ public class DiskUsage2I extends DiskUsage2 implements IRequest, ReadOnlyStatus.
         private final Map<LongPair, Integer> totalCountByWho = new HashMap<LongPair, Integer>();
         private final Map<LongPair, Long> totalSizeByWho = new HashMap<LongPair, Long>();
 
+        private long totalCount = 0;
+        private long totalSize = 0;
+
         private boolean bumpTotals = false;
 
         /**
@@ -314,10 +377,26 @@ public class DiskUsage2I extends DiskUsage2 implements IRequest, ReadOnlyStatus.
                 totalSize += size;
                 totalCountByWho.put(ownership, totalCount);
                 totalSizeByWho.put(ownership, totalSize);
+                this.totalCount++;
+                this.totalSize += size;
                 bumpTotals = false;
             }
         }
 
+        /**
+         * @return the number of files counted so far, over all owners and groups
+         */
+        long getTotalCount() {
+            return totalCount;
+        }
+
+        /**
+         * @return the number of bytes counted so far, over all owners and groups
+         */
+        long getTotalSize() {
+            return totalSize;
+        }
+
         /**
          * @return a disk usage response corresponding to the current usage
          */
@@ -381,16 +460,6 @@ public class DiskUsage2I extends DiskUsage2 implements IRequest, ReadOnlyStatus.
         }
     }
 
-    /**
-     * Get the size of the file at the given path, or {@code 0} if it does not exist.
-     * @param path a file path
-     * @return the file's size, or {@code 0} if the file does not exist
-     */
-    private static long getFileSize(String path) {
-        final File file = new File(path);
-        return file.exists() ? file.length() : 0;
-    }
-
     /**
      * A processor that notes disk usage and how to attribute it.
      * @author m.t.b.carroll@dundee.ac.uk
@@ -422,30 +491,48 @@ public class DiskUsage2I extends DiskUsage2 implements IRequest, ReadOnlyStatus.
             if ("Pixels".equals(className)) {
                 /* Pixels may have /OMERO/Pixels/<id> files */
                 final String hql = "SELECT id, details.owner.id, details.group.id FROM Pixels WHERE id IN (:ids)";
+                final List<Object[]> resultRows = new ArrayList<Object[]>();
+                final List<String> paths = new ArrayList<String>();
                 for (final Object[] resultRow : queryService.projection(hql, parameters)) {
                     if (resultRow != null) {
                         final Long pixelsId = (Long) resultRow[0];
-                        final Long ownerId = (Long) resultRow[1];
-                        final Long groupId = (Long) resultRow[2];
                         final String pixelsPath = pixelsService.getPixelsPath(pixelsId);
-                        usage.bumpTotals().add(ownerId, groupId, className, getFileSize(pixelsPath));
-                        usage.bumpTotals().add(ownerId, groupId, className, getFileSize(pixelsPath + PixelsService.PYRAMID_SUFFIX));
-                        usage.bumpTotals().add(ownerId, groupId, className, getFileSize(pixelsPath + PixelsService.PYRAMID_SUFFIX +
-                                BfPyramidPixelBuffer.PYR_LOCK_EXT));
+                        resultRows.add(resultRow);
+                        paths.add(pixelsPath);
+                        paths.add(pixelsPath + PixelsService.PYRAMID_SUFFIX);
+                        paths.add(pixelsPath + PixelsService.PYRAMID_SUFFIX + BfPyramidPixelBuffer.PYR_LOCK_EXT);
                     }
                 }
+                final long[] sizes = getFileSizes(paths);
+                int index = 0;
+                for (final Object[] resultRow : resultRows) {
+                    final Long ownerId = (Long) resultRow[1];
+                    final Long groupId = (Long) resultRow[2];
+                    usage.bumpTotals().add(ownerId, groupId, className, sizes[index++]);
+                    usage.bumpTotals().add(ownerId, groupId, className, sizes[index++]);
+                    usage.bumpTotals().add(ownerId, groupId, className, sizes[index++]);
+                }
+                reportProgress();
             } else if ("Thumbnail".equals(className)) {
                 /* Thumbnails may have /OMERO/Thumbnails/<id> files */
                 final String hql = "SELECT id, details.owner.id, details.group.id FROM Thumbnail WHERE id IN (:ids)";
+                final List<Object[]> resultRows = new ArrayList<Object[]>();
+                final List<String> paths = new ArrayList<String>();
                 for (final Object[] resultRow : queryService.projection(hql, parameters)) {
                     if (resultRow != null) {
                         final Long thumbnailId = (Long) resultRow[0];
-                        final Long ownerId = (Long) resultRow[1];
-                        final Long groupId = (Long) resultRow[2];
-                        final String thumbnailPath = thumbnailService.getThumbnailPath(thumbnailId);
-                        usage.bumpTotals().add(ownerId, groupId, className, getFileSize(thumbnailPath));
+                        resultRows.add(resultRow);
+                        paths.add(thumbnailService.getThumbnailPath(thumbnailId));
                     }
                 }
+                final long[] sizes = getFileSizes(paths);
+                int index = 0;
+                for (final Object[] resultRow : resultRows) {
+                    final Long ownerId = (Long) resultRow[1];
+                    final Long groupId = (Long) resultRow[2];
+                    usage.bumpTotals().add(ownerId, groupId, className, sizes[index++]);
+                }
+                reportProgress();
             } else if ("OriginalFile".equals(className)) {
                 /* OriginalFiles have their size noted */
                 final String hql = "SELECT id, details.owner.id, details.group.id, size FROM OriginalFile WHERE id IN (:ids)";
@@ -477,6 +564,21 @@ public class DiskUsage2I extends DiskUsage2 implements IRequest, ReadOnlyStatus.
             }
         }
 
+        /**
+         * Get the sizes of the files at the given paths, in parallel.
+         * @param paths file paths
+         * @return the files' sizes, with {@code 0} for those that do not exist
+         * @throws GraphException if interrupted while waiting for the sizes
+         */
+        private long[] getFileSizes(List<String> paths) throws GraphException {
+            try {
+                return FileSizes.getFileSizes(parallelExecutor, paths);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new GraphException("interrupted while determining file sizes");
+            }
+        }
+
         @Override
         public Set<GraphPolicy.Ability> getRequiredPermissions() {
             return REQUIRED_ABILITIES;
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2026 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package omero.cmd.graphs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.hibernate.SQLQuery;
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationListener;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import ome.model.core.OriginalFile;
+import ome.model.core.Pixels;
+import ome.model.display.Thumbnail;
+import ome.services.messages.EventLogMessage;
+import omero.cmd.DiskUsage2Response;
+
+/**
+ * Caches the responses of {@link DiskUsage2I} requests that target whole users or groups, which are the costly
+ * requests most often repeated. A cached response is reused only if no original file, pixels or thumbnail has since
+ * been created, modified or deleted anywhere on the server, as noted by the event log, so imports, deletions and
+ * changes of ownership all invalidate the cache. Graph operations on this server also clear the cache as soon as they
+ * note their changes. Responses are cached separately for each user and group context because what is readable differs.
+ * Changes to files which are not noted in the event log, such as writing pixel pyramids or altering files in the binary
+ * repository directly, do not invalidate the cache, so a response may be that stale until its time to live passes.
+ * @since 5.8.6
+ */
+public class DiskUsageCache implements ApplicationListener<EventLogMessage> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DiskUsageCache.class);
+
+    /* targets whose contents are defined by ownership so are unaffected by links among containers */
+    private static final Set<String> CACHEABLE_TARGETS = ImmutableSet.of("Experimenter", "ExperimenterGroup");
+
+    /* the entity types of the event log entries that may change disk usage */
+    private static final List<String> USAGE_ENTITY_TYPES = ImmutableList.of(
+            OriginalFile.class.getName(), Pixels.class.getName(), Thumbnail.class.getName());
+
+    /**
+     * A cached response.
+     */
+    private static class Entry {
+        final DiskUsage2Response response;
+        final long eventLogMark;
+        final long created;
+
+        Entry(DiskUsage2Response response, long eventLogMark) {
+            this.response = response;
+            this.eventLogMark = eventLogMark;
+            this.created = System.currentTimeMillis();
+        }
+    }
+
+    private final int maxEntries;
+    private final long timeToLive;
+    private final Map<String, Entry> entries;
+
+    /**
+     * Construct a new disk usage cache.
+     * @param maxEntries the maximum number of responses to cache, or {@code 0} to cache none
+     * @param timeToLive for how many milliseconds a cached response may be reused
+     */
+    public DiskUsageCache(final int maxEntries, long timeToLive) {
+        this.maxEntries = maxEntries;
+        this.timeToLive = timeToLive;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Determine the cache key for a disk usage request.
+     * @param userId the ID of the user making the request
+     * @param groupId the ID of the group context of the request, or {@code -1} for all groups
+     * @param targetClasses the classes targeted by the request, may be {@code null}
+     * @param targetObjects the objects targeted by the request, may be {@code null}
+     * @return the cache key, or {@code null} if the request's response is not to be cached
+     */
+    public String getKey(long userId, long groupId, List<String> targetClasses, Map<String, List<Long>> targetObjects) {
+        if (maxEntries <= 0) {
+            return null;
+        }
+        final List<String> classes = new ArrayList<String>();
+        if (targetClasses != null) {
+            for (final String targetClass : targetClasses) {
+                final String className = getSimpleName(targetClass);
+                if (!CACHEABLE_TARGETS.contains(className)) {
+                    return null;
+                }
+                classes.add(className);
+            }
+        }
+        final SortedMap<String, List<Long>> objects = new TreeMap<String, List<Long>>();
+        if (targetObjects != null) {
+            for (final Map.Entry<String, List<Long>> targetObject : targetObjects.entrySet()) {
+                final String className = getSimpleName(targetObject.getKey());
+                if (!CACHEABLE_TARGETS.contains(className)) {
+                    return null;
+                }
+                final List<Long> ids = new ArrayList<Long>(targetObject.getValue());
+                Collections.sort(ids);
+                objects.put(className, ids);
+            }
+        }
+        if (classes.isEmpty() && objects.isEmpty()) {
+            return null;
+        }
+        Collections.sort(classes);
+        return userId + ":" + groupId + ":" + classes + ":" + objects;
+    }
+
+    /**
+     * @param className a class name as given in a request
+     * @return the name without any package or Ice implementation suffix
+     */
+    private static String getSimpleName(String className) {
+        className = className.substring(className.lastIndexOf('.') + 1);
+        if (className.endsWith("I")) {
+            className = className.substring(0, className.length() - 1);
+        }
+        return className;
+    }
+
+    /**
+     * Note the current position in the event log, to be given to {@link #put(String, long, DiskUsage2Response)}.
+     * Must be called before the disk usage is calculated.
+     * @param session the current Hibernate session
+     * @return the ID of the latest event log entry
+     */
+    public long getEventLogMark(Session session) {
+        final Number mark = (Number) session.createSQLQuery("SELECT MAX(id) FROM eventlog").uniqueResult();
+        return mark == null ? 0 : mark.longValue();
+    }
+
+    /**
+     * Get a cached response that is still valid.
+     * @param key a cache key from {@link #getKey(long, long, List, Map)}
+     * @param session the current Hibernate session
+     * @return the cached response, or {@code null} if none is valid
+     */
+    public DiskUsage2Response get(String key, Session session) {
+        final Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - entry.created > timeToLive || isChangedSince(entry.eventLogMark, session)) {
+            synchronized (entries) {
+                if (entries.get(key) == entry) {
+                    entries.remove(key);
+                }
+            }
+            return null;
+        }
+        LOGGER.debug("reusing disk usage for {}", key);
+        return entry.response;
+    }
+
+    /**
+     * Cache a response.
+     * @param key a cache key from {@link #getKey(long, long, List, Map)}
+     * @param eventLogMark the result of {@link #getEventLogMark(Session)} from before the disk usage was calculated
+     * @param response the response to cache
+     */
+    public void put(String key, long eventLogMark, DiskUsage2Response response) {
+        synchronized (entries) {
+            entries.put(key, new Entry(response, eventLogMark));
+        }
+    }
+
+    /**
+     * Check if the event log notes any change to disk usage since the given mark.
+     * Looks only at the entries that follow the mark so does not scan the whole event log.
+     * @param eventLogMark the ID of an event log entry
+     * @param session the current Hibernate session
+     * @return if disk usage may have changed since the given entry
+     */
+    private static boolean isChangedSince(long eventLogMark, Session session) {
+        final SQLQuery query = session.createSQLQuery(
+                "SELECT id FROM eventlog WHERE id > :mark AND entitytype IN (:types)");
+        query.setLong("mark", eventLogMark);
+        query.setParameterList("types", USAGE_ENTITY_TYPES);
+        query.setMaxResults(1);
+        return !query.list().isEmpty();
+    }
+
+    @Override
+    public void onApplicationEvent(EventLogMessage event) {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+}
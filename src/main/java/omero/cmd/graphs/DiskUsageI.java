@@ -19,7 +19,6 @@
 
 package omero.cmd.graphs;
 
-import java.io.File;
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -438,8 +437,7 @@ public class DiskUsageI extends DiskUsage implements IRequest, ReadOnlyStatus.Is
      * @return the file's size, or {@code 0} if the file does not exist
      */
     private static long getFileSize(String path) {
-        final File file = new File(path);
-        return file.exists() ? file.length() : 0;
+        return FileSizes.getFileSize(path);
     }
 
     /**
@@ -39,6 +39,8 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -135,6 +137,21 @@ public class DuplicateI extends Duplicate implements IRequest, ReadOnlyStatus.Is
         MANAGED;
     }
 
+    /**
+     * A file to duplicate on the filesystem.
+     */
+    private static class FileDuplication {
+        final Location location;
+        final Path from;
+        final Path to;
+
+        FileDuplication(Location location, Path from, Path to) {
+            this.location = location;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
     private final ACLVoter aclVoter;
     private final GraphPathBean graphPathBean;
     private final Set<Class<? extends IObject>> targetClasses;
@@ -142,8 +159,9 @@ public class DuplicateI extends Duplicate implements IRequest, ReadOnlyStatus.Is
     private final SetMultimap<String, String> unnullable;
     private final Map<Class<? extends IObject>, Location> locationsForClasses;
     private final EnumMap<Location, Function<IObject, Path>> pathServices = new EnumMap<>(Location.class);
-    private final EnumMap<Location, Long> diskUsage = new EnumMap<>(Location.class);
+    private final EnumMap<Location, AtomicLong> diskUsage = new EnumMap<>(Location.class);
     private final ManagedRepositoryI managedRepository;
+    private ExecutorService parallelExecutor;
 
     /* retain a reference here because ManagedRepositoryI.setFileCreationListener uses a weak reference */
     private Consumer<CheckedPath> fileCreationListener;
@@ -166,7 +184,7 @@ public class DuplicateI extends Duplicate implements IRequest, ReadOnlyStatus.Is
     private final Multimap<IObject, PropertyUpdate> propertiesToUpdate = ArrayListMultimap.create();
     private final SetMultimap<IObject, IObject> blockedBy = HashMultimap.create();
     private final Map<Long, String> originalFileRepos = new HashMap<>();
-    private final List<Path> filesCreated = new ArrayList<>();
+    private final List<Path> filesCreated = Collections.synchronizedList(new ArrayList<>());
     private final PrefixSubstituter<FsFile> managedRepositoryRewrites;
     private final List<OriginalFile> wrongPathDuplicateFiles = new ArrayList<>();
     private final Set<Long> wrongPathDuplicatePixels = new HashSet<>();
@@ -215,6 +233,17 @@ public class DuplicateI extends Duplicate implements IRequest, ReadOnlyStatus.Is
         this.pathServices.put(Location.FILES, pathFactory.apply(pathInFiles));
         this.pathServices.put(Location.PIXELS, pathFactory.apply(pathInPixels));
         this.pathServices.put(Location.THUMBS, pathFactory.apply(pathInThumbs));
+        for (final Location location : Location.values()) {
+            this.diskUsage.put(location, new AtomicLong());
+        }
+    }
+
+    /**
+     * Provided by {@link omero.cmd.RequestObjectFactoryRegistry}.
+     * @param parallelExecutor the executor on which to duplicate files, may be {@code null}
+     */
+    public void setParallelExecutor(ExecutorService parallelExecutor) {
+        this.parallelExecutor = parallelExecutor;
     }
 
     @Override
@@ -223,17 +252,16 @@ public class DuplicateI extends Duplicate implements IRequest, ReadOnlyStatus.Is
     }
 
     /**
-     * Run {@link Files#copy(Path, Path, java.nio.file.CopyOption...)} and note the disk space used.
+     * Copy a file and note the disk space used. The copy is noted in {@link #filesCreated} as soon as it exists.
      * @param location the location of the file in the binary repository
      * @param from the file to copy
      * @param to where to create the copy
-     * @throws IOException from {@link Files#copy(Path, Path, java.nio.file.CopyOption...)}
+     * @throws IOException if the copy failed
      */
     private void copyFile(Location location, Path from, Path to) throws IOException {
-        Files.copy(from, to);
-        final long size = Files.size(to);
-        if (size > 0) {
-            diskUsage.merge(location, size, (x, y) -> x + y);
+        final long copied = FileCopies.copy(from, to, Files.size(from), filesCreated::add);
+        if (copied > 0) {
+            diskUsage.get(location).addAndGet(copied);
         }
     }
 
@@ -249,6 +277,7 @@ public class DuplicateI extends Duplicate implements IRequest, ReadOnlyStatus.Is
             try {
                 /* safe to create a hard link in managed repository */
                 Files.createLink(to, from);
+                filesCreated.add(to);
                 LOGGER.debug("linked {} to {}", from, to);
             } catch (FileSystemException fse) {
                 LOGGER.debug("failed to link {} to {}", from, to, fse);
@@ -967,10 +996,13 @@ public class DuplicateI extends Duplicate implements IRequest, ReadOnlyStatus.Is
     }
 
     /**
-     * Duplicate files on the filesystem.
+     * Duplicate files on the filesystem. The paths are determined in this thread, then the files are
+     * duplicated in parallel on the shared executor. If any duplication fails then no more are started and the
+     * files that were created remain noted in {@link #filesCreated} for {@link #abort()} to clean up.
      * @throws GraphException if the files cannot be duplicated
      */
     private void duplicateUnderlyingFiles() throws GraphException {
+        final List<FileDuplication> duplications = new ArrayList<>();
         for (final Map.Entry<IObject, IObject> originalDuplicate : originalsToDuplicates.entrySet()) {
             final IObject original = originalDuplicate.getKey();
             final IObject duplicate = originalDuplicate.getValue();
@@ -990,14 +1022,29 @@ public class DuplicateI extends Duplicate implements IRequest, ReadOnlyStatus.Is
             if (originalPath.equals(duplicatePath)) {
                 throw new GraphException("failed to generate different path for file duplicating " + originalPath);
             }
-            try {
-                duplicateFile(originalLocation, originalPath, duplicatePath);
-                filesCreated.add(duplicatePath);
-            } catch (IOException ioe) {
-                final String message = "failed to duplicate file from " + originalPath + " to " + duplicatePath;
-                LOGGER.warn(message, ioe);
-                throw new GraphException(message + ": " + ioe);
-            }
+            duplications.add(new FileDuplication(originalLocation, originalPath, duplicatePath));
+        }
+        if (duplications.isEmpty()) {
+            return;
+        }
+        try {
+            FileCopies.duplicateAll(parallelExecutor, duplications, new FileCopies.Duplication<FileDuplication>() {
+                @Override
+                public void duplicate(FileDuplication duplication) throws IOException {
+                    try {
+                        duplicateFile(duplication.location, duplication.from, duplication.to);
+                    } catch (IOException ioe) {
+                        throw new IOException("failed to duplicate file from " + duplication.from + " to " +
+                                duplication.to, ioe);
+                    }
+                }
+            });
+        } catch (IOException ioe) {
+            LOGGER.warn(ioe.getMessage(), ioe.getCause());
+            throw new GraphException(ioe.getMessage() + ": " + ioe.getCause());
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new GraphException("interrupted while duplicating files");
         }
     }
 
@@ -1111,12 +1158,14 @@ public class DuplicateI extends Duplicate implements IRequest, ReadOnlyStatus.Is
     private void abort() {
         LOGGER.debug("aborting duplication process");
         managedRepository.clearFileCreationListener();
-        Collections.reverse(filesCreated);
-        for (final Path fileCreated : filesCreated) {
-            try {
-                Files.deleteIfExists(fileCreated);
-            } catch (IOException ioe) {
-                LOGGER.warn("failed to delete {}", fileCreated, ioe);
+        synchronized (filesCreated) {
+            Collections.reverse(filesCreated);
+            for (final Path fileCreated : filesCreated) {
+                try {
+                    Files.deleteIfExists(fileCreated);
+                } catch (IOException ioe) {
+                    LOGGER.warn("failed to delete {}", fileCreated, ioe);
+                }
             }
         }
     }
@@ -1124,11 +1173,13 @@ public class DuplicateI extends Duplicate implements IRequest, ReadOnlyStatus.Is
     @Override
     public void finish() {
         managedRepository.clearFileCreationListener();
-        if (diskUsage.isEmpty()) {
+        final List<String> copied = diskUsage.entrySet().stream().filter(entry -> entry.getValue().get() > 0)
+                .map(entry -> String.format("%,d into %s", entry.getValue().get(), entry.getKey()))
+                .collect(Collectors.toList());
+        if (copied.isEmpty()) {
             LOGGER.debug("no file bytes copied");
         } else {
-            LOGGER.info("file bytes copied: {}", Joiner.on(", ").join(diskUsage.entrySet().stream()
-                    .map(entry -> String.format("%,d into %s", entry.getValue(), entry.getKey())).iterator()));
+            LOGGER.info("file bytes copied: {}", Joiner.on(", ").join(copied));
         }
     }
 
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2026 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package omero.cmd.graphs;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Copies the underlying files of duplicated model objects for {@link DuplicateI}. As {@link FileSizes} does for
+ * stat calls, a request's files are duplicated by a few workers of a shared executor so that one request does not
+ * occupy the whole executor.
+ * @since 5.8.6
+ */
+final class FileCopies {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileCopies.class);
+
+    /* the maximum number of files duplicated at once for each request */
+    private static final int THREADS = 4;
+
+    /**
+     * Duplicates one file.
+     * @param <T> the description of the file to duplicate
+     */
+    interface Duplication<T> {
+        /**
+         * @param item the file to duplicate
+         * @throws IOException if the file could not be duplicated
+         */
+        void duplicate(T item) throws IOException;
+    }
+
+    private FileCopies() {
+    }
+
+    /**
+     * Copy a file. If the file shrinks while it is being copied then the copy stops at its new end.
+     * @param from the file to copy
+     * @param to where to create the copy, must not yet exist
+     * @param size the size of the file to copy
+     * @param created notified of the copy as soon as it exists
+     * @return the number of bytes copied
+     * @throws IOException if the copy failed
+     */
+    static long copy(Path from, Path to, long size, Consumer<Path> created) throws IOException {
+        long position = 0;
+        try (final FileChannel in = FileChannel.open(from, StandardOpenOption.READ);
+             final FileChannel out = FileChannel.open(to, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            created.accept(to);
+            while (position < size) {
+                final long transferred = in.transferTo(position, size - position, out);
+                if (transferred == 0 && position >= in.size()) {
+                    LOGGER.warn("{} shrank from {} to {} bytes while being copied", from, size, position);
+                    break;
+                }
+                position += transferred;
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Duplicate files on a few threads of the executor. If a duplication fails then no more are started and the
+     * failure is thrown once those already started have finished, so that every file created is known to the
+     * caller.
+     * @param executor the executor on which to duplicate the files, may be {@code null} to duplicate them on the
+     * calling thread
+     * @param items the files to duplicate
+     * @param duplication how to duplicate each file
+     * @throws IOException if a duplication failed
+     * @throws InterruptedException if interrupted while waiting for the duplications
+     */
+    static <T> void duplicateAll(ExecutorService executor, final List<T> items, final Duplication<T> duplication)
+            throws IOException, InterruptedException {
+        if (executor == null || items.size() < 2) {
+            for (final T item : items) {
+                duplication.duplicate(item);
+            }
+            return;
+        }
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicBoolean stop = new AtomicBoolean();
+        final int workers = Math.min(THREADS, items.size());
+        final List<Future<Void>> futures = new ArrayList<Future<Void>>(workers);
+        for (int worker = 0; worker < workers; worker++) {
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    int index;
+                    while (!stop.get() && (index = next.getAndIncrement()) < items.size()) {
+                        try {
+                            duplication.duplicate(items.get(index));
+                        } catch (IOException | RuntimeException e) {
+                            stop.set(true);
+                            throw e;
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        Throwable failure = null;
+        boolean interrupted = false;
+        for (final Future<Void> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (ExecutionException ee) {
+                    if (failure == null) {
+                        failure = ee.getCause();
+                    }
+                    break;
+                } catch (InterruptedException ie) {
+                    /* still wait for the workers to stop */
+                    stop.set(true);
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            throw new InterruptedException("interrupted while duplicating files");
+        }
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw new RuntimeException(failure);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ *   Copyright 2026 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package omero.model;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+import ome.model.units.BigResult;
+import ome.model.units.Conversion;
+
+/**
+ * A unit {@link Conversion} precomputed as a double-precision factor and
+ * offset, so that converting a value need not use {@link BigDecimal}. All the
+ * conversions between the units of a quantity are linear; the precomputed
+ * form is only used if it agrees with the exact conversion to within
+ * {@link #TOLERANCE} at a range of sample values, otherwise the exact
+ * conversion is used. Values which would overflow are always converted
+ * exactly so that the {@link BigResult} can be reported.
+ *
+ * @since 5.8.6
+ */
+final class DoubleConversion {
+
+    /** The greatest relative error allowed of the precomputed conversion. */
+    static final double TOLERANCE = 1e-14;
+
+    private static final BigDecimal TOLERANCE_BIG = new BigDecimal(TOLERANCE);
+
+    /** The values at which the precomputed conversion is checked. */
+    private static final double[] SAMPLES = {
+        -1e6, -273.15, -1, 0.001, 0.325, 1.5, 37, 1e6
+    };
+
+    private final Conversion exact;
+
+    private final String name;
+
+    /** If the factor and offset are used rather than the exact conversion. */
+    private final boolean precomputed;
+
+    /**
+     * If values are divided by the factor, being the exact inverse of a
+     * conversion such as to a larger metric unit, to avoid rounding the
+     * factor itself.
+     */
+    private final boolean divide;
+
+    private final double factor, offset;
+
+    /**
+     * @param exact the exact conversion
+     * @param name the source and target units, for reporting overflow
+     */
+    DoubleConversion(Conversion exact, String name) {
+        this.exact = exact;
+        this.name = name;
+        final BigDecimal zero = exact.convert(0);
+        final BigDecimal slope = exact.convert(1).subtract(zero);
+        BigDecimal inverse = null;
+        if (slope.signum() != 0 && !isExactDouble(slope)) {
+            try {
+                inverse = BigDecimal.ONE.divide(slope);
+            } catch (ArithmeticException nonTerminating) {
+                /* cannot divide instead */
+            }
+        }
+        this.divide = inverse != null && isExactDouble(inverse);
+        this.factor = divide ? inverse.doubleValue() : slope.doubleValue();
+        this.offset = zero.doubleValue();
+        this.precomputed = factor != 0 && Double.isFinite(factor)
+                && Double.isFinite(offset) && agrees();
+    }
+
+    /**
+     * @return if the value is exactly representable as a double
+     */
+    private static boolean isExactDouble(BigDecimal value) {
+        final double d = value.doubleValue();
+        return Double.isFinite(d) && new BigDecimal(d).compareTo(value) == 0;
+    }
+
+    /**
+     * @return if the precomputed conversion of each sample value is within
+     * the tolerance of its exact conversion, relative to the larger of the
+     * result and the offset so that the cancellation near zero of an offset
+     * conversion is allowed for
+     */
+    private boolean agrees() {
+        for (final double sample : SAMPLES) {
+            final BigDecimal expected = exact.convert(sample);
+            final double actual = fast(sample);
+            if (!Double.isFinite(actual)) {
+                return false;
+            }
+            final BigDecimal error = expected.subtract(new BigDecimal(actual)).abs();
+            final BigDecimal scale = expected.abs().max(new BigDecimal(Math.abs(offset)));
+            if (error.compareTo(scale.multiply(TOLERANCE_BIG)) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private double fast(double value) {
+        return (divide ? value / factor : value * factor) + offset;
+    }
+
+    /**
+     * @return if the precomputed factor and offset are used
+     */
+    boolean isPrecomputed() {
+        return precomputed;
+    }
+
+    /**
+     * Converts a value. Infinite and NaN values are returned unchanged.
+     * @param value the value to convert
+     * @return the converted value
+     * @throws BigResult if the converted value is too large for a double
+     */
+    double convert(double value) throws BigResult {
+        if (!Double.isFinite(value)) {
+            return value;
+        }
+        if (precomputed) {
+            final double converted = fast(value);
+            if (Double.isFinite(converted)) {
+                return converted;
+            }
+        }
+        return convertExactly(value);
+    }
+
+    /**
+     * Converts the given values in place. Infinite and NaN values are left
+     * unchanged. If a converted value is too large for a double then the
+     * values before it have already been converted.
+     * @param values the values to convert
+     * @throws BigResult if a converted value is too large for a double
+     */
+    void convert(double[] values) throws BigResult {
+        if (!precomputed) {
+            for (int i = 0; i < values.length; i++) {
+                if (Double.isFinite(values[i])) {
+                    values[i] = convertExactly(values[i]);
+                }
+            }
+        } else if (divide) {
+            for (int i = 0; i < values.length; i++) {
+                final double converted = values[i] / factor + offset;
+                values[i] = Double.isFinite(converted) || !Double.isFinite(values[i])
+                        ? converted : convertExactly(values[i]);
+            }
+        } else {
+            for (int i = 0; i < values.length; i++) {
+                final double converted = values[i] * factor + offset;
+                values[i] = Double.isFinite(converted) || !Double.isFinite(values[i])
+                        ? converted : convertExactly(values[i]);
+            }
+        }
+    }
+
+    private double convertExactly(double value) throws BigResult {
+        final BigDecimal big = exact.convert(value);
+        final double converted = big.doubleValue();
+        if (!Double.isFinite(converted)) {
+            throw new BigResult(big, "Failed to convert " + name);
+        }
+        return converted;
+    }
+
+    /**
+     * Precomputes each of the given conversions.
+     * @param conversions the exact conversions by source then target unit
+     * @param units the unit enumeration
+     * @return the precomputed conversions by source then target unit
+     */
+    static <U extends Enum<U>> Map<U, Map<U, DoubleConversion>> precompute(
+            Map<U, Map<U, Conversion>> conversions, Class<U> units) {
+        final Map<U, Map<U, DoubleConversion>> c =
+                new EnumMap<U, Map<U, DoubleConversion>>(units);
+        for (final Map.Entry<U, Map<U, Conversion>> source : conversions.entrySet()) {
+            final Map<U, DoubleConversion> d = new EnumMap<U, DoubleConversion>(units);
+            for (final Map.Entry<U, Conversion> target : source.getValue().entrySet()) {
+                d.put(target.getKey(), new DoubleConversion(target.getValue(),
+                        source.getKey() + ":" + target.getKey()));
+            }
+            c.put(source.getKey(), Collections.unmodifiableMap(d));
+        }
+        return Collections.unmodifiableMap(c);
+    }
+}
@@ -26,8 +26,6 @@ import static ome.model.units.Conversion.Pow;
 import static ome.model.units.Conversion.Rat;
 import static ome.model.units.Conversion.Sym;
 
-import java.math.BigDecimal;
-
 import java.util.Collections;
 import java.util.Map;
 import java.util.EnumMap;
@@ -632,6 +630,9 @@ public class ElectricPotentialI extends ElectricPotential implements ModelBased
         conversions = Collections.unmodifiableMap(c);
     }
 
+    private static final Map<UnitsElectricPotential, Map<UnitsElectricPotential, DoubleConversion>> doubleConversions =
+            DoubleConversion.precompute(conversions, UnitsElectricPotential.class);
+
     private static final Map<UnitsElectricPotential, String> SYMBOLS;
     static {
         Map<UnitsElectricPotential, String> s = new HashMap<UnitsElectricPotential, String>();
@@ -725,6 +726,35 @@ public class ElectricPotentialI extends ElectricPotential implements ModelBased
        return new ome.units.quantity.ElectricPotential(v, units2);
    }
 
+   /**
+    * Converts the given values in place from one unit to another, as the
+    * copy constructor converts a single value but without creating an
+    * object for each. Infinite and NaN values are left unchanged.
+    *
+    * @param values the values to convert
+    * @param source the unit of the values
+    * @param target the unit to convert the values to
+    * @throws IllegalArgumentException if the source or target unit
+    *         is null or an unconvertible type
+    * @throws BigResult if a conversion leads to an infinite result, in
+    *         which case the values before it have already been converted
+    */
+   public static void convert(double[] values, UnitsElectricPotential source, UnitsElectricPotential target)
+           throws BigResult {
+       if (source == null || target == null) {
+           throw new IllegalArgumentException(String.format(
+                   "conversion impossible from %s to %s", source, target));
+       }
+       if (source != target) {
+           final DoubleConversion conversion = doubleConversions.get(source).get(target);
+           if (conversion == null) {
+               throw new IllegalArgumentException(String.format(
+                       "%s cannot be converted to %s", source, target));
+           }
+           conversion.convert(values);
+       }
+   }
+
 
     //
     // REGULAR ICE CLASS
@@ -781,53 +811,39 @@ public class ElectricPotentialI extends ElectricPotential implements ModelBased
     * @throws BigResult if the conversion leads to an infinite or NaN result
     */
     public ElectricPotentialI(ElectricPotential value, String target) throws BigResult {
+        this(value, UnitsElectricPotential.valueOf(target));
+    }
+
+   /**
+    * Copy constructor that converts between units if possible.
+    *
+    * @param target unit that is desired. non-null.
+    */
+    public ElectricPotentialI(ElectricPotential value, UnitsElectricPotential target) throws BigResult {
 
        final UnitsElectricPotential sourceUnit = value.getUnit();
-       final UnitsElectricPotential targetUnit = UnitsElectricPotential.valueOf(target);
-       if (sourceUnit == null || targetUnit == null) {
+       if (sourceUnit == null || target == null) {
            throw new IllegalArgumentException(String.format(
                        "conversion impossible from %s to %s",
-                       sourceUnit, targetUnit));
+                       sourceUnit, target));
        }
 
-       final String source = value.getUnit().toString();
-       if (target.equals(source)) {
+       if (sourceUnit == target) {
            setValue(value.getValue());
            setUnit(value.getUnit());
        } else {
-            final Conversion conversion = conversions.get(sourceUnit).get(targetUnit);
+            final DoubleConversion conversion = doubleConversions.get(sourceUnit).get(target);
             if (conversion == null) {
                 throw new IllegalArgumentException(String.format(
                     "%f %s cannot be converted to %s",
                         value.getValue(), value.getUnit(), target));
             }
-            double orig = value.getValue();
-            double converted = orig;
-            if (!Double.isFinite(orig)) {
-                // Infinite or NaN
-                // Do nothing. Use orig
-            } else {
-                BigDecimal big = conversion.convert(orig);
-                converted = big.doubleValue();
-                if (!Double.isFinite(converted)) {
-                    throw new BigResult(big,
-                            "Failed to convert " + source + ":" + target);
-                }
-            }
-            setValue(converted);
-            setUnit(targetUnit);
+            // Infinite or NaN values are returned unchanged.
+            setValue(conversion.convert(value.getValue()));
+            setUnit(target);
        }
     }
 
-   /**
-    * Copy constructor that converts between units if possible.
-    *
-    * @param target unit that is desired. non-null.
-    */
-    public ElectricPotentialI(ElectricPotential value, UnitsElectricPotential target) throws BigResult {
-        this(value, target.toString());
-    }
-
     /**
      * Convert a Bio-Formats {@link Length} to an OMERO Length.
      */
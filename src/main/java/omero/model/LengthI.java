@@ -26,8 +26,6 @@ import static ome.model.units.Conversion.Pow;
 import static ome.model.units.Conversion.Rat;
 import static ome.model.units.Conversion.Sym;
 
-import java.math.BigDecimal;
-
 import java.util.Collections;
 import java.util.Map;
 import java.util.EnumMap;
@@ -1295,6 +1293,9 @@ public class LengthI extends Length implements ModelBased {
         conversions = Collections.unmodifiableMap(c);
     }
 
+    private static final Map<UnitsLength, Map<UnitsLength, DoubleConversion>> doubleConversions =
+            DoubleConversion.precompute(conversions, UnitsLength.class);
+
     private static final Map<UnitsLength, String> SYMBOLS;
     static {
         Map<UnitsLength, String> s = new HashMap<UnitsLength, String>();
@@ -1401,6 +1402,35 @@ public class LengthI extends Length implements ModelBased {
        return new ome.units.quantity.Length(v, units2);
    }
 
+   /**
+    * Converts the given values in place from one unit to another, as the
+    * copy constructor converts a single value but without creating an
+    * object for each. Infinite and NaN values are left unchanged.
+    *
+    * @param values the values to convert
+    * @param source the unit of the values
+    * @param target the unit to convert the values to
+    * @throws IllegalArgumentException if the source or target unit
+    *         is null or an unconvertible type
+    * @throws BigResult if a conversion leads to an infinite result, in
+    *         which case the values before it have already been converted
+    */
+   public static void convert(double[] values, UnitsLength source, UnitsLength target)
+           throws BigResult {
+       if (source == null || target == null) {
+           throw new IllegalArgumentException(String.format(
+                   "conversion impossible from %s to %s", source, target));
+       }
+       if (source != target) {
+           final DoubleConversion conversion = doubleConversions.get(source).get(target);
+           if (conversion == null) {
+               throw new IllegalArgumentException(String.format(
+                       "%s cannot be converted to %s", source, target));
+           }
+           conversion.convert(values);
+       }
+   }
+
 
     //
     // REGULAR ICE CLASS
@@ -1457,53 +1487,39 @@ public class LengthI extends Length implements ModelBased {
     * @throws BigResult if the conversion leads to an infinite or NaN result
     */
     public LengthI(Length value, String target) throws BigResult {
+        this(value, UnitsLength.valueOf(target));
+    }
+
+   /**
+    * Copy constructor that converts between units if possible.
+    *
+    * @param target unit that is desired. non-null.
+    */
+    public LengthI(Length value, UnitsLength target) throws BigResult {
 
        final UnitsLength sourceUnit = value.getUnit();
-       final UnitsLength targetUnit = UnitsLength.valueOf(target);
-       if (sourceUnit == null || targetUnit == null) {
+       if (sourceUnit == null || target == null) {
            throw new IllegalArgumentException(String.format(
                        "conversion impossible from %s to %s",
-                       sourceUnit, targetUnit));
+                       sourceUnit, target));
        }
 
-       final String source = value.getUnit().toString();
-       if (target.equals(source)) {
+       if (sourceUnit == target) {
            setValue(value.getValue());
            setUnit(value.getUnit());
        } else {
-            final Conversion conversion = conversions.get(sourceUnit).get(targetUnit);
+            final DoubleConversion conversion = doubleConversions.get(sourceUnit).get(target);
             if (conversion == null) {
                 throw new IllegalArgumentException(String.format(
                     "%f %s cannot be converted to %s",
                         value.getValue(), value.getUnit(), target));
             }
-            double orig = value.getValue();
-            double converted = orig;
-            if (!Double.isFinite(orig)) {
-                // Infinite or NaN
-                // Do nothing. Use orig
-            } else {
-                BigDecimal big = conversion.convert(orig);
-                converted = big.doubleValue();
-                if (!Double.isFinite(converted)) {
-                    throw new BigResult(big,
-                            "Failed to convert " + source + ":" + target);
-                }
-            }
-            setValue(converted);
-            setUnit(targetUnit);
+            // Infinite or NaN values are returned unchanged.
+            setValue(conversion.convert(value.getValue()));
+            setUnit(target);
        }
     }
 
-   /**
-    * Copy constructor that converts between units if possible.
-    *
-    * @param target unit that is desired. non-null.
-    */
-    public LengthI(Length value, UnitsLength target) throws BigResult {
-        this(value, target.toString());
-    }
-
     /**
      * Convert a Bio-Formats {@link Length} to an OMERO Length.
      */
@@ -1139,6 +1139,10 @@ public class IceMapper extends ome.util.ModelMapper implements
     // =========================================================================
 
     protected boolean isPrimitive(Class<?> p) {
+        return isPrimitiveType(p);
+    }
+
+    private static boolean isPrimitiveType(Class<?> p) {
         if (p.equals(byte.class) || p.equals(byte[].class)
                 || p.equals(int.class) || p.equals(int[].class)
                 || p.equals(long.class) || p.equals(long[].class)
@@ -1172,6 +1176,16 @@ public class IceMapper extends ome.util.ModelMapper implements
         return false;
     }
 
+    /**
+     * Whether {@link #handleInput(Class, Object)} returns any argument for the
+     * given parameter type unchanged unless it is an {@link RType}. Callers
+     * which invoke the same methods repeatedly may check this once per
+     * parameter rather than mapping every argument.
+     */
+    public static boolean isInputUnmapped(Class<?> p) {
+        return isPrimitiveType(p) || isNullablePrimitive(p);
+    }
+
     public Object handleInput(Class<?> p, Object arg) throws ServerError {
         if (arg instanceof RType) {
             RType rt = (RType) arg;
@@ -0,0 +1,508 @@
+/*
+ *   Copyright 2026 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package omero.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Runs a {@link TileLoop} over several workers at once. Each worker obtains
+ * its own {@link TileData} from {@link TileLoop#createData()}, so for an
+ * {@link RPSTileLoop} each has its own raw pixels store, and repeatedly
+ * claims the next run of tiles in the order of the sequential loop. Each
+ * tile is passed the same {@code tileCount} as by
+ * {@link TileLoop#forEachTile(int, int, int, int, int, int, int, TileLoopIteration)}.
+ *
+ * Optionally, each worker reads ahead the tiles that it has claimed while
+ * the {@link TileLoopIteration} handles the current one: the iteration's
+ * {@link TileData#getTile(int, int, int, int, int, int, int)} for a tile
+ * then returns the prefetched bytes. Read-ahead calls {@code getTile} from a
+ * second thread so the {@link TileData} must allow that, as
+ * {@link RPSTileData} does.
+ *
+ * By default the iterations may run in any order and concurrently. If
+ * {@link #setOrdered(boolean) ordered}, they run one at a time in order of
+ * {@code tileCount} while the reads for later tiles still proceed in
+ * parallel.
+ *
+ * Writing tiles in parallel is only safe if the pixel buffer allows
+ * concurrent writes to different tiles: pyramid pixel buffers do not.
+ * The workers' tile data are closed together by {@link #close(List)} once
+ * every worker has finished, so that, for example, an {@link RPSTileLoop}
+ * saves the pixels only once rather than from each worker.
+ *
+ * @since 5.8.6
+ */
+public class ParallelTileLoop {
+
+    private static final Logger log = LoggerFactory.getLogger(ParallelTileLoop.class);
+
+    private final TileLoop loop;
+
+    private final int workers;
+
+    private int prefetch = 0;
+
+    private boolean ordered = false;
+
+    private volatile long lastTiles = 0;
+
+    private volatile long lastBytes = 0;
+
+    private volatile long lastNanos = 0;
+
+    /**
+     * @param loop the loop whose {@link TileLoop#createData()} provides each worker's tile data
+     * @param workers the number of tiles to process at once
+     */
+    public ParallelTileLoop(TileLoop loop, int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("need at least one worker: " + workers);
+        }
+        this.loop = loop;
+        this.workers = workers;
+    }
+
+    /**
+     * @param tiles how many tiles each worker should read ahead, zero for none
+     */
+    public void setPrefetch(int tiles) {
+        if (tiles < 0) {
+            throw new IllegalArgumentException("cannot prefetch " + tiles + " tiles");
+        }
+        this.prefetch = tiles;
+    }
+
+    /**
+     * @param ordered if the iterations must be run one at a time in order of {@code tileCount}
+     */
+    public void setOrdered(boolean ordered) {
+        this.ordered = ordered;
+    }
+
+    /**
+     * @return the number of tiles iterated over by the last completed loop
+     */
+    public long getTiles() {
+        return lastTiles;
+    }
+
+    /**
+     * @return the number of bytes read and written through the tile data by the last completed loop
+     */
+    public long getBytes() {
+        return lastBytes;
+    }
+
+    /**
+     * @return the tiles per second achieved by the last completed loop
+     */
+    public double getTilesPerSecond() {
+        return lastNanos == 0 ? 0 : lastTiles * 1e9 / lastNanos;
+    }
+
+    /**
+     * @return the bytes read and written per second by the last completed loop
+     */
+    public double getBytesPerSecond() {
+        return lastNanos == 0 ? 0 : lastBytes * 1e9 / lastNanos;
+    }
+
+    /**
+     * Iterates over every tile in a given pixel based on the
+     * over arching dimensions and a requested maximum tile width and height.
+     * @param sizeX the size of the plane's X dimension
+     * @param sizeY the size of the plane's Y dimension
+     * @param sizeZ the size of the plane's Z dimension
+     * @param sizeC the size of the plane's C dimension
+     * @param sizeT the size of the plane's T dimension
+     * @param tileWidth <b>Maximum</b> width of the tile requested.
+     * @param tileHeight <b>Maximum</b> height of the tile requested.
+     * @param iteration Invoker to call for each tile, from several threads at
+     * once unless {@link #setOrdered(boolean) ordered}.
+     * @return The total number of tiles iterated over.
+     */
+    public int forEachTile(int sizeX, int sizeY,
+                           int sizeZ, int sizeC, int sizeT,
+                           int tileWidth, int tileHeight,
+                           final TileLoopIteration iteration) {
+
+        final Tiles tiles = new Tiles(sizeX, sizeY, sizeZ, sizeC, sizeT, tileWidth, tileHeight);
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicLong bytes = new AtomicLong();
+        final Sequencer sequencer = ordered ? new Sequencer() : null;
+        final int batch = prefetch + 1;
+        final int threads = (int) Math.max(1, Math.min(workers, (tiles.count + batch - 1) / batch));
+
+        final List<WorkerData> opened = Collections.synchronizedList(new ArrayList<WorkerData>(threads));
+        final ExecutorService pool = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("TileLoop-%d").setDaemon(true).build());
+        final long start = System.nanoTime();
+        Throwable failure = null;
+        try {
+            final List<Future<Void>> futures = new ArrayList<Future<Void>>(threads);
+            for (int worker = 0; worker < threads; worker++) {
+                futures.add(pool.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        try {
+                            work(tiles, next, batch, bytes, sequencer, iteration, opened);
+                        } catch (Throwable t) {
+                            if (sequencer != null) {
+                                sequencer.abort();
+                            }
+                            next.set((int) tiles.count);
+                            throw t instanceof Exception ? (Exception) t : new ExecutionException(t);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException ee) {
+                    Throwable cause = ee.getCause();
+                    if (cause instanceof ExecutionException) {
+                        cause = cause.getCause();
+                    }
+                    // the first failure caused the others to be cancelled
+                    if (failure == null || failure instanceof CancellationException) {
+                        failure = cause;
+                    }
+                }
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            failure = new RuntimeException("interrupted while iterating over tiles", ie);
+        } finally {
+            pool.shutdownNow();
+            awaitTermination(pool);
+        }
+
+        /* every worker has finished with its tile data */
+        final List<TileData> data = new ArrayList<TileData>(opened.size());
+        for (WorkerData worker : opened) {
+            data.add(worker.data);
+        }
+        try {
+            close(data);
+        } catch (RuntimeException e) {
+            if (failure == null) {
+                failure = e;
+            } else {
+                log.warn("failed to close tile data after failure", e);
+            }
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw new RuntimeException(failure);
+        }
+
+        lastNanos = Math.max(1, System.nanoTime() - start);
+        lastTiles = tiles.count;
+        lastBytes = bytes.get();
+        if (log.isDebugEnabled()) {
+            log.debug(String.format("%d tiles on %d workers: %.1f tiles/s, %.1f MB/s",
+                    tiles.count, threads, getTilesPerSecond(), getBytesPerSecond() / (1 << 20)));
+        }
+        return (int) tiles.count;
+    }
+
+    /**
+     * Closes the tile data of every worker. Called once all the workers have
+     * finished, whether or not the loop completed. By default each is closed
+     * in turn.
+     * @param data the tile data created for each worker by {@link TileLoop#createData()}
+     */
+    protected void close(List<TileData> data) {
+        RuntimeException failure = null;
+        for (TileData datum : data) {
+            try {
+                datum.close();
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Waits for the workers to stop, even if interrupted.
+     */
+    private static void awaitTermination(ExecutorService pool) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    if (!pool.awaitTermination(1, TimeUnit.MINUTES)) {
+                        log.warn("tile loop workers did not stop");
+                    }
+                    return;
+                } catch (InterruptedException ie) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * The body of each worker: claims runs of tiles and iterates over them
+     * until none remain. The worker's tile data is left open, in the given
+     * list, for {@link #close(List)}.
+     */
+    private void work(Tiles tiles, AtomicInteger next, int batch,
+            AtomicLong bytes, Sequencer sequencer, TileLoopIteration iteration,
+            List<WorkerData> opened) throws InterruptedException {
+        final WorkerData data = new WorkerData(loop.createData(), bytes, prefetch > 0);
+        opened.add(data);
+        try {
+            while (true) {
+                final int first = next.getAndAdd(batch);
+                if (first < 0 || first >= tiles.count) {
+                    return;
+                }
+                final int last = (int) Math.min(tiles.count, (long) first + batch);
+                if (prefetch > 0) {
+                    for (int tileCount = first; tileCount < last; tileCount++) {
+                        data.prefetch(tiles.get(tileCount));
+                    }
+                }
+                for (int tileCount = first; tileCount < last; tileCount++) {
+                    final Tile tile = tiles.get(tileCount);
+                    if (sequencer != null) {
+                        sequencer.await(tileCount);
+                    }
+                    iteration.run(data, tile.z, tile.c, tile.t, tile.x, tile.y, tile.w, tile.h, tileCount);
+                    if (sequencer != null) {
+                        sequencer.advance();
+                    }
+                }
+                data.discardPrefetched();
+            }
+        } finally {
+            data.release();
+        }
+    }
+
+    /**
+     * The tile space of a loop, indexed in the order of the sequential loop.
+     */
+    private static final class Tiles {
+
+        final int sizeX, sizeY, sizeZ, sizeC, tileWidth, tileHeight, tilesX;
+
+        final long perPlane, count;
+
+        Tiles(int sizeX, int sizeY, int sizeZ, int sizeC, int sizeT, int tileWidth, int tileHeight) {
+            this.sizeX = sizeX;
+            this.sizeY = sizeY;
+            this.sizeZ = sizeZ;
+            this.sizeC = sizeC;
+            this.tileWidth = tileWidth;
+            this.tileHeight = tileHeight;
+            this.tilesX = (sizeX + tileWidth - 1) / tileWidth;
+            this.perPlane = (long) tilesX * ((sizeY + tileHeight - 1) / tileHeight);
+            this.count = perPlane * sizeZ * sizeC * sizeT;
+            if (count > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("too many tiles: " + count);
+            }
+        }
+
+        Tile get(int tileCount) {
+            final long plane = tileCount / perPlane;
+            final int within = (int) (tileCount % perPlane);
+            final int z = (int) (plane % sizeZ);
+            final int c = (int) ((plane / sizeZ) % sizeC);
+            final int t = (int) (plane / ((long) sizeZ * sizeC));
+            final int x = (within % tilesX) * tileWidth;
+            final int y = (within / tilesX) * tileHeight;
+            return new Tile(z, c, t, x, y, Math.min(tileWidth, sizeX - x), Math.min(tileHeight, sizeY - y));
+        }
+    }
+
+    /**
+     * The coordinates of a tile.
+     */
+    private static final class Tile {
+
+        final int z, c, t, x, y, w, h;
+
+        Tile(int z, int c, int t, int x, int y, int w, int h) {
+            this.z = z;
+            this.c = c;
+            this.t = t;
+            this.x = x;
+            this.y = y;
+            this.w = w;
+            this.h = h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Tile)) {
+                return false;
+            }
+            final Tile other = (Tile) o;
+            return z == other.z && c == other.c && t == other.t && x == other.x
+                    && y == other.y && w == other.w && h == other.h;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = z;
+            hash = 31 * hash + c;
+            hash = 31 * hash + t;
+            hash = 31 * hash + x;
+            hash = 31 * hash + y;
+            hash = 31 * hash + w;
+            return 31 * hash + h;
+        }
+    }
+
+    /**
+     * Lets iterations run only in order of {@code tileCount}.
+     */
+    private static final class Sequencer {
+
+        private int next = 0;
+
+        private boolean aborted = false;
+
+        synchronized void await(int tileCount) throws InterruptedException {
+            while (next != tileCount && !aborted) {
+                wait();
+            }
+            if (aborted) {
+                throw new CancellationException("another worker failed");
+            }
+        }
+
+        synchronized void advance() {
+            next++;
+            notifyAll();
+        }
+
+        synchronized void abort() {
+            aborted = true;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Wraps a worker's tile data to count the bytes transferred and to
+     * return prefetched tiles.
+     */
+    private static final class WorkerData implements TileData {
+
+        final TileData data;
+
+        private final AtomicLong bytes;
+
+        private final ExecutorService reader;
+
+        private final Map<Tile, Future<byte[]>> prefetched = new HashMap<Tile, Future<byte[]>>();
+
+        WorkerData(TileData data, AtomicLong bytes, boolean prefetch) {
+            this.data = data;
+            this.bytes = bytes;
+            this.reader = prefetch ? Executors.newSingleThreadExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("TileLoop-Prefetch-%d").setDaemon(true).build())
+                    : null;
+        }
+
+        void prefetch(final Tile tile) {
+            prefetched.put(tile, reader.submit(new Callable<byte[]>() {
+                public byte[] call() {
+                    return data.getTile(tile.z, tile.c, tile.t, tile.x, tile.y, tile.w, tile.h);
+                }
+            }));
+        }
+
+        void discardPrefetched() {
+            for (Future<byte[]> future : prefetched.values()) {
+                future.cancel(false);
+            }
+            prefetched.clear();
+        }
+
+        public byte[] getTile(int z, int c, int t, int x, int y, int w, int h) {
+            final Future<byte[]> future = prefetched.remove(new Tile(z, c, t, x, y, w, h));
+            final byte[] buffer;
+            if (future == null) {
+                buffer = data.getTile(z, c, t, x, y, w, h);
+            } else {
+                try {
+                    buffer = future.get();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("interrupted while reading tile", ie);
+                } catch (ExecutionException ee) {
+                    final Throwable cause = ee.getCause();
+                    throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+                }
+            }
+            if (buffer != null) {
+                bytes.addAndGet(buffer.length);
+            }
+            return buffer;
+        }
+
+        public void setTile(byte[] buffer, int z, int c, int t, int x, int y, int w, int h) {
+            data.setTile(buffer, z, c, t, x, y, w, h);
+            bytes.addAndGet(buffer.length);
+        }
+
+        /**
+         * Stops reading ahead, leaving the tile data open.
+         */
+        void release() {
+            if (reader != null) {
+                discardPrefetched();
+                reader.shutdown();
+                try {
+                    // let any read in progress finish before the data is closed
+                    reader.awaitTermination(1, TimeUnit.MINUTES);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        /**
+         * Left to {@link ParallelTileLoop#close(List)} once every worker has finished.
+         */
+        public void close() {
+            throw new UnsupportedOperationException("closed by the loop");
+        }
+    }
+}
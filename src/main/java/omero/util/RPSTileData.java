@@ -21,6 +21,9 @@ public class RPSTileData implements TileData
 
     final protected RPSTileLoop loop;
 
+    /** If any tile has been set through this instance. */
+    private volatile boolean written = false;
+
     public RPSTileData(RPSTileLoop loop, RawPixelsStorePrx rps) {
         this.loop = loop;
         this.rps = rps;
@@ -36,6 +39,7 @@ public class RPSTileData implements TileData
 
     public void setTile(byte[] buffer, int z, int c, int t, int x, int y, int w, int h) {
         try {
+            written = true;
             rps.setTile(buffer, z, c, t, x, y, w, h);
         } catch (ServerError se) {
             throw new RuntimeException(se);
@@ -52,4 +56,23 @@ public class RPSTileData implements TileData
         }
     }
 
+    /**
+     * @return if any tile has been set through this instance
+     */
+    public boolean isWritten() {
+        return written;
+    }
+
+    /**
+     * Closes the raw pixels store without saving, leaving another instance
+     * to {@link #close()} and save the pixels.
+     */
+    public void closeWithoutSave() {
+        try {
+            rps.close();
+        } catch (ServerError se) {
+            throw new RuntimeException(se);
+        }
+    }
+
 }
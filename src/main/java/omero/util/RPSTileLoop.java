@@ -4,6 +4,9 @@
  */
 package omero.util;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import omero.ClientError;
 import omero.ServerError;
 
@@ -84,13 +87,7 @@ public class RPSTileLoop extends TileLoop {
     public int forEachTile(int tileWidth, int tileHeight,
                            TileLoopIteration iteration) throws ClientError, ServerError {
 
-        if (!pixels.isLoaded()) {
-            try {
-                pixels = getSession().getPixelsService().retrievePixDescription(pixels.getId().getValue());
-            } catch (Exception e) {
-                throw new ClientError("Failed to load " + pixels.getId().getValue() + "\n" + e);
-            }
-        }
+        loadPixels();
 
         final int sizeX = pixels.getSizeX().getValue();
         final int sizeY = pixels.getSizeY().getValue();
@@ -101,4 +98,88 @@ public class RPSTileLoop extends TileLoop {
         return forEachTile(sizeX, sizeY, sizeZ, sizeC, sizeT, tileWidth, tileHeight, iteration);
 
     }
+
+    /**
+     * As {@link #forEachTile(int, int, TileLoopIteration)} but with
+     * several raw pixels stores in use at once.
+     * @see ParallelTileLoop
+     * @param tileWidth <b>Maximum</b> width of the tile requested.
+     * @param tileHeight <b>Maximum</b> height of the tile requested.
+     * @param workers the number of raw pixels stores to use at once
+     * @param prefetch how many tiles each store should read ahead
+     * @param iteration Invoker to call for each tile, from several threads
+     * at once.
+     * @return The total number of tiles iterated over.
+     */
+    public int forEachTile(int tileWidth, int tileHeight, int workers,
+                           int prefetch, TileLoopIteration iteration)
+            throws ClientError, ServerError {
+
+        loadPixels();
+
+        final ParallelTileLoop parallel = new ParallelTileLoop(this, workers) {
+            @Override
+            protected void close(List<TileData> data) {
+                if (!closeSavingOnce(data)) {
+                    super.close(data);
+                }
+            }
+        };
+        parallel.setPrefetch(prefetch);
+        return parallel.forEachTile(pixels.getSizeX().getValue(),
+                pixels.getSizeY().getValue(), pixels.getSizeZ().getValue(),
+                pixels.getSizeC().getValue(), pixels.getSizeT().getValue(),
+                tileWidth, tileHeight, iteration);
+
+    }
+
+    /**
+     * Closes the raw pixels stores of the workers of a {@link ParallelTileLoop}
+     * so that the pixels are saved, and {@link #setPixels(Pixels)} called,
+     * only once: the stores which need not save are closed first, then one
+     * to which tiles were written is closed with a save.
+     * @return if the tile data were closed, i.e., were all {@link RPSTileData}
+     */
+    private boolean closeSavingOnce(List<TileData> data) {
+        RPSTileData saver = null;
+        final List<RPSTileData> others = new ArrayList<RPSTileData>(data.size());
+        for (TileData datum : data) {
+            if (!(datum instanceof RPSTileData)) {
+                return false;
+            }
+            final RPSTileData rps = (RPSTileData) datum;
+            if (saver == null && rps.isWritten()) {
+                saver = rps;
+            } else {
+                others.add(rps);
+            }
+        }
+        RuntimeException failure = null;
+        for (RPSTileData other : others) {
+            try {
+                other.closeWithoutSave();
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (saver != null) {
+            saver.close();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return true;
+    }
+
+    private void loadPixels() throws ClientError {
+        if (!pixels.isLoaded()) {
+            try {
+                pixels = getSession().getPixelsService().retrievePixDescription(pixels.getId().getValue());
+            } catch (Exception e) {
+                throw new ClientError("Failed to load " + pixels.getId().getValue() + "\n" + e);
+            }
+        }
+    }
 }
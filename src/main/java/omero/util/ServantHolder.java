@@ -190,6 +190,10 @@ public class ServantHolder {
         return new ArrayList<String>(servants.keySet());
     }
 
+    public int getServantCount() {
+        return servants.size();
+    }
+
     public String getStatefulServiceCount() {
         String list = "";
         final List<String> servants = getServantList();
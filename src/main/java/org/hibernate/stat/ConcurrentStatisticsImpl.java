@@ -23,9 +23,17 @@
  */
 package org.hibernate.stat;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,6 +49,12 @@ import com.google.common.cache.CacheBuilder;
  * Implementation of {@link Statistics}, as well as {@link StatisticsImplementor}, based on the
  * {@code java.util.concurrent} package introduced in Java 5.
  *
+ * OMERO counts with {@link LongAdder}s so that the threads of a busy server
+ * do not contend on shared counters. The statistics of at most
+ * {@link #MAX_QUERIES} query strings are kept, each as a {@link QueryLatency}
+ * with a histogram of execution times. Only one in {@link #LOG_SAMPLE}
+ * queries, and every query slower than {@link #SLOW_QUERY_TIME}, is logged.
+ *
  * @author Alex Snaps
  */
 public class ConcurrentStatisticsImpl implements Statistics, StatisticsImplementor {
@@ -48,6 +62,21 @@ public class ConcurrentStatisticsImpl implements Statistics, StatisticsImplement
 	private static final Logger log = LoggerFactory.getLogger( ConcurrentStatisticsImpl.class );
 	private static final Logger PERF_LOG = LoggerFactory.getLogger( Statistics.class );
 
+	/**
+	 * The most query strings whose statistics are kept, the least recently used being dropped.
+	 */
+	public static final int MAX_QUERIES = 1000;
+
+	/**
+	 * One in this many queries is logged.
+	 */
+	public static final int LOG_SAMPLE = 100;
+
+	/**
+	 * Queries which take at least this many milliseconds are always logged.
+	 */
+	public static final long SLOW_QUERY_TIME = 1000;
+
         static {
             log.info("OMERO-specific ConcurrentStatisticsImpl");
         }
@@ -56,40 +85,40 @@ public class ConcurrentStatisticsImpl implements Statistics, StatisticsImplement
 
 	private volatile boolean isStatisticsEnabled;
 	private volatile long startTime;
-	private AtomicLong sessionOpenCount = new AtomicLong();
-	private AtomicLong sessionCloseCount = new AtomicLong();
-	private AtomicLong flushCount = new AtomicLong();
-	private AtomicLong connectCount = new AtomicLong();
-
-	private AtomicLong prepareStatementCount = new AtomicLong();
-	private AtomicLong closeStatementCount = new AtomicLong();
-
-	private AtomicLong entityLoadCount = new AtomicLong();
-	private AtomicLong entityUpdateCount = new AtomicLong();
-	private AtomicLong entityInsertCount = new AtomicLong();
-	private AtomicLong entityDeleteCount = new AtomicLong();
-	private AtomicLong entityFetchCount = new AtomicLong();
-	private AtomicLong collectionLoadCount = new AtomicLong();
-	private AtomicLong collectionUpdateCount = new AtomicLong();
-	private AtomicLong collectionRemoveCount = new AtomicLong();
-	private AtomicLong collectionRecreateCount = new AtomicLong();
-	private AtomicLong collectionFetchCount = new AtomicLong();
-
-	private AtomicLong secondLevelCacheHitCount = new AtomicLong();
-	private AtomicLong secondLevelCacheMissCount = new AtomicLong();
-	private AtomicLong secondLevelCachePutCount = new AtomicLong();
-
-	private AtomicLong queryExecutionCount = new AtomicLong();
-	private AtomicLong queryExecutionMaxTime = new AtomicLong();
+	private final LongAdder sessionOpenCount = new LongAdder();
+	private final LongAdder sessionCloseCount = new LongAdder();
+	private final LongAdder flushCount = new LongAdder();
+	private final LongAdder connectCount = new LongAdder();
+
+	private final LongAdder prepareStatementCount = new LongAdder();
+	private final LongAdder closeStatementCount = new LongAdder();
+
+	private final LongAdder entityLoadCount = new LongAdder();
+	private final LongAdder entityUpdateCount = new LongAdder();
+	private final LongAdder entityInsertCount = new LongAdder();
+	private final LongAdder entityDeleteCount = new LongAdder();
+	private final LongAdder entityFetchCount = new LongAdder();
+	private final LongAdder collectionLoadCount = new LongAdder();
+	private final LongAdder collectionUpdateCount = new LongAdder();
+	private final LongAdder collectionRemoveCount = new LongAdder();
+	private final LongAdder collectionRecreateCount = new LongAdder();
+	private final LongAdder collectionFetchCount = new LongAdder();
+
+	private final LongAdder secondLevelCacheHitCount = new LongAdder();
+	private final LongAdder secondLevelCacheMissCount = new LongAdder();
+	private final LongAdder secondLevelCachePutCount = new LongAdder();
+
+	private final LongAdder queryExecutionCount = new LongAdder();
+	private final AtomicLong queryExecutionMaxTime = new AtomicLong();
 	private volatile String queryExecutionMaxTimeQueryString;
-	private AtomicLong queryCacheHitCount = new AtomicLong();
-	private AtomicLong queryCacheMissCount = new AtomicLong();
-	private AtomicLong queryCachePutCount = new AtomicLong();
+	private final LongAdder queryCacheHitCount = new LongAdder();
+	private final LongAdder queryCacheMissCount = new LongAdder();
+	private final LongAdder queryCachePutCount = new LongAdder();
 
-	private AtomicLong committedTransactionCount = new AtomicLong();
-	private AtomicLong transactionCount = new AtomicLong();
+	private final LongAdder committedTransactionCount = new LongAdder();
+	private final LongAdder transactionCount = new LongAdder();
 
-	private AtomicLong optimisticFailureCount = new AtomicLong();
+	private final LongAdder optimisticFailureCount = new LongAdder();
 
 	/**
 	 * second level cache statistics per region
@@ -105,9 +134,10 @@ public class ConcurrentStatisticsImpl implements Statistics, StatisticsImplement
 	 */
 	private final Cache<String, ConcurrentCollectionStatisticsImpl> collectionStatistics = CacheBuilder.newBuilder().build();
 	/**
-	 * entity statistics per query string (HQL or SQL)
+	 * query statistics per query string (HQL or SQL)
 	 */
-	private final Cache<String, ConcurrentQueryStatisticsImpl> queryStatistics = null;
+	private final Cache<String, QueryLatency> queryStatistics =
+	        CacheBuilder.newBuilder().maximumSize( MAX_QUERIES ).build();
 
 	public ConcurrentStatisticsImpl() {
 		clear();
@@ -122,73 +152,73 @@ public class ConcurrentStatisticsImpl implements Statistics, StatisticsImplement
 	 * reset all statistics
 	 */
 	public void clear() {
-		secondLevelCacheHitCount.set( 0 );
-		secondLevelCacheMissCount.set( 0 );
-		secondLevelCachePutCount.set( 0 );
-
-		sessionCloseCount.set( 0 );
-		sessionOpenCount.set( 0 );
-		flushCount.set( 0 );
-		connectCount.set( 0 );
-
-		prepareStatementCount.set( 0 );
-		closeStatementCount.set( 0 );
-
-		entityDeleteCount.set( 0 );
-		entityInsertCount.set( 0 );
-		entityUpdateCount.set( 0 );
-		entityLoadCount.set( 0 );
-		entityFetchCount.set( 0 );
-
-		collectionRemoveCount.set( 0 );
-		collectionUpdateCount.set( 0 );
-		collectionRecreateCount.set( 0 );
-		collectionLoadCount.set( 0 );
-		collectionFetchCount.set( 0 );
-
-		queryExecutionCount.set( 0 );
-		queryCacheHitCount.set( 0 );
+		secondLevelCacheHitCount.reset();
+		secondLevelCacheMissCount.reset();
+		secondLevelCachePutCount.reset();
+
+		sessionCloseCount.reset();
+		sessionOpenCount.reset();
+		flushCount.reset();
+		connectCount.reset();
+
+		prepareStatementCount.reset();
+		closeStatementCount.reset();
+
+		entityDeleteCount.reset();
+		entityInsertCount.reset();
+		entityUpdateCount.reset();
+		entityLoadCount.reset();
+		entityFetchCount.reset();
+
+		collectionRemoveCount.reset();
+		collectionUpdateCount.reset();
+		collectionRecreateCount.reset();
+		collectionLoadCount.reset();
+		collectionFetchCount.reset();
+
+		queryExecutionCount.reset();
+		queryCacheHitCount.reset();
 		queryExecutionMaxTime.set( 0 );
 		queryExecutionMaxTimeQueryString = null;
-		queryCacheMissCount.set( 0 );
-		queryCachePutCount.set( 0 );
+		queryCacheMissCount.reset();
+		queryCachePutCount.reset();
 
-		transactionCount.set( 0 );
-		committedTransactionCount.set( 0 );
+		transactionCount.reset();
+		committedTransactionCount.reset();
 
-		optimisticFailureCount.set( 0 );
+		optimisticFailureCount.reset();
 
 		secondLevelCacheStatistics.invalidateAll();
 		entityStatistics.invalidateAll();
 		collectionStatistics.invalidateAll();
-		// queryStatistics.clear();
+		queryStatistics.invalidateAll();
 
 		startTime = System.currentTimeMillis();
 	}
 
 	public void openSession() {
-		sessionOpenCount.getAndIncrement();
+		sessionOpenCount.increment();
 	}
 
 	public void closeSession() {
-		sessionCloseCount.getAndIncrement();
+		sessionCloseCount.increment();
 	}
 
 	public void flush() {
-		flushCount.getAndIncrement();
+		flushCount.increment();
 	}
 
 	public void connect() {
-		connectCount.getAndIncrement();
+		connectCount.increment();
 	}
 
 	public void loadEntity(String entityName) {
-		entityLoadCount.getAndIncrement();
+		entityLoadCount.increment();
 		( (ConcurrentEntityStatisticsImpl) getEntityStatistics( entityName ) ).incrementLoadCount();
 	}
 
 	public void fetchEntity(String entityName) {
-		entityFetchCount.getAndIncrement();
+		entityFetchCount.increment();
 		( (ConcurrentEntityStatisticsImpl) getEntityStatistics( entityName ) ).incrementFetchCount();
 	}
 
@@ -214,19 +244,19 @@ public class ConcurrentStatisticsImpl implements Statistics, StatisticsImplement
 	}
 
 	public void updateEntity(String entityName) {
-		entityUpdateCount.getAndIncrement();
+		entityUpdateCount.increment();
 		ConcurrentEntityStatisticsImpl es = (ConcurrentEntityStatisticsImpl) getEntityStatistics( entityName );
 		es.incrementUpdateCount();
 	}
 
 	public void insertEntity(String entityName) {
-		entityInsertCount.getAndIncrement();
+		entityInsertCount.increment();
 		ConcurrentEntityStatisticsImpl es = (ConcurrentEntityStatisticsImpl) getEntityStatistics( entityName );
 		es.incrementInsertCount();
 	}
 
 	public void deleteEntity(String entityName) {
-		entityDeleteCount.getAndIncrement();
+		entityDeleteCount.increment();
 		ConcurrentEntityStatisticsImpl es = (ConcurrentEntityStatisticsImpl) getEntityStatistics( entityName );
 		es.incrementDeleteCount();
 	}
@@ -253,27 +283,27 @@ public class ConcurrentStatisticsImpl implements Statistics, StatisticsImplement
 	}
 
 	public void loadCollection(String role) {
-		collectionLoadCount.getAndIncrement();
+		collectionLoadCount.increment();
 		( (ConcurrentCollectionStatisticsImpl) getCollectionStatistics( role ) ).incrementLoadCount();
 	}
 
 	public void fetchCollection(String role) {
-		collectionFetchCount.getAndIncrement();
+		collectionFetchCount.increment();
 		( (ConcurrentCollectionStatisticsImpl) getCollectionStatistics( role ) ).incrementFetchCount();
 	}
 
 	public void updateCollection(String role) {
-		collectionUpdateCount.getAndIncrement();
+		collectionUpdateCount.increment();
 		( (ConcurrentCollectionStatisticsImpl) getCollectionStatistics( role ) ).incrementUpdateCount();
 	}
 
 	public void recreateCollection(String role) {
-		collectionRecreateCount.getAndIncrement();
+		collectionRecreateCount.increment();
 		( (ConcurrentCollectionStatisticsImpl) getCollectionStatistics( role ) ).incrementRecreateCount();
 	}
 
 	public void removeCollection(String role) {
-		collectionRemoveCount.getAndIncrement();
+		collectionRemoveCount.increment();
 		( (ConcurrentCollectionStatisticsImpl) getCollectionStatistics( role ) ).incrementRemoveCount();
 	}
 
@@ -310,40 +340,44 @@ public class ConcurrentStatisticsImpl implements Statistics, StatisticsImplement
     }
 
 	public void secondLevelCachePut(String regionName) {
-		secondLevelCachePutCount.getAndIncrement();
+		secondLevelCachePutCount.increment();
 		( (ConcurrentSecondLevelCacheStatisticsImpl) getSecondLevelCacheStatistics( regionName ) ).incrementPutCount();
 	}
 
 	public void secondLevelCacheHit(String regionName) {
-		secondLevelCacheHitCount.getAndIncrement();
+		secondLevelCacheHitCount.increment();
 		( (ConcurrentSecondLevelCacheStatisticsImpl) getSecondLevelCacheStatistics( regionName ) ).incrementHitCount();
 	}
 
 	public void secondLevelCacheMiss(String regionName) {
-		secondLevelCacheMissCount.getAndIncrement();
+		secondLevelCacheMissCount.increment();
 		( (ConcurrentSecondLevelCacheStatisticsImpl) getSecondLevelCacheStatistics( regionName ) ).incrementMissCount();
 	}
 
 	public void queryExecuted(String hql, int rows, long time) {
-		PERF_LOG.info( "HQL: {}, time: {}ms, rows: {}", new Object[] {hql, Long.valueOf( time ), Long.valueOf(rows)} );
-		queryExecutionCount.getAndIncrement();
+		if ( PERF_LOG.isInfoEnabled()
+				&& ( time >= SLOW_QUERY_TIME || ThreadLocalRandom.current().nextInt( LOG_SAMPLE ) == 0 ) ) {
+			PERF_LOG.info( "HQL: {}, time: {}ms, rows: {}", new Object[] {hql, Long.valueOf( time ), Long.valueOf(rows)} );
+		}
+		queryExecutionCount.increment();
 		boolean isLongestQuery = false;
-		for ( long old = queryExecutionMaxTime.get();
-			  ( time > old ) && ( isLongestQuery = !queryExecutionMaxTime.compareAndSet( old, time ) );
-			  old = queryExecutionMaxTime.get() ) {
-			// nothing to do here given the odd loop structure...
+		for ( long old = queryExecutionMaxTime.get(); time > old; old = queryExecutionMaxTime.get() ) {
+			if ( queryExecutionMaxTime.compareAndSet( old, time ) ) {
+				isLongestQuery = true;
+				break;
+			}
 		}
 		if ( isLongestQuery ) {
 			queryExecutionMaxTimeQueryString = hql;
 		}
 		if ( hql != null ) {
-			ConcurrentQueryStatisticsImpl qs = (ConcurrentQueryStatisticsImpl) getQueryStatistics( hql );
-			qs.executed( rows, time );
+			QueryLatency qs = (QueryLatency) getQueryStatistics( hql );
+			qs.record( rows, time );
 		}
 	}
 
 	public void queryCacheHit(String hql, String regionName) {
-		queryCacheHitCount.getAndIncrement();
+		queryCacheHitCount.increment();
 		if ( hql != null ) {
 			ConcurrentQueryStatisticsImpl qs = (ConcurrentQueryStatisticsImpl) getQueryStatistics( hql );
 			qs.incrementCacheHitCount();
@@ -355,7 +389,7 @@ public class ConcurrentStatisticsImpl implements Statistics, StatisticsImplement
 	}
 
 	public void queryCacheMiss(String hql, String regionName) {
-		queryCacheMissCount.getAndIncrement();
+		queryCacheMissCount.increment();
 		if ( hql != null ) {
 			ConcurrentQueryStatisticsImpl qs = (ConcurrentQueryStatisticsImpl) getQueryStatistics( hql );
 			qs.incrementCacheMissCount();
@@ -367,7 +401,7 @@ public class ConcurrentStatisticsImpl implements Statistics, StatisticsImplement
 	}
 
 	public void queryCachePut(String hql, String regionName) {
-		queryCachePutCount.getAndIncrement();
+		queryCachePutCount.increment();
 		if ( hql != null ) {
 			ConcurrentQueryStatisticsImpl qs = (ConcurrentQueryStatisticsImpl) getQueryStatistics( hql );
 			qs.incrementCachePutCount();
@@ -385,130 +419,162 @@ public class ConcurrentStatisticsImpl implements Statistics, StatisticsImplement
 	 *
 	 * @return QueryStatistics
 	 */
-	public QueryStatistics getQueryStatistics(String queryString) {
-	    /* follow the pattern from other statistics getters should you wish to use a cache */
-	    return new ConcurrentQueryStatisticsImpl( queryString );
+	public QueryStatistics getQueryStatistics(final String queryString) {
+        try {
+            return queryStatistics.get(queryString, new Callable<QueryLatency>() {
+                @Override
+                public QueryLatency call() {
+                    return new QueryLatency(queryString);
+                }
+            });
+        } catch (ExecutionException e) {
+            /* constructor cannot fail */
+            return null;
+        }
+	}
+
+	/**
+	 * The statistics of the queries whose executions are slowest at the 99th percentile
+	 *
+	 * @param limit the most queries to return
+	 *
+	 * @return the slowest queries, slowest first
+	 */
+	public List<QueryLatency> getSlowestQueries(int limit) {
+		final List<QueryLatency> queries = new ArrayList<QueryLatency>( queryStatistics.asMap().values() );
+		final Map<QueryLatency, Long> p99 = new IdentityHashMap<QueryLatency, Long>();
+		for ( QueryLatency query : queries ) {
+			p99.put( query, query.getExecutionTimePercentile( 0.99 ) );
+		}
+		Collections.sort( queries, new Comparator<QueryLatency>() {
+			@Override
+			public int compare(QueryLatency q1, QueryLatency q2) {
+				final int byP99 = Long.compare( p99.get( q2 ), p99.get( q1 ) );
+				return byP99 != 0 ? byP99 : Long.compare( q2.getExecutionMaxTime(), q1.getExecutionMaxTime() );
+			}
+		} );
+		return queries.subList( 0, Math.min( Math.max( limit, 0 ), queries.size() ) );
 	}
 
 	/**
 	 * @return entity deletion count
 	 */
 	public long getEntityDeleteCount() {
-		return entityDeleteCount.get();
+		return entityDeleteCount.sum();
 	}
 
 	/**
 	 * @return entity insertion count
 	 */
 	public long getEntityInsertCount() {
-		return entityInsertCount.get();
+		return entityInsertCount.sum();
 	}
 
 	/**
 	 * @return entity load (from DB)
 	 */
 	public long getEntityLoadCount() {
-		return entityLoadCount.get();
+		return entityLoadCount.sum();
 	}
 
 	/**
 	 * @return entity fetch (from DB)
 	 */
 	public long getEntityFetchCount() {
-		return entityFetchCount.get();
+		return entityFetchCount.sum();
 	}
 
 	/**
 	 * @return entity update
 	 */
 	public long getEntityUpdateCount() {
-		return entityUpdateCount.get();
+		return entityUpdateCount.sum();
 	}
 
 	public long getQueryExecutionCount() {
-		return queryExecutionCount.get();
+		return queryExecutionCount.sum();
 	}
 
 	public long getQueryCacheHitCount() {
-		return queryCacheHitCount.get();
+		return queryCacheHitCount.sum();
 	}
 
 	public long getQueryCacheMissCount() {
-		return queryCacheMissCount.get();
+		return queryCacheMissCount.sum();
 	}
 
 	public long getQueryCachePutCount() {
-		return queryCachePutCount.get();
+		return queryCachePutCount.sum();
 	}
 
 	/**
 	 * @return flush
 	 */
 	public long getFlushCount() {
-		return flushCount.get();
+		return flushCount.sum();
 	}
 
 	/**
 	 * @return session connect
 	 */
 	public long getConnectCount() {
-		return connectCount.get();
+		return connectCount.sum();
 	}
 
 	/**
 	 * @return second level cache hit
 	 */
 	public long getSecondLevelCacheHitCount() {
-		return secondLevelCacheHitCount.get();
+		return secondLevelCacheHitCount.sum();
 	}
 
 	/**
 	 * @return second level cache miss
 	 */
 	public long getSecondLevelCacheMissCount() {
-		return secondLevelCacheMissCount.get();
+		return secondLevelCacheMissCount.sum();
 	}
 
 	/**
 	 * @return second level cache put
 	 */
 	public long getSecondLevelCachePutCount() {
-		return secondLevelCachePutCount.get();
+		return secondLevelCachePutCount.sum();
 	}
 
 	/**
 	 * @return session closing
 	 */
 	public long getSessionCloseCount() {
-		return sessionCloseCount.get();
+		return sessionCloseCount.sum();
 	}
 
 	/**
 	 * @return session opening
 	 */
 	public long getSessionOpenCount() {
-		return sessionOpenCount.get();
+		return sessionOpenCount.sum();
 	}
 
 	/**
 	 * @return collection loading (from DB)
 	 */
 	public long getCollectionLoadCount() {
-		return collectionLoadCount.get();
+		return collectionLoadCount.sum();
 	}
 
 	/**
 	 * @return collection fetching (from DB)
 	 */
 	public long getCollectionFetchCount() {
-		return collectionFetchCount.get();
+		return collectionFetchCount.sum();
 	}
 
 	/**
 	 * @return collection update
 	 */
 	public long getCollectionUpdateCount() {
-		return collectionUpdateCount.get();
+		return collectionUpdateCount.sum();
 	}
 
 	/**
@@ -516,14 +582,14 @@ public class ConcurrentStatisticsImpl implements Statistics, StatisticsImplement
 	 *         FIXME: even if isInverse="true"?
 	 */
 	public long getCollectionRemoveCount() {
-		return collectionRemoveCount.get();
+		return collectionRemoveCount.sum();
 	}
 
 	/**
 	 * @return collection recreation
 	 */
 	public long getCollectionRecreateCount() {
-		return collectionRecreateCount.get();
+		return collectionRecreateCount.sum();
 	}
 
 	/**
@@ -594,7 +660,7 @@ public class ConcurrentStatisticsImpl implements Statistics, StatisticsImplement
 	 * Get all executed query strings
 	 */
 	public String[] getQueries() {
-		return new String[]{}; // ArrayHelper.toStringArray( queryStatistics.keySet() );
+		return ArrayHelper.toStringArray( queryStatistics.asMap().keySet() );
 	}
 
 	/**
@@ -634,43 +700,43 @@ public class ConcurrentStatisticsImpl implements Statistics, StatisticsImplement
 	}
 
 	public void endTransaction(boolean success) {
-		transactionCount.getAndIncrement();
+		transactionCount.increment();
 		if ( success ) {
-			committedTransactionCount.getAndIncrement();
+			committedTransactionCount.increment();
 		}
 	}
 
 	public long getSuccessfulTransactionCount() {
-		return committedTransactionCount.get();
+		return committedTransactionCount.sum();
 	}
 
 	public long getTransactionCount() {
-		return transactionCount.get();
+		return transactionCount.sum();
 	}
 
 	public void closeStatement() {
-		closeStatementCount.getAndIncrement();
+		closeStatementCount.increment();
 	}
 
 	public void prepareStatement() {
-		prepareStatementCount.getAndIncrement();
+		prepareStatementCount.increment();
 	}
 
 	public long getCloseStatementCount() {
-		return closeStatementCount.get();
+		return closeStatementCount.sum();
 	}
 
 	public long getPrepareStatementCount() {
-		return prepareStatementCount.get();
+		return prepareStatementCount.sum();
 	}
 
 	public void optimisticFailure(String entityName) {
-		optimisticFailureCount.getAndIncrement();
+		optimisticFailureCount.increment();
 		( (ConcurrentEntityStatisticsImpl) getEntityStatistics( entityName ) ).incrementOptimisticFailureCount();
 	}
 
 	public long getOptimisticFailureCount() {
-		return optimisticFailureCount.get();
+		return optimisticFailureCount.sum();
 	}
 
 	public String toString() {
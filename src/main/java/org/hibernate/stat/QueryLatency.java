@@ -0,0 +1,112 @@
+/*
+ *   Copyright 2026 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package org.hibernate.stat;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The statistics of one query string, adding to those of
+ * {@link ConcurrentQueryStatisticsImpl} a histogram of execution times from
+ * which {@link ConcurrentStatisticsImpl} reports percentiles. Times below
+ * {@link #EXACT} milliseconds are counted exactly; each larger power of two
+ * is divided into four buckets, so an estimated percentile is within a
+ * quarter of the true time.
+ *
+ * @since 5.8.6
+ */
+public class QueryLatency extends ConcurrentQueryStatisticsImpl {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The times, in milliseconds, below which each has its own bucket. */
+    static final int EXACT = 8;
+
+    /** The bits of each time, after the highest, which select its bucket. */
+    private static final int SUB_BITS = 2;
+
+    private static final int BUCKETS = EXACT + (63 - 3) * (1 << SUB_BITS);
+
+    private final String query;
+
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+    QueryLatency(String query) {
+        super(query);
+        this.query = query;
+    }
+
+    /**
+     * @return the query string, HQL or SQL
+     */
+    public String getQuery() {
+        return query;
+    }
+
+    /**
+     * Counts an execution of the query.
+     * @param rows the rows returned
+     * @param time the execution time in milliseconds
+     */
+    void record(long rows, long time) {
+        executed(rows, time);
+        histogram.incrementAndGet(bucket(time));
+    }
+
+    /**
+     * @param time an execution time in milliseconds
+     * @return the bucket which counts that time
+     */
+    static int bucket(long time) {
+        if (time < EXACT) {
+            return (int) Math.max(0, time);
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(time);
+        final int sub = (int) (time >>> (exponent - SUB_BITS)) & ((1 << SUB_BITS) - 1);
+        return EXACT + ((exponent - 3) << SUB_BITS) + sub;
+    }
+
+    /**
+     * @param bucket a bucket of the histogram
+     * @return the greatest time counted by that bucket
+     */
+    static long upperBound(int bucket) {
+        if (bucket < EXACT) {
+            return bucket;
+        }
+        final int exponent = ((bucket - EXACT) >> SUB_BITS) + 3;
+        final long sub = (bucket - EXACT) & ((1 << SUB_BITS) - 1);
+        final long next = ((1L << SUB_BITS) + sub + 1) << (exponent - SUB_BITS);
+        return next < 0 ? Long.MAX_VALUE : next - 1;
+    }
+
+    /**
+     * Estimates a percentile of the execution time from the histogram.
+     * @param fraction the fraction of executions, e.g. {@code 0.99}
+     * @return the time in milliseconds within which that fraction of
+     * executions completed, or {@code 0} if the query has not been executed
+     */
+    public long getExecutionTimePercentile(double fraction) {
+        final long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            counts[b] = histogram.get(b);
+            total += counts[b];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(fraction * total));
+        final long max = getExecutionMaxTime();
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += counts[b];
+            if (seen >= rank) {
+                return Math.min(upperBound(b), max);
+            }
+        }
+        return max;
+    }
+}
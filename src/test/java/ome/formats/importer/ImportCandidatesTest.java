@@ -269,6 +269,36 @@ public class ImportCandidatesTest {
         FileUtils.deleteQuietly(fakeFolder);
     }
 
+    @Test
+    /**
+     * A subclass overriding the deprecated handleFile of the walk can still
+     * filter the files probed.
+     */
+    @SuppressWarnings("deprecation")
+    public void testHandleFileOverride() {
+        String[] f = new String[] { testFolder.getAbsolutePath() };
+        ImportConfig config = new ImportConfig();
+        IObserver o = new IObserver() {
+            public void update(IObservable importLibrary, ImportEvent event) {
+                // nothing to do
+            }
+        };
+        List<ImportContainer> cons = new ImportCandidates(
+                new OMEROWrapper(config), f, o) {
+            @Override
+            public void handleFile(File file, int depth,
+                    java.util.Collection collection) {
+                if (!file.getName().equals("test_extra.nhdr")) {
+                    super.handleFile(file, depth, collection);
+                }
+            }
+        }.getContainers();
+
+        Assert.assertEquals(1, cons.size(), info(f, cons));
+        Assert.assertEquals(cons.get(0).getFile().getName(), "test.nhdr",
+                info(f, cons));
+    }
+
     /**
      * Creates a ImportCandidates from the provided files and returns its
      * ImportContainers.
@@ -0,0 +1,127 @@
+/*
+ *   Copyright 2026 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.formats.importer;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import omero.util.TempFileManager;
+
+/**
+ * Tests that the results recorded by {@link ScanCache} survive being saved
+ * and are only reused for unchanged files and directories under the same
+ * reader configuration.
+ */
+public class ScanCacheTest {
+
+    private File folder;
+
+    private static final String CONFIGURATION = "level=MINIMUM";
+
+    private File header, data, record;
+
+    @BeforeMethod
+    public void createFiles() throws Exception {
+        folder = TempFileManager.create_path("ScanCacheTest", "", true);
+        header = new File(folder, "test.nhdr");
+        data = new File(folder, "test.raw");
+        record = new File(folder, "scan.cache");
+        FileUtils.writeStringToFile(header, "NRRD0001\n");
+        FileUtils.writeStringToFile(data, "0123");
+    }
+
+    @AfterMethod
+    public void deleteFiles() throws Exception {
+        FileUtils.deleteDirectory(folder);
+    }
+
+    private void probed() {
+        ScanCache cache = ScanCache.load(record.getPath());
+        Assert.assertNull(cache.get(header, CONFIGURATION));
+        cache.put(header, CONFIGURATION, "loci.formats.in.NRRDReader",
+                false, new String[] { header.getAbsolutePath(),
+                        data.getAbsolutePath() });
+        cache.put(data, CONFIGURATION, null, false,
+                new String[] { data.getAbsolutePath() });
+        cache.save();
+    }
+
+    @Test
+    public void testReloaded() {
+        probed();
+        ScanCache cache = ScanCache.load(record.getPath());
+        ScanCache.Result result = cache.get(header, CONFIGURATION);
+        Assert.assertNotNull(result);
+        Assert.assertEquals(result.reader, "loci.formats.in.NRRDReader");
+        Assert.assertFalse(result.isSPW);
+        Assert.assertEquals(result.usedFiles, new String[] {
+                header.getAbsolutePath(), data.getAbsolutePath() });
+        result = cache.get(data, CONFIGURATION);
+        Assert.assertNotNull(result);
+        Assert.assertNull(result.reader);
+    }
+
+    @Test
+    public void testChangedUsedFile() throws Exception {
+        probed();
+        FileUtils.writeStringToFile(data, "012345");
+        ScanCache cache = ScanCache.load(record.getPath());
+        Assert.assertNull(cache.get(header, CONFIGURATION));
+        Assert.assertNull(cache.get(data, CONFIGURATION));
+    }
+
+    /**
+     * A file added beside a probed file may be a companion file which the
+     * reader would now use.
+     */
+    @Test
+    public void testFileAddedToDirectory() throws Exception {
+        probed();
+        FileUtils.writeStringToFile(new File(folder, "test.xml"), "<companion/>");
+        ScanCache cache = ScanCache.load(record.getPath());
+        Assert.assertNull(cache.get(header, CONFIGURATION));
+        Assert.assertNull(cache.get(data, CONFIGURATION));
+    }
+
+    /**
+     * Writing the record itself in the probed directory does not make its
+     * results stale.
+     */
+    @Test
+    public void testRecordInDirectory() {
+        probed();
+        ScanCache cache = ScanCache.load(record.getPath());
+        Assert.assertNotNull(cache.get(header, CONFIGURATION));
+        cache.put(data, CONFIGURATION, null, false,
+                new String[] { data.getAbsolutePath() });
+        cache.save();
+        Assert.assertNotNull(ScanCache.load(record.getPath()).get(header, CONFIGURATION));
+    }
+
+    /**
+     * A result is only reused under the reader configuration with which the
+     * file was probed.
+     */
+    @Test
+    public void testOtherConfiguration() {
+        probed();
+        ScanCache cache = ScanCache.load(record.getPath());
+        Assert.assertNull(cache.get(header, "level=ALL"));
+        Assert.assertNotNull(cache.get(header, CONFIGURATION));
+    }
+
+    @Test
+    public void testUnreadableRecord() throws Exception {
+        FileUtils.writeStringToFile(record, "not a scan cache");
+        ScanCache cache = ScanCache.load(record.getPath());
+        Assert.assertNull(cache.get(header, CONFIGURATION));
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ *   Copyright 2026 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.formats.importer.cli;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that {@link CommandLineImporter} reads the argument of
+ * {@code --upload-window} as a usage error unless it is a positive integer.
+ */
+public class UploadWindowArgumentTest {
+
+    @Test
+    public void testPositive() {
+        Assert.assertEquals(CommandLineImporter.parseUploadWindow("1"), 1);
+        Assert.assertEquals(CommandLineImporter.parseUploadWindow("8"), 8);
+    }
+
+    @Test
+    public void testNotPositive() {
+        Assert.assertEquals(CommandLineImporter.parseUploadWindow("0"), 0);
+        Assert.assertEquals(CommandLineImporter.parseUploadWindow("-3"), 0);
+    }
+
+    @Test
+    public void testNotInteger() {
+        Assert.assertEquals(CommandLineImporter.parseUploadWindow("four"), 0);
+        Assert.assertEquals(CommandLineImporter.parseUploadWindow(""), 0);
+        Assert.assertEquals(CommandLineImporter.parseUploadWindow(null), 0);
+    }
+}
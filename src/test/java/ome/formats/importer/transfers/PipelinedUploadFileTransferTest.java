@@ -0,0 +1,259 @@
+/*
+ *   Copyright 2026 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.formats.importer.transfers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import ome.util.checksum.ChecksumProviderFactoryImpl;
+import ome.util.checksum.ChecksumType;
+import omero.ServerError;
+import omero.api.RawFileStorePrx;
+import omero.model.OriginalFileI;
+
+import org.apache.commons.io.FileUtils;
+import org.jmock.Mock;
+import org.jmock.MockObjectTestCase;
+import org.jmock.core.Invocation;
+import org.jmock.core.Stub;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static omero.rtypes.rlong;
+import static omero.rtypes.rstring;
+
+/**
+ * Tests that {@link PipelinedUploadFileTransfer} keeps its window of writes
+ * outstanding, completes them in the order they were sent and aborts the
+ * transfer when a write fails.
+ *
+ * @since 5.8.6
+ */
+@Test
+public class PipelinedUploadFileTransferTest extends MockObjectTestCase {
+
+    private static final int BLOCK = 16, BLOCKS = 10, WINDOW = 3;
+
+    private File file;
+
+    private byte[] content;
+
+    /** The bytes written to the store, in the order of the writes. */
+    private ByteArrayOutputStream written;
+
+    /** The writes sent and not yet completed, oldest first. */
+    private LinkedList<Ice.AsyncResult> outstanding;
+
+    /** The most writes outstanding at once. */
+    private int mostOutstanding;
+
+    /** The indexes of the writes in the order they were completed. */
+    private List<Integer> completed;
+
+    /** The write whose completion fails, or -1. */
+    private int failing;
+
+    /** The progress reported to the state. */
+    private List<Long> progress;
+
+    private boolean closed;
+
+    @BeforeMethod
+    public void createFile() throws IOException {
+        content = new byte[BLOCK * BLOCKS - 5];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        file = File.createTempFile("PipelinedUploadFileTransferTest", ".bin");
+        FileUtils.writeByteArrayToFile(file, content);
+        written = new ByteArrayOutputStream();
+        outstanding = new LinkedList<Ice.AsyncResult>();
+        mostOutstanding = 0;
+        completed = new ArrayList<Integer>();
+        failing = -1;
+        progress = new ArrayList<Long>();
+        closed = false;
+    }
+
+    @AfterMethod
+    public void deleteFile() {
+        file.delete();
+    }
+
+    /**
+     * Records the writes and the progress rather than notifying an import.
+     */
+    private class RecordingState extends TransferState {
+
+        private final RawFileStorePrx store;
+
+        RecordingState(RawFileStorePrx store) throws IOException, ServerError {
+            super(file, 0, 1, null, null, null,
+                    new ChecksumProviderFactoryImpl().getProvider(ChecksumType.SHA1),
+                    new byte[BLOCK]);
+            this.store = store;
+        }
+
+        @Override
+        public RawFileStorePrx getUploader(String mode) {
+            return store;
+        }
+
+        @Override
+        public void uploadStarted() {
+        }
+
+        @Override
+        public void uploadBytes(long offset) {
+            progress.add(offset);
+        }
+
+        @Override
+        public void uploadComplete(long offset) {
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public void stop(long uploadedBytes) {
+        }
+    }
+
+    private RawFileStorePrx store() {
+        final Mock store = mock(RawFileStorePrx.class);
+        store.stubs().method("write");
+        store.stubs().method("begin_write").will(new Stub() {
+            public Object invoke(Invocation invocation) {
+                final byte[] buf = (byte[]) invocation.parameterValues.get(0);
+                final long offset = (Long) invocation.parameterValues.get(1);
+                final int length = (Integer) invocation.parameterValues.get(2);
+                assertEquals(written.size(), offset);
+                /* the buffer is reused once the write completes */
+                written.write(buf, 0, length);
+                final Ice.AsyncResult result = (Ice.AsyncResult) mock(Ice.AsyncResult.class,
+                        Long.toString(offset / BLOCK)).proxy();
+                outstanding.add(result);
+                mostOutstanding = Math.max(mostOutstanding, outstanding.size());
+                return result;
+            }
+
+            public StringBuffer describeTo(StringBuffer buffer) {
+                return buffer.append("sends a write");
+            }
+        });
+        store.stubs().method("end_write").will(new Stub() {
+            public Object invoke(Invocation invocation) throws Throwable {
+                final Ice.AsyncResult result = (Ice.AsyncResult) invocation.parameterValues.get(0);
+                assertSame("completed out of order", outstanding.poll(), result);
+                final int index = Integer.parseInt(result.toString());
+                completed.add(index);
+                if (index == failing) {
+                    throw new omero.InternalException(null, null, "write " + index + " failed");
+                }
+                return null;
+            }
+
+            public StringBuffer describeTo(StringBuffer buffer) {
+                return buffer.append("completes a write");
+            }
+        });
+        store.stubs().method("save").will(returnValue(saved()));
+        store.stubs().method("close").will(new Stub() {
+            public Object invoke(Invocation invocation) {
+                closed = true;
+                return null;
+            }
+
+            public StringBuffer describeTo(StringBuffer buffer) {
+                return buffer.append("closes the store");
+            }
+        });
+        return (RawFileStorePrx) store.proxy();
+    }
+
+    private static OriginalFileI saved() {
+        final OriginalFileI saved = new OriginalFileI(1L, true);
+        saved.setPath(rstring("/"));
+        saved.setName(rstring("file"));
+        saved.setSize(rlong(0));
+        saved.setHash(rstring(""));
+        return saved;
+    }
+
+    private PipelinedUploadFileTransfer transfer() {
+        final PipelinedUploadFileTransfer transfer = new PipelinedUploadFileTransfer();
+        transfer.setWindow(WINDOW);
+        return transfer;
+    }
+
+    /**
+     * The window of writes is kept outstanding and they are completed in the
+     * order they were sent.
+     */
+    public void testWindow() throws Exception {
+        final RecordingState state = new RecordingState(store());
+        final String checksum = transfer().transfer(state);
+        assertTrue(Arrays.equals(content, written.toByteArray()));
+        assertEquals(WINDOW, mostOutstanding);
+        assertTrue(outstanding.isEmpty());
+        final List<Integer> inOrder = new ArrayList<Integer>();
+        for (int i = 0; i < BLOCKS; i++) {
+            inOrder.add(i);
+        }
+        assertEquals(inOrder, completed);
+        assertEquals(Long.valueOf(content.length), progress.get(progress.size() - 1));
+        assertEquals(new ChecksumProviderFactoryImpl().getProvider(ChecksumType.SHA1)
+                .putBytes(content).checksumAsString(), checksum);
+        assertTrue(closed);
+    }
+
+    /**
+     * A failed write aborts the transfer: no more writes are sent and those
+     * already sent are completed before the store is closed.
+     */
+    public void testFailedWriteAborts() throws Exception {
+        failing = 2;
+        final RecordingState state = new RecordingState(store());
+        try {
+            transfer().transfer(state);
+            fail("expected the failed write to abort the transfer");
+        } catch (omero.InternalException ie) {
+            assertEquals("write 2 failed", ie.message);
+        }
+        /* the write which failed was completed when its buffer was needed */
+        assertEquals(BLOCK * (failing + WINDOW), written.size());
+        assertTrue(outstanding.isEmpty());
+        assertTrue(closed);
+    }
+
+    /**
+     * A window of one waits for each write before sending the next.
+     */
+    public void testWindowOfOne() throws Exception {
+        final PipelinedUploadFileTransfer transfer = new PipelinedUploadFileTransfer();
+        transfer.setWindow(1);
+        transfer.transfer(new RecordingState(store()));
+        assertEquals(1, mostOutstanding);
+        assertTrue(Arrays.equals(content, written.toByteArray()));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testNonPositiveWindow() {
+        new PipelinedUploadFileTransfer().setWindow(0);
+    }
+}
@@ -33,6 +33,7 @@ import ome.xml.model.primitives.PositiveInteger;
 import omero.model.Image;
 import omero.model.ObjectiveSettings;
 import omero.model.Pixels;
+import omero.model.WellSample;
 import omero.api.ServiceFactoryPrx;
 
 import org.testng.Assert;
@@ -124,6 +125,34 @@ public class IObjectContainerStoreTest
 				Pixels.class, IMAGE_INDEX + 1), 1);
 	}
 
+	@Test
+	public void testCachedContainersByIndexPrefix()
+	{
+		for (int well = 0; well < 3; well++)
+		{
+			for (int sample = 0; sample < 4; sample++)
+			{
+				LinkedHashMap<Index, Integer> indexes =
+					new LinkedHashMap<Index, Integer>();
+				indexes.put(Index.PLATE_INDEX, 0);
+				indexes.put(Index.WELL_INDEX, well);
+				indexes.put(Index.WELL_SAMPLE_INDEX, sample);
+				store.getIObjectContainer(WellSample.class, indexes);
+			}
+		}
+		Assert.assertEquals(store.countCachedContainers(WellSample.class), 12);
+		Assert.assertEquals(store.countCachedContainers(WellSample.class, 0), 12);
+		Assert.assertEquals(store.countCachedContainers(WellSample.class, 0, 1), 4);
+		Assert.assertEquals(store.countCachedContainers(WellSample.class, 0, 1, 2), 1);
+		Assert.assertEquals(store.countCachedContainers(WellSample.class, 0, 1, 2, 7), 1);
+		Assert.assertEquals(store.countCachedContainers(WellSample.class, 1), 0);
+		Assert.assertEquals(store.getIObjectContainers(WellSample.class).size(), 12);
+
+		store.removeIObjectContainer(new LSID(WellSample.class, 0, 1, 2));
+		Assert.assertEquals(store.countCachedContainers(WellSample.class, 0, 1), 3);
+		Assert.assertEquals(store.getIObjectContainers(WellSample.class).size(), 11);
+	}
+
 	@Test
 	public void testHasReference()
 	{
@@ -0,0 +1,93 @@
+/*
+ *   Copyright 2026 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.blitz.impl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import ome.conditions.MissingPyramidException;
+import ome.io.nio.PixelBuffer;
+import omero.ServerError;
+
+import org.jmock.Mock;
+import org.jmock.MockObjectTestCase;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that a pyramid still being generated when an image is exported as
+ * TIFF is reported to the client as a {@link omero.MissingPyramidException},
+ * not as an internal error.
+ *
+ * @since 5.8.6
+ */
+@Test
+public class ExportTilesTest extends MockObjectTestCase {
+
+    private static final long PIXELS = 7;
+
+    private PixelBuffer missingPyramid() {
+        final Mock buffer = mock(PixelBuffer.class);
+        buffer.stubs().method("getResolutionLevels").will(returnValue(1));
+        buffer.stubs().method("getTile").will(throwException(
+                new MissingPyramidException("Missing pyramid", PIXELS)));
+        return (PixelBuffer) buffer.proxy();
+    }
+
+    private ExportTiles tiles(ExecutorService executor) {
+        final List<int[]> planes = Collections.singletonList(new int[] {0, 0, 0});
+        return new ExportTiles(executor, Arrays.asList(missingPyramid(), missingPyramid()),
+                planes, new int[] {0}, new int[][] {{100, 100}}, 64, 1);
+    }
+
+    private static void assertMissingPyramid(MissingPyramidException source) {
+        final ServerError error = ExporterI.tiffError(source);
+        assertTrue(error.getClass().getName(), error instanceof omero.MissingPyramidException);
+        final omero.MissingPyramidException mpe = (omero.MissingPyramidException) error;
+        assertEquals(PIXELS, mpe.pixelsID);
+        assertEquals(source.backOff, mpe.backOff);
+        assertTrue(mpe.message, mpe.message.contains("pyramid is generated"));
+        assertEquals(MissingPyramidException.class.getName(), mpe.serverExceptionClass);
+    }
+
+    /**
+     * A missing pyramid fails the read of the first tile as itself.
+     */
+    public void testMissingPyramidReadInThread() {
+        try {
+            tiles(null).next();
+            fail("expected missing pyramid");
+        } catch (MissingPyramidException mpe) {
+            assertMissingPyramid(mpe);
+        }
+    }
+
+    /**
+     * A missing pyramid is not hidden by reading ahead on an executor.
+     */
+    public void testMissingPyramidReadAhead() {
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            tiles(executor).next();
+            fail("expected missing pyramid");
+        } catch (MissingPyramidException mpe) {
+            assertMissingPyramid(mpe);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Other failures remain internal errors.
+     */
+    public void testOtherErrorsInternal() {
+        final ServerError error = ExporterI.tiffError(new IllegalStateException("broken"));
+        assertTrue(error instanceof omero.InternalException);
+        assertEquals("broken", error.message);
+    }
+}
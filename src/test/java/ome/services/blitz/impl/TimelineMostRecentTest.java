@@ -0,0 +1,66 @@
+/*
+ *   Copyright 2026 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.blitz.impl;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that {@link TimelineI#mostRecent(java.util.Collection, int)} keeps
+ * the most recently updated entries, choosing between equally recent ones
+ * by type and ID whatever the order in which they are given.
+ */
+@Test(groups = "unit")
+public class TimelineMostRecentTest {
+
+    private static TimelineI.Entry entry(String type, long id, long update) {
+        return new TimelineI.Entry(type, id, new Timestamp(update));
+    }
+
+    private static List<String> keys(List<TimelineI.Entry> entries) {
+        final List<String> keys = new ArrayList<String>();
+        for (final TimelineI.Entry entry : entries) {
+            keys.add(entry.key + ":" + entry.id);
+        }
+        return keys;
+    }
+
+    @Test
+    public void testMostRecentFirst() {
+        final List<TimelineI.Entry> entries = Arrays.asList(
+                entry("Image", 1, 100), entry("Image", 2, 300),
+                entry("Dataset", 3, 200), entry("Project", 4, 50));
+        Assert.assertEquals(keys(TimelineI.mostRecent(entries, 2)),
+                Arrays.asList("Image:2", "Dataset:3"));
+        Assert.assertEquals(TimelineI.mostRecent(entries, 10).size(), 4);
+        Assert.assertTrue(TimelineI.mostRecent(entries, 0).isEmpty());
+    }
+
+    /**
+     * Of entries updated at the same time, those of the greater type and
+     * ID are kept, in whichever order they are found.
+     */
+    @Test
+    public void testTiesBrokenByTypeAndId() {
+        final List<TimelineI.Entry> entries = new ArrayList<TimelineI.Entry>(Arrays.asList(
+                entry("Image", 1, 100), entry("Image", 2, 100),
+                entry("Dataset", 3, 100), entry("Project", 4, 100),
+                entry("Image", 5, 50)));
+        final List<String> expected = Arrays.asList("Project:4", "Image:2", "Image:1");
+        for (int i = 0; i < 5; i++) {
+            Collections.rotate(entries, 1);
+            Assert.assertEquals(keys(TimelineI.mostRecent(entries, 3)), expected);
+            Collections.reverse(entries);
+            Assert.assertEquals(keys(TimelineI.mostRecent(entries, 3)), expected);
+        }
+    }
+}
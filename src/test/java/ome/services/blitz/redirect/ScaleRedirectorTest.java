@@ -0,0 +1,178 @@
+/*
+ *   Copyright 2026 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.blitz.redirect;
+
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jmock.Mock;
+import org.jmock.MockObjectTestCase;
+import org.testng.annotations.Test;
+
+/**
+ * Tests how {@link ScaleRedirector} scores the load of a node and chooses
+ * the node for a new session.
+ *
+ * @since 5.8.6
+ */
+@Test
+public class ScaleRedirectorTest extends MockObjectTestCase {
+
+    private static final String LOCAL = "local", USER = "user", OTHER = "other";
+
+    private final ScaleRedirector redirector = new ScaleRedirector(null, 25);
+
+    private static Map<String, ScaleRedirector.NodeLoad> loads(Object... uuidsAndLoads) {
+        final Map<String, ScaleRedirector.NodeLoad> loads = new HashMap<String, ScaleRedirector.NodeLoad>();
+        for (int i = 0; i < uuidsAndLoads.length; i += 2) {
+            final String uuid = (String) uuidsAndLoads[i];
+            loads.put(uuid, new ScaleRedirector.NodeLoad(uuid + ":conn", (Integer) uuidsAndLoads[i + 1]));
+        }
+        return loads;
+    }
+
+    private MemoryPoolMXBean pool(MemoryType type, MemoryUsage afterCollection) {
+        final Mock pool = mock(MemoryPoolMXBean.class);
+        pool.stubs().method("getType").will(returnValue(type));
+        pool.stubs().method("getCollectionUsage").will(returnValue(afterCollection));
+        return (MemoryPoolMXBean) pool.proxy();
+    }
+
+    /**
+     * A session is moved only if the other node's load is lower by more
+     * than the hysteresis.
+     */
+    public void testHysteresis() {
+        assertTrue(redirector.isWorthMoving(100, 79));
+        assertFalse(redirector.isWorthMoving(100, 80));
+        assertFalse(redirector.isWorthMoving(100, 100));
+        assertFalse(redirector.isWorthMoving(79, 100));
+        final ScaleRedirector eager = new ScaleRedirector(null, 0);
+        assertTrue(eager.isWorthMoving(100, 89));
+        assertFalse(eager.isWorthMoving(100, 100));
+    }
+
+    /**
+     * Between lightly loaded nodes a session is moved only for a
+     * difference of at least one session.
+     */
+    public void testMinimumMargin() {
+        assertTrue(redirector.isWorthMoving(12, 2));
+        assertFalse(redirector.isWorthMoving(11, 2));
+        assertFalse(new ScaleRedirector(null, 0).isWorthMoving(9, 0));
+    }
+
+    /**
+     * A user is kept on the node of their other sessions unless another
+     * node is worth moving to.
+     */
+    public void testStickiness() {
+        assertEquals(USER, redirector.chooseNode(loads(LOCAL, 90, USER, 100, OTHER, 85), LOCAL, USER));
+        assertEquals(OTHER, redirector.chooseNode(loads(LOCAL, 90, USER, 100, OTHER, 50), LOCAL, USER));
+        assertEquals(USER, redirector.chooseNode(loads(LOCAL, 200, USER, 100), LOCAL, USER));
+    }
+
+    /**
+     * Without other sessions the local node is kept unless another node
+     * is worth moving to.
+     */
+    public void testLocalPreferred() {
+        assertEquals(LOCAL, redirector.chooseNode(loads(LOCAL, 100, OTHER, 85), LOCAL, null));
+        assertEquals(OTHER, redirector.chooseNode(loads(LOCAL, 100, OTHER, 60), LOCAL, null));
+        /* the user's node is no longer active */
+        assertEquals(LOCAL, redirector.chooseNode(loads(LOCAL, 100, OTHER, 85), LOCAL, USER));
+    }
+
+    /**
+     * An unhealthy node is left: for the local node if it was the user's,
+     * otherwise for the least loaded healthy node.
+     */
+    public void testUnhealthyLeft() {
+        assertEquals(LOCAL, redirector.chooseNode(
+                loads(LOCAL, 100, USER, ScaleRedirector.UNHEALTHY, OTHER, 95), LOCAL, USER));
+        assertEquals(OTHER, redirector.chooseNode(
+                loads(LOCAL, ScaleRedirector.UNHEALTHY, OTHER, 500), LOCAL, null));
+        assertEquals(LOCAL, redirector.chooseNode(
+                loads(LOCAL, ScaleRedirector.UNHEALTHY, OTHER, ScaleRedirector.UNHEALTHY), LOCAL, null));
+    }
+
+    /**
+     * Sessions redirected to a node add to its published load until it
+     * publishes a different load, so that the sessions started between its
+     * publications are spread.
+     */
+    public void testRedirectsAddedUntilPublished() {
+        final ScaleRedirector redirector = new ScaleRedirector(null, 25);
+        final String third = "third";
+        redirector.redirected(OTHER, 50);
+        redirector.redirected(OTHER, 50);
+        redirector.redirected(OTHER, 50);
+        Map<String, ScaleRedirector.NodeLoad> loads = redirector.withRedirects(loads(OTHER, 50, third, 60));
+        assertEquals(80, loads.get(OTHER).load);
+        assertEquals(OTHER + ":conn", loads.get(OTHER).conn);
+        assertEquals(60, loads.get(third).load);
+        loads.put(LOCAL, new ScaleRedirector.NodeLoad(LOCAL + ":conn", 100));
+        assertEquals(third, redirector.chooseNode(loads, LOCAL, null));
+
+        /* the node has published a load counting the sessions */
+        loads = redirector.withRedirects(loads(OTHER, 75, third, 60));
+        assertEquals(75, loads.get(OTHER).load);
+        loads = redirector.withRedirects(loads(OTHER, 50, third, 60));
+        assertEquals(50, loads.get(OTHER).load);
+    }
+
+    /**
+     * Redirected sessions do not make an unhealthy node healthy, and are
+     * forgotten for nodes which are no longer active.
+     */
+    public void testRedirectsOfUnhealthyAndInactiveNodes() {
+        final ScaleRedirector redirector = new ScaleRedirector(null, 25);
+        redirector.redirected(OTHER, ScaleRedirector.UNHEALTHY);
+        assertEquals(ScaleRedirector.UNHEALTHY, redirector.withRedirects(
+                loads(OTHER, ScaleRedirector.UNHEALTHY)).get(OTHER).load);
+        redirector.redirected(USER, 10);
+        assertTrue(redirector.withRedirects(loads(OTHER, 20)).containsKey(OTHER));
+        assertEquals(10, redirector.withRedirects(loads(USER, 10)).get(USER).load);
+    }
+
+    /**
+     * Queued calls add to the load whichever throttling strategy queued
+     * them and a nearly full heap marks the node unhealthy.
+     */
+    public void testScore() {
+        assertEquals(0, ScaleRedirector.score(0, 0, 0, 0));
+        assertEquals(35, ScaleRedirector.score(2, 5, 1, 0));
+        assertTrue(ScaleRedirector.score(2, 5, 3, 0) > ScaleRedirector.score(2, 5, 1, 0));
+        assertEquals(53, ScaleRedirector.score(2, 5, 1, 0.5));
+        assertEquals(ScaleRedirector.UNHEALTHY, ScaleRedirector.score(0, 0, 0, 0.95));
+    }
+
+    /**
+     * Heap use is taken from the fullest heap pool as left by its last
+     * collection, not from the heap's current use.
+     */
+    public void testHeapUseAfterCollection() {
+        final double heap = ScaleRedirector.heapUse(Arrays.asList(
+                pool(MemoryType.HEAP, new MemoryUsage(0, 0, 100, 100)),
+                pool(MemoryType.HEAP, new MemoryUsage(0, 300, 800, 1000)),
+                pool(MemoryType.HEAP, null),
+                pool(MemoryType.NON_HEAP, new MemoryUsage(0, 99, 100, 100))));
+        assertEquals(0.3, heap, 1e-9);
+    }
+
+    /**
+     * A pool without a maximum is measured against its committed size.
+     */
+    public void testHeapUseWithoutMaximum() {
+        final double heap = ScaleRedirector.heapUse(Arrays.asList(
+                pool(MemoryType.HEAP, new MemoryUsage(0, 50, 200, -1))));
+        assertEquals(0.25, heap, 1e-9);
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ *   Copyright 2026 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.blitz.repo;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import loci.formats.FormatTools;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that {@link PixelDataStatistics#updateMinMax(byte[], int, boolean, double[])}
+ * reads each pixel type as Bio-Formats does.
+ */
+@Test(groups = "unit")
+public class PixelDataStatisticsTest {
+
+    private static double[] empty() {
+        return new double[] {Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+    }
+
+    private static ByteBuffer buffer(int bytes, boolean littleEndian) {
+        return ByteBuffer.allocate(bytes).order(
+                littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+    }
+
+    private static void assertMinMax(byte[] buf, int pixelType, boolean littleEndian,
+            double min, double max) {
+        final double[] minMax = empty();
+        PixelDataStatistics.updateMinMax(buf, pixelType, littleEndian, minMax);
+        Assert.assertEquals(minMax[0], min);
+        Assert.assertEquals(minMax[1], max);
+    }
+
+    @Test
+    public void testUint8() {
+        assertMinMax(new byte[] {5, (byte) 200, 0, 17}, FormatTools.UINT8, true, 0, 200);
+    }
+
+    @Test
+    public void testInt8() {
+        assertMinMax(new byte[] {5, (byte) 200, 0, 17}, FormatTools.INT8, true, -56, 17);
+    }
+
+    @Test
+    public void testUint16BothEndians() {
+        for (final boolean littleEndian : new boolean[] {true, false}) {
+            final ByteBuffer bb = buffer(6, littleEndian);
+            bb.putShort((short) 1).putShort((short) 65000).putShort((short) 300);
+            assertMinMax(bb.array(), FormatTools.UINT16, littleEndian, 1, 65000);
+        }
+    }
+
+    @Test
+    public void testInt16() {
+        final ByteBuffer bb = buffer(6, false);
+        bb.putShort((short) -300).putShort((short) 12).putShort((short) 32767);
+        assertMinMax(bb.array(), FormatTools.INT16, false, -300, 32767);
+    }
+
+    @Test
+    public void testUint32() {
+        final ByteBuffer bb = buffer(8, true);
+        bb.putInt(7).putInt((int) 4000000000L);
+        assertMinMax(bb.array(), FormatTools.UINT32, true, 7, 4000000000L);
+    }
+
+    @Test
+    public void testInt32() {
+        final ByteBuffer bb = buffer(8, false);
+        bb.putInt(-70000).putInt(70000);
+        assertMinMax(bb.array(), FormatTools.INT32, false, -70000, 70000);
+    }
+
+    @Test
+    public void testFloatAndDouble() {
+        final ByteBuffer floats = buffer(8, true);
+        floats.putFloat(-1.5f).putFloat(2.25f);
+        assertMinMax(floats.array(), FormatTools.FLOAT, true, -1.5, 2.25);
+        final ByteBuffer doubles = buffer(16, false);
+        doubles.putDouble(1e100).putDouble(-1e-3);
+        assertMinMax(doubles.array(), FormatTools.DOUBLE, false, -1e-3, 1e100);
+    }
+
+    /**
+     * A partial pixel at the end of the buffer is ignored.
+     */
+    @Test
+    public void testTrailingBytesIgnored() {
+        final ByteBuffer bb = buffer(3, true);
+        bb.putShort((short) 10).put((byte) 99);
+        assertMinMax(bb.array(), FormatTools.UINT16, true, 10, 10);
+    }
+
+    /**
+     * The range is only ever widened across calls.
+     */
+    @Test
+    public void testRangeWidened() {
+        final double[] minMax = empty();
+        PixelDataStatistics.updateMinMax(new byte[] {10, 20}, FormatTools.UINT8, true, minMax);
+        PixelDataStatistics.updateMinMax(new byte[] {15, 30}, FormatTools.UINT8, true, minMax);
+        PixelDataStatistics.updateMinMax(new byte[] {12}, FormatTools.UINT8, true, minMax);
+        Assert.assertEquals(minMax[0], 10.0);
+        Assert.assertEquals(minMax[1], 30.0);
+    }
+
+    @Test
+    public void testEmptyBufferLeavesRange() {
+        final double[] minMax = empty();
+        PixelDataStatistics.updateMinMax(new byte[0], FormatTools.UINT16, true, minMax);
+        Assert.assertEquals(minMax[0], Double.POSITIVE_INFINITY);
+        Assert.assertEquals(minMax[1], Double.NEGATIVE_INFINITY);
+    }
+
+    @Test(expectedExceptions = RuntimeException.class)
+    public void testUnknownType() {
+        PixelDataStatistics.updateMinMax(new byte[1], -1, true, empty());
+    }
+}
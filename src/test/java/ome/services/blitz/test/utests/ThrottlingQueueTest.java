@@ -0,0 +1,147 @@
+/*
+ *   Copyright 2026 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.blitz.test.utests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import ome.conditions.TryAgain;
+import ome.services.throttling.Queue;
+import ome.services.throttling.Task;
+import ome.system.OmeroContext;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the fairness and bounds of the throttling {@link Queue}.
+ */
+public class ThrottlingQueueTest {
+
+    static class NamedTask extends Task {
+
+        final String name;
+
+        Throwable failure;
+
+        NamedTask(String name) {
+            super(null, null, true);
+            this.name = name;
+        }
+
+        @Override
+        public void run(OmeroContext ctx) {
+            // no-op
+        }
+
+        @Override
+        protected void exception(Throwable ex, OmeroContext ctx) {
+            failure = ex;
+        }
+    }
+
+    private List<String> drain(Queue q) throws InterruptedException {
+        final List<String> names = new ArrayList<String>();
+        Task t;
+        while ((t = q.poll(0, TimeUnit.MILLISECONDS)) != null) {
+            names.add(((NamedTask) t).name);
+        }
+        return names;
+    }
+
+    @Test
+    public void testRoundRobinAcrossUsers() throws Exception {
+        Queue q = new Queue(null);
+        q.offer("busy", "s1", new NamedTask("b1"));
+        q.offer("busy", "s1", new NamedTask("b2"));
+        q.offer("busy", "s1", new NamedTask("b3"));
+        q.offer("quiet", "s2", new NamedTask("q1"));
+        Assert.assertEquals(drain(q), Arrays.asList("b1", "q1", "b2", "b3"));
+    }
+
+    @Test
+    public void testRoundRobinAcrossSessionsOfOneUser() throws Exception {
+        Queue q = new Queue(null);
+        q.offer("u", "s1", new NamedTask("a1"));
+        q.offer("u", "s1", new NamedTask("a2"));
+        q.offer("u", "s2", new NamedTask("b1"));
+        q.offer("u", "s2", new NamedTask("b2"));
+        Assert.assertEquals(drain(q), Arrays.asList("a1", "b1", "a2", "b2"));
+    }
+
+    @Test
+    public void testSessionBoundRejects() throws Exception {
+        Queue q = new Queue(null, 10, 1, 500L);
+        NamedTask first = new NamedTask("first");
+        NamedTask second = new NamedTask("second");
+        NamedTask other = new NamedTask("other");
+        Assert.assertTrue(q.offer("u", "s1", first));
+        Assert.assertFalse(q.offer("u", "s1", second));
+        Assert.assertTrue(q.offer("u", "s2", other));
+        Assert.assertNull(first.failure);
+        Assert.assertTrue(second.failure instanceof TryAgain);
+        Assert.assertEquals(((TryAgain) second.failure).backOff, 500L);
+        Assert.assertEquals(q.getRejected(), 1L);
+        Assert.assertEquals(q.size(), 2);
+    }
+
+    @Test
+    public void testTotalBoundRejects() throws Exception {
+        Queue q = new Queue(null, 1, 10, 0L);
+        Assert.assertTrue(q.offer("u1", "s1", new NamedTask("a")));
+        NamedTask rejected = new NamedTask("b");
+        Assert.assertFalse(q.offer("u2", "s2", rejected));
+        Assert.assertTrue(rejected.failure instanceof TryAgain);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testSessionCapacityMustBePositive() {
+        new Queue(null, 10, 0, 0L);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testCapacityMustBePositive() {
+        new Queue(null, 0, 10, 0L);
+    }
+
+    /**
+     * A rejected task leaves no empty session to be polled.
+     */
+    @Test
+    public void testRejectionLeavesNoEmptySession() throws Exception {
+        Queue q = new Queue(null, 1, 1, 0L);
+        Assert.assertTrue(q.offer("u1", "s1", new NamedTask("a")));
+        Assert.assertFalse(q.offer("u2", "s2", new NamedTask("b")));
+        Assert.assertFalse(q.offer("u1", "s1", new NamedTask("c")));
+        Assert.assertEquals(drain(q), Arrays.asList("a"));
+        Assert.assertTrue(q.offer("u2", "s2", new NamedTask("d")));
+        Assert.assertEquals(drain(q), Arrays.asList("d"));
+    }
+
+    @Test
+    public void testDestroyCancelsWaiting() throws Exception {
+        Queue q = new Queue(null);
+        NamedTask waiting = new NamedTask("w");
+        q.offer("u", "s", waiting);
+        q.destroy();
+        Assert.assertNotNull(waiting.failure);
+        Assert.assertNull(q.take());
+        Assert.assertEquals(q.size(), 0);
+    }
+
+    @Test
+    public void testWaitMetrics() throws Exception {
+        Queue q = new Queue(null);
+        q.offer("u", "s", new NamedTask("a"));
+        Thread.sleep(5);
+        Assert.assertNotNull(q.take());
+        Assert.assertEquals(q.getTaken(), 1L);
+        Assert.assertTrue(q.getMaxWaitMillis() >= 5.0);
+        Assert.assertTrue(q.getMeanWaitMillis() > 0.0);
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ *   Copyright 2026 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.blitz.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ome.services.blitz.fire.Registry;
+import ome.services.util.Executor;
+import ome.system.Principal;
+import omero.grid.InternalRepositoryPrx;
+import omero.grid.RepositoryPrx;
+import omero.grid.TablesPrx;
+import omero.model.OriginalFile;
+import omero.model.OriginalFileI;
+
+import org.jmock.Mock;
+import org.jmock.MockObjectTestCase;
+import org.jmock.core.Invocation;
+import org.jmock.core.Stub;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that {@link ResourceDirectory#refresh()} lists the services which
+ * respond, marks those which do not as unhealthy until they respond again
+ * and lists the repositories which do not respond only to callers who may
+ * read them.
+ *
+ * @since 5.8.6
+ */
+@Test
+public class ResourceDirectoryTest extends MockObjectTestCase {
+
+    private static final Principal REPO = new Principal("repo"), USER = new Principal("user");
+
+    /** The IDs of the repositories which are registered in the database. */
+    private static final List<Long> KNOWN = Arrays.asList(1L, 2L, 3L);
+
+    /** The names of the services which are not responding. */
+    private Set<String> down;
+
+    /** The repositories which each principal may read. */
+    private Map<String, List<Long>> readable;
+
+    /** The principals as which the database was queried. */
+    private List<String> queriedAs;
+
+    private Ice.AsyncResult asyncResult;
+
+    private RepositoryPrx repositoryProxy;
+
+    @BeforeMethod
+    public void setUp() {
+        down = new HashSet<String>();
+        readable = new HashMap<String, List<Long>>();
+        readable.put(REPO.getName(), KNOWN);
+        readable.put(USER.getName(), Collections.<Long>emptyList());
+        queriedAs = new ArrayList<String>();
+        asyncResult = (Ice.AsyncResult) mock(Ice.AsyncResult.class).proxy();
+        repositoryProxy = (RepositoryPrx) mock(RepositoryPrx.class).proxy();
+    }
+
+    /**
+     * Returns a value, or times out if the service is down.
+     */
+    private class Probe implements Stub {
+
+        private final String name;
+
+        private final Object value;
+
+        Probe(String name, Object value) {
+            this.name = name;
+            this.value = value;
+        }
+
+        public Object invoke(Invocation invocation) {
+            if (down.contains(name)) {
+                throw new Ice.InvocationTimeoutException();
+            }
+            return value;
+        }
+
+        public StringBuffer describeTo(StringBuffer buffer) {
+            return buffer.append("probes ").append(name);
+        }
+    }
+
+    /**
+     * Queries the repositories which the principal may read.
+     */
+    private class Query implements Stub {
+
+        public Object invoke(Invocation invocation) {
+            Principal principal = null;
+            for (final Object parameter : invocation.parameterValues) {
+                if (parameter instanceof Principal) {
+                    principal = (Principal) parameter;
+                }
+            }
+            queriedAs.add(principal.getName());
+            final List<ome.model.core.OriginalFile> files = new ArrayList<ome.model.core.OriginalFile>();
+            for (final Long id : readable.get(principal.getName())) {
+                final ome.model.core.OriginalFile file = new ome.model.core.OriginalFile(id, true);
+                file.setName("repo" + id);
+                file.setPath("/");
+                file.setMimetype("Repository");
+                files.add(file);
+            }
+            return files;
+        }
+
+        public StringBuffer describeTo(StringBuffer buffer) {
+            return buffer.append("queries the repositories");
+        }
+    }
+
+    private InternalRepositoryPrx repository(long id) {
+        final String name = "repo" + id;
+        final Mock repo = mock(InternalRepositoryPrx.class, name);
+        final InternalRepositoryPrx prx = (InternalRepositoryPrx) repo.proxy();
+        repo.stubs().method("ice_invocationTimeout").will(returnValue(prx));
+        repo.stubs().method("begin_getDescription").will(returnValue(asyncResult));
+        repo.stubs().method("begin_getProxy").will(returnValue(asyncResult));
+        repo.stubs().method("end_getDescription").will(new Probe(name, new OriginalFileI(id, true)));
+        repo.stubs().method("end_getProxy").will(new Probe(name, repositoryProxy));
+        return prx;
+    }
+
+    private TablesPrx tables(String name) {
+        final Mock tables = mock(TablesPrx.class, name);
+        final TablesPrx prx = (TablesPrx) tables.proxy();
+        tables.stubs().method("ice_invocationTimeout").will(returnValue(prx));
+        tables.stubs().method("begin_getRepository").will(returnValue(asyncResult));
+        tables.stubs().method("end_getRepository").will(new Probe(name, repositoryProxy));
+        return prx;
+    }
+
+    private ResourceDirectory directory(InternalRepositoryPrx[] repos, TablesPrx[] tables) {
+        final Mock registry = mock(Registry.class);
+        registry.stubs().method("lookupRepositories").will(returnValue(repos));
+        registry.stubs().method("lookupTables").will(returnValue(tables));
+        final Mock executor = mock(Executor.class);
+        executor.stubs().method("execute").will(new Query());
+        return new ResourceDirectory((Registry) registry.proxy(),
+                (Executor) executor.proxy(), REPO, 1000);
+    }
+
+    private static List<Long> ids(ResourceDirectory.Snapshot snapshot) {
+        final List<Long> ids = new ArrayList<Long>();
+        for (final OriginalFile desc : snapshot.descriptions) {
+            ids.add(desc.getId().getValue());
+        }
+        return ids;
+    }
+
+    /**
+     * The repositories which respond are listed with their proxies, the
+     * others known to the database without.
+     */
+    public void testRefresh() {
+        final ResourceDirectory directory = directory(
+                new InternalRepositoryPrx[] {repository(1), null, repository(2)},
+                new TablesPrx[0]);
+        down.add("repo2");
+        directory.refresh();
+        final ResourceDirectory.Snapshot snapshot = directory.get();
+        assertEquals(Arrays.asList(1L, 2L, 3L), ids(snapshot));
+        assertSame(repositoryProxy, snapshot.proxies.get(0));
+        assertNull(snapshot.proxies.get(1));
+        assertNull(snapshot.proxies.get(2));
+        assertEquals(Collections.singletonList(REPO.getName()), queriedAs);
+    }
+
+    /**
+     * Only the tables services which respond are listed.
+     */
+    public void testRefreshTables() {
+        final TablesPrx up = tables("up"), slow = tables("slow");
+        final ResourceDirectory directory = directory(new InternalRepositoryPrx[0],
+                new TablesPrx[] {slow, up});
+        down.add("slow");
+        directory.refresh();
+        assertEquals(Collections.singletonList(up), directory.get().tables);
+        assertTrue(directory.isUnhealthy("slow"));
+        assertFalse(directory.isUnhealthy("up"));
+    }
+
+    /**
+     * A service is unhealthy while it does not respond.
+     */
+    public void testUnhealthyUntilResponding() {
+        final ResourceDirectory directory = directory(
+                new InternalRepositoryPrx[] {repository(1), repository(2)},
+                new TablesPrx[] {tables("tables")});
+        down.add("repo2");
+        down.add("tables");
+        directory.refresh();
+        assertFalse(directory.isUnhealthy("repo1"));
+        assertTrue(directory.isUnhealthy("repo2"));
+        assertTrue(directory.isUnhealthy("tables"));
+        assertTrue(directory.get().tables.isEmpty());
+
+        down.remove("repo2");
+        directory.refresh();
+        assertFalse(directory.isUnhealthy("repo2"));
+        assertTrue(directory.isUnhealthy("tables"));
+        assertSame(repositoryProxy, directory.get().proxies.get(1));
+
+        down.clear();
+        directory.refresh();
+        assertFalse(directory.isUnhealthy("tables"));
+        assertEquals(1, directory.get().tables.size());
+    }
+
+    /**
+     * Only the services which failed the last refresh are unhealthy.
+     */
+    public void testMarkUnhealthy() {
+        final ResourceDirectory directory = directory(null, null);
+        directory.markUnhealthy(new HashSet<String>(Arrays.asList("a", "b")));
+        assertTrue(directory.isUnhealthy("a"));
+        assertTrue(directory.isUnhealthy("b"));
+        directory.markUnhealthy(Collections.singleton("b"));
+        assertFalse(directory.isUnhealthy("a"));
+        assertTrue(directory.isUnhealthy("b"));
+        directory.markUnhealthy(Collections.<String>emptySet());
+        assertFalse(directory.isUnhealthy("b"));
+    }
+
+    /**
+     * A caller is listed the repositories which respond and those which do
+     * not only if the caller may read them.
+     */
+    public void testFilteredForCaller() {
+        final ResourceDirectory directory = directory(
+                new InternalRepositoryPrx[] {repository(1)}, new TablesPrx[0]);
+        readable.put(USER.getName(), Collections.singletonList(3L));
+        directory.refresh();
+        final ResourceDirectory.Snapshot snapshot = directory.get(
+                Collections.<String, String>emptyMap(), USER);
+        assertEquals(Arrays.asList(1L, 3L), ids(snapshot));
+        assertSame(repositoryProxy, snapshot.proxies.get(0));
+        assertNull(snapshot.proxies.get(1));
+        assertEquals(Arrays.asList(REPO.getName(), USER.getName()), queriedAs);
+        /* the directory itself is not filtered */
+        assertEquals(KNOWN, ids(directory.get()));
+    }
+
+    /**
+     * The database is not queried for a caller if every repository known
+     * to it responds.
+     */
+    public void testNoQueryWhenAllRespond() {
+        readable.put(REPO.getName(), Arrays.asList(1L, 2L));
+        final ResourceDirectory directory = directory(
+                new InternalRepositoryPrx[] {repository(1), repository(2)},
+                new TablesPrx[0]);
+        directory.refresh();
+        queriedAs.clear();
+        assertEquals(Arrays.asList(1L, 2L), ids(directory.get(
+                Collections.<String, String>emptyMap(), USER)));
+        assertTrue(queriedAs.isEmpty());
+    }
+}
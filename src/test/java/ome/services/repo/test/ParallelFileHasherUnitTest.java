@@ -0,0 +1,85 @@
+/*
+ *   Copyright 2026 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.repo.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import ome.services.blitz.repo.ParallelFileHasher;
+import ome.util.checksum.ChecksumProvider;
+import ome.util.checksum.ChecksumProviderFactory;
+import ome.util.checksum.ChecksumProviderFactoryImpl;
+import ome.util.checksum.ChecksumType;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests that {@link ParallelFileHasher} agrees with hashing in memory.
+ */
+@Test(groups = { "repo" })
+public class ParallelFileHasherUnitTest extends AbstractRepoUnitTest {
+
+    private final ChecksumProviderFactory factory = new ChecksumProviderFactoryImpl();
+
+    private File write(String name, byte[] data) throws Exception {
+        final File file = new File(tmpRepo, name);
+        try (final FileOutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+        return file;
+    }
+
+    private byte[] random(int size) {
+        final byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    private String expected(ChecksumType type, byte[] data) {
+        final ChecksumProvider provider = factory.getProvider(type);
+        provider.putBytes(data);
+        return provider.checksumAsString();
+    }
+
+    public void testSmallAndLargeFiles() throws Exception {
+        final byte[] empty = new byte[0];
+        final byte[] small = random(12345);
+        final byte[] large = random(3 * ParallelFileHasher.CHUNK_SIZE + 54321);
+        final List<ParallelFileHasher.Job> jobs = Arrays.asList(
+                new ParallelFileHasher.Job(1, write("empty", empty), ChecksumType.SHA1),
+                new ParallelFileHasher.Job(2, write("small", small), ChecksumType.SHA1, ChecksumType.MD5),
+                new ParallelFileHasher.Job(3, write("large", large), ChecksumType.SHA1, ChecksumType.MD5));
+        final List<ParallelFileHasher.Result> results = new ParallelFileHasher(factory, 2, 0).hash(jobs);
+        assertEquals(3, results.size());
+        assertEquals(1L, results.get(0).job.id);
+        assertEquals(expected(ChecksumType.SHA1, empty), results.get(0).hashes[0]);
+        assertEquals(expected(ChecksumType.SHA1, small), results.get(1).hashes[0]);
+        assertEquals(expected(ChecksumType.MD5, small), results.get(1).hashes[1]);
+        assertEquals(expected(ChecksumType.SHA1, large), results.get(2).hashes[0]);
+        assertEquals(expected(ChecksumType.MD5, large), results.get(2).hashes[1]);
+        assertEquals((long) large.length, results.get(2).size);
+    }
+
+    public void testMissingFile() throws Exception {
+        final ParallelFileHasher.Job job =
+                new ParallelFileHasher.Job(1, new File(tmpRepo, "missing"), ChecksumType.SHA1);
+        final ParallelFileHasher.Result result = new ParallelFileHasher(factory, 1, 0).hash(job);
+        assertNotNull(result.error);
+        assertNull(result.hashes);
+    }
+
+    public void testRateLimit() throws Exception {
+        final File file = write("limited", random(1 << 20));
+        final ParallelFileHasher slow = new ParallelFileHasher(factory, 1, 1 << 20);
+        slow.hash(new ParallelFileHasher.Job(1, file, ChecksumType.SHA1));
+        final long before = System.nanoTime();
+        slow.hash(new ParallelFileHasher.Job(1, file, ChecksumType.SHA1));
+        assertTrue(System.nanoTime() - before >= 900000000L);
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ *   Copyright 2026 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.roi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.SQLQuery;
+import org.hibernate.Session;
+import org.jmock.Mock;
+import org.jmock.MockObjectTestCase;
+import org.jmock.core.Invocation;
+import org.jmock.core.Stub;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that {@link ShapeIndex} finds the shapes whose bounding boxes
+ * intersect a viewport and applies the changes noted in the event log,
+ * including those committed late, without rebuilding the image's index.
+ * Also tests {@link ShapeIndex#simplifyPoints(String, double)}.
+ *
+ * @since 5.8.6
+ */
+@Test(groups = { "rois" })
+public class ShapeIndexTest extends MockObjectTestCase {
+
+    private static final long IMAGE = 1, OTHER_IMAGE = 2;
+
+    private static final String RECTANGLE = ome.model.roi.Rectangle.class.getName();
+
+    private static final String ROI = ome.model.roi.Roi.class.getName();
+
+    private static final String TRANSFORM = ome.model.roi.AffineTransform.class.getName();
+
+    /** The rows of the shape table, as selected by the index. */
+    private List<Object[]> shapes;
+
+    /** The image of each ROI. */
+    private Map<Long, Long> roiImages;
+
+    /** The shape of each affine transform. */
+    private Map<Long, Long> transformShapes;
+
+    /** The committed rows of the event log. */
+    private List<Object[]> eventLog;
+
+    /** How often every shape of an image was loaded. */
+    private int fullLoads;
+
+    private Session session;
+
+    private ShapeIndex index;
+
+    @BeforeMethod
+    protected void beforeMethod() {
+        shapes = new ArrayList<Object[]>();
+        roiImages = new HashMap<Long, Long>();
+        transformShapes = new HashMap<Long, Long>();
+        eventLog = new ArrayList<Object[]>();
+        fullLoads = 0;
+        final Mock sessionMock = mock(Session.class);
+        sessionMock.stubs().method("createSQLQuery").will(new Answer() {
+            public Object invoke(Invocation invocation) {
+                return query((String) invocation.parameterValues.get(0));
+            }
+        });
+        session = (Session) sessionMock.proxy();
+        index = new ShapeIndex(4, 16);
+    }
+
+    /**
+     * Answers a call on a mock.
+     */
+    private abstract static class Answer implements Stub {
+
+        public StringBuffer describeTo(StringBuffer buffer) {
+            return buffer.append("answers");
+        }
+    }
+
+    /**
+     * @return a query of the rows of {@link #shapes} and {@link #eventLog}
+     */
+    private SQLQuery query(final String sql) {
+        final Mock queryMock = mock(SQLQuery.class);
+        final Map<String, Object> parameters = new HashMap<String, Object>();
+        final int[] maxResults = new int[1];
+        final Answer parameter = new Answer() {
+            public Object invoke(Invocation invocation) {
+                parameters.put((String) invocation.parameterValues.get(0), invocation.parameterValues.get(1));
+                return queryMock.proxy();
+            }
+        };
+        queryMock.stubs().method("setParameter").will(parameter);
+        queryMock.stubs().method("setParameterList").will(parameter);
+        queryMock.stubs().method("setMaxResults").will(new Answer() {
+            public Object invoke(Invocation invocation) {
+                maxResults[0] = (Integer) invocation.parameterValues.get(0);
+                return queryMock.proxy();
+            }
+        });
+        queryMock.stubs().method("uniqueResult").will(new Answer() {
+            public Object invoke(Invocation invocation) {
+                Long max = null;
+                for (final Object[] row : eventLog) {
+                    if (max == null || (Long) row[0] > max) {
+                        max = (Long) row[0];
+                    }
+                }
+                return max;
+            }
+        });
+        queryMock.stubs().method("list").will(new Answer() {
+            public Object invoke(Invocation invocation) {
+                if (sql.contains("FROM eventlog")) {
+                    return changes((Long) parameters.get("from"), (Collection<?>) parameters.get("types"),
+                            maxResults[0]);
+                }
+                if (sql.contains("transform IN")) {
+                    final List<Long> transformed = new ArrayList<Long>();
+                    for (final Object transform : (Collection<?>) parameters.get("transforms")) {
+                        if (transformShapes.containsKey(transform)) {
+                            transformed.add(transformShapes.get(transform));
+                        }
+                    }
+                    return transformed;
+                }
+                return shapes((Long) parameters.get("id"), (Collection<?>) parameters.get("ids"),
+                        (Collection<?>) parameters.get("rois"));
+            }
+        });
+        return (SQLQuery) queryMock.proxy();
+    }
+
+    private List<Object[]> changes(long from, Collection<?> types, int maxResults) {
+        final List<Object[]> changes = new ArrayList<Object[]>();
+        for (final Object[] row : eventLog) {
+            if ((Long) row[0] > from && types.contains(row[1])) {
+                changes.add(row);
+            }
+        }
+        Collections.sort(changes, new Comparator<Object[]>() {
+            public int compare(Object[] a, Object[] b) {
+                return Long.compare((Long) a[0], (Long) b[0]);
+            }
+        });
+        return maxResults > 0 && changes.size() > maxResults ? changes.subList(0, maxResults) : changes;
+    }
+
+    private List<Object[]> shapes(long imageId, Collection<?> ids, Collection<?> rois) {
+        if (ids == null && rois == null) {
+            fullLoads++;
+        }
+        final List<Object[]> selected = new ArrayList<Object[]>();
+        for (final Object[] row : shapes) {
+            if (roiImages.get(row[21]) != imageId) {
+                continue;
+            }
+            if ((ids == null && rois == null) || (ids != null && ids.contains(row[0]))
+                    || (rois != null && rois.contains(row[21]))) {
+                selected.add(row);
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Adds a rectangle to the shape table.
+     * @param z the Z-section or {@code null} for all
+     */
+    private Object[] rectangle(long id, long roi, Integer z, double x, double y, double w, double h) {
+        final Object[] row = new Object[22];
+        row[0] = id;
+        row[1] = "rectangle";
+        row[2] = z;
+        row[3] = 0;
+        row[10] = x;
+        row[11] = y;
+        row[12] = w;
+        row[13] = h;
+        row[21] = roi;
+        shapes.add(row);
+        return row;
+    }
+
+    private void log(long id, String type, long entityId) {
+        eventLog.add(new Object[] {id, type, entityId});
+    }
+
+    private List<Long> find(int z, double x, double y, double w, double h) {
+        return index.find(session, IMAGE, z, 0, x, y, w, h);
+    }
+
+    /**
+     * The shapes found are those intersecting the viewport on the plane or
+     * on every plane, including shapes too large for the grid's cells.
+     */
+    public void testFindInViewport() {
+        roiImages.put(10L, IMAGE);
+        rectangle(1, 10, 0, 0, 0, 10, 10);
+        rectangle(2, 10, 0, 100, 100, 5, 5);
+        rectangle(3, 10, 1, 0, 0, 10, 10);
+        rectangle(4, 10, null, 40, 40, 2, 2);
+        /* spans far more cells than are kept for one shape */
+        rectangle(5, 10, 0, -500, -500, 1000, 1000);
+        assertEquals(Arrays.asList(1L, 5L), find(0, 5, 5, 2, 2));
+        assertEquals(Arrays.asList(3L), find(1, 5, 5, 2, 2));
+        assertEquals(Arrays.asList(2L, 5L), find(0, 102, 102, 50, 50));
+        assertEquals(Arrays.asList(1L, 2L, 4L, 5L), find(0, 0, 0, 200, 200));
+        assertEquals(Arrays.asList(4L), find(7, 41, 41, 0, 0));
+        assertEquals(Collections.emptyList(), find(0, 600, 600, 10, 10));
+        assertEquals(1, fullLoads);
+    }
+
+    /**
+     * A boundary of the viewport touching a shape finds it.
+     */
+    public void testFindAtCellBoundaries() {
+        roiImages.put(10L, IMAGE);
+        rectangle(1, 10, 0, 16, 16, 16, 16);
+        assertEquals(Arrays.asList(1L), find(0, 0, 0, 16, 16));
+        assertEquals(Arrays.asList(1L), find(0, 32, 32, 16, 16));
+        assertEquals(Collections.emptyList(), find(0, 33, 0, 16, 40));
+    }
+
+    /**
+     * A changed shape alone is reloaded.
+     */
+    public void testShapeChangeApplied() {
+        roiImages.put(10L, IMAGE);
+        final Object[] moved = rectangle(1, 10, 0, 0, 0, 10, 10);
+        rectangle(2, 10, 0, 0, 0, 10, 10);
+        log(1, RECTANGLE, 1);
+        assertEquals(Arrays.asList(1L, 2L), find(0, 0, 0, 10, 10));
+        moved[10] = 200.0;
+        log(2, RECTANGLE, 1);
+        assertEquals(Arrays.asList(2L), find(0, 0, 0, 10, 10));
+        assertEquals(Arrays.asList(1L), find(0, 200, 0, 10, 10));
+        shapes.remove(moved);
+        log(3, RECTANGLE, 1);
+        assertEquals(Collections.emptyList(), find(0, 200, 0, 10, 10));
+        assertEquals(1, fullLoads);
+    }
+
+    /**
+     * A ROI moved to another image or created reloads only its shapes.
+     */
+    public void testRoiChangeScopedToImage() {
+        roiImages.put(10L, IMAGE);
+        roiImages.put(11L, IMAGE);
+        rectangle(1, 10, 0, 0, 0, 10, 10);
+        rectangle(2, 11, 0, 0, 0, 10, 10);
+        assertEquals(Arrays.asList(1L, 2L), find(0, 0, 0, 10, 10));
+        roiImages.put(10L, OTHER_IMAGE);
+        log(1, ROI, 10);
+        assertEquals(Arrays.asList(2L), find(0, 0, 0, 10, 10));
+        roiImages.put(12L, IMAGE);
+        rectangle(3, 12, 0, 5, 5, 1, 1);
+        log(2, ROI, 12);
+        log(3, RECTANGLE, 3);
+        assertEquals(Arrays.asList(2L, 3L), find(0, 0, 0, 10, 10));
+        assertEquals(1, fullLoads);
+    }
+
+    /**
+     * A change committed after a later row of the event log was seen is
+     * still applied.
+     */
+    public void testLateCommitApplied() {
+        roiImages.put(10L, IMAGE);
+        final Object[] late = rectangle(1, 10, 0, 0, 0, 10, 10);
+        log(5, RECTANGLE, 1);
+        assertEquals(Arrays.asList(1L), find(0, 0, 0, 10, 10));
+        rectangle(2, 10, 0, 0, 0, 10, 10);
+        log(8, RECTANGLE, 2);
+        assertEquals(Arrays.asList(1L, 2L), find(0, 0, 0, 10, 10));
+        /* the transaction allocated 7 before 8 but committed after it */
+        late[11] = 300.0;
+        log(7, RECTANGLE, 1);
+        assertEquals(Arrays.asList(2L), find(0, 0, 0, 10, 10));
+        assertEquals(Arrays.asList(1L), find(0, 0, 300, 10, 10));
+        assertEquals(1, fullLoads);
+    }
+
+    /**
+     * Rows of the event log already applied are not applied again.
+     */
+    public void testAppliedChangesSkipped() {
+        roiImages.put(10L, IMAGE);
+        final Object[] shape = rectangle(1, 10, 0, 0, 0, 10, 10);
+        log(1, RECTANGLE, 1);
+        assertEquals(Arrays.asList(1L), find(0, 0, 0, 10, 10));
+        /* a change not logged is not seen while the log is unchanged */
+        shape[10] = 500.0;
+        assertEquals(Arrays.asList(1L), find(0, 0, 0, 10, 10));
+        log(2, RECTANGLE, 1);
+        assertEquals(Collections.emptyList(), find(0, 0, 0, 10, 10));
+    }
+
+    /**
+     * A changed transform reloads the shape which has it, not a shape which
+     * has the transform's ID.
+     */
+    public void testTransformChangeApplied() {
+        roiImages.put(10L, IMAGE);
+        final Object[] transformed = rectangle(1, 10, 0, 0, 0, 10, 10);
+        final Object[] unlogged = rectangle(2, 10, 0, 0, 0, 10, 10);
+        transformShapes.put(2L, 1L);
+        assertEquals(Arrays.asList(1L, 2L), find(0, 0, 0, 10, 10));
+        /* translate by (100, 0) */
+        transformed[4] = 1.0;
+        transformed[5] = 0.0;
+        transformed[6] = 0.0;
+        transformed[7] = 1.0;
+        transformed[8] = 100.0;
+        transformed[9] = 0.0;
+        unlogged[10] = 500.0;
+        log(1, TRANSFORM, 2);
+        assertEquals(Arrays.asList(2L), find(0, 0, 0, 10, 10));
+        assertEquals(Arrays.asList(1L), find(0, 100, 0, 10, 10));
+        assertEquals(1, fullLoads);
+    }
+
+    /**
+     * Points on the line between their neighbors are removed.
+     */
+    public void testSimplifyCollinear() {
+        assertEquals("0.0,0.0 10.0,0.0", ShapeIndex.simplifyPoints("0,0 2,0 5,0 10,0", 0.5));
+        assertEquals("0.0,0.0 5.0,5.0 10.0,0.0",
+                ShapeIndex.simplifyPoints("0,0 2.5,2.5 5,5 7.5,2.5 10,0", 0.5));
+    }
+
+    /**
+     * Points further from the outline than the tolerance are kept.
+     */
+    public void testSimplifyTolerance() {
+        final String points = "0,0 5,1 10,0";
+        assertEquals("0.0,0.0 10.0,0.0", ShapeIndex.simplifyPoints(points, 2));
+        assertEquals(points, ShapeIndex.simplifyPoints(points, 0.5));
+    }
+
+    /**
+     * Points which cannot be simplified are returned as given.
+     */
+    public void testSimplifyUnchanged() {
+        assertNull(ShapeIndex.simplifyPoints(null, 1));
+        assertEquals("0,0 10,0", ShapeIndex.simplifyPoints("0,0 10,0", 1));
+        final String older = "points[0,0, 2,0, 10,0] points1[0,0, 2,0, 10,0]";
+        assertEquals(older, ShapeIndex.simplifyPoints(older, 1));
+        assertEquals("0,0 x,y 1,1", ShapeIndex.simplifyPoints("0,0 x,y 1,1", 1));
+    }
+
+    public void testParsePoints() {
+        assertTrue(Arrays.equals(new double[] {1, 2, 3.5, -4},
+                ShapeIndex.parsePoints(" 1,2  3.5,-4 ")));
+        assertTrue(Arrays.equals(new double[] {1, 2, 3, 4},
+                ShapeIndex.parsePoints("points[1,2, 3,4] points1[1,2, 3,4]")));
+        assertNull(ShapeIndex.parsePoints(null));
+        assertNull(ShapeIndex.parsePoints("1,a"));
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ *   Copyright 2026 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.roi;
+
+import java.awt.Dimension;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import ome.conditions.ApiUsageException;
+import ome.io.nio.PixelBuffer;
+import omero.model.SmartShape;
+
+import org.jmock.Mock;
+import org.jmock.MockObjectTestCase;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that {@link ShapeStatistics} reads the tiles of the buffer's grid
+ * that hold a shape's points, each once, and accumulates the same values
+ * whether or not the planes are measured in parallel.
+ *
+ * @since 5.8.6
+ */
+@Test(groups = { "rois" })
+public class ShapeStatisticsTest extends MockObjectTestCase {
+
+    private static final int SIZE_X = 50, SIZE_Y = 40, SIZE_Z = 3;
+
+    private static final int TILE = 16;
+
+    private final GeomTool geomTool = new GeomTool(null, null, null);
+
+    /** The value of each pixel. */
+    private static double value(int x, int y, int z, int c) {
+        return 100000 * z + 10000 * c + 100 * y + x;
+    }
+
+    /**
+     * Reads tiles whose pixels hold {@link #value(int, int, int, int)},
+     * recording each read.
+     */
+    private class TilePixelData extends PixelData {
+
+        final List<int[]> reads = Collections.synchronizedList(new ArrayList<int[]>());
+
+        TilePixelData() {
+            super(null, null);
+        }
+
+        @Override
+        public PixelBuffer getBuffer(long pix) {
+            return buffer();
+        }
+
+        @Override
+        public ome.util.PixelData getTile(PixelBuffer buf, int z, int c, int t,
+                int x, int y, int w, int h) {
+            reads.add(new int[] {z, c, t, x, y, w, h});
+            final ByteBuffer bytes = ByteBuffer.allocate(w * h * 8);
+            for (int row = 0; row < h; row++) {
+                for (int column = 0; column < w; column++) {
+                    bytes.putDouble(value(x + column, y + row, z, c));
+                }
+            }
+            return new ome.util.PixelData("double", bytes);
+        }
+    }
+
+    private PixelBuffer buffer() {
+        final Mock buffer = mock(PixelBuffer.class);
+        buffer.stubs().method("getTileSize").will(returnValue(new Dimension(TILE, TILE)));
+        buffer.stubs().method("getSizeX").will(returnValue(SIZE_X));
+        buffer.stubs().method("getSizeY").will(returnValue(SIZE_Y));
+        buffer.stubs().method("getSizeZ").will(returnValue(SIZE_Z));
+        buffer.stubs().method("getSizeC").will(returnValue(2));
+        buffer.stubs().method("getSizeT").will(returnValue(1));
+        buffer.stubs().method("close");
+        return (PixelBuffer) buffer.proxy();
+    }
+
+    private ShapeStatistics.Mask rectangle(int x, int y, int w, int h) {
+        return ShapeStatistics.Mask.of((SmartShape) geomTool.rect(x, y, w, h));
+    }
+
+    /**
+     * @return the statistics of the mask's points computed one by one
+     */
+    private static ShapeStatistics.Accumulator expected(ShapeStatistics.Plane plane) {
+        final ShapeStatistics.Accumulator expected = new ShapeStatistics.Accumulator();
+        final ShapeStatistics.Mask mask = plane.mask;
+        for (int s = 0; s < mask.ys.length; s++) {
+            for (int x = mask.startXs[s]; x <= mask.endXs[s]; x++) {
+                expected.add(value(x, mask.ys[s], plane.z, plane.c));
+            }
+        }
+        return expected;
+    }
+
+    /**
+     * @return the number of points in the mask
+     */
+    private static int points(ShapeStatistics.Mask mask) {
+        int points = 0;
+        for (int s = 0; s < mask.ys.length; s++) {
+            points += mask.endXs[s] - mask.startXs[s] + 1;
+        }
+        return points;
+    }
+
+    /**
+     * @return the number of points reported by the shape
+     */
+    private static int points(SmartShape shape) {
+        final int[] points = new int[1];
+        shape.areaPoints(new SmartShape.PointCallback() {
+            public void handle(int x, int y) {
+                points[0]++;
+            }
+        });
+        return points[0];
+    }
+
+    private static void assertResult(ShapeStatistics.Plane plane) {
+        final ShapeStatistics.Accumulator expected = expected(plane);
+        assertTrue(expected.count > 0);
+        assertEquals(expected.count, plane.result.count);
+        assertEquals(expected.min, plane.result.min);
+        assertEquals(expected.max, plane.result.max);
+        assertEquals(expected.sum, plane.result.sum);
+        assertEquals(expected.sumOfSquares, plane.result.sumOfSquares);
+    }
+
+    /**
+     * A shape with an area is held as one span per row rather than point by
+     * point.
+     */
+    public void testRectangleHeldAsSpans() {
+        final ShapeStatistics.Mask mask = rectangle(3, 7, 40, 25);
+        assertEquals(25, mask.ys.length);
+        for (int s = 0; s < mask.ys.length; s++) {
+            assertEquals(7 + s, mask.ys[s]);
+            assertEquals(3, mask.startXs[s]);
+            assertEquals(42, mask.endXs[s]);
+        }
+        assertEquals(40 * 25, points(mask));
+    }
+
+    /**
+     * Points reported out of order are sorted into rows, and every point
+     * reported is kept.
+     */
+    public void testLineSortedIntoRows() {
+        final SmartShape line = (SmartShape) geomTool.ln(30, 20, 2, 2);
+        final ShapeStatistics.Mask mask = ShapeStatistics.Mask.of(line);
+        for (int s = 1; s < mask.ys.length; s++) {
+            assertTrue(mask.ys[s - 1] < mask.ys[s]
+                    || mask.ys[s - 1] == mask.ys[s] && mask.startXs[s - 1] <= mask.startXs[s]);
+        }
+        assertEquals(2, mask.minY);
+        assertEquals(20, mask.maxY);
+        assertEquals(points(line), points(mask));
+        final TilePixelData data = new TilePixelData();
+        final ShapeStatistics.Plane plane = new ShapeStatistics.Plane(mask, 0, 0, 0);
+        ShapeStatistics.measure(data, buffer(), plane);
+        assertResult(plane);
+    }
+
+    /**
+     * A point reported more than once is counted each time.
+     */
+    public void testRepeatedPointsKept() {
+        final SmartShape shape = new omero.model.SmartPointI() {
+            @Override
+            public void areaPoints(PointCallback cb) {
+                cb.handle(4, 6);
+                cb.handle(5, 6);
+                cb.handle(5, 6);
+                cb.handle(6, 6);
+            }
+        };
+        final ShapeStatistics.Mask mask = ShapeStatistics.Mask.of(shape);
+        assertEquals(4, points(mask));
+        final ShapeStatistics.Plane plane = new ShapeStatistics.Plane(mask, 0, 0, 0);
+        ShapeStatistics.measure(new TilePixelData(), buffer(), plane);
+        assertEquals(4, plane.result.count);
+        assertEquals(value(4, 6, 0, 0) + 2 * value(5, 6, 0, 0) + value(6, 6, 0, 0), plane.result.sum);
+    }
+
+    /**
+     * Clipping to the image shortens the spans which cross its edges.
+     */
+    public void testClip() {
+        final ShapeStatistics.Mask mask = rectangle(-5, 30, 20, 20).clip(SIZE_X, SIZE_Y);
+        assertEquals(SIZE_Y - 30, mask.ys.length);
+        assertEquals(0, mask.minX);
+        assertEquals(14, mask.maxX);
+        assertEquals(SIZE_Y - 1, mask.maxY);
+        assertEquals(15 * (SIZE_Y - 30), points(mask));
+    }
+
+    /**
+     * Tiles are read at the positions of the buffer's grid, clipped only by
+     * the image, not at the corner of the shape's bounding box.
+     */
+    public void testTilesAlignedToGrid() {
+        final TilePixelData data = new TilePixelData();
+        final ShapeStatistics.Plane plane = new ShapeStatistics.Plane(rectangle(10, 5, 30, 30), 1, 0, 0);
+        ShapeStatistics.measure(data, buffer(), plane);
+        assertResult(plane);
+        final Set<String> seen = new HashSet<String>();
+        for (final int[] read : data.reads) {
+            final int x = read[3], y = read[4], w = read[5], h = read[6];
+            assertEquals(0, x % TILE);
+            assertEquals(0, y % TILE);
+            assertEquals(Math.min(TILE, SIZE_X - x), w);
+            assertEquals(Math.min(TILE, SIZE_Y - y), h);
+            assertTrue("tile read twice", seen.add(x + "," + y));
+        }
+        /* the shape spans three columns and three rows of tiles */
+        assertEquals(9, seen.size());
+    }
+
+    /**
+     * Only the tiles which hold points are read.
+     */
+    public void testOnlyTilesWithPointsRead() {
+        final TilePixelData data = new TilePixelData();
+        final ShapeStatistics.Plane plane = new ShapeStatistics.Plane(rectangle(20, 20, 5, 5), 0, 1, 0);
+        ShapeStatistics.measure(data, buffer(), plane);
+        assertResult(plane);
+        assertEquals(1, data.reads.size());
+        assertEquals(16, data.reads.get(0)[3]);
+        assertEquals(16, data.reads.get(0)[4]);
+    }
+
+    public void testEmptyMaskReadsNothing() {
+        final TilePixelData data = new TilePixelData();
+        final ShapeStatistics.Mask empty = rectangle(-20, -20, 5, 5).clip(SIZE_X, SIZE_Y);
+        assertTrue(empty.isEmpty());
+        final ShapeStatistics.Plane plane = new ShapeStatistics.Plane(empty, 0, 0, 0);
+        ShapeStatistics.measure(data, buffer(), plane);
+        assertEquals(0, plane.result.count);
+        assertTrue(data.reads.isEmpty());
+    }
+
+    /**
+     * Measuring on an executor gives the same results as on the calling
+     * thread.
+     */
+    public void testParallelMatchesSequential() {
+        final ShapeStatistics.Mask mask = rectangle(3, 7, 40, 25);
+        final List<ShapeStatistics.Plane> sequential = new ArrayList<ShapeStatistics.Plane>();
+        final List<ShapeStatistics.Plane> parallel = new ArrayList<ShapeStatistics.Plane>();
+        for (int c = 0; c < 2; c++) {
+            for (int z = 0; z < SIZE_Z; z++) {
+                sequential.add(new ShapeStatistics.Plane(mask, z, c, 0));
+                parallel.add(new ShapeStatistics.Plane(mask, z, c, 0));
+            }
+        }
+        ShapeStatistics.measure(null, new TilePixelData(), 1, sequential);
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            ShapeStatistics.measure(executor, new TilePixelData(), 1, parallel);
+        } finally {
+            executor.shutdownNow();
+        }
+        for (int p = 0; p < sequential.size(); p++) {
+            assertResult(sequential.get(p));
+            assertEquals(sequential.get(p).result.sum, parallel.get(p).result.sum);
+            assertEquals(sequential.get(p).result.count, parallel.get(p).result.count);
+        }
+    }
+
+    /**
+     * A plane beyond the image fails as reading by row did.
+     */
+    public void testPlaneOutOfRange() {
+        final PixelData data = new PixelData(null, null);
+        try {
+            data.getTile(buffer(), SIZE_Z, 0, 0, 0, 0, TILE, TILE);
+            fail("expected out of bounds");
+        } catch (ApiUsageException aue) {
+            assertTrue(aue.getMessage().startsWith("DimensionsOutOfBounds"));
+        }
+    }
+}
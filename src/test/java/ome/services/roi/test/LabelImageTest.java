@@ -0,0 +1,72 @@
+/*
+ *   Copyright 2026 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.roi.test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import ome.model.roi.Mask;
+import ome.services.roi.LabelImage;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the masks read from label images by {@link LabelImage}.
+ */
+@Test(groups = { "rois" })
+public class LabelImageTest {
+
+    private static byte[] png(BufferedImage image) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testColorMasks() throws Exception {
+        final BufferedImage image = new BufferedImage(10, 6, BufferedImage.TYPE_INT_RGB);
+        /* red: an L from (1,1) to (3,2) */
+        image.setRGB(1, 1, 0xff0000);
+        image.setRGB(1, 2, 0xff0000);
+        image.setRGB(2, 2, 0xff0000);
+        image.setRGB(3, 2, 0xff0000);
+        /* green: a single point */
+        image.setRGB(8, 5, 0x00ff00);
+        final LabelImage labels = LabelImage.read(png(image));
+        Assert.assertEquals(labels.size(), 2);
+        final List<Mask> masks = labels.asMasks(3, 4);
+        /* ordered by label, so green before red */
+        final Mask green = masks.get(0);
+        Assert.assertEquals(green.getX(), 8.0);
+        Assert.assertEquals(green.getY(), 5.0);
+        Assert.assertEquals(green.getWidth(), 1.0);
+        Assert.assertEquals(green.getHeight(), 1.0);
+        Assert.assertEquals(green.getBytes(), new byte[] {(byte) 0x80});
+        final Mask red = masks.get(1);
+        Assert.assertEquals(red.getX(), 1.0);
+        Assert.assertEquals(red.getY(), 1.0);
+        Assert.assertEquals(red.getWidth(), 3.0);
+        Assert.assertEquals(red.getHeight(), 2.0);
+        Assert.assertEquals((int) red.getTheZ(), 3);
+        Assert.assertEquals((int) red.getTheT(), 4);
+        /* 100 111 */
+        Assert.assertEquals(red.getBytes(), new byte[] {(byte) 0x9c});
+    }
+
+    @Test
+    public void testGrayLabels() throws Exception {
+        final BufferedImage image = new BufferedImage(300, 2, BufferedImage.TYPE_USHORT_GRAY);
+        for (int x = 0; x < 300; x++) {
+            image.getRaster().setSample(x, 0, 0, x + 1);
+        }
+        final LabelImage labels = LabelImage.read(png(image));
+        Assert.assertEquals(labels.size(), 300);
+    }
+}
@@ -282,6 +282,35 @@ public class MeasurementStoreUnitTest extends MockObjectTestCase {
 
     }
 
+    public void testRowsWrittenInBatches() throws Exception {
+
+        Column[] cols = new Column[] { new StringColumn(), new LongColumn() };
+        initialize(cols);
+        data(cols, 2);
+        data(cols, 1);
+
+        final long[] written = new long[1];
+        mea = new MeasurementStore(update, table, 2, 2);
+        ((MeasurementStore) mea).setProgress(new MeasurementStore.Progress() {
+            public void written(long rows, long objects) {
+                written[0] = rows;
+            }
+        });
+        mea.initialize(new String[] { "roi_lsid", "value_1" }, new String[] {},
+                new Class[] { String.class, Long.class }, null);
+        mea.addRows(new Object[][] {//
+                new Object[] { "Roi:1", 1L },//
+                        new Object[] { "Roi:2", 0L } //
+                });
+        assertEquals(2L, written[0]);
+        mea.addRows(new Object[][] {//
+                new Object[] { "Roi:3", 1L } //
+                });
+        mea.save();
+        assertEquals(3L, written[0]);
+
+    }
+
     public void testMetadata() throws Exception {
 
         Map<String, Object> metadata = new HashMap<String, Object>();
@@ -0,0 +1,172 @@
+/*
+ *   Copyright 2026 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package omero;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import omero.api.RawFileStorePrx;
+
+import org.jmock.Mock;
+import org.jmock.MockObjectTestCase;
+import org.jmock.core.Invocation;
+import org.jmock.core.Stub;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests where {@link client#download(long, File, int, boolean)} starts
+ * reading a file and that a short read fails the download.
+ *
+ * @since 5.8.6
+ */
+@Test
+public class ClientDownloadTest extends MockObjectTestCase {
+
+    private static final long FILE_ID = 3;
+
+    private static final int BLOCK = 4;
+
+    /** The content of the remote file. */
+    private static final byte[] REMOTE = "0123456789abcdefghijklmnopqrstuvwxyz".getBytes();
+
+    private File local;
+
+    /** The offsets and lengths of the reads from the store. */
+    private List<long[]> reads;
+
+    @BeforeMethod
+    public void createLocal() throws IOException {
+        local = File.createTempFile("download", ".bin");
+        reads = new ArrayList<long[]>();
+    }
+
+    @AfterMethod
+    public void deleteLocal() {
+        local.delete();
+    }
+
+    /**
+     * Serves reads of {@link #REMOTE}, the read at the given offset being
+     * one byte short.
+     */
+    private RawFileStorePrx store(final long shortAt) {
+        final Mock result = mock(Ice.AsyncResult.class);
+        final Ice.AsyncResult asyncResult = (Ice.AsyncResult) result.proxy();
+        final LinkedList<long[]> pending = new LinkedList<long[]>();
+        final Mock store = mock(RawFileStorePrx.class);
+        store.stubs().method("begin_read").will(new Stub() {
+            public Object invoke(Invocation invocation) {
+                final long[] read = new long[] {
+                        (Long) invocation.parameterValues.get(0),
+                        (Integer) invocation.parameterValues.get(1)};
+                reads.add(read);
+                pending.add(read);
+                return asyncResult;
+            }
+
+            public StringBuffer describeTo(StringBuffer buffer) {
+                return buffer.append("records the read");
+            }
+        });
+        store.stubs().method("end_read").will(new Stub() {
+            public Object invoke(Invocation invocation) {
+                final long[] read = pending.poll();
+                final int offset = (int) read[0];
+                final int length = (int) read[1] - (offset == shortAt ? 1 : 0);
+                return Arrays.copyOfRange(REMOTE, offset, offset + length);
+            }
+
+            public StringBuffer describeTo(StringBuffer buffer) {
+                return buffer.append("returns the oldest read");
+            }
+        });
+        return (RawFileStorePrx) store.proxy();
+    }
+
+    private RawFileStorePrx store() {
+        return store(-1);
+    }
+
+    private long download(RawFileStorePrx store, boolean resume) throws Exception {
+        try (FileChannel channel = FileChannel.open(local.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            return client.download(store, FILE_ID, REMOTE.length, channel, BLOCK, resume);
+        }
+    }
+
+    private void writeLocal(byte[] content) throws IOException {
+        Files.write(local.toPath(), content);
+    }
+
+    private byte[] readLocal() throws IOException {
+        return Files.readAllBytes(local.toPath());
+    }
+
+    /**
+     * Without resuming, an existing local file is replaced.
+     */
+    public void testReplace() throws Exception {
+        writeLocal("existing content which is longer than the remote file".getBytes());
+        assertEquals(0, download(store(), false));
+        assertTrue(Arrays.equals(REMOTE, readLocal()));
+        assertEquals(0, reads.get(0)[0]);
+        assertEquals((REMOTE.length + BLOCK - 1) / BLOCK, reads.size());
+    }
+
+    /**
+     * Resuming reads only from the end of the local file.
+     */
+    public void testResume() throws Exception {
+        writeLocal(Arrays.copyOf(REMOTE, 10));
+        assertEquals(10, download(store(), true));
+        assertTrue(Arrays.equals(REMOTE, readLocal()));
+        long expected = 10;
+        for (final long[] read : reads) {
+            assertEquals(expected, read[0]);
+            expected += read[1];
+        }
+        assertEquals(REMOTE.length, expected);
+    }
+
+    /**
+     * A local file longer than the remote file is truncated and nothing is
+     * read.
+     */
+    public void testResumeBeyondEnd() throws Exception {
+        final byte[] longer = Arrays.copyOf(REMOTE, REMOTE.length + 7);
+        writeLocal(longer);
+        assertEquals(REMOTE.length, download(store(), true));
+        assertTrue(Arrays.equals(REMOTE, readLocal()));
+        assertTrue(reads.isEmpty());
+    }
+
+    /**
+     * A short read fails the download, leaving the blocks before it so that
+     * the download may be resumed.
+     */
+    public void testShortRead() throws Exception {
+        try {
+            download(store(3 * BLOCK), false);
+            fail("expected short read to fail");
+        } catch (ClientError ce) {
+            assertTrue(ce.getMessage(), ce.getMessage().contains("at " + 3 * BLOCK));
+        }
+        assertTrue(Arrays.equals(Arrays.copyOf(REMOTE, 3 * BLOCK), readLocal()));
+        reads.clear();
+        assertEquals(3 * BLOCK, download(store(), true));
+        assertTrue(Arrays.equals(REMOTE, readLocal()));
+        assertEquals(3 * BLOCK, reads.get(0)[0]);
+    }
+}
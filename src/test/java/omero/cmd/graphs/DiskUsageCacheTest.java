@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2026 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package omero.cmd.graphs;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Tests which disk usage requests are cached and the bulk lookup of file sizes.
+ * @since 5.8.6
+ */
+@Test
+public class DiskUsageCacheTest {
+
+    private final DiskUsageCache cache = new DiskUsageCache(10, 60000);
+
+    /**
+     * Test that requests for whole users or groups have a key that ignores the order of targets.
+     */
+    public void testCacheableKeys() {
+        final String key = cache.getKey(2, 7, null,
+                ImmutableMap.<String, List<Long>>of("ExperimenterGroup", ImmutableList.of(5L, 3L)));
+        Assert.assertNotNull(key);
+        Assert.assertEquals(cache.getKey(2, 7, null,
+                ImmutableMap.<String, List<Long>>of("omero.model.ExperimenterGroupI", ImmutableList.of(3L, 5L))), key);
+        Assert.assertNotEquals(cache.getKey(3, 7, null,
+                ImmutableMap.<String, List<Long>>of("ExperimenterGroup", ImmutableList.of(3L, 5L))), key);
+        Assert.assertNotNull(cache.getKey(2, 7, ImmutableList.of("Experimenter"), null));
+    }
+
+    /**
+     * Test that requests in different group contexts have different keys.
+     */
+    public void testGroupContextKeys() {
+        final String key = cache.getKey(2, 7, ImmutableList.of("Experimenter"), null);
+        Assert.assertNotEquals(cache.getKey(2, 8, ImmutableList.of("Experimenter"), null), key);
+        Assert.assertNotEquals(cache.getKey(2, -1, ImmutableList.of("Experimenter"), null), key);
+    }
+
+    /**
+     * Test that requests for containers, or for nothing, are not cached.
+     */
+    public void testUncacheableKeys() {
+        Assert.assertNull(cache.getKey(2, 7, null, null));
+        Assert.assertNull(cache.getKey(2, 7, ImmutableList.of("Project"), null));
+        Assert.assertNull(cache.getKey(2, 7, ImmutableList.of("Experimenter"),
+                ImmutableMap.<String, List<Long>>of("Dataset", ImmutableList.of(1L))));
+        Assert.assertNull(new DiskUsageCache(0, 60000).getKey(2, 7, ImmutableList.of("Experimenter"), null));
+    }
+
+    /**
+     * Test that file sizes are found in parallel and in order, with missing files reported as empty.
+     * @throws Exception unexpected
+     */
+    public void testFileSizes() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        final File directory = File.createTempFile("disk-usage", "");
+        Assert.assertTrue(directory.delete() && directory.mkdir());
+        try {
+            final List<String> paths = new ArrayList<String>();
+            for (int index = 0; index < 100; index++) {
+                final File file = new File(directory, Integer.toString(index));
+                if (index % 3 != 0) {
+                    try (final FileOutputStream out = new FileOutputStream(file)) {
+                        out.write(new byte[index]);
+                    }
+                }
+                paths.add(file.getPath());
+            }
+            paths.add(directory.getPath());
+            /* more paths than one worker claims at a time */
+            for (int repeat = 0; repeat < 2; repeat++) {
+                paths.addAll(new ArrayList<String>(paths));
+            }
+            final long[] expected = FileSizes.getFileSizes(null, paths);
+            for (int index = 0; index < expected.length; index++) {
+                final int name = index % 101;
+                Assert.assertEquals(expected[index], name == 100 || name % 3 == 0 ? 0 : name);
+            }
+            final long[] sizes = FileSizes.getFileSizes(executor, paths);
+            Assert.assertEquals(sizes, expected);
+        } finally {
+            executor.shutdownNow();
+            for (final File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+}
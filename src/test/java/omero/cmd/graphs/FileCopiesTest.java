@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2026 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package omero.cmd.graphs;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the copying of files for {@link DuplicateI} and their duplication in parallel.
+ * @since 5.8.6
+ */
+@Test
+public class FileCopiesTest {
+
+    private Path folder;
+
+    private ExecutorService executor;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("FileCopiesTest");
+        executor = Executors.newFixedThreadPool(8);
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        FileUtils.deleteDirectory(folder.toFile());
+    }
+
+    private Path file(String name, int size) throws IOException {
+        final byte[] content = new byte[size];
+        for (int index = 0; index < size; index++) {
+            content[index] = (byte) index;
+        }
+        return Files.write(folder.resolve(name), content);
+    }
+
+    /**
+     * A file is copied whole and noted as soon as the copy exists.
+     */
+    public void testCopy() throws IOException {
+        final Path from = file("from", 100000);
+        final Path to = folder.resolve("to");
+        final List<Path> created = new ArrayList<Path>();
+        Assert.assertEquals(FileCopies.copy(from, to, Files.size(from), created::add), 100000);
+        Assert.assertEquals(created, Collections.singletonList(to));
+        Assert.assertEquals(Files.readAllBytes(to), Files.readAllBytes(from));
+    }
+
+    /**
+     * A file which is shorter than when its size was read is copied up to its end rather than looping forever.
+     */
+    @Test(timeOut = 10000)
+    public void testFileShrinks() throws IOException {
+        final Path from = file("from", 1000);
+        final Path to = folder.resolve("to");
+        final List<Path> created = new ArrayList<Path>();
+        Assert.assertEquals(FileCopies.copy(from, to, 5000, created::add), 1000);
+        Assert.assertEquals(created, Collections.singletonList(to));
+        Assert.assertEquals(Files.readAllBytes(to), Files.readAllBytes(from));
+    }
+
+    /**
+     * An existing file is not overwritten.
+     */
+    @Test(expectedExceptions = IOException.class)
+    public void testCopyExisting() throws IOException {
+        final Path from = file("from", 10);
+        final Path to = file("to", 5);
+        FileCopies.copy(from, to, 10, new ArrayList<Path>()::add);
+    }
+
+    /**
+     * Files are duplicated on several threads, but only a few at once.
+     */
+    public void testDuplicateAllParallel() throws Exception {
+        final List<Integer> items = new ArrayList<Integer>();
+        for (int item = 0; item < 40; item++) {
+            items.add(item);
+        }
+        final Set<Integer> done = Collections.synchronizedSet(new HashSet<Integer>());
+        final Set<String> threads = Collections.synchronizedSet(new HashSet<String>());
+        final AtomicInteger running = new AtomicInteger(), mostRunning = new AtomicInteger();
+        final CountDownLatch overlap = new CountDownLatch(2);
+        FileCopies.duplicateAll(executor, items, new FileCopies.Duplication<Integer>() {
+            @Override
+            public void duplicate(Integer item) throws IOException {
+                final int now = running.incrementAndGet();
+                mostRunning.accumulateAndGet(now, Math::max);
+                threads.add(Thread.currentThread().getName());
+                overlap.countDown();
+                try {
+                    overlap.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ie) {
+                    throw new IOException(ie);
+                }
+                Assert.assertTrue(done.add(item));
+                running.decrementAndGet();
+            }
+        });
+        Assert.assertEquals(done.size(), items.size());
+        Assert.assertTrue(threads.size() > 1);
+        Assert.assertTrue(mostRunning.get() <= 4, "more than four duplications at once");
+        Assert.assertFalse(threads.contains(Thread.currentThread().getName()));
+    }
+
+    /**
+     * Without an executor the files are duplicated on the calling thread.
+     */
+    public void testDuplicateAllInThread() throws Exception {
+        final List<String> threads = new ArrayList<String>();
+        FileCopies.duplicateAll(null, Collections.nCopies(3, "file"), new FileCopies.Duplication<String>() {
+            @Override
+            public void duplicate(String item) {
+                threads.add(Thread.currentThread().getName());
+            }
+        });
+        Assert.assertEquals(threads, Collections.nCopies(3, Thread.currentThread().getName()));
+    }
+
+    /**
+     * After a duplication fails no more are started, and the failure is thrown only once the duplications
+     * already started have finished so that all the files created are known.
+     */
+    public void testDuplicateAllStopsOnFailure() throws Exception {
+        final List<Integer> items = new ArrayList<Integer>();
+        for (int item = 0; item < 1000; item++) {
+            items.add(item);
+        }
+        final AtomicInteger started = new AtomicInteger(), finished = new AtomicInteger();
+        try {
+            FileCopies.duplicateAll(executor, items, new FileCopies.Duplication<Integer>() {
+                @Override
+                public void duplicate(Integer item) throws IOException {
+                    started.incrementAndGet();
+                    if (item == 5) {
+                        throw new IOException("failed " + item);
+                    }
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException ie) {
+                        throw new IOException(ie);
+                    }
+                    finished.incrementAndGet();
+                }
+            });
+            Assert.fail("expected the failure to be thrown");
+        } catch (IOException ioe) {
+            Assert.assertEquals(ioe.getMessage(), "failed 5");
+        }
+        Assert.assertEquals(finished.get(), started.get() - 1);
+        Assert.assertTrue(started.get() < items.size());
+    }
+}
@@ -21,8 +21,11 @@ package omero.model.utests;
 import ome.model.units.BigResult;
 import ome.units.UNITS;
 import omero.model.LengthI;
+import omero.model.TemperatureI;
 import omero.model.enums.UnitsLength;
+import omero.model.enums.UnitsTemperature;
 
+import org.testng.Assert;
 import org.testng.annotations.Test;
 
 public class UnitsTest {
@@ -100,4 +103,48 @@ public class UnitsTest {
     public void testLengthMappingFromReferenceFrameToMicrometer() throws BigResult {
         new LengthI(mm(1, UnitsLength.REFERENCEFRAME), UnitsLength.MICROMETER);
     }
+
+    @Test
+    public void testLengthMappingFromCentimeterToDecimeterIsExact() throws BigResult {
+        Assert.assertEquals(new LengthI(mm(3, UnitsLength.CENTIMETER),
+                UnitsLength.DECIMETER).getValue(), 0.3);
+    }
+
+    @Test(expectedExceptions = BigResult.class)
+    public void testLengthMappingOverflow() throws BigResult {
+        new LengthI(mm(Double.MAX_VALUE, UnitsLength.METER), UnitsLength.NANOMETER);
+    }
+
+    @Test
+    public void testLengthMappingOfInfinity() throws BigResult {
+        Assert.assertEquals(new LengthI(mm(Double.POSITIVE_INFINITY),
+                UnitsLength.METER).getValue(), Double.POSITIVE_INFINITY);
+    }
+
+    @Test
+    public void testLengthArrayConversion() throws BigResult {
+        final double[] values = {0, 0.325, 1, 12.5, -7, Double.NaN};
+        final double[] converted = values.clone();
+        LengthI.convert(converted, UnitsLength.MICROMETER, UnitsLength.INCH);
+        for (int i = 0; i < values.length; i++) {
+            Assert.assertEquals(converted[i], new LengthI(mm(values[i],
+                    UnitsLength.MICROMETER), UnitsLength.INCH).getValue());
+        }
+    }
+
+    @Test
+    public void testTemperatureArrayConversion() throws BigResult {
+        final double[] values = {-40, 0, 37, 100};
+        TemperatureI.convert(values, UnitsTemperature.CELSIUS,
+                UnitsTemperature.FAHRENHEIT);
+        Assert.assertEquals(values[0], -40, 1e-12);
+        Assert.assertEquals(values[1], 32, 1e-12);
+        Assert.assertEquals(values[2], 98.6, 1e-12);
+        Assert.assertEquals(values[3], 212, 1e-12);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testLengthArrayConversionFromPixel() throws BigResult {
+        LengthI.convert(new double[] {1}, UnitsLength.PIXEL, UnitsLength.MICROMETER);
+    }
 }
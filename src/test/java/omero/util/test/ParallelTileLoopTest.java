@@ -0,0 +1,144 @@
+/*
+ *   Copyright 2026 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package omero.util.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import omero.util.ParallelTileLoop;
+import omero.util.TileData;
+import omero.util.TileLoop;
+import omero.util.TileLoopIteration;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that {@link ParallelTileLoop} visits the same tiles as the
+ * sequential {@link TileLoop}.
+ */
+@Test(groups = "unit", timeOut = 30000)
+public class ParallelTileLoopTest {
+
+    /** Tile data whose tiles hold their own coordinates. */
+    static class CoordinateData implements TileData {
+
+        public byte[] getTile(int z, int c, int t, int x, int y, int w, int h) {
+            return key(z, c, t, x, y, w, h).getBytes();
+        }
+
+        public void setTile(byte[] buffer, int z, int c, int t, int x, int y, int w, int h) {
+        }
+
+        public void close() {
+        }
+    }
+
+    static class CoordinateLoop extends TileLoop {
+
+        final AtomicInteger created = new AtomicInteger();
+
+        @Override
+        public TileData createData() {
+            created.incrementAndGet();
+            return new CoordinateData();
+        }
+    }
+
+    static String key(int z, int c, int t, int x, int y, int w, int h) {
+        return z + "/" + c + "/" + t + "/" + x + "," + y + "/" + w + "x" + h;
+    }
+
+    /** Records the tile read for each tile count. */
+    static class Recorder implements TileLoopIteration {
+
+        final Map<Integer, String> tiles = new ConcurrentHashMap<Integer, String>();
+
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+
+        public void run(TileData data, int z, int c, int t, int x, int y,
+                int tileWidth, int tileHeight, int tileCount) {
+            final String tile = new String(data.getTile(z, c, t, x, y, tileWidth, tileHeight));
+            Assert.assertEquals(tile, key(z, c, t, x, y, tileWidth, tileHeight));
+            tiles.put(tileCount, tile);
+            order.add(tileCount);
+        }
+    }
+
+    private Recorder sequential() {
+        final Recorder recorder = new Recorder();
+        new CoordinateLoop().forEachTile(1000, 700, 2, 3, 2, 256, 256, recorder);
+        return recorder;
+    }
+
+    @Test
+    public void testSameTilesAsSequential() {
+        final Recorder expected = sequential();
+        final CoordinateLoop loop = new CoordinateLoop();
+        final ParallelTileLoop parallel = new ParallelTileLoop(loop, 4);
+        final Recorder actual = new Recorder();
+        final int count = parallel.forEachTile(1000, 700, 2, 3, 2, 256, 256, actual);
+        Assert.assertEquals(count, expected.tiles.size());
+        Assert.assertEquals(actual.tiles, expected.tiles);
+        Assert.assertEquals(loop.created.get(), 4);
+        Assert.assertEquals(parallel.getTiles(), (long) count);
+        Assert.assertTrue(parallel.getBytes() > 0);
+    }
+
+    @Test
+    public void testOrderedWithPrefetch() {
+        final Recorder expected = sequential();
+        final ParallelTileLoop parallel = new ParallelTileLoop(new CoordinateLoop(), 3);
+        parallel.setPrefetch(4);
+        parallel.setOrdered(true);
+        final Recorder actual = new Recorder();
+        parallel.forEachTile(1000, 700, 2, 3, 2, 256, 256, actual);
+        Assert.assertEquals(actual.tiles, expected.tiles);
+        Assert.assertEquals(actual.order, expected.order);
+    }
+
+    @Test
+    public void testFailurePropagates() {
+        final ParallelTileLoop parallel = new ParallelTileLoop(new CoordinateLoop(), 3);
+        parallel.setOrdered(true);
+        try {
+            parallel.forEachTile(1000, 700, 2, 3, 2, 256, 256, new TileLoopIteration() {
+                public void run(TileData data, int z, int c, int t, int x, int y,
+                        int tileWidth, int tileHeight, int tileCount) {
+                    if (tileCount == 10) {
+                        throw new IllegalStateException("tile 10");
+                    }
+                }
+            });
+            Assert.fail("expected failure");
+        } catch (IllegalStateException ise) {
+            Assert.assertEquals(ise.getMessage(), "tile 10");
+        }
+    }
+
+    @Test
+    public void testDataClosedTogetherAfterWorkers() {
+        final Recorder recorder = new Recorder();
+        final List<Integer> closed = new ArrayList<Integer>();
+        final CoordinateLoop loop = new CoordinateLoop();
+        final ParallelTileLoop parallel = new ParallelTileLoop(loop, 4) {
+            @Override
+            protected void close(List<TileData> data) {
+                /* every tile was visited before any data is closed */
+                closed.add(recorder.tiles.size());
+                closed.add(data.size());
+                super.close(data);
+            }
+        };
+        final int count = parallel.forEachTile(1000, 700, 2, 3, 2, 256, 256, recorder);
+        Assert.assertEquals(closed, Arrays.asList(count, loop.created.get()));
+    }
+}
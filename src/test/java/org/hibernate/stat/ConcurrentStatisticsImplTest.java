@@ -0,0 +1,76 @@
+/*
+ *   Copyright 2026 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package org.hibernate.stat;
+
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the per-query statistics kept by {@link ConcurrentStatisticsImpl}.
+ */
+public class ConcurrentStatisticsImplTest {
+
+    @Test
+    public void testBucketBounds() {
+        for (long time = 0; time < 100000; time++) {
+            final int bucket = QueryLatency.bucket(time);
+            Assert.assertTrue(time <= QueryLatency.upperBound(bucket));
+            if (bucket > 0) {
+                Assert.assertTrue(time > QueryLatency.upperBound(bucket - 1));
+            }
+            Assert.assertTrue(QueryLatency.upperBound(bucket) <= time + time / 4);
+        }
+        final int last = QueryLatency.bucket(Long.MAX_VALUE);
+        Assert.assertEquals(QueryLatency.upperBound(last), Long.MAX_VALUE);
+    }
+
+    @Test
+    public void testPercentiles() {
+        final ConcurrentStatisticsImpl statistics = new ConcurrentStatisticsImpl();
+        for (int time = 1; time <= 100; time++) {
+            statistics.queryExecuted("select fast", 1, time);
+        }
+        final QueryLatency query = (QueryLatency) statistics.getQueryStatistics("select fast");
+        Assert.assertEquals(query.getExecutionCount(), 100);
+        Assert.assertEquals(query.getExecutionMaxTime(), 100);
+        final long median = query.getExecutionTimePercentile(0.5);
+        Assert.assertTrue(median >= 50 && median <= 50 + 50 / 4, Long.toString(median));
+        final long p99 = query.getExecutionTimePercentile(0.99);
+        Assert.assertTrue(p99 >= 99 && p99 <= 100, Long.toString(p99));
+    }
+
+    @Test
+    public void testSlowestQueries() {
+        final ConcurrentStatisticsImpl statistics = new ConcurrentStatisticsImpl();
+        for (int i = 0; i < 10; i++) {
+            statistics.queryExecuted("select fast", 1, 2);
+            statistics.queryExecuted("select slow", 1, 200);
+            statistics.queryExecuted("select medium", 1, 20);
+        }
+        final List<QueryLatency> slowest = statistics.getSlowestQueries(2);
+        Assert.assertEquals(slowest.size(), 2);
+        Assert.assertEquals(slowest.get(0).getQuery(), "select slow");
+        Assert.assertEquals(slowest.get(1).getQuery(), "select medium");
+        Assert.assertEquals(statistics.getQueryExecutionCount(), 30);
+        Assert.assertEquals(statistics.getQueryExecutionMaxTimeQueryString(), "select slow");
+        Assert.assertEquals(statistics.getQueries().length, 3);
+        statistics.clear();
+        Assert.assertEquals(statistics.getQueries().length, 0);
+        Assert.assertEquals(statistics.getQueryExecutionCount(), 0);
+    }
+
+    @Test
+    public void testQueriesBounded() {
+        final ConcurrentStatisticsImpl statistics = new ConcurrentStatisticsImpl();
+        for (int i = 0; i < 2 * ConcurrentStatisticsImpl.MAX_QUERIES; i++) {
+            statistics.queryExecuted("select " + i, 1, 1);
+        }
+        Assert.assertTrue(statistics.getQueries().length <= ConcurrentStatisticsImpl.MAX_QUERIES);
+        Assert.assertEquals(statistics.getQueryExecutionCount(), 2 * ConcurrentStatisticsImpl.MAX_QUERIES);
+    }
+}